@@ -0,0 +1,341 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.util.Log;
+
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+import com.google.android.exoplayer2.util.Assertions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link SessionLogger} that writes fixed-size binary records from a background thread.
+ * <p>
+ * Logging threads claim a slot in a bounded lock-free ring, write the record into a preallocated
+ * arena and publish it. They never block or allocate. If the ring is full the record is dropped
+ * and counted. The drain thread wakes every {@link #DEFAULT_FLUSH_INTERVAL_MS}, or earlier once the
+ * ring is half full, and writes every contiguous run of published records with a single {@code
+ * write}. Files are rotated once they exceed a maximum size and are named {@code
+ * <prefix>-<index>.bin}. {@link SessionLogConverter} turns them back into JSON lines.
+ * <p>
+ * Each file starts with {@link #MAGIC}, followed by {@link #RECORD_SIZE}-byte big-endian
+ * records laid out as described by the {@code OFFSET_*} constants.
+ */
+public final class BinarySessionLogger implements SessionLogger {
+
+    /** The magic number at the start of each file. */
+    public static final int MAGIC = 0x50464C31; // "PFL1"
+    /** The size of each record, in bytes. */
+    public static final int RECORD_SIZE = 144;
+
+    /** The default number of records the ring can hold. */
+    public static final int DEFAULT_CAPACITY_RECORDS = 8192;
+    /** The default interval at which the drain thread writes out pending records. */
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 5000;
+    /** The default size after which a new file is started. */
+    public static final long DEFAULT_MAX_FILE_BYTES = 8 * 1024 * 1024;
+
+    /* package */ static final byte KIND_SERVER_INIT = 1;
+    /* package */ static final byte KIND_ACK = 2;
+
+    /* package */ static final int OFFSET_TIME = 0;
+    /* package */ static final int OFFSET_KIND = 8;
+    /* package */ static final int OFFSET_FRAME_TYPE = 9;
+    /* package */ static final int OFFSET_CHANNEL_LENGTH = 10;
+    /* package */ static final int OFFSET_FORMAT_LENGTH = 11;
+    /* package */ static final int OFFSET_SSIM_LENGTH = 12;
+    /* package */ static final int OFFSET_INIT_ID = 16;
+    /* package */ static final int OFFSET_VIDEO_BUFFER = 24;
+    /* package */ static final int OFFSET_AUDIO_BUFFER = 32;
+    /* package */ static final int OFFSET_CUM_REBUFFER = 40;
+    /* package */ static final int OFFSET_VIDEO_TIMELINE = 48;
+    /* package */ static final int OFFSET_TIMESTAMP = 56;
+    /* package */ static final int OFFSET_BYTE_OFFSET = 64;
+    /* package */ static final int OFFSET_TOTAL_BYTE_LENGTH = 68;
+    /* package */ static final int OFFSET_BYTE_LENGTH = 72;
+    /* package */ static final int OFFSET_CHANNEL = 80;
+    /* package */ static final int OFFSET_FORMAT = 104;
+    /* package */ static final int OFFSET_SSIM = 128;
+    /* package */ static final int MAX_CHANNEL_LENGTH = 24;
+    /* package */ static final int MAX_FORMAT_LENGTH = 24;
+    /* package */ static final int MAX_SSIM_LENGTH = 16;
+
+    private static final String TAG = "BinarySessionLogger";
+    /** Set in {@link #writeIndex} once closed, so that no further slot can be claimed. */
+    private static final long CLOSED_FLAG = 1L << 62;
+    /** How long the drain thread waits for records claimed before close to be published. */
+    private static final long PUBLISH_WAIT_NS = 1000000;
+
+    private final File directory;
+    private final String prefix;
+    private final long maxFileBytes;
+    private final long flushIntervalNs;
+
+    private final int capacity;
+    private final int mask;
+    private final byte[] arena;
+    private final ByteBuffer arenaView;
+    /** Per-slot sequence numbers, as in a bounded multi-producer queue. */
+    private final AtomicLongArray sequences;
+    private final AtomicLong writeIndex;
+    private final AtomicLong droppedRecords;
+    private volatile long readIndex;
+    private volatile boolean closed;
+    private volatile boolean drainerParked;
+    private final Thread drainThread;
+
+    // Only accessed on the drain thread.
+    private FileOutputStream output;
+    private int fileIndex;
+    private long fileBytes;
+    private long writeCalls;
+    private boolean failed;
+
+    /**
+     * Creates a logger with the default capacity, flush interval and file size, and starts its
+     * drain thread.
+     *
+     * @param directory The directory the files are written to.
+     * @param prefix The file name prefix.
+     */
+    public BinarySessionLogger(File directory, String prefix) {
+        this(directory, prefix, DEFAULT_CAPACITY_RECORDS, DEFAULT_FLUSH_INTERVAL_MS,
+                DEFAULT_MAX_FILE_BYTES);
+    }
+
+    /**
+     * Creates a logger and starts its drain thread.
+     *
+     * @param directory The directory the files are written to.
+     * @param prefix The file name prefix.
+     * @param capacityRecords The number of records the ring can hold. Must be a power of two.
+     * @param flushIntervalMs The interval at which pending records are written out.
+     * @param maxFileBytes The size after which a new file is started.
+     */
+    public BinarySessionLogger(File directory, String prefix, int capacityRecords,
+                               long flushIntervalMs, long maxFileBytes) {
+        Assertions.checkArgument(
+                capacityRecords > 0 && (capacityRecords & (capacityRecords - 1)) == 0);
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileBytes = maxFileBytes;
+        this.flushIntervalNs = flushIntervalMs * 1000000;
+        this.capacity = capacityRecords;
+        this.mask = capacityRecords - 1;
+        this.arena = new byte[capacityRecords * RECORD_SIZE];
+        this.arenaView = ByteBuffer.wrap(arena);
+        this.sequences = new AtomicLongArray(capacityRecords);
+        for (int i = 0; i < capacityRecords; i++) {
+            sequences.set(i, i);
+        }
+        this.writeIndex = new AtomicLong();
+        this.droppedRecords = new AtomicLong();
+        this.drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, TAG);
+        drainThread.setPriority(Thread.MIN_PRIORITY);
+        drainThread.start();
+    }
+
+    @Override
+    public void logServerInit(long timeMs) {
+        int offset = claim();
+        if (offset < 0) {
+            return;
+        }
+        writeServerInit(offset, timeMs);
+        publish(offset);
+    }
+
+    @Override
+    public void logAck(long timeMs, long initId, long videoBufferMs, long audioBufferMs,
+                       long cumRebufferMs, long videoTimelineMs, PufferFrameHeader header) {
+        int offset = claim();
+        if (offset < 0) {
+            return;
+        }
+        int channelLength = Math.min(header.channelLength, MAX_CHANNEL_LENGTH);
+        int formatLength = Math.min(header.formatLength, MAX_FORMAT_LENGTH);
+        int ssimLength = Math.min(header.ssimTextLength, MAX_SSIM_LENGTH);
+        arenaView.putLong(offset + OFFSET_TIME, timeMs);
+        arenaView.put(offset + OFFSET_KIND, KIND_ACK);
+        arenaView.put(offset + OFFSET_FRAME_TYPE, (byte) header.type);
+        arenaView.put(offset + OFFSET_CHANNEL_LENGTH, (byte) channelLength);
+        arenaView.put(offset + OFFSET_FORMAT_LENGTH, (byte) formatLength);
+        arenaView.put(offset + OFFSET_SSIM_LENGTH, (byte) ssimLength);
+        arenaView.putLong(offset + OFFSET_INIT_ID, initId);
+        arenaView.putLong(offset + OFFSET_VIDEO_BUFFER, videoBufferMs);
+        arenaView.putLong(offset + OFFSET_AUDIO_BUFFER, audioBufferMs);
+        arenaView.putLong(offset + OFFSET_CUM_REBUFFER, cumRebufferMs);
+        arenaView.putLong(offset + OFFSET_VIDEO_TIMELINE, videoTimelineMs);
+        arenaView.putLong(offset + OFFSET_TIMESTAMP, header.timestamp);
+        arenaView.putInt(offset + OFFSET_BYTE_OFFSET, header.byteOffset);
+        arenaView.putInt(offset + OFFSET_TOTAL_BYTE_LENGTH, header.totalByteLength);
+        arenaView.putInt(offset + OFFSET_BYTE_LENGTH, header.payloadLength);
+        System.arraycopy(header.channel, 0, arena, offset + OFFSET_CHANNEL, channelLength);
+        System.arraycopy(header.format, 0, arena, offset + OFFSET_FORMAT, formatLength);
+        System.arraycopy(header.ssimText, 0, arena, offset + OFFSET_SSIM, ssimLength);
+        publish(offset);
+    }
+
+    /**
+     * Stops accepting records. The drain thread writes out what is pending, including records
+     * claimed before this call but not yet published, closes the file and exits. Does not block.
+     */
+    @Override
+    public void close() {
+        long index = writeIndex.get();
+        while ((index & CLOSED_FLAG) == 0) {
+            if (writeIndex.compareAndSet(index, index | CLOSED_FLAG)) {
+                closed = true;
+                LockSupport.unpark(drainThread);
+                return;
+            }
+            index = writeIndex.get();
+        }
+    }
+
+    /** Returns the number of records dropped because the ring was full. */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /** Waits until the drain thread has exited, which happens after {@link #close()}. */
+    /* package */ void awaitTermination() throws InterruptedException {
+        drainThread.join();
+    }
+
+    /**
+     * Claims the next slot and returns the offset of its record in the arena, or -1 if the record
+     * has to be dropped. The slot must then be published with {@link #publish(int)}.
+     */
+    /* package */ int claim() {
+        long index = writeIndex.get();
+        while (true) {
+            if ((index & CLOSED_FLAG) != 0) {
+                return -1;
+            }
+            long difference = sequences.get((int) (index & mask)) - index;
+            if (difference == 0) {
+                if (writeIndex.compareAndSet(index, index + 1)) {
+                    break;
+                }
+                index = writeIndex.get();
+            } else if (difference < 0) {
+                droppedRecords.incrementAndGet();
+                return -1;
+            } else {
+                index = writeIndex.get();
+            }
+        }
+        if (drainerParked && index - readIndex >= capacity / 2) {
+            LockSupport.unpark(drainThread);
+        }
+        return (int) (index & mask) * RECORD_SIZE;
+    }
+
+    /* package */ void writeServerInit(int offset, long timeMs) {
+        // Absolute puts do not touch the buffer's position, so the view can be shared by producers.
+        arenaView.putLong(offset + OFFSET_TIME, timeMs);
+        arenaView.put(offset + OFFSET_KIND, KIND_SERVER_INIT);
+    }
+
+    /* package */ void publish(int offset) {
+        int slot = offset / RECORD_SIZE;
+        // The sequence of a claimed slot equals its index, and index + 1 marks it as published.
+        sequences.set(slot, sequences.get(slot) + 1);
+    }
+
+    private void drainLoop() {
+        while (true) {
+            boolean closing = closed;
+            drain();
+            if (closing) {
+                break;
+            }
+            drainerParked = true;
+            LockSupport.parkNanos(this, flushIntervalNs);
+            drainerParked = false;
+        }
+        // No slot can be claimed once closed, but producers may still be writing records they
+        // claimed before. drain() stops at the first unpublished slot, so wait for those.
+        long claimedIndex = writeIndex.get() & ~CLOSED_FLAG;
+        while (readIndex < claimedIndex) {
+            LockSupport.parkNanos(this, PUBLISH_WAIT_NS);
+            drain();
+        }
+        closeOutput();
+        Log.i(TAG, "Jiayi: session log closed, " + writeCalls + " writes, "
+                + droppedRecords.get() + " dropped records");
+    }
+
+    private void drain() {
+        long index = readIndex;
+        while (true) {
+            // Collect the run of published records that does not wrap around the arena.
+            int firstSlot = (int) (index & mask);
+            int count = 0;
+            while (firstSlot + count < capacity
+                    && sequences.get(firstSlot + count) == index + count + 1) {
+                count++;
+            }
+            if (count == 0) {
+                return;
+            }
+            write(firstSlot * RECORD_SIZE, count * RECORD_SIZE);
+            for (int i = 0; i < count; i++) {
+                sequences.set(firstSlot + i, index + i + capacity);
+            }
+            index += count;
+            readIndex = index;
+        }
+    }
+
+    private void write(int offset, int length) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (output == null || (fileBytes + length > maxFileBytes && fileBytes > 4)) {
+                openNextFile();
+            }
+            output.write(arena, offset, length);
+            fileBytes += length;
+            writeCalls++;
+        } catch (IOException e) {
+            Log.e(TAG, "Jiayi: session log write failed", e);
+            failed = true;
+            closeOutput();
+        }
+    }
+
+    private void openNextFile() throws IOException {
+        closeOutput();
+        File file = new File(directory, prefix + "-" + fileIndex++ + ".bin");
+        output = new FileOutputStream(file);
+        byte[] magic = new byte[4];
+        ByteBuffer.wrap(magic).putInt(MAGIC);
+        output.write(magic);
+        fileBytes = magic.length;
+        writeCalls++;
+    }
+
+    private void closeOutput() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Jiayi: session log close failed", e);
+            }
+            output = null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import okio.ByteString;
+
+/**
+ * A {@link DataSource} that reads the payloads of the WebSocket frames making up one chunk, in the
+ * order they were added. Payloads are read through read-only views onto the received frames, so
+ * the chunk is never assembled into a separate array.
+ */
+/* package */ final class FragmentDataSource implements DataSource {
+
+    private final Uri uri;
+    private final ArrayList<ByteBuffer> fragments;
+    private long length;
+    private int readIndex;
+
+    /** @param uri The URI reported by {@link #getUri()}. */
+    public FragmentDataSource(Uri uri) {
+        this.uri = uri;
+        this.fragments = new ArrayList<>();
+    }
+
+    /** Appends the region {@code [offset, offset + length)} of {@code frame}. */
+    public void append(ByteString frame, int offset, int length) {
+        ByteBuffer view = frame.asByteBuffer();
+        view.position(offset);
+        view.limit(offset + length);
+        fragments.add(view);
+        this.length += length;
+    }
+
+    /**
+     * Returns views onto the appended payloads, in order, for reading them without this source.
+     * Reading through the source moves the positions of the views.
+     */
+    public List<ByteBuffer> getFragments() {
+        return Collections.unmodifiableList(fragments);
+    }
+
+    /** Returns the total length of the appended payloads. */
+    public long getLength() {
+        return length;
+    }
+
+    /** Drops all appended payloads. */
+    public void clear() {
+        fragments.clear();
+        length = 0;
+        readIndex = 0;
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+        // Do nothing. The bytes have already been transferred.
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) {
+        readIndex = 0;
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) {
+        if (readLength == 0) {
+            return 0;
+        }
+        while (readIndex < fragments.size() && !fragments.get(readIndex).hasRemaining()) {
+            readIndex++;
+        }
+        if (readIndex == fragments.size()) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        ByteBuffer fragment = fragments.get(readIndex);
+        int bytesRead = Math.min(readLength, fragment.remaining());
+        fragment.get(buffer, offset, bytesRead);
+        return bytesRead;
+    }
+
+    @Override
+    public @Nullable
+    Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    public void close() {
+        // Do nothing.
+    }
+}
@@ -0,0 +1,255 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Assertions;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import okio.ByteString;
+
+/**
+ * A bounded, lock-free single-producer/single-consumer queue of WebSocket frame payloads.
+ * <p>
+ * The producer (the OkHttp WebSocket reader thread) publishes a read-only view onto the payload
+ * region of each received {@link ByteString}, and the consumer (the loader thread reading from
+ * {@link WebSocketDataSource}) copies straight from that view into the extractor's buffer. The only
+ * copy of media bytes is therefore the one into the caller's buffer, and slots are preallocated
+ * and reused, so no array is allocated per frame.
+ * <p>
+ * The queue is bounded both in the number of frames and in the number of buffered payload bytes.
+ * The producer blocks when either bound is reached, and the consumer blocks while the queue is
+ * empty. Blocked threads are parked and woken by the other side only when they are waiting. The
+ * time the producer spends blocked and the largest number of buffered bytes are recorded, since a
+ * blocked producer delays the acks of the received frames.
+ */
+/* package */ final class FrameRingBuffer {
+
+    /** The default maximum number of frames held by the buffer. Must be a power of two. */
+    public static final int DEFAULT_CAPACITY_FRAMES = 4096;
+    /**
+     * The default maximum number of payload bytes held by the buffer, the size {@link
+     * com.google.android.exoplayer2.DefaultLoadControl} targets for a video buffer.
+     */
+    public static final long DEFAULT_CAPACITY_BYTES = C.DEFAULT_VIDEO_BUFFER_SIZE;
+
+    private final ByteBuffer[] slots;
+    private final int mask;
+    private final long capacityBytes;
+
+    /** Index of the next slot to be read. Only written by the consumer. */
+    private final AtomicLong readIndex;
+    /** Index of the next slot to be written. Only written by the producer. */
+    private final AtomicLong writeIndex;
+    private final AtomicLong bufferedBytes;
+
+    private volatile boolean closed;
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    private long totalBytesWritten;
+    private long totalFramesWritten;
+    private volatile long highWaterBytes;
+    private volatile long producerBlockedTimeMs;
+
+    /** Creates a buffer with {@link #DEFAULT_CAPACITY_FRAMES} and {@link #DEFAULT_CAPACITY_BYTES}. */
+    public FrameRingBuffer() {
+        this(DEFAULT_CAPACITY_FRAMES, DEFAULT_CAPACITY_BYTES);
+    }
+
+    /**
+     * @param capacityFrames The maximum number of frames held by the buffer. Must be a power of two.
+     * @param capacityBytes The maximum number of payload bytes held by the buffer. A single frame
+     *     larger than this is still accepted when the buffer is empty.
+     */
+    public FrameRingBuffer(int capacityFrames, long capacityBytes) {
+        Assertions.checkArgument(capacityFrames > 0 && (capacityFrames & (capacityFrames - 1)) == 0);
+        Assertions.checkArgument(capacityBytes > 0);
+        this.slots = new ByteBuffer[capacityFrames];
+        this.mask = capacityFrames - 1;
+        this.capacityBytes = capacityBytes;
+        this.readIndex = new AtomicLong();
+        this.writeIndex = new AtomicLong();
+        this.bufferedBytes = new AtomicLong();
+    }
+
+    /**
+     * Appends the region {@code [offset, offset + length)} of {@code frame}, blocking while the
+     * buffer is full. Must only be called from the producer thread.
+     *
+     * @param frame The received frame.
+     * @param offset The offset of the payload within {@code frame}.
+     * @param length The length of the payload.
+     * @return Whether the payload was appended. False if the buffer was closed.
+     * @throws InterruptedException If the producer thread is interrupted while waiting.
+     */
+    public boolean write(ByteString frame, int offset, int length) throws InterruptedException {
+        if (length == 0) {
+            return !closed;
+        }
+        long index = writeIndex.get();
+        if (!hasRoomFor(index, length)) {
+            long blockStartMs = SystemClock.elapsedRealtime();
+            try {
+                while (!hasRoomFor(index, length)) {
+                    if (closed) {
+                        return false;
+                    }
+                    waitingProducer = Thread.currentThread();
+                    if (hasRoomFor(index, length) || closed) {
+                        waitingProducer = null;
+                        continue;
+                    }
+                    LockSupport.park(this);
+                    waitingProducer = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                producerBlockedTimeMs += SystemClock.elapsedRealtime() - blockStartMs;
+            }
+        }
+        if (closed) {
+            return false;
+        }
+        ByteBuffer view = frame.asByteBuffer();
+        view.position(offset);
+        view.limit(offset + length);
+        slots[(int) (index & mask)] = view;
+        long buffered = bufferedBytes.addAndGet(length);
+        if (buffered > highWaterBytes) {
+            highWaterBytes = buffered;
+        }
+        // A full barrier, so that a consumer about to park either sees this frame or is unparked.
+        writeIndex.set(index + 1);
+        totalBytesWritten += length;
+        totalFramesWritten++;
+        unpark(waitingConsumer);
+        return true;
+    }
+
+    /**
+     * Reads up to {@code length} bytes into {@code target}, blocking until at least one byte is
+     * available or the buffer is closed. Must only be called from the consumer thread.
+     *
+     * @param target The buffer into which the read data should be stored.
+     * @param offset The start offset into {@code target}.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT} if the buffer has been
+     *     closed and fully drained.
+     * @throws InterruptedIOException If the consumer thread is interrupted while waiting.
+     */
+    public int read(byte[] target, int offset, int length) throws InterruptedIOException {
+        if (length == 0) {
+            return 0;
+        }
+        long index = readIndex.get();
+        while (index == writeIndex.get()) {
+            if (closed) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            waitingConsumer = Thread.currentThread();
+            if (index != writeIndex.get() || closed) {
+                waitingConsumer = null;
+                continue;
+            }
+            LockSupport.park(this);
+            waitingConsumer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        int bytesRead = 0;
+        while (bytesRead < length && index != writeIndex.get()) {
+            int slotIndex = (int) (index & mask);
+            ByteBuffer view = slots[slotIndex];
+            int readLength = Math.min(length - bytesRead, view.remaining());
+            view.get(target, offset + bytesRead, readLength);
+            bytesRead += readLength;
+            if (!view.hasRemaining()) {
+                slots[slotIndex] = null;
+                index++;
+                readIndex.lazySet(index);
+            }
+        }
+        bufferedBytes.addAndGet(-bytesRead);
+        unpark(waitingProducer);
+        return bytesRead;
+    }
+
+    /**
+     * Closes the buffer. Pending data can still be read, after which {@link #read} returns {@link
+     * C#RESULT_END_OF_INPUT}. Blocked producer and consumer threads are woken. May be called from
+     * any thread.
+     */
+    public void close() {
+        closed = true;
+        unpark(waitingConsumer);
+        unpark(waitingProducer);
+    }
+
+    /**
+     * Discards all buffered data and reopens the buffer. Must only be called while neither the
+     * producer nor the consumer is using the buffer.
+     */
+    public void reset() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+        readIndex.set(0);
+        writeIndex.set(0);
+        bufferedBytes.set(0);
+        totalBytesWritten = 0;
+        totalFramesWritten = 0;
+        highWaterBytes = 0;
+        producerBlockedTimeMs = 0;
+        closed = false;
+    }
+
+    /** Returns the number of payload bytes currently buffered. */
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /** Returns the number of payload bytes written since the last {@link #reset()}. */
+    public long getTotalBytesWritten() {
+        return totalBytesWritten;
+    }
+
+    /** Returns the number of frames written since the last {@link #reset()}. */
+    public long getTotalFramesWritten() {
+        return totalFramesWritten;
+    }
+
+    /** Returns the largest number of payload bytes buffered since the last {@link #reset()}. */
+    public long getHighWaterBytes() {
+        return highWaterBytes;
+    }
+
+    /**
+     * Returns the time the producer has spent waiting for room since the last {@link #reset()}, in
+     * milliseconds.
+     */
+    public long getProducerBlockedTimeMs() {
+        return producerBlockedTimeMs;
+    }
+
+    private boolean hasRoomFor(long index, int length) {
+        if (index - readIndex.get() >= slots.length) {
+            return false;
+        }
+        long buffered = bufferedBytes.get();
+        return buffered == 0 || buffered + length <= capacityBytes;
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+/**
+ * A histogram of latencies in milliseconds with power-of-two buckets. Bucket {@code i > 0} counts
+ * latencies in {@code [2^(i-1), 2^i)} ms, bucket 0 counts latencies below 1 ms, and the last bucket
+ * counts everything from {@code 2^(BUCKET_COUNT-2)} ms. Thread-safe.
+ */
+public final class LatencyHistogram {
+
+    /** The number of buckets. The last one is open-ended at about 65 s. */
+    public static final int BUCKET_COUNT = 18;
+
+    private final String name;
+    private final long[] counts;
+    private long count;
+    private long sumMs;
+    private long maxMs;
+
+    /** @param name The name printed by {@link #toString()}. */
+    public LatencyHistogram(String name) {
+        this.name = name;
+        this.counts = new long[BUCKET_COUNT];
+    }
+
+    /** Adds a latency. Negative values are counted as 0. */
+    public synchronized void add(long latencyMs) {
+        latencyMs = Math.max(latencyMs, 0);
+        int bucket = 64 - Long.numberOfLeadingZeros(latencyMs);
+        counts[Math.min(bucket, BUCKET_COUNT - 1)]++;
+        count++;
+        sumMs += latencyMs;
+        maxMs = Math.max(maxMs, latencyMs);
+    }
+
+    /** Returns the number of latencies added. */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** Returns the count of bucket {@code index}. */
+    public synchronized long getBucketCount(int index) {
+        return counts[index];
+    }
+
+    /** Returns the mean latency, or 0 if none has been added. */
+    public synchronized long getMeanMs() {
+        return count == 0 ? 0 : sumMs / count;
+    }
+
+    /** Returns the largest latency added, or 0 if none has been added. */
+    public synchronized long getMaxMs() {
+        return maxMs;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile: the exclusive upper bound of the bucket that
+     * contains it, or {@link #getMaxMs()} if it is in the last bucket. Returns 0 if no latency has
+     * been added.
+     *
+     * @param percentile The percentile, in {@code (0, 100]}.
+     */
+    public synchronized long getPercentileMs(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, maxMs);
+            }
+        }
+        return maxMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder(name).append(": n=").append(count)
+                .append(" mean=").append(getMeanMs()).append(" p50<=").append(getPercentileMs(50))
+                .append(" p95<=").append(getPercentileMs(95)).append(" max=").append(maxMs)
+                .append(" [");
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] != 0) {
+                builder.append(' ').append(i == 0 ? 0 : 1L << (i - 1)).append("ms:").append(counts[i]);
+            }
+        }
+        return builder.append(" ]").toString();
+    }
+}
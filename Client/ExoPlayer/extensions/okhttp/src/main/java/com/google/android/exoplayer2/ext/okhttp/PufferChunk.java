@@ -0,0 +1,42 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import com.google.android.exoplayer2.C;
+
+/**
+ * A media chunk received from a Puffer server. {@link PufferMediaPeriod} reports one as the {@code
+ * trackSelectionData} of the {@code onLoadCompleted} event of every chunk it has parsed.
+ */
+public final class PufferChunk {
+
+    /** The track type, {@link C#TRACK_TYPE_VIDEO} or {@link C#TRACK_TYPE_AUDIO}. */
+    public final int trackType;
+    /** The Puffer format of the chunk, e.g. {@code 1280x720-24}. */
+    public final String format;
+    /** The server's timestamp of the chunk, in the channel's timescale. */
+    public final long timestamp;
+    /** The start time of the chunk on the playback timeline, in microseconds. */
+    public final long startTimeUs;
+    /** The end time of the chunk on the playback timeline, in microseconds. */
+    public final long endTimeUs;
+    /** The size of the chunk, including any initialization segment, in bytes. */
+    public final long bytes;
+    /** The SSIM of a video chunk, or 0. */
+    public final double ssim;
+
+    public PufferChunk(int trackType, String format, long timestamp, long startTimeUs,
+                       long endTimeUs, long bytes, double ssim) {
+        this.trackType = trackType;
+        this.format = format;
+        this.timestamp = timestamp;
+        this.startTimeUs = startTimeUs;
+        this.endTimeUs = endTimeUs;
+        this.bytes = bytes;
+        this.ssim = ssim;
+    }
+
+    @Override
+    public String toString() {
+        return "PufferChunk(" + trackType + ", " + format + ", " + timestamp + ", [" + startTimeUs
+                + ", " + endTimeUs + "], " + bytes + ", " + ssim + ")";
+    }
+}
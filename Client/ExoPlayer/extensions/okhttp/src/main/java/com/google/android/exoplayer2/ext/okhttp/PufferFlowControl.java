@@ -0,0 +1,160 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.util.Assertions;
+
+/**
+ * Credit-based flow control between the WebSocket reader thread, which receives chunks, and the
+ * player, which takes them when its {@link com.google.android.exoplayer2.LoadControl} asks for
+ * more media.
+ * <p>
+ * A chunk is in flight from the moment its last frame has been received until the player takes it.
+ * Credit for a received chunk is acquired without blocking, since the chunk is already in memory
+ * and may be delivered on the playback thread, which is the thread that takes chunks. The reader
+ * then waits in {@link #awaitCapacity()}, outside of any lock, only while the chunks in flight
+ * exceed the byte or duration budget, so that acks keep flowing to the server while the player is
+ * busy. The time spent blocked and the high-water marks of the in-flight media are recorded, so
+ * that a budget that is too small shows up in the metrics rather than as a quality downgrade.
+ * <p>
+ * Only video counts towards the duration budget, since the server paces its sends by the video
+ * buffer and audio chunks cover the same media time.
+ */
+public final class PufferFlowControl {
+
+    /**
+     * The smallest duration budget created by {@link #fromLoadControl}, in microseconds. The Puffer
+     * server keeps sending video while the client reports up to 7 s of buffer, so one more 2.002 s
+     * chunk can arrive on top of that. A smaller budget would block the reader during normal
+     * operation whenever the player buffers less than the server.
+     */
+    public static final long MIN_DURATION_BUDGET_US = 9002000;
+
+    private final long maxBytes;
+    private final long maxDurationUs;
+
+    // Guarded by this.
+    private long inFlightBytes;
+    private long inFlightDurationUs;
+    private long highWaterBytes;
+    private long highWaterDurationUs;
+    private long blockedTimeMs;
+    private int blockedCount;
+    private boolean closed;
+
+    /**
+     * @param maxBytes      The maximum number of bytes in flight.
+     * @param maxDurationUs The maximum duration of video in flight, in microseconds.
+     */
+    public PufferFlowControl(long maxBytes, long maxDurationUs) {
+        Assertions.checkArgument(maxBytes > 0 && maxDurationUs > 0);
+        this.maxBytes = maxBytes;
+        this.maxDurationUs = maxDurationUs;
+    }
+
+    /**
+     * Creates a flow control whose budget matches the buffer targets of {@code loadControl}. The
+     * byte budget is its target buffer size, or the default size of an audio and a video buffer if
+     * the target is calculated from the selected tracks. The duration budget is its maximum buffer
+     * duration, but at least {@link #MIN_DURATION_BUDGET_US}.
+     */
+    public static PufferFlowControl fromLoadControl(DefaultLoadControl loadControl) {
+        int targetBufferBytes = loadControl.getTargetBufferBytes();
+        long maxBytes = targetBufferBytes != C.LENGTH_UNSET ? targetBufferBytes
+                : C.DEFAULT_VIDEO_BUFFER_SIZE + C.DEFAULT_AUDIO_BUFFER_SIZE;
+        long maxDurationUs = Math.max(loadControl.getMaxBufferUs(), MIN_DURATION_BUDGET_US);
+        return new PufferFlowControl(maxBytes, maxDurationUs);
+    }
+
+    /**
+     * Acquires credit for a received chunk. Never blocks, so the chunks in flight may exceed the
+     * budget until the reader calls {@link #awaitCapacity()}.
+     *
+     * @param bytes      The size of the chunk.
+     * @param durationUs The duration of the chunk counted against the duration budget.
+     */
+    public synchronized void acquire(long bytes, long durationUs) {
+        inFlightBytes += bytes;
+        inFlightDurationUs += durationUs;
+        highWaterBytes = Math.max(highWaterBytes, inFlightBytes);
+        highWaterDurationUs = Math.max(highWaterDurationUs, inFlightDurationUs);
+    }
+
+    /**
+     * Blocks while the chunks in flight exceed the byte or duration budget, until the player takes
+     * enough of them or {@link #close()} is called. Must not be called while holding a lock that
+     * the player needs to take a chunk.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized void awaitCapacity() throws InterruptedException {
+        if (hasCapacity()) {
+            return;
+        }
+        long blockStartMs = SystemClock.elapsedRealtime();
+        blockedCount++;
+        try {
+            while (!hasCapacity()) {
+                wait();
+            }
+        } finally {
+            blockedTimeMs += SystemClock.elapsedRealtime() - blockStartMs;
+        }
+    }
+
+    /** Returns the credit of a chunk that the player has taken. */
+    public synchronized void release(long bytes, long durationUs) {
+        inFlightBytes -= bytes;
+        inFlightDurationUs -= durationUs;
+        notifyAll();
+    }
+
+    /** Stops blocking. Called when the chunks in flight will never be taken. */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /** Returns the number of bytes in flight. */
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    /** Returns the duration of the video in flight, in microseconds. */
+    public synchronized long getInFlightDurationUs() {
+        return inFlightDurationUs;
+    }
+
+    /** Returns the largest number of bytes that have been in flight at once. */
+    public synchronized long getHighWaterBytes() {
+        return highWaterBytes;
+    }
+
+    /** Returns the largest duration of video that has been in flight at once, in microseconds. */
+    public synchronized long getHighWaterDurationUs() {
+        return highWaterDurationUs;
+    }
+
+    /** Returns the total time the reader has been blocked, in milliseconds. */
+    public synchronized long getBlockedTimeMs() {
+        return blockedTimeMs;
+    }
+
+    /** Returns the number of times the reader has been blocked. */
+    public synchronized int getBlockedCount() {
+        return blockedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PufferFlowControl(budget " + maxBytes + " B / " + maxDurationUs / 1000 + " ms"
+                + ", high water " + highWaterBytes + " B / " + highWaterDurationUs / 1000 + " ms"
+                + ", blocked " + blockedCount + "x / " + blockedTimeMs + " ms)";
+    }
+
+    private boolean hasCapacity() {
+        return closed || (inFlightBytes <= maxBytes && inFlightDurationUs <= maxDurationUs);
+    }
+}
@@ -0,0 +1,813 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SeekParameters;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+import com.google.android.exoplayer2.extractor.ByteBufferExtractorInput;
+import com.google.android.exoplayer2.extractor.DummyTrackOutput;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+import com.google.android.exoplayer2.extractor.mp4.FragmentedMp4Extractor;
+import com.google.android.exoplayer2.source.MediaPeriod;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.EventDispatcher;
+import com.google.android.exoplayer2.source.SampleQueue;
+import com.google.android.exoplayer2.source.SampleStream;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityStore;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.Loader;
+import com.google.android.exoplayer2.upstream.Loader.LoadErrorAction;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import okio.ByteString;
+
+/**
+ * A {@link MediaPeriod} that plays the media of a {@link PufferSession}.
+ * <p>
+ * The Puffer server sends each chunk as fragmented MP4, preceded by an initialization segment
+ * whenever its format differs from the previous chunk of the same type. The frames of a chunk are
+ * collected without copying, and once the last one has arrived the chunk can be extracted straight
+ * into the {@link SampleQueue} of its track. A new extractor is created for every initialization
+ * segment, so format switches reach the renderers as format changes.
+ * <p>
+ * Received chunks are held until the player asks for more media through {@link
+ * #continueLoading(long)}, and then extracted one at a time in the order they arrived by a {@link
+ * Loader}, so that neither the playback thread nor the reader thread parses media. The lock is
+ * only held to hand a chunk from the reader to the loader. A {@link PufferFlowControl} budgets the
+ * chunks in flight, so the reader thread keeps acking while the player's buffer is full and only
+ * blocks in {@link #awaitCapacity()} once the budget is exceeded.
+ * <p>
+ * The period is prepared once the first video chunk and every chunk received before it have been
+ * extracted. Audio is exposed if an audio chunk had arrived by then. Every extracted chunk is
+ * reported through {@link EventDispatcher#loadCompleted} with a {@link PufferChunk} as its {@code
+ * trackSelectionData}, and with the time from its first fragment to its last as its load duration,
+ * so that the time it was held does not count as transmission time.
+ * Sample timestamps are shifted so that the first sample received plays at position zero.
+ */
+/* package */ final class PufferMediaPeriod implements MediaPeriod, PufferSession.Listener,
+        Loader.Callback<PufferMediaPeriod.ChunkLoadable>, Loader.ReleaseCallback {
+
+    private static final String TAG = "PufferMediaPeriod";
+
+    private static final int VIDEO_INDEX = 0;
+    private static final int AUDIO_INDEX = 1;
+
+    private final Uri uri;
+    private final DataSpec dataSpec;
+    private final Allocator allocator;
+    private final EventDispatcher eventDispatcher;
+    private final PufferSessionManager sessionManager;
+    private final PufferSession session;
+    private final Player player;
+    private final Loader loader;
+    private final Handler handler;
+    private final Runnable onChunkReceivedRunnable;
+    private final PufferFlowControl flowControl;
+    private final @Nullable
+    ChunkQualityStore chunkQualityStore;
+    private final Object lock;
+
+    // Guarded by lock. Entries are created on the network thread until the tracks are fixed.
+    private final TrackState[] trackStates;
+    private final ArrayDeque<PendingChunk> pendingChunks;
+    private boolean tracksFixed;
+    private boolean loadRequested;
+
+    // Only accessed on the loading thread.
+    private long timeOffsetUs;
+
+    private volatile boolean released;
+    private volatile @Nullable
+    IOException fatalError;
+
+    // Only accessed on the playback thread.
+    private @Nullable
+    Callback callback;
+    private boolean prepared;
+    private TrackGroupArray trackGroups;
+    private TrackState[] exposedTracks;
+    private boolean[] trackEnabledStates;
+    private int enabledTrackCount;
+    private long lastSeekPositionUs;
+    private boolean notifiedReadingStarted;
+
+    /**
+     * @param sessionManager    The {@link PufferSessionManager} the session is acquired from.
+     * @param player            The player whose playback is reported to the server.
+     * @param flowControl       The {@link PufferFlowControl} that budgets the chunks in flight.
+     * @param allocator         The {@link Allocator} of the sample queues.
+     * @param eventDispatcher   Dispatches the media source events.
+     * @param chunkQualityStore A store for the SSIM and size of the video chunks, or null.
+     */
+    public PufferMediaPeriod(PufferSessionManager sessionManager, Player player,
+                             PufferFlowControl flowControl, Allocator allocator,
+                             EventDispatcher eventDispatcher,
+                             @Nullable ChunkQualityStore chunkQualityStore) {
+        this.uri = sessionManager.getUri();
+        this.dataSpec = new DataSpec(uri);
+        this.allocator = allocator;
+        this.eventDispatcher = eventDispatcher;
+        this.sessionManager = sessionManager;
+        this.session = sessionManager.acquireSession();
+        this.player = player;
+        this.loader = new Loader("Loader:PufferMediaPeriod");
+        this.handler = new Handler();
+        this.onChunkReceivedRunnable = new Runnable() {
+            @Override
+            public void run() {
+                onChunkReceived();
+            }
+        };
+        this.flowControl = flowControl;
+        this.chunkQualityStore = chunkQualityStore;
+        this.lock = new Object();
+        this.trackStates = new TrackState[2];
+        this.pendingChunks = new ArrayDeque<>();
+        this.timeOffsetUs = C.TIME_UNSET;
+        this.trackGroups = TrackGroupArray.EMPTY;
+        this.exposedTracks = new TrackState[0];
+        this.trackEnabledStates = new boolean[0];
+        eventDispatcher.mediaPeriodCreated();
+    }
+
+    /** Returns the session that feeds this period. */
+    public PufferSession getSession() {
+        return session;
+    }
+
+    /** Returns the flow control of the chunks in flight. */
+    public PufferFlowControl getFlowControl() {
+        return flowControl;
+    }
+
+    /**
+     * Returns the session to the session manager and releases the loader. The sample queues are
+     * released once the chunk being extracted, if any, has been abandoned. Called on the playback
+     * thread.
+     */
+    public void release() {
+        synchronized (lock) {
+            released = true;
+            pendingChunks.clear();
+        }
+        flowControl.close();
+        Log.i(TAG, "Jiayi: released, " + flowControl);
+        sessionManager.releaseSession(session);
+        loader.release(/* callback= */ this);
+        handler.removeCallbacksAndMessages(null);
+        callback = null;
+        eventDispatcher.mediaPeriodReleased();
+    }
+
+    @Override
+    public void onLoaderReleased() {
+        synchronized (lock) {
+            for (TrackState trackState : trackStates) {
+                if (trackState != null) {
+                    trackState.sampleQueue.reset();
+                }
+            }
+        }
+    }
+
+    // MediaPeriod implementation.
+
+    @Override
+    public void prepare(Callback callback, long positionUs) {
+        this.callback = callback;
+        lastSeekPositionUs = positionUs;
+        // A warm session delivers the media it has already received from here.
+        session.attach(player, this);
+    }
+
+    @Override
+    public void maybeThrowPrepareError() throws IOException {
+        IOException error = fatalError;
+        if (error != null && !prepared) {
+            throw error;
+        }
+    }
+
+    @Override
+    public TrackGroupArray getTrackGroups() {
+        return trackGroups;
+    }
+
+    @Override
+    public long selectTracks(TrackSelection[] selections, boolean[] mayRetainStreamFlags,
+                             SampleStream[] streams, boolean[] streamResetFlags, long positionUs) {
+        Assertions.checkState(prepared);
+        // Deselect old tracks.
+        for (int i = 0; i < selections.length; i++) {
+            if (streams[i] != null && (selections[i] == null || !mayRetainStreamFlags[i])) {
+                int track = ((SampleStreamImpl) streams[i]).track;
+                Assertions.checkState(trackEnabledStates[track]);
+                enabledTrackCount--;
+                trackEnabledStates[track] = false;
+                streams[i] = null;
+            }
+        }
+        // Select new tracks.
+        for (int i = 0; i < selections.length; i++) {
+            if (streams[i] == null && selections[i] != null) {
+                TrackSelection selection = selections[i];
+                Assertions.checkState(selection.length() == 1);
+                Assertions.checkState(selection.getIndexInTrackGroup(0) == 0);
+                int track = trackGroups.indexOf(selection.getTrackGroup());
+                Assertions.checkState(!trackEnabledStates[track]);
+                enabledTrackCount++;
+                trackEnabledStates[track] = true;
+                streams[i] = new SampleStreamImpl(track);
+                streamResetFlags[i] = true;
+            }
+        }
+        // The stream cannot be reloaded, so all that a seek can do is move within the queues.
+        return seekToUs(positionUs);
+    }
+
+    @Override
+    public void discardBuffer(long positionUs, boolean toKeyframe) {
+        for (int i = 0; i < exposedTracks.length; i++) {
+            exposedTracks[i].sampleQueue.discardTo(positionUs, toKeyframe, trackEnabledStates[i]);
+        }
+    }
+
+    @Override
+    public void reevaluateBuffer(long positionUs) {
+        // Do nothing.
+    }
+
+    @Override
+    public boolean continueLoading(long positionUs) {
+        return !loader.isLoading() && startNextLoad();
+    }
+
+    @Override
+    public long getNextLoadPositionUs() {
+        return enabledTrackCount == 0 ? C.TIME_END_OF_SOURCE : getBufferedPositionUs();
+    }
+
+    @Override
+    public long readDiscontinuity() {
+        if (!notifiedReadingStarted) {
+            eventDispatcher.readingStarted();
+            notifiedReadingStarted = true;
+        }
+        return C.TIME_UNSET;
+    }
+
+    @Override
+    public long getBufferedPositionUs() {
+        long largestQueuedTimestampUs = Long.MAX_VALUE;
+        for (TrackState trackState : exposedTracks) {
+            largestQueuedTimestampUs = Math.min(largestQueuedTimestampUs,
+                    trackState.sampleQueue.getLargestQueuedTimestampUs());
+        }
+        return largestQueuedTimestampUs == Long.MAX_VALUE
+                || largestQueuedTimestampUs == Long.MIN_VALUE
+                ? lastSeekPositionUs : largestQueuedTimestampUs;
+    }
+
+    @Override
+    public long seekToUs(long positionUs) {
+        lastSeekPositionUs = positionUs;
+        for (int i = 0; i < exposedTracks.length; i++) {
+            if (trackEnabledStates[i]) {
+                SampleQueue sampleQueue = exposedTracks[i].sampleQueue;
+                sampleQueue.rewind();
+                sampleQueue.advanceTo(positionUs, /* toKeyframe= */ true,
+                        /* allowTimeBeyondBuffer= */ true);
+            }
+        }
+        return positionUs;
+    }
+
+    @Override
+    public long getAdjustedSeekPositionUs(long positionUs, SeekParameters seekParameters) {
+        return positionUs;
+    }
+
+    // PufferSession.Listener implementation. Called on the network thread.
+
+    @Override
+    public void onMediaFrame(PufferFrameHeader header, ByteString frame) {
+        int trackType = header.type == PufferFrameHeader.TYPE_SERVER_VIDEO
+                ? C.TRACK_TYPE_VIDEO : C.TRACK_TYPE_AUDIO;
+        TrackState trackState = getOrCreateTrackState(trackType);
+        if (trackState == null) {
+            return;
+        }
+        if (header.byteOffset == 0) {
+            trackState.receivingChunk = new FragmentDataSource(uri);
+            trackState.receivingChunkStartRealtimeMs = SystemClock.elapsedRealtime();
+            eventDispatcher.loadStarted(dataSpec, C.DATA_TYPE_MEDIA, trackType,
+                    trackState.sampleQueue.getUpstreamFormat(), C.SELECTION_REASON_UNKNOWN,
+                    /* trackSelectionData= */ null, C.TIME_UNSET, C.TIME_UNSET,
+                    trackState.receivingChunkStartRealtimeMs);
+        }
+        FragmentDataSource chunkSource = trackState.receivingChunk;
+        if (chunkSource == null || header.byteOffset != chunkSource.getLength()) {
+            // The start of this chunk was missed.
+            trackState.receivingChunk = null;
+            return;
+        }
+        chunkSource.append(frame, header.payloadOffset, header.payloadLength);
+        if (!header.isLastFragment()) {
+            return;
+        }
+        trackState.receivingChunk = null;
+        PendingChunk chunk = new PendingChunk(trackState, chunkSource, header.getFormat(),
+                header.timestamp, header.ssim, trackState.receivingChunkStartRealtimeMs,
+                SystemClock.elapsedRealtime(), trackState.lastChunkDurationUs);
+        // Never blocks, since frames kept by a warm session are delivered on the playback thread.
+        flowControl.acquire(chunk.source.getLength(), chunk.getBudgetDurationUs());
+        synchronized (lock) {
+            if (released) {
+                return;
+            }
+            pendingChunks.add(chunk);
+            trackState.pendingDurationUs += chunk.estimatedDurationUs;
+            if (tracksFixed && !loadRequested) {
+                // The player has enough media for now.
+                return;
+            }
+        }
+        handler.post(onChunkReceivedRunnable);
+    }
+
+    @Override
+    public long getBufferedPositionMs(int trackType) {
+        TrackState trackState =
+                trackStates[trackType == C.TRACK_TYPE_VIDEO ? VIDEO_INDEX : AUDIO_INDEX];
+        long bufferedEndUs = trackState == null ? C.TIME_UNSET : trackState.bufferedEndUs;
+        if (bufferedEndUs == C.TIME_UNSET) {
+            // Without audio, the server is told the audio buffer matches the video buffer.
+            return trackType == C.TRACK_TYPE_AUDIO ? getBufferedPositionMs(C.TRACK_TYPE_VIDEO) : 0;
+        }
+        // Chunks in flight have been received, so they count towards the buffer the server sees.
+        return (bufferedEndUs + trackState.pendingDurationUs) / 1000;
+    }
+
+    @Override
+    public void awaitCapacity() throws InterruptedException {
+        flowControl.awaitCapacity();
+    }
+
+    @Override
+    public void onSessionError(IOException error) {
+        fatalError = error;
+        handler.post(onChunkReceivedRunnable);
+    }
+
+    // Loader.Callback implementation. Called on the playback thread.
+
+    @Override
+    public void onLoadCompleted(ChunkLoadable loadable, long elapsedRealtimeMs,
+                                long loadDurationMs) {
+        PufferChunk pufferChunk = loadable.pufferChunk;
+        if (pufferChunk != null) {
+            PendingChunk chunk = loadable.chunk;
+            eventDispatcher.loadCompleted(dataSpec, uri, Collections.emptyMap(),
+                    C.DATA_TYPE_MEDIA, pufferChunk.trackType,
+                    chunk.trackState.sampleQueue.getUpstreamFormat(), C.SELECTION_REASON_UNKNOWN,
+                    pufferChunk, pufferChunk.startTimeUs, pufferChunk.endTimeUs,
+                    elapsedRealtimeMs, chunk.endRealtimeMs - chunk.startRealtimeMs,
+                    pufferChunk.bytes);
+        }
+        if (released || callback == null) {
+            return;
+        }
+        if (prepared) {
+            callback.onContinueLoadingRequested(this);
+        } else if (!startNextLoad()) {
+            // Every chunk received so far has been extracted.
+            maybeFinishPreparing();
+        }
+    }
+
+    @Override
+    public void onLoadCanceled(ChunkLoadable loadable, long elapsedRealtimeMs,
+                               long loadDurationMs, boolean released) {
+        // Do nothing. Loads are only canceled when the period is released.
+    }
+
+    @Override
+    public LoadErrorAction onLoadError(ChunkLoadable loadable, long elapsedRealtimeMs,
+                                       long loadDurationMs, IOException error, int errorCount) {
+        Log.e(TAG, "Jiayi: failed to extract chunk", error);
+        // The extractor has lost its place in the stream, so no later chunk can be extracted.
+        fatalError = error;
+        return Loader.DONT_RETRY;
+    }
+
+    // Internal methods.
+
+    private @Nullable
+    TrackState getOrCreateTrackState(int trackType) {
+        int index = trackType == C.TRACK_TYPE_VIDEO ? VIDEO_INDEX : AUDIO_INDEX;
+        TrackState trackState = trackStates[index];
+        if (trackState == null) {
+            synchronized (lock) {
+                if (!tracksFixed && !released) {
+                    trackState = new TrackState(trackType);
+                    trackStates[index] = trackState;
+                }
+            }
+        }
+        return trackState;
+    }
+
+    /**
+     * Hands the oldest pending chunk to the loader. If there is none, the next chunk to arrive is
+     * handed over as soon as it has been received. Called on the playback thread while the loader
+     * is idle.
+     *
+     * @return Whether a chunk is being extracted.
+     */
+    private boolean startNextLoad() {
+        PendingChunk chunk;
+        synchronized (lock) {
+            if (released || fatalError != null) {
+                return false;
+            }
+            chunk = pendingChunks.poll();
+            if (chunk == null) {
+                loadRequested = true;
+                return false;
+            }
+            loadRequested = false;
+            chunk.trackState.pendingDurationUs -= chunk.estimatedDurationUs;
+        }
+        flowControl.release(chunk.source.getLength(), chunk.getBudgetDurationUs());
+        loader.startLoading(new ChunkLoadable(chunk), /* callback= */ this,
+                /* defaultMinRetryCount= */ 0);
+        return true;
+    }
+
+    /** Called on the playback thread when a chunk was received that the player is waiting for. */
+    private void onChunkReceived() {
+        if (released || callback == null) {
+            return;
+        }
+        if (prepared) {
+            callback.onContinueLoadingRequested(this);
+        } else if (!loader.isLoading()) {
+            startNextLoad();
+        }
+    }
+
+    /**
+     * Extracts a chunk into the sample queue of its track. Called on the loading thread.
+     *
+     * @return The extracted chunk, or null if it held no samples or extraction was canceled.
+     */
+    private @Nullable
+    PufferChunk extractChunk(ChunkLoadable loadable) throws IOException {
+        PendingChunk chunk = loadable.chunk;
+        TrackState trackState = chunk.trackState;
+        if (trackState.extractor == null || !chunk.format.equals(trackState.extractorFormat)) {
+            // The chunk starts with an initialization segment.
+            trackState.extractor = new FragmentedMp4Extractor();
+            trackState.extractor.init(trackState);
+            trackState.extractorFormat = chunk.format;
+            trackState.extractorPosition = 0;
+        }
+        FragmentDataSource chunkSource = chunk.source;
+        long bytes = chunkSource.getLength();
+        // The chunk is in memory, so it is extracted from views onto the received frames.
+        ExtractorInput input = new ByteBufferExtractorInput(chunkSource.getFragments(),
+                trackState.extractorPosition, C.LENGTH_UNSET);
+        trackState.chunkSampleCount = 0;
+        int result = Extractor.RESULT_CONTINUE;
+        try {
+            while (result == Extractor.RESULT_CONTINUE && !loadable.loadCanceled) {
+                result = trackState.extractor.read(input, trackState.positionHolder);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        if (result == Extractor.RESULT_SEEK) {
+            throw new ParserException("Unexpected seek in chunk " + chunk.timestamp);
+        }
+        trackState.extractorPosition = input.getPosition();
+
+        if (loadable.loadCanceled || trackState.chunkSampleCount == 0) {
+            return null;
+        }
+        long startTimeUs = trackState.chunkFirstTimeUs;
+        long endTimeUs = trackState.chunkLastTimeUs;
+        if (trackState.chunkSampleCount > 1) {
+            endTimeUs += (trackState.chunkLastTimeUs - trackState.chunkFirstTimeUs)
+                    / (trackState.chunkSampleCount - 1);
+        }
+        trackState.bufferedEndUs = endTimeUs;
+        trackState.lastChunkDurationUs = endTimeUs - startTimeUs;
+        if (chunkQualityStore != null && trackState.trackType == C.TRACK_TYPE_VIDEO) {
+            chunkQualityStore.put(chunk.format, startTimeUs, endTimeUs, chunk.ssim, bytes);
+        }
+        return new PufferChunk(trackState.trackType, chunk.format, chunk.timestamp, startTimeUs,
+                endTimeUs, bytes, chunk.ssim);
+    }
+
+    /**
+     * Prepares the period if the first video chunk has been extracted. Called on the playback
+     * thread when no chunk is pending.
+     *
+     * @return Whether the period has been prepared.
+     */
+    private boolean maybeFinishPreparing() {
+        ArrayList<TrackState> tracks = new ArrayList<>();
+        synchronized (lock) {
+            TrackState video = trackStates[VIDEO_INDEX];
+            if (video == null || video.sampleQueue.getUpstreamFormat() == null) {
+                return false;
+            }
+            for (int i = 0; i < trackStates.length; i++) {
+                TrackState trackState = trackStates[i];
+                if (trackState == null) {
+                    continue;
+                }
+                if (trackState.sampleQueue.getUpstreamFormat() == null) {
+                    // Nothing was extracted for this track in time, so it cannot be exposed.
+                    trackStates[i] = null;
+                } else {
+                    tracks.add(trackState);
+                }
+            }
+            tracksFixed = true;
+            // The player asks for media once it has been prepared.
+            loadRequested = false;
+        }
+        exposedTracks = tracks.toArray(new TrackState[0]);
+        TrackGroup[] groups = new TrackGroup[exposedTracks.length];
+        for (int i = 0; i < exposedTracks.length; i++) {
+            groups[i] = new TrackGroup(exposedTracks[i].sampleQueue.getUpstreamFormat());
+        }
+        trackGroups = new TrackGroupArray(groups);
+        trackEnabledStates = new boolean[exposedTracks.length];
+        prepared = true;
+        Assertions.checkNotNull(callback).onPrepared(this);
+        return true;
+    }
+
+    private boolean isReady(int track) {
+        return !released && exposedTracks[track].sampleQueue.hasNextSample();
+    }
+
+    private void maybeThrowError() throws IOException {
+        IOException error = fatalError;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private int readData(int track, FormatHolder formatHolder, DecoderInputBuffer buffer,
+                         boolean formatRequired) {
+        if (released) {
+            return C.RESULT_NOTHING_READ;
+        }
+        return exposedTracks[track].sampleQueue.read(formatHolder, buffer, formatRequired,
+                /* loadingFinished= */ false, lastSeekPositionUs);
+    }
+
+    private int skipData(int track, long positionUs) {
+        if (released) {
+            return 0;
+        }
+        int skipCount = exposedTracks[track].sampleQueue.advanceTo(positionUs,
+                /* toKeyframe= */ true, /* allowTimeBeyondBuffer= */ true);
+        return skipCount == SampleQueue.ADVANCE_FAILED ? 0 : skipCount;
+    }
+
+    private final class SampleStreamImpl implements SampleStream {
+
+        private final int track;
+
+        public SampleStreamImpl(int track) {
+            this.track = track;
+        }
+
+        @Override
+        public boolean isReady() {
+            return PufferMediaPeriod.this.isReady(track);
+        }
+
+        @Override
+        public void maybeThrowError() throws IOException {
+            PufferMediaPeriod.this.maybeThrowError();
+        }
+
+        @Override
+        public int readData(FormatHolder formatHolder, DecoderInputBuffer buffer,
+                            boolean formatRequired) {
+            return PufferMediaPeriod.this.readData(track, formatHolder, buffer, formatRequired);
+        }
+
+        @Override
+        public int skipData(long positionUs) {
+            return PufferMediaPeriod.this.skipData(track, positionUs);
+        }
+    }
+
+    /** Extracts a {@link PendingChunk} on the loading thread. */
+    /* package */ final class ChunkLoadable implements Loader.Loadable {
+
+        public final PendingChunk chunk;
+
+        private volatile boolean loadCanceled;
+        private volatile @Nullable
+        PufferChunk pufferChunk;
+
+        public ChunkLoadable(PendingChunk chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void cancelLoad() {
+            loadCanceled = true;
+        }
+
+        @Override
+        public void load() throws IOException {
+            pufferChunk = extractChunk(this);
+        }
+    }
+
+    /** A received chunk that has not been extracted yet. */
+    private static final class PendingChunk {
+
+        public final TrackState trackState;
+        public final FragmentDataSource source;
+        public final String format;
+        public final long timestamp;
+        public final double ssim;
+        public final long startRealtimeMs;
+        public final long endRealtimeMs;
+        /** The duration of the chunk, estimated from the previous chunk of the same track. */
+        public final long estimatedDurationUs;
+
+        public PendingChunk(TrackState trackState, FragmentDataSource source, String format,
+                            long timestamp, double ssim, long startRealtimeMs,
+                            long endRealtimeMs, long estimatedDurationUs) {
+            this.trackState = trackState;
+            this.source = source;
+            this.format = format;
+            this.timestamp = timestamp;
+            this.ssim = ssim;
+            this.startRealtimeMs = startRealtimeMs;
+            this.endRealtimeMs = endRealtimeMs;
+            this.estimatedDurationUs = estimatedDurationUs;
+        }
+
+        /** Returns the duration counted against the budget of the {@link PufferFlowControl}. */
+        public long getBudgetDurationUs() {
+            return trackState.trackType == C.TRACK_TYPE_VIDEO ? estimatedDurationUs : 0;
+        }
+    }
+
+    /**
+     * The state of one track. Receives the output of the track's extractor and forwards it to the
+     * sample queue, shifting timestamps and collecting the boundaries of the current chunk.
+     */
+    private final class TrackState implements ExtractorOutput, TrackOutput {
+
+        public final int trackType;
+        public final SampleQueue sampleQueue;
+        public final PositionHolder positionHolder;
+
+        // Only accessed on the network thread.
+        public @Nullable
+        FragmentDataSource receivingChunk;
+        public long receivingChunkStartRealtimeMs;
+
+        // Only accessed on the loading thread.
+        public @Nullable
+        Extractor extractor;
+        public @Nullable
+        String extractorFormat;
+        public long extractorPosition;
+        public int chunkSampleCount;
+        public long chunkFirstTimeUs;
+        public long chunkLastTimeUs;
+        private long[] rebasedTimesUs;
+
+        // Written on the loading thread, or under lock for pendingDurationUs. Read on any thread.
+        public volatile long lastChunkDurationUs;
+        public volatile long pendingDurationUs;
+        public volatile long bufferedEndUs;
+
+        public TrackState(int trackType) {
+            this.trackType = trackType;
+            this.sampleQueue = new SampleQueue(allocator);
+            this.positionHolder = new PositionHolder();
+            this.bufferedEndUs = C.TIME_UNSET;
+            this.rebasedTimesUs = new long[0];
+        }
+
+        // ExtractorOutput implementation.
+
+        @Override
+        public TrackOutput track(int id, int type) {
+            return type == trackType ? this : new DummyTrackOutput();
+        }
+
+        @Override
+        public void endTracks() {
+            // Do nothing.
+        }
+
+        @Override
+        public void seekMap(SeekMap seekMap) {
+            // Do nothing. The stream is not seekable.
+        }
+
+        // TrackOutput implementation.
+
+        @Override
+        public void format(Format format) {
+            sampleQueue.format(format);
+        }
+
+        @Override
+        public int sampleData(ExtractorInput input, int length, boolean allowEndOfInput)
+                throws IOException, InterruptedException {
+            return sampleQueue.sampleData(input, length, allowEndOfInput);
+        }
+
+        @Override
+        public void sampleData(ParsableByteArray data, int length) {
+            sampleQueue.sampleData(data, length);
+        }
+
+        @Override
+        public void sampleMetadata(long timeUs, int flags, int size, int offset,
+                                   @Nullable CryptoData cryptoData) {
+            if (timeOffsetUs == C.TIME_UNSET) {
+                timeOffsetUs = timeUs;
+            }
+            timeUs -= timeOffsetUs;
+            if (chunkSampleCount == 0 || timeUs < chunkFirstTimeUs) {
+                chunkFirstTimeUs = timeUs;
+            }
+            if (chunkSampleCount == 0 || timeUs > chunkLastTimeUs) {
+                chunkLastTimeUs = timeUs;
+            }
+            chunkSampleCount++;
+            sampleQueue.sampleMetadata(timeUs, flags, size, offset, cryptoData);
+        }
+
+        @Override
+        public void sampleMetadata(long[] timesUs, int[] flags, int[] sizes, int start, int count,
+                                   int offset, @Nullable CryptoData cryptoData) {
+            if (count == 0) {
+                return;
+            }
+            if (timeOffsetUs == C.TIME_UNSET) {
+                timeOffsetUs = timesUs[start];
+            }
+            int end = start + count;
+            if (rebasedTimesUs.length < end) {
+                rebasedTimesUs = new long[Math.max(end, 2 * rebasedTimesUs.length)];
+            }
+            long firstTimeUs = chunkSampleCount == 0 ? Long.MAX_VALUE : chunkFirstTimeUs;
+            long lastTimeUs = chunkSampleCount == 0 ? Long.MIN_VALUE : chunkLastTimeUs;
+            for (int i = start; i < end; i++) {
+                long timeUs = timesUs[i] - timeOffsetUs;
+                rebasedTimesUs[i] = timeUs;
+                firstTimeUs = Math.min(firstTimeUs, timeUs);
+                lastTimeUs = Math.max(lastTimeUs, timeUs);
+            }
+            chunkFirstTimeUs = firstTimeUs;
+            chunkLastTimeUs = lastTimeUs;
+            chunkSampleCount += count;
+            // Committed at once, with the rebased times at the same indices as the flags and sizes.
+            sampleQueue.sampleMetadata(rebasedTimesUs, flags, sizes, start, count, offset,
+                    cryptoData);
+        }
+    }
+}
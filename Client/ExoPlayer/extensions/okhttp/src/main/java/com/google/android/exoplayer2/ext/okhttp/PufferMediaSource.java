@@ -0,0 +1,98 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.source.BaseMediaSource;
+import com.google.android.exoplayer2.source.MediaPeriod;
+import com.google.android.exoplayer2.source.SinglePeriodTimeline;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityStore;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Assertions;
+
+
+/**
+ * A {@link com.google.android.exoplayer2.source.MediaSource} for the live stream of a Puffer media
+ * server. Each period takes a {@link PufferSession} from a {@link PufferSessionManager}, which may
+ * already be connected and buffering, and writes the received chunks directly into its sample
+ * queues; see {@link PufferMediaPeriod}. The chunks in flight are budgeted by a
+ * {@link PufferFlowControl} sized from the player's {@link DefaultLoadControl}. The SSIM and size
+ * of the video chunks may be collected in a {@link ChunkQualityStore}.
+ */
+public final class PufferMediaSource extends BaseMediaSource {
+
+    private final PufferSessionManager sessionManager;
+    private final DefaultLoadControl loadControl;
+    private final @Nullable
+    ChunkQualityStore chunkQualityStore;
+
+    private @Nullable
+    ExoPlayer player;
+    private @Nullable
+    PufferFlowControl flowControl;
+
+    /**
+     * @param sessionManager The {@link PufferSessionManager} that provides the sessions.
+     * @param loadControl    The {@link DefaultLoadControl} of the player, whose buffer targets size
+     *                       the budget of the chunks in flight.
+     */
+    public PufferMediaSource(PufferSessionManager sessionManager, DefaultLoadControl loadControl) {
+        this(sessionManager, loadControl, /* chunkQualityStore= */ null);
+    }
+
+    /**
+     * @param sessionManager    The {@link PufferSessionManager} that provides the sessions.
+     * @param loadControl       The {@link DefaultLoadControl} of the player, whose buffer targets
+     *                          size the budget of the chunks in flight.
+     * @param chunkQualityStore A store for the SSIM and size of the video chunks, keyed by their
+     *                          Puffer format, or null.
+     */
+    public PufferMediaSource(PufferSessionManager sessionManager, DefaultLoadControl loadControl,
+                             @Nullable ChunkQualityStore chunkQualityStore) {
+        this.sessionManager = sessionManager;
+        this.loadControl = loadControl;
+        this.chunkQualityStore = chunkQualityStore;
+    }
+
+    /**
+     * Returns the flow control of the most recently created period, or null if no period has been
+     * created. Its metrics show how much media has been in flight and how long the reader blocked.
+     */
+    public @Nullable
+    PufferFlowControl getFlowControl() {
+        return flowControl;
+    }
+
+    @Override
+    protected void prepareSourceInternal(ExoPlayer player, boolean isTopLevelSource,
+                                         @Nullable TransferListener mediaTransferListener) {
+        this.player = player;
+        refreshSourceInfo(new SinglePeriodTimeline(C.TIME_UNSET, /* isSeekable= */ false,
+                /* isDynamic= */ false), /* manifest= */ null);
+    }
+
+    @Override
+    public void maybeThrowSourceInfoRefreshError() {
+        // Do nothing.
+    }
+
+    @Override
+    public MediaPeriod createPeriod(MediaPeriodId id, Allocator allocator, long startPositionUs) {
+        flowControl = PufferFlowControl.fromLoadControl(loadControl);
+        return new PufferMediaPeriod(sessionManager, Assertions.checkNotNull(player), flowControl,
+                allocator, createEventDispatcher(id), chunkQualityStore);
+    }
+
+    @Override
+    public void releasePeriod(MediaPeriod mediaPeriod) {
+        ((PufferMediaPeriod) mediaPeriod).release();
+    }
+
+    @Override
+    protected void releaseSourceInternal() {
+        player = null;
+    }
+}
@@ -0,0 +1,473 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.ext.puffer.PufferClient;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameParser;
+import com.google.android.exoplayer2.ext.puffer.PufferProtocolException;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.video.VideoListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * A WebSocket session with a Puffer media server. The protocol itself is implemented by a {@link
+ * PufferClient}. The session adds the connection, the player and the telemetry.
+ * <p>
+ * The session sends {@code client-init} once connected, waits for {@code server-init}, and then
+ * hands every media frame to the {@link Listener} that is attached to it. Each frame is acked with
+ * a {@code client-vidack} or {@code client-audack} carrying the buffer levels reported by the
+ * listener, and {@code client-info} messages are sent by a {@link PufferTelemetryScheduler} for the
+ * attached player.
+ * <p>
+ * A session can be started before anything is attached to it, and outlives the listeners attached
+ * to it. Frames received while nothing is attached are acked and kept, and handed to the next
+ * listener as soon as it attaches, so that a pre-connected session can start playback without
+ * waiting for the network. When a listener that has consumed media detaches, the session sends a
+ * new {@code client-init} over the same connection, so that the next listener gets a stream that
+ * starts with initialization segments.
+ */
+public final class PufferSession {
+
+    /** Receives the media of a session. */
+    public interface Listener {
+
+        /**
+         * Called for every received media frame, before it is acked. Calls are serialized and
+         * normally made on the network thread, but frames received before the listener was
+         * attached are delivered from {@link #attach}. Must not wait for the player to take
+         * media, since it is called while holding the lock of the session, and on the playback
+         * thread for the kept frames. Such waits belong in {@link #awaitCapacity()}.
+         *
+         * @param header The parsed header of the frame. Only valid during the call.
+         * @param frame The frame. The payload is at {@link PufferFrameHeader#payloadOffset}.
+         */
+        void onMediaFrame(PufferFrameHeader header, ByteString frame);
+
+        /**
+         * Called on the network thread after a frame received from the network has been delivered
+         * and acked, without holding the lock of the session. May block until the listener can
+         * take more media, which stops the session from reading further frames.
+         *
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        void awaitCapacity() throws InterruptedException;
+
+        /**
+         * Returns the end of the buffered media of the given type on the playback timeline, in
+         * milliseconds. Called on the network thread and on the player's application thread.
+         *
+         * @param trackType {@link C#TRACK_TYPE_VIDEO} or {@link C#TRACK_TYPE_AUDIO}.
+         */
+        long getBufferedPositionMs(int trackType);
+
+        /** Called when the connection fails. */
+        void onSessionError(IOException error);
+    }
+
+    /** Receives the startup latencies of the attachments of a session. */
+    public interface StartupListener {
+
+        /** Called when the first media frame has been handed to a listener after it attached. */
+        void onFirstByte(PufferSession session, long elapsedMs);
+
+        /** Called when the attached player has rendered its first video frame. */
+        void onFirstFrame(PufferSession session, long elapsedMs);
+    }
+
+    private static final String TAG = "PufferSession";
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_OPEN = 2;
+    private static final int STATE_RELEASED = 3;
+
+    private final OkHttpClient callFactory;
+    private final Uri uri;
+    private final SessionLogger sessionLogger;
+    private final @Nullable
+    StartupListener startupListener;
+
+    private final PufferClient client = new PufferClient();
+    // Re-parses the kept frames when a listener attaches.
+    private final PufferFrameParser warmFrameParser = new PufferFrameParser();
+    private final PufferFrameHeader warmFrameHeader = new PufferFrameHeader();
+    private final PufferTelemetryScheduler.Callback telemetryCallback;
+    private final VideoListener firstFrameListener;
+
+    // Written while holding lock, which also serializes the delivery of frames. The volatile fields
+    // are read without it, so that the application thread never waits for a frame being delivered.
+    private final Object lock = new Object();
+    private final ArrayList<ByteString> warmFrames = new ArrayList<>();
+    private volatile int warmVideoChunks;
+    private volatile int warmAudioChunks;
+    private boolean consumed;
+    private volatile @Nullable
+    Listener listener;
+    private volatile @Nullable
+    Player player;
+    private volatile @Nullable
+    PufferTelemetryScheduler telemetryScheduler;
+    private volatile long attachRealtimeMs;
+    private boolean firstByteReported;
+
+    private volatile int state;
+    private volatile @Nullable
+    WebSocket webSocket;
+    private volatile @Nullable
+    Response response;
+    private volatile @Nullable
+    IOException error;
+
+    /**
+     * @param callFactory     The {@link OkHttpClient} used to open the WebSocket.
+     * @param uri             The {@code ws://} URI of the server.
+     * @param sessionLogger   The {@link SessionLogger} that records the session. Closed when the
+     *                        session ends.
+     * @param startupListener An optional listener for the startup latencies.
+     */
+    public PufferSession(OkHttpClient callFactory, Uri uri, SessionLogger sessionLogger,
+                         @Nullable StartupListener startupListener) {
+        this.callFactory = callFactory;
+        this.uri = uri;
+        this.sessionLogger = sessionLogger;
+        this.startupListener = startupListener;
+        this.telemetryCallback = new PufferTelemetryScheduler.Callback() {
+            @Override
+            public void onClientInfo(String event) {
+                WebSocket socket = webSocket;
+                if (socket != null && state == STATE_OPEN && client.isStreaming()) {
+                    sendClientInfo(socket, event);
+                }
+            }
+        };
+        this.firstFrameListener = new VideoListener() {
+            @Override
+            public void onRenderedFirstFrame() {
+                onFirstFrameRendered();
+            }
+        };
+    }
+
+    /** Opens the WebSocket. Does nothing if it has already been opened. */
+    public void start() {
+        synchronized (lock) {
+            if (state != STATE_IDLE) {
+                return;
+            }
+            state = STATE_CONNECTING;
+        }
+        Request request = new Request.Builder().url(uri.toString())
+                .addHeader("Origin", uri.toString())
+                .build();
+        callFactory.newWebSocket(request, new SessionListener());
+    }
+
+    /**
+     * Attaches a listener, starting the session if needed. Frames received while nothing was
+     * attached are delivered to the listener before this method returns.
+     *
+     * @param player   The player whose playback is reported to the server.
+     * @param listener Receives the media.
+     */
+    public void attach(Player player, Listener listener) {
+        start();
+        synchronized (lock) {
+            Assertions.checkState(this.listener == null && state != STATE_RELEASED);
+            this.listener = listener;
+            this.player = player;
+            attachRealtimeMs = SystemClock.elapsedRealtime();
+            firstByteReported = false;
+            telemetryScheduler = new PufferTelemetryScheduler(player, telemetryCallback);
+            telemetryScheduler.start();
+            Player.VideoComponent videoComponent = player.getVideoComponent();
+            if (videoComponent != null) {
+                videoComponent.addVideoListener(firstFrameListener);
+            }
+            for (ByteString frame : warmFrames) {
+                try {
+                    warmFrameParser.parse(frame, warmFrameHeader);
+                } catch (PufferProtocolException e) {
+                    // Frames are only kept after they have been parsed.
+                    throw new IllegalStateException(e);
+                }
+                deliverFrame(warmFrameHeader, frame);
+            }
+            warmFrames.clear();
+            warmVideoChunks = 0;
+            warmAudioChunks = 0;
+            IOException error = this.error;
+            if (error != null) {
+                listener.onSessionError(error);
+            }
+        }
+    }
+
+    /**
+     * Detaches the attached listener. If it has consumed any media, a new stream is requested from
+     * the server, which is buffered until the next listener attaches.
+     */
+    public void detach() {
+        synchronized (lock) {
+            if (listener == null) {
+                return;
+            }
+            Assertions.checkNotNull(telemetryScheduler).release();
+            telemetryScheduler = null;
+            Player.VideoComponent videoComponent = Assertions.checkNotNull(player).getVideoComponent();
+            if (videoComponent != null) {
+                videoComponent.removeVideoListener(firstFrameListener);
+            }
+            listener = null;
+            player = null;
+            WebSocket socket = webSocket;
+            if (consumed && socket != null && state == STATE_OPEN) {
+                client.restart();
+                consumed = false;
+                socket.send(client.encodeClientInit());
+            }
+        }
+    }
+
+    /** Closes the WebSocket and stops all telemetry. May be called from any thread. */
+    public void release() {
+        synchronized (lock) {
+            if (state == STATE_RELEASED) {
+                return;
+            }
+            state = STATE_RELEASED;
+            if (telemetryScheduler != null) {
+                telemetryScheduler.release();
+                telemetryScheduler = null;
+            }
+            warmFrames.clear();
+        }
+        WebSocket socket = webSocket;
+        if (socket != null) {
+            socket.close(1000, null);
+        }
+        sessionLogger.close();
+    }
+
+    /** Returns whether the session can still deliver media to a listener. */
+    public boolean isUsable() {
+        return state != STATE_RELEASED && error == null;
+    }
+
+    /** Returns whether the session has connected to the server. */
+    public boolean isConnected() {
+        return webSocket != null;
+    }
+
+    /** Returns the response to the WebSocket upgrade request, or null if not yet connected. */
+    public @Nullable
+    Response getResponse() {
+        return response;
+    }
+
+    /** Returns the scheduler of the {@code client-info} messages, or null if nothing is attached. */
+    public @Nullable
+    PufferTelemetryScheduler getTelemetryScheduler() {
+        return telemetryScheduler;
+    }
+
+    private void onFrame(WebSocket webSocket, PufferFrameHeader header, ByteString bytes) {
+        int msgType = header.type;
+        if (header.isMedia()) {
+            if (listener != null) {
+                deliverFrame(header, bytes);
+            } else {
+                warmFrames.add(bytes);
+                if (header.isLastFragment()) {
+                    if (msgType == PufferFrameHeader.TYPE_SERVER_VIDEO) {
+                        warmVideoChunks++;
+                    } else {
+                        warmAudioChunks++;
+                    }
+                }
+            }
+        }
+
+        long currentPositionMs = getCurrentPositionMs();
+        long videoBufferMs = getBufferedPositionMs(C.TRACK_TYPE_VIDEO) - currentPositionMs;
+        long audioBufferMs = getBufferedPositionMs(C.TRACK_TYPE_AUDIO) - currentPositionMs;
+        PufferTelemetryScheduler telemetryScheduler = this.telemetryScheduler;
+        long cumRebufferMs = telemetryScheduler == null ? 0 : telemetryScheduler.getCumRebufferMs();
+        // Log.e(TAG, "Jiayi; acked " + msgType + ", " + currentPositionMs + ", " + videoBufferMs);
+
+        ByteString ack =
+                client.encodeAck(videoBufferMs, audioBufferMs, cumRebufferMs, currentPositionMs);
+        if (ack != null) {
+            webSocket.send(ack);
+        }
+        sessionLogger.logAck(SystemClock.elapsedRealtime(), client.getInitId(), videoBufferMs,
+                audioBufferMs, cumRebufferMs, currentPositionMs, header);
+    }
+
+    /** Hands a media frame to the attached listener. Must be called while holding the lock. */
+    private void deliverFrame(PufferFrameHeader header, ByteString bytes) {
+        Listener listener = Assertions.checkNotNull(this.listener);
+        PufferTelemetryScheduler telemetryScheduler = Assertions.checkNotNull(this.telemetryScheduler);
+        consumed = true;
+        listener.onMediaFrame(header, bytes);
+        if (!firstByteReported) {
+            firstByteReported = true;
+            if (startupListener != null) {
+                startupListener.onFirstByte(this, SystemClock.elapsedRealtime() - attachRealtimeMs);
+            }
+        }
+        if (header.type == PufferFrameHeader.TYPE_SERVER_VIDEO) {
+            telemetryScheduler.onFrameReceived();
+            if (header.isLastFragment()) {
+                telemetryScheduler.onChunkBuffered(listener.getBufferedPositionMs(C.TRACK_TYPE_VIDEO));
+            }
+        }
+    }
+
+    private void onFirstFrameRendered() {
+        Player player = this.player;
+        Player.VideoComponent videoComponent = player == null ? null : player.getVideoComponent();
+        if (videoComponent == null) {
+            return;
+        }
+        videoComponent.removeVideoListener(firstFrameListener);
+        if (startupListener != null) {
+            startupListener.onFirstFrame(this, SystemClock.elapsedRealtime() - attachRealtimeMs);
+        }
+    }
+
+    private long getCurrentPositionMs() {
+        PufferTelemetryScheduler telemetryScheduler = this.telemetryScheduler;
+        return telemetryScheduler == null ? 0 : telemetryScheduler.getCurrentPositionMs();
+    }
+
+    /**
+     * Returns the buffered position reported by the attached listener, or the duration of the kept
+     * frames if nothing is attached.
+     */
+    private long getBufferedPositionMs(int trackType) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            return listener.getBufferedPositionMs(trackType);
+        }
+        if (trackType == C.TRACK_TYPE_AUDIO && warmAudioChunks > 0) {
+            return warmAudioChunks * client.getAudioChunkDurationMs();
+        }
+        // Without audio, the server is told the audio buffer matches the video buffer.
+        return warmVideoChunks * client.getVideoChunkDurationMs();
+    }
+
+    private void sendClientInfo(WebSocket webSocket, String eventType) {
+        long currentPositionMs = getCurrentPositionMs();
+        long videoBufferMs = getBufferedPositionMs(C.TRACK_TYPE_VIDEO) - currentPositionMs;
+        long audioBufferMs = getBufferedPositionMs(C.TRACK_TYPE_AUDIO) - currentPositionMs;
+        PufferTelemetryScheduler telemetryScheduler = getTelemetryScheduler();
+        long cumRebufferMs = telemetryScheduler == null ? 0 : telemetryScheduler.getCumRebufferMs();
+
+        //Log.e(TAG, "Jiayi; " + eventType + ", currPos " + currentPositionMs + ", videoBuf " + videoBufferMs);
+
+        webSocket.send(client.encodeClientInfo(eventType, videoBufferMs, audioBufferMs,
+                cumRebufferMs, currentPositionMs));
+    }
+
+    private void fail(IOException error) {
+        Listener listener;
+        synchronized (lock) {
+            if (state == STATE_RELEASED || this.error != null) {
+                return;
+            }
+            this.error = error;
+            listener = this.listener;
+            if (listener != null) {
+                listener.onSessionError(error);
+            }
+        }
+    }
+
+    private final class SessionListener extends WebSocketListener {
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response _response) {
+            synchronized (lock) {
+                if (state == STATE_RELEASED) {
+                    webSocket.close(1000, null);
+                    return;
+                }
+                PufferSession.this.webSocket = webSocket;
+                response = _response;
+                state = STATE_OPEN;
+                webSocket.send(client.encodeClientInit());
+            }
+            sessionLogger.logServerInit(SystemClock.elapsedRealtime());
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            Log.i(TAG, "Jiayi: onMessage (string) with sizeof data " + text.length() + "; state " + state);
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, ByteString bytes) {
+            Listener deliveredTo = null;
+            synchronized (lock) {
+                if (state != STATE_OPEN) {
+                    return;
+                }
+                int result;
+                try {
+                    result = client.onMessage(bytes);
+                } catch (PufferProtocolException e) {
+                    Log.e(TAG, "Jiayi: malformed frame", e);
+                    fail(e);
+                    return;
+                }
+                if (result == PufferClient.RESULT_SERVER_INIT) {
+                    sendClientInfo(webSocket, PufferClient.EVENT_STARTUP);
+                } else if (result == PufferClient.RESULT_FRAME) {
+                    PufferFrameHeader header = client.getHeader();
+                    if (header.isMedia()) {
+                        deliveredTo = listener;
+                    }
+                    onFrame(webSocket, header, bytes);
+                }
+            }
+            if (deliveredTo != null) {
+                // Waits outside of the lock, so that the listener can still detach or fail.
+                try {
+                    deliveredTo.awaitCapacity();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void onClosed(WebSocket webSocket, int code, String reason) {
+            fail(new IOException("WebSocket closed: " + code + " " + reason));
+            sessionLogger.close();
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, @Nullable Response response) {
+            if (state == STATE_RELEASED) {
+                return;
+            }
+            Log.e(TAG, "Jiayi: session failed", t);
+            fail(t instanceof IOException ? (IOException) t : new IOException(t));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Keeps a warm {@link PufferSession} to a Puffer server, so that a player does not pay for the TCP
+ * and WebSocket handshakes and the {@code client-init}/{@code server-init} exchange when it starts.
+ * <p>
+ * {@link #preconnect()} opens a session ahead of time, e.g. in {@code Activity.onCreate}. The
+ * session buffers the first chunks of the stream until {@link #acquireSession()} hands it out, and
+ * is kept open for the next user when it is returned through {@link #releaseSession}. A new
+ * session is only created when the warm one is in use or has failed.
+ * <p>
+ * The time from attaching to a session to its first media frame and to the first rendered video
+ * frame is recorded in two {@link LatencyHistogram}s.
+ */
+public final class PufferSessionManager implements PufferSession.StartupListener {
+
+    private static final String TAG = "PufferSessionManager";
+
+    private final OkHttpClient callFactory;
+    private final Uri uri;
+    private final @Nullable
+    File logDirectory;
+    private final LatencyHistogram timeToFirstByte;
+    private final LatencyHistogram timeToFirstFrame;
+
+    // Guarded by this.
+    private @Nullable
+    PufferSession warmSession;
+    private boolean released;
+
+    /**
+     * @param callFactory  The {@link OkHttpClient} used to open the WebSockets.
+     * @param uri          The {@code ws://} URI of the server.
+     * @param logDirectory The directory the sessions are logged to by a {@link
+     *                     BinarySessionLogger}, or null if they should not be logged.
+     */
+    public PufferSessionManager(OkHttpClient callFactory, Uri uri, @Nullable File logDirectory) {
+        this.callFactory = callFactory;
+        this.uri = uri;
+        this.logDirectory = logDirectory;
+        this.timeToFirstByte = new LatencyHistogram("time to first byte");
+        this.timeToFirstFrame = new LatencyHistogram("time to first frame");
+    }
+
+    /** Returns the URI of the server. */
+    public Uri getUri() {
+        return uri;
+    }
+
+    /** Opens a warm session unless one is already open. */
+    public synchronized void preconnect() {
+        if (released) {
+            return;
+        }
+        if (warmSession != null && !warmSession.isUsable()) {
+            warmSession.release();
+            warmSession = null;
+        }
+        if (warmSession == null) {
+            warmSession = createSession();
+            warmSession.start();
+        }
+    }
+
+    /**
+     * Returns a session for exclusive use until it is passed to {@link #releaseSession}. The warm
+     * session is returned if it is usable, otherwise a new one is created.
+     */
+    public synchronized PufferSession acquireSession() {
+        PufferSession session = warmSession;
+        warmSession = null;
+        if (session != null && session.isUsable()) {
+            Log.i(TAG, "Jiayi: reusing " + (session.isConnected() ? "connected" : "connecting")
+                    + " session");
+            return session;
+        }
+        if (session != null) {
+            session.release();
+        }
+        return createSession();
+    }
+
+    /**
+     * Detaches a session obtained from {@link #acquireSession()} and keeps it warm for the next
+     * user, or releases it if it has failed or another session is already warm.
+     */
+    public synchronized void releaseSession(PufferSession session) {
+        session.detach();
+        if (released || warmSession != null || !session.isUsable()) {
+            session.release();
+        } else {
+            warmSession = session;
+        }
+    }
+
+    /** Releases the warm session. Sessions that are in use must still be released by their users. */
+    public synchronized void release() {
+        released = true;
+        if (warmSession != null) {
+            warmSession.release();
+            warmSession = null;
+        }
+        Log.i(TAG, "Jiayi: " + timeToFirstByte);
+        Log.i(TAG, "Jiayi: " + timeToFirstFrame);
+    }
+
+    /** Returns the histogram of the time from attaching to a session to its first media frame. */
+    public LatencyHistogram getTimeToFirstByteHistogram() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * Returns the histogram of the time from attaching to a session to the first video frame
+     * rendered by the attached player.
+     */
+    public LatencyHistogram getTimeToFirstFrameHistogram() {
+        return timeToFirstFrame;
+    }
+
+    // PufferSession.StartupListener implementation.
+
+    @Override
+    public void onFirstByte(PufferSession session, long elapsedMs) {
+        timeToFirstByte.add(elapsedMs);
+    }
+
+    @Override
+    public void onFirstFrame(PufferSession session, long elapsedMs) {
+        timeToFirstFrame.add(elapsedMs);
+        Log.i(TAG, "Jiayi: first frame after " + elapsedMs + " ms; " + timeToFirstFrame);
+    }
+
+    private PufferSession createSession() {
+        SessionLogger sessionLogger = logDirectory == null ? SessionLogger.NONE
+                : new BinarySessionLogger(logDirectory,
+                "log-exoplayer-net-" + SystemClock.elapsedRealtime());
+        return new PufferSession(callFactory, uri, sessionLogger, this);
+    }
+}
@@ -0,0 +1,314 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.ext.puffer.PufferClient;
+import com.google.android.exoplayer2.util.Clock;
+
+/**
+ * Decides when the client sends {@code client-info} messages to a Puffer server.
+ * <p>
+ * The server only serves the next chunk in response to a client message, and only once the
+ * reported video buffer has dropped below {@link #DEFAULT_BUFFER_THRESHOLD_MS}. Instead of polling
+ * the player, the scheduler reacts to {@link Player.EventListener#onPlayerStateChanged} for the
+ * {@code rebuffer} and {@code play} events. For {@code timer} events it computes when the buffer
+ * will cross the threshold and arms a single timer for that moment. While the buffer is below the
+ * threshold and no media arrives, the {@code timer} message is repeated every {@link
+ * #DEFAULT_RETRY_INTERVAL_MS}. Nothing else wakes the CPU.
+ * <p>
+ * All player access happens on the player's application thread. Other threads read the playback
+ * position through {@link #getCurrentPositionMs()}, which extrapolates from the last snapshot
+ * taken on that thread.
+ */
+public final class PufferTelemetryScheduler implements Player.EventListener {
+
+    /** Receives the {@code client-info} messages to be sent. */
+    public interface Callback {
+
+        /**
+         * Called on the player's application thread when a {@code client-info} message has to be
+         * sent.
+         *
+         * @param event The event, one of {@code "timer"}, {@code "rebuffer"} or {@code "play"}.
+         */
+        void onClientInfo(String event);
+    }
+
+    /** The default video buffer level below which the server serves the next chunk. */
+    public static final long DEFAULT_BUFFER_THRESHOLD_MS = PufferClient.DEFAULT_BUFFER_THRESHOLD_MS;
+    /** The default interval at which a {@code timer} message is repeated. */
+    public static final long DEFAULT_RETRY_INTERVAL_MS = PufferClient.DEFAULT_RETRY_INTERVAL_MS;
+
+    private static final String TAG = "PufferTelemetry";
+
+    private final Player player;
+    private final Callback callback;
+    private final Clock clock;
+    private final Handler handler;
+    private final long bufferThresholdMs;
+    private final long retryIntervalMs;
+    private final Runnable thresholdTimer;
+    private final Runnable retryTimer;
+
+    private volatile boolean released;
+    private volatile long bufferedTimelineMs;
+    private volatile long lastFrameRealtimeMs;
+
+    // Guarded by this. Written on the application thread only.
+    private long positionMs;
+    private long positionRealtimeMs;
+    private float speed;
+    private boolean playing;
+    private boolean rebuffering;
+    private long rebufferStartRealtimeMs;
+    private long cumRebufferMs;
+
+    // Only accessed on the application thread.
+    private boolean retryPending;
+    private long retryArmedRealtimeMs;
+    private long startRealtimeMs;
+    private long wakeups;
+    private long messagesSent;
+
+    /**
+     * @param player The player whose playback is reported.
+     * @param callback Receives the messages to be sent.
+     */
+    public PufferTelemetryScheduler(Player player, Callback callback) {
+        this(player, callback, Clock.DEFAULT, DEFAULT_BUFFER_THRESHOLD_MS, DEFAULT_RETRY_INTERVAL_MS);
+    }
+
+    /**
+     * @param player The player whose playback is reported.
+     * @param callback Receives the messages to be sent.
+     * @param clock The {@link Clock}.
+     * @param bufferThresholdMs The video buffer level below which {@code timer} messages are sent.
+     * @param retryIntervalMs The interval at which a {@code timer} message is repeated while the
+     *     buffer is below the threshold and no media arrives.
+     */
+    public PufferTelemetryScheduler(Player player, Callback callback, Clock clock,
+                                    long bufferThresholdMs, long retryIntervalMs) {
+        this.player = player;
+        this.callback = callback;
+        this.clock = clock;
+        this.bufferThresholdMs = bufferThresholdMs;
+        this.retryIntervalMs = retryIntervalMs;
+        this.handler = new Handler(player.getApplicationLooper());
+        this.speed = 1f;
+        this.thresholdTimer = new Runnable() {
+            @Override
+            public void run() {
+                onThresholdTimer();
+            }
+        };
+        this.retryTimer = new Runnable() {
+            @Override
+            public void run() {
+                onRetryTimer();
+            }
+        };
+    }
+
+    /** Starts listening to the player. May be called from any thread. */
+    public void start() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (released) {
+                    return;
+                }
+                startRealtimeMs = clock.elapsedRealtime();
+                player.addListener(PufferTelemetryScheduler.this);
+                onPlayerStateChanged(player.getPlayWhenReady(), player.getPlaybackState());
+            }
+        });
+    }
+
+    /**
+     * Stops the scheduler and cancels any pending timer. May be called from any thread.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        handler.removeCallbacksAndMessages(null);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                player.removeListener(PufferTelemetryScheduler.this);
+                Log.i(TAG, "Jiayi: " + wakeups + " timer wakeups, " + messagesSent + " messages, "
+                        + getWakeupsPerMinute() + " wakeups/min");
+            }
+        });
+    }
+
+    /**
+     * Updates the end of the buffered video timeline. Called by the network thread whenever a chunk
+     * has been fully received.
+     */
+    public void onChunkBuffered(long bufferedTimelineMs) {
+        this.bufferedTimelineMs = bufferedTimelineMs;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!released) {
+                    scheduleThresholdTimer(/* sendIfBelow= */ false);
+                }
+            }
+        });
+    }
+
+    /** Records that a media frame has been received. Called by the network thread. */
+    public void onFrameReceived() {
+        lastFrameRealtimeMs = clock.elapsedRealtime();
+    }
+
+    /** Returns the estimated playback position. May be called from any thread. */
+    public synchronized long getCurrentPositionMs() {
+        if (!playing) {
+            return positionMs;
+        }
+        return positionMs + (long) ((clock.elapsedRealtime() - positionRealtimeMs) * speed);
+    }
+
+    /** Returns the cumulative rebuffering time, including an ongoing rebuffer. */
+    public synchronized long getCumRebufferMs() {
+        return rebuffering ? cumRebufferMs + clock.elapsedRealtime() - rebufferStartRealtimeMs
+                : cumRebufferMs;
+    }
+
+    /** Returns the number of timer wakeups since {@link #start()}. */
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    /** Returns the number of timer wakeups per minute since {@link #start()}. */
+    public double getWakeupsPerMinute() {
+        long elapsedMs = clock.elapsedRealtime() - startRealtimeMs;
+        return elapsedMs <= 0 ? 0 : wakeups * 60000.0 / elapsedMs;
+    }
+
+    // Player.EventListener implementation.
+
+    @Override
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        if (released) {
+            return;
+        }
+        updatePosition();
+        String event = null;
+        synchronized (this) {
+            long nowMs = clock.elapsedRealtime();
+            if (playbackState == Player.STATE_BUFFERING && !rebuffering) {
+                rebuffering = true;
+                rebufferStartRealtimeMs = nowMs;
+                event = PufferClient.EVENT_REBUFFER;
+            } else if (playbackState != Player.STATE_BUFFERING && rebuffering) {
+                rebuffering = false;
+                cumRebufferMs += nowMs - rebufferStartRealtimeMs;
+                event = PufferClient.EVENT_PLAY;
+            }
+        }
+        if (event != null) {
+            send(event);
+        }
+        scheduleThresholdTimer(/* sendIfBelow= */ false);
+    }
+
+    @Override
+    public void onPositionDiscontinuity(int reason) {
+        if (!released) {
+            updatePosition();
+            scheduleThresholdTimer(/* sendIfBelow= */ false);
+        }
+    }
+
+    @Override
+    public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+        if (!released) {
+            updatePosition();
+            scheduleThresholdTimer(/* sendIfBelow= */ false);
+        }
+    }
+
+    // Internal methods, called on the application thread.
+
+    private void onThresholdTimer() {
+        wakeups++;
+        updatePosition();
+        scheduleThresholdTimer(/* sendIfBelow= */ true);
+    }
+
+    private void onRetryTimer() {
+        wakeups++;
+        retryPending = false;
+        updatePosition();
+        if (getVideoBufferMs() >= bufferThresholdMs) {
+            scheduleThresholdTimer(/* sendIfBelow= */ false);
+            return;
+        }
+        // Media arriving means the server is serving, and it learns the buffer level from the acks.
+        if (lastFrameRealtimeMs <= retryArmedRealtimeMs) {
+            send(PufferClient.EVENT_TIMER);
+        }
+        scheduleRetry();
+    }
+
+    private void scheduleThresholdTimer(boolean sendIfBelow) {
+        handler.removeCallbacks(thresholdTimer);
+        long videoBufferMs = getVideoBufferMs();
+        if (videoBufferMs >= bufferThresholdMs) {
+            handler.removeCallbacks(retryTimer);
+            retryPending = false;
+            float currentSpeed;
+            synchronized (this) {
+                if (!playing) {
+                    // The buffer does not drain, so it cannot cross the threshold.
+                    return;
+                }
+                currentSpeed = speed;
+            }
+            long delayMs = (long) ((videoBufferMs - bufferThresholdMs) / currentSpeed) + 1;
+            handler.postDelayed(thresholdTimer, delayMs);
+        } else {
+            if (sendIfBelow) {
+                send(PufferClient.EVENT_TIMER);
+            }
+            scheduleRetry();
+        }
+    }
+
+    private void scheduleRetry() {
+        if (!retryPending) {
+            retryPending = true;
+            retryArmedRealtimeMs = clock.elapsedRealtime();
+            handler.postDelayed(retryTimer, retryIntervalMs);
+        }
+    }
+
+    private void send(String event) {
+        messagesSent++;
+        callback.onClientInfo(event);
+    }
+
+    private long getVideoBufferMs() {
+        return bufferedTimelineMs - getCurrentPositionMs();
+    }
+
+    private void updatePosition() {
+        long currentPositionMs = player.getCurrentPosition();
+        boolean isPlaying = player.getPlayWhenReady()
+                && player.getPlaybackState() == Player.STATE_READY;
+        float currentSpeed = player.getPlaybackParameters().speed;
+        synchronized (this) {
+            positionMs = currentPositionMs;
+            positionRealtimeMs = clock.elapsedRealtime();
+            playing = isPlaying;
+            speed = currentSpeed;
+        }
+    }
+}
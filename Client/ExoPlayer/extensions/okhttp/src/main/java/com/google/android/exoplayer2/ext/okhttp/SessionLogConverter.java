@@ -0,0 +1,137 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+import com.google.android.exoplayer2.ext.puffer.PufferMessageEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import okio.ByteString;
+
+/**
+ * Converts files written by {@link BinarySessionLogger} into the JSON-lines format of the original
+ * {@code log-exoplayer-net-*.txt} logs, i.e. one {@code {"time":..., "type":"server-init"}} or
+ * {@code {"time":..., "ack":...}} object per line. The acks are re-encoded with {@link
+ * PufferMessageEncoder}, so they are identical to the messages that were sent.
+ * <p>
+ * Usage: {@code SessionLogConverter <file>...}. The files are converted in the given order, which
+ * should be the order of their indices, and the result is written to standard output.
+ */
+public final class SessionLogConverter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] record;
+    private final ByteBuffer recordView;
+    private final PufferFrameHeader header;
+    private final PufferMessageEncoder encoder;
+
+    public SessionLogConverter() {
+        record = new byte[BinarySessionLogger.RECORD_SIZE];
+        recordView = ByteBuffer.wrap(record);
+        header = new PufferFrameHeader();
+        encoder = new PufferMessageEncoder();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SessionLogConverter <file>...");
+            System.exit(1);
+        }
+        SessionLogConverter converter = new SessionLogConverter();
+        OutputStream output = new BufferedOutputStream(System.out);
+        for (String path : args) {
+            InputStream input = new BufferedInputStream(new FileInputStream(new File(path)));
+            try {
+                converter.convert(input, output);
+            } finally {
+                input.close();
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * Converts one file.
+     *
+     * @param input The contents of a file written by {@link BinarySessionLogger}.
+     * @param output The stream the JSON lines are written to.
+     * @throws IOException If the input is not a session log, or an I/O error occurs.
+     */
+    public void convert(InputStream input, OutputStream output) throws IOException {
+        DataInputStream dataInput = new DataInputStream(input);
+        if (dataInput.readInt() != BinarySessionLogger.MAGIC) {
+            throw new IOException("Not a session log");
+        }
+        while (true) {
+            try {
+                dataInput.readFully(record);
+            } catch (EOFException e) {
+                // A truncated last record is ignored.
+                return;
+            }
+            writeRecord(output);
+        }
+    }
+
+    private void writeRecord(OutputStream output) throws IOException {
+        long timeMs = recordView.getLong(BinarySessionLogger.OFFSET_TIME);
+        byte kind = record[BinarySessionLogger.OFFSET_KIND];
+        if (kind == BinarySessionLogger.KIND_SERVER_INIT) {
+            writeAscii(output, "{\"time\":" + timeMs + ", \"type\":\"server-init\"}\n");
+            return;
+        } else if (kind != BinarySessionLogger.KIND_ACK) {
+            throw new IOException("Unknown record kind " + kind);
+        }
+        header.reset();
+        header.type = record[BinarySessionLogger.OFFSET_FRAME_TYPE];
+        header.timestamp = recordView.getLong(BinarySessionLogger.OFFSET_TIMESTAMP);
+        header.byteOffset = recordView.getInt(BinarySessionLogger.OFFSET_BYTE_OFFSET);
+        header.totalByteLength = recordView.getInt(BinarySessionLogger.OFFSET_TOTAL_BYTE_LENGTH);
+        header.payloadLength = recordView.getInt(BinarySessionLogger.OFFSET_BYTE_LENGTH);
+        header.channelLength = copy(BinarySessionLogger.OFFSET_CHANNEL,
+                record[BinarySessionLogger.OFFSET_CHANNEL_LENGTH], header.channel);
+        header.formatLength = copy(BinarySessionLogger.OFFSET_FORMAT,
+                record[BinarySessionLogger.OFFSET_FORMAT_LENGTH], header.format);
+        header.ssimTextLength = copy(BinarySessionLogger.OFFSET_SSIM,
+                record[BinarySessionLogger.OFFSET_SSIM_LENGTH], header.ssimText);
+        long initId = recordView.getLong(BinarySessionLogger.OFFSET_INIT_ID);
+        long videoBufferMs = recordView.getLong(BinarySessionLogger.OFFSET_VIDEO_BUFFER);
+        long audioBufferMs = recordView.getLong(BinarySessionLogger.OFFSET_AUDIO_BUFFER);
+        long cumRebufferMs = recordView.getLong(BinarySessionLogger.OFFSET_CUM_REBUFFER);
+        long videoTimelineMs = recordView.getLong(BinarySessionLogger.OFFSET_VIDEO_TIMELINE);
+
+        ByteString ack = null;
+        if (header.type == PufferFrameHeader.TYPE_SERVER_VIDEO) {
+            ack = encoder.encodeVideoAck(
+                    initId, videoBufferMs, audioBufferMs, cumRebufferMs, videoTimelineMs, header);
+        } else if (header.type == PufferFrameHeader.TYPE_SERVER_AUDIO) {
+            ack = encoder.encodeAudioAck(initId, videoBufferMs, audioBufferMs, cumRebufferMs, header);
+        }
+        writeAscii(output, "{\"time\":" + timeMs + ", \"ack\":");
+        if (ack == null) {
+            writeAscii(output, "null");
+        } else {
+            ack.write(output);
+        }
+        writeAscii(output, "}\n");
+    }
+
+    private int copy(int offset, byte length, byte[] target) {
+        System.arraycopy(record, offset, target, 0, length);
+        return length;
+    }
+
+    private static void writeAscii(OutputStream output, String value) throws IOException {
+        output.write(value.getBytes(UTF_8));
+    }
+}
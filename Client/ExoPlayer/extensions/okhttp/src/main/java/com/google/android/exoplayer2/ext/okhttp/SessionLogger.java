@@ -0,0 +1,54 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+
+/**
+ * Records the messages exchanged with a Puffer server during a playback session.
+ * <p>
+ * Implementations are called on the network thread for every received frame, so they must not
+ * block or perform I/O on the calling thread.
+ */
+public interface SessionLogger {
+
+    /** A logger that discards everything. */
+    SessionLogger NONE = new SessionLogger() {
+        @Override
+        public void logServerInit(long timeMs) {
+        }
+
+        @Override
+        public void logAck(long timeMs, long initId, long videoBufferMs, long audioBufferMs,
+                           long cumRebufferMs, long videoTimelineMs, PufferFrameHeader header) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Logs that the connection to the server has been opened.
+     *
+     * @param timeMs The {@code SystemClock.elapsedRealtime()} of the event.
+     */
+    void logServerInit(long timeMs);
+
+    /**
+     * Logs the ack sent for a received frame. For frames that are not acked, i.e. whose type is
+     * neither {@link PufferFrameHeader#TYPE_SERVER_VIDEO} nor {@link
+     * PufferFrameHeader#TYPE_SERVER_AUDIO}, an empty ack is logged.
+     *
+     * @param timeMs The {@code SystemClock.elapsedRealtime()} of the event.
+     * @param initId The session's {@code initId}.
+     * @param videoBufferMs The video buffer level sent in the ack, in milliseconds.
+     * @param audioBufferMs The audio buffer level sent in the ack, in milliseconds.
+     * @param cumRebufferMs The cumulative rebuffering time sent in the ack, in milliseconds.
+     * @param videoTimelineMs The playback position sent in the ack, in milliseconds.
+     * @param header The header of the acked frame. Not retained.
+     */
+    void logAck(long timeMs, long initId, long videoBufferMs, long audioBufferMs, long cumRebufferMs,
+                long videoTimelineMs, PufferFrameHeader header);
+
+    /** Flushes what has been logged and releases the logger. May be called more than once. */
+    void close();
+}
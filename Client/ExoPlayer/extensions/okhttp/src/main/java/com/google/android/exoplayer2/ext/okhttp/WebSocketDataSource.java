@@ -9,6 +9,7 @@ import android.util.Log;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayerLibraryInfo;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
 import com.google.android.exoplayer2.upstream.BaseDataSource;
 import com.google.android.exoplayer2.upstream.DataSourceException;
 import com.google.android.exoplayer2.upstream.DataSpec;
@@ -17,24 +18,16 @@ import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Predicate;
 import com.google.android.exoplayer2.util.Util;
 
-import org.json.JSONObject;
-
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.text.DecimalFormat;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -56,8 +49,6 @@ import okhttp3.WebSocketListener;
 import okio.ByteString;
 import okio.Pipe;
 
-import static com.google.android.exoplayer2.util.Util.castNonNull;
-
 public class WebSocketDataSource extends BaseDataSource implements HttpDataSource {
 
     static {
@@ -69,8 +60,6 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
     private ConditionVariable isOpenCV = new ConditionVariable();
     private ConditionVariable isAudioReady = new ConditionVariable();
 
-    private static final byte[] SKIP_BUFFER = new byte[4096];
-
     private final OkHttpClient callFactory;
     private final RequestProperties requestProperties;
 
@@ -86,10 +75,9 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
     private @Nullable
     DataSpec dataSpec;
     private @Nullable
-    Response response;
-    ResponseBody responseBody;
-    private @Nullable
-    InputStream responseByteStream;
+    PufferSession session;
+    private volatile @Nullable
+    IOException sessionError;
     private boolean opened;
 
     private long bytesToSkip;
@@ -98,28 +86,13 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
     private long bytesSkipped;
     private long bytesRead;
 
-    String initId = "298665506";
-    String sessionKey = "376m3bv1pkvgczfcscalwul558bcgtvn";
-    int screenWidth = 1440;
-    int screenHeight = 900;
-
-    int mediaLen = 0;
-    byte[] mediadata = null;
-    PipedInputStream mediaDataInputStream = new PipedInputStream(16000000); // 655350; // 15 * 1MB =
-    PipedOutputStream mediaDataOutputStream = new PipedOutputStream();
-
-    long bufferedTimeline = 0;
-    long cumRebufferMs = 0;
-    int state = 0;
-    String videoBuffer = null;
-    String audioBuffer = null;
-    String cumRebuffer = null;
-    String videoTimeline = null;
-    DecimalFormat df = new DecimalFormat("0.000");
-
-    private File logFile = null;
-    private FileOutputStream fos = null;
-    private BufferedWriter logStream = null;
+    private final FrameRingBuffer mediaBuffer = new FrameRingBuffer();
+
+    // Written on the OkHttp reader thread, read by the scheduler on the application thread.
+    volatile long bufferedTimeline = 0;
+
+    private final @Nullable
+    File logDirectory;
 
     SimpleExoPlayer player;
 
@@ -167,6 +140,7 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
         this.cacheControl = cacheControl;
         this.defaultRequestProperties = defaultRequestProperties;
         this.requestProperties = new RequestProperties();
+        this.logDirectory = null;
     }
 
     public WebSocketDataSource(
@@ -176,6 +150,38 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
             @Nullable CacheControl cacheControl,
             SimpleExoPlayer player,
             @Nullable RequestProperties defaultRequestProperties) {
+        this(
+                callFactory,
+                userAgent,
+                contentTypePredicate,
+                cacheControl,
+                player,
+                defaultRequestProperties,
+                new File("/sdcard/"));
+    }
+
+    /**
+     * @param callFactory              A {@link OkHttpClient} (typically an {@link okhttp3.OkHttpClient}) for use
+     *                                 by the source.
+     * @param userAgent                An optional User-Agent string.
+     * @param contentTypePredicate     An optional {@link Predicate}. If a content type is rejected by the
+     *                                 predicate then a {@link InvalidContentTypeException} is thrown from {@link
+     *                                 #open(DataSpec)}.
+     * @param cacheControl             An optional {@link CacheControl} for setting the Cache-Control header.
+     * @param player                   The player whose playback state is reported to the server.
+     * @param defaultRequestProperties The optional default {@link RequestProperties} to be sent to
+     *                                 the server as HTTP headers on every request.
+     * @param logDirectory             The directory each opened session is logged to by a {@link
+     *                                 BinarySessionLogger}, or null if it should not be logged.
+     */
+    public WebSocketDataSource(
+            OkHttpClient callFactory,
+            @Nullable String userAgent,
+            @Nullable Predicate<String> contentTypePredicate,
+            @Nullable CacheControl cacheControl,
+            SimpleExoPlayer player,
+            @Nullable RequestProperties defaultRequestProperties,
+            @Nullable File logDirectory) {
         super(/* isNetwork= */ true);
         this.callFactory = Assertions.checkNotNull(callFactory);
         this.userAgent = userAgent;
@@ -184,24 +190,19 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
         this.defaultRequestProperties = defaultRequestProperties;
         this.requestProperties = new RequestProperties();
         this.player = player;
-
-        logFile = new File("/sdcard/", "log-exoplayer-net-" + SystemClock.elapsedRealtime() + ".txt");
-        try {
-            fos = new FileOutputStream(logFile);
-            logStream = new BufferedWriter(new OutputStreamWriter(fos));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        this.logDirectory = logDirectory;
     }
 
     @Override
     public @Nullable
     Uri getUri() {
+        Response response = session == null ? null : session.getResponse();
         return response == null ? null : Uri.parse(response.request().url().toString());
     }
 
     @Override
     public Map<String, List<String>> getResponseHeaders() {
+        Response response = session == null ? null : session.getResponse();
         return response == null ? Collections.emptyMap() : response.headers().toMultimap();
     }
 
@@ -227,283 +228,66 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
     public long open(DataSpec dataSpec) throws HttpDataSourceException {
         Log.e(TAG, "Jiayi: open " + Thread.currentThread().getId());
 
-        try {
-            mediaDataInputStream.connect(mediaDataOutputStream);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        mediaBuffer.reset();
+        sessionError = null;
 
         this.dataSpec = dataSpec;
         this.bytesRead = 0;
         this.bytesSkipped = 0;
         transferInitializing(dataSpec);
 
-        String in = "{\"initId\":" + initId +
-                ",\"sessionKey\": \"" + sessionKey + "\"" +
-                ",\"userName\":\"test\",\"channel\":\"cbs\",\"os\":\"Mac OS X\",\"browser\":\"Chrome\"" +
-                ",\"screenWidth\":" + Integer.toString(screenWidth) +
-                ",\"screenHeight\":" + Integer.toString(screenHeight) + ",\"type\":\"client-init\"}";
-
         // Log.e(TAG, "Jiayi: in open " + Long.toString(dataSpec.position) + ", " + Long.toString(dataSpec.length));
 
-        // Request request = makeRequest(dataSpec);
-        Request request = new Request.Builder().url(dataSpec.uri.toString())
-                .addHeader("Origin", dataSpec.uri.toString())
-                .build();
-
-        WebSocketListener webSocketListener = new WebSocketListener() {
+        PufferSession.Listener sessionListener = new PufferSession.Listener() {
             @Override
-            public void onOpen(WebSocket webSocket, Response _response) {
-                super.onOpen(webSocket, _response);
-                webSocket.send(in);
-                response = _response;
-                responseBody = Assertions.checkNotNull(response.body());
-                responseByteStream = responseBody.byteStream();
-
-                try {
-                    logStream.write("{\"time\":" + SystemClock.elapsedRealtime() + ", \"type\":\"server-init\"}");
-                    logStream.newLine();
-                } catch (Exception e) {
-                    e.printStackTrace();
+            public void onMediaFrame(PufferFrameHeader header, ByteString bytes) {
+                if (header.type != PufferFrameHeader.TYPE_SERVER_VIDEO) {
+                    return;
                 }
-
-                state = 1;
-
-                Thread timerUpdate = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        double vbs = 0.0;
-                        while (true) {
-                            try {
-                                Thread.sleep(250);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-
-                            vbs = 1.0 * (bufferedTimeline - player.getCurrentPosition()) / 1000.0;
-                            if (vbs >= 7) continue;
-
-                            send_client_info(webSocket, "timer");
-                        }
-                    }
-                });
-
-                Thread checkRebuffering = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        long rebuffer_start_ms = 0;
-                        long last_rebuffer_ms = 0;
-                        long curr_ms = 0;
-                        while (true) {
-                            try {
-                                Thread.sleep(50);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                            curr_ms = System.currentTimeMillis();
-                            // player is rebuffering
-                            if (player.getPlaybackState() == 2)  {
-                                if (rebuffer_start_ms == 0) {
-                                    send_client_info(webSocket, "rebuffer");
-                                    rebuffer_start_ms = curr_ms;
-                                }
-                                if (last_rebuffer_ms != 0) cumRebufferMs += curr_ms - last_rebuffer_ms;
-                                last_rebuffer_ms = curr_ms;
-                            } else {
-                                if (rebuffer_start_ms != 0) send_client_info(webSocket, "play");
-                                rebuffer_start_ms = 0;
-                                last_rebuffer_ms = 0;
-                            }
-                        }
-                    }
-                });
-
-                timerUpdate.start();
-                checkRebuffering.start();
-            }
-
-            @Override
-            public void onMessage(WebSocket webSocket, String text) {
-                Log.i(TAG, "Jiayi: onMessage (string) with sizeof data " + text.length() + "; state " + Integer.toString(state));
-            }
-
-            @Override
-            public void onMessage(WebSocket webSocket, ByteString bytes) {
-                byte[] data = bytes.toByteArray();
-
-                int metadataLen = 0;
-                byte[] raw_metadata = null;
-
-                String msgType = null;
-
-                String channel = null;
-                String format = null;
-                int timestamp = 0;
-                int byteOffset = 0;
-                int totalByteLength = 0;
-                int byteLength = 0;
-                boolean isLastFragReceived = false;
-                double ssim = 0.0;
-                if (state == 1) {
-                    String s = new String(data);
-                    if (!s.contains("server-init")) {
-                        Log.e(TAG + " Jiayi", "state = 1 != server-init");
-                    }
-
-                    send_client_info(webSocket, "startup");
-                    state = 2;
-                } else if (state == 2) {
-                    metadataLen = 0;
-                    for (int i = 0; i < 2; i++)
-                        metadataLen = metadataLen * 10 + Byte.toUnsignedInt(data[i]);
-                    // Log.i(TAG + " Jiayi", Integer.toString(metadataLen));
-
-                    raw_metadata = new byte[metadataLen];
-                    System.arraycopy(data, 2, raw_metadata, 0, metadataLen);
-
-                    // Log.i(TAG + " Jiayi", new String(raw_metadata));
-                    JSONObject metadataObject = null;
-                    try {
-                        metadataObject = new JSONObject(new String(raw_metadata));
-                        msgType = metadataObject.getString("type");
-                        byteOffset = metadataObject.getInt("byteOffset");
-                        totalByteLength = metadataObject.getInt("totalByteLength");
-                        byteLength = data.length - metadataLen - 2;
-                        isLastFragReceived = ((byteOffset + byteLength) == totalByteLength);
-                        if (isLastFragReceived) bufferedTimeline += 2002;
-                        if (msgType.contains("server-video") || msgType.contains("server-audio")) {
-                            channel = metadataObject.getString("channel");
-                            format = metadataObject.getString("format");
-                            timestamp = metadataObject.getInt("timestamp");
-                        }
-                        if (msgType.contains("server-video"))
-                            ssim = metadataObject.getDouble("ssim");
-                        // Log.i(TAG + " Jiayi", msgType + ", receive last fragment " + isLastFragReceived + ", " + byteOffset
-                        //        + ", " + byteLength + ", " + totalByteLength);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-
-                    if (msgType.contains("server-video")) { // || msgType.contains("server-audio")) {
-                        mediaLen = data.length - metadataLen - 2;
-                        mediadata = new byte[mediaLen];
-                        System.arraycopy(data, 2 + metadataLen, mediadata, 0, mediaLen);
-                        try {
-                            mediaDataOutputStream.write(mediadata);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-
-                    videoBuffer = df.format(1.0 * (bufferedTimeline - player.getCurrentPosition()) / 1000.0);
-                    audioBuffer = videoBuffer;
-                    cumRebuffer = df.format(1.0 * cumRebufferMs / 1000.0);
-                    videoTimeline = df.format(1.0 * player.getCurrentPosition() / 1000.0);
-                    // Log.e(TAG, "Jiayi; acked bufferedTimeline " + bufferedTimeline + ", buffer size " + player.getBufferedPosition() + ", " +
-                    //         player.getCurrentPosition() + ", " + videoBuffer);
-
-                    // send client ack video
-                    String ackMsg = null;
-                    if (msgType.contains("server-audio")) {
-                        ackMsg = "{\"initId\": " + initId +
-                                ", \"videoBuffer\": " + videoBuffer +
-                                ", \"audioBuffer\": " + audioBuffer +
-                                ", \"cumRebuffer\": " + cumRebuffer +
-                                ", \"channel\": \"" + channel + "\"" +
-                                ", \"format\": \"" + format + "\"" +
-                                ", \"timestamp\": " + timestamp +
-                                ", \"byteOffset\": " + byteOffset +
-                                ", \"totalByteLength\": " + totalByteLength +
-                                ", \"byteLength\": " + byteLength +
-                                ", \"type\": \"client-audack\"" +
-                                "}";
-                        webSocket.send(ackMsg);
-                        // Log.i(TAG + " Jiayi", SystemClock.elapsedRealtime() + ": ackMsg: " + ackMsg);
-                    }
-                    if (msgType.contains("server-video")) {
-                        isOpenCV.open();
-                        ackMsg = "{\"initId\": " + initId +
-                                ", \"videoBuffer\": " + videoBuffer +
-                                ", \"audioBuffer\": " + audioBuffer +
-                                ", \"cumRebuffer\": " + cumRebuffer +
-                                ", \"videoTimeline\": " + videoTimeline +
-                                ", \"channel\": \"" + channel + "\"" +
-                                ", \"format\": \"" + format + "\"" +
-                                ", \"timestamp\": " + timestamp +
-                                ", \"byteOffset\": " + byteOffset +
-                                ", \"totalByteLength\": " + totalByteLength +
-                                ", \"byteLength\": " + byteLength +
-                                ", \"ssim\": " + ssim +
-                                ", \"type\": \"client-vidack\"" +
-                                "}";
-                        webSocket.send(ackMsg);
-                        // Log.i(TAG + " Jiayi", SystemClock.elapsedRealtime() + ": ackMsg: " + ackMsg);
-                    }
-                    try {
-                        logStream.write("{\"time\":" + SystemClock.elapsedRealtime() + ", \"ack\":" + ackMsg + "}");
-                        logStream.newLine();
-                        logStream.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-
-                } else {
-                    /* Server messages are of the form: "metadataLen|metadata_json|data" */
-                    ;
+                if (header.isLastFragment()) bufferedTimeline += 2002;
+                // Log.i(TAG + " Jiayi", "receive last fragment " + header.isLastFragment() + ", "
+                //        + header.byteOffset + ", " + header.payloadLength + ", " + header.totalByteLength);
+                try {
+                    mediaBuffer.write(bytes, header.payloadOffset, header.payloadLength);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-
+                isOpenCV.open();
             }
 
             @Override
-            public void onClosing(WebSocket webSocket, int code, String reason) {
+            public void awaitCapacity() {
+                // Do nothing. Writes wait for the reader of the media buffer, which close() wakes.
             }
 
             @Override
-            public void onClosed(WebSocket webSocket, int code, String reason) {
-                try {
-                    logStream.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            public long getBufferedPositionMs(int trackType) {
+                // Only video is played, and the server is told the audio buffer matches it.
+                return bufferedTimeline;
             }
 
             @Override
-            public void onFailure(WebSocket webSocket, Throwable t, @Nullable Response response) {
-            }
-
-            private void send_client_info(WebSocket webSocket, String eventType) {
-                videoBuffer = df.format(1.0 * (bufferedTimeline - player.getCurrentPosition()) / 1000.0);
-                audioBuffer = videoBuffer;
-                cumRebuffer = df.format(1.0 * cumRebufferMs / 1000.0);
-                videoTimeline = df.format(1.0 * player.getCurrentPosition() / 1000.0);
-
-                //Log.e(TAG, "Jiayi; " + eventType + " bufferedTimeline " + bufferedTimeline + ", buffer size " + player.getBufferedPosition() +
-                //        ", currPos " + player.getCurrentPosition() + ", videoBuf " + videoBuffer +
-                //        ", playState " + player.getPlaybackState());
-
-                // send client rebuffering
-                String infoMsg = null;
-                infoMsg = "{\"initId\": " + initId +
-                        ", \"videoBuffer\": " + videoBuffer +
-                        ", \"audioBuffer\": " + audioBuffer +
-                        ", \"cumRebuffer\": " + cumRebuffer +
-                        ", \"videoTimeline\": " + videoTimeline +
-                        ", \"event\": \"" + eventType + "\"" +
-                        ", \"screenWidth\": " + Integer.toString(screenWidth) +
-                        ", \"screenHeight\": " + Integer.toString(screenHeight) +
-                        ", \"event\": 0" +
-                        ", \"type\": \"client-info\"" +
-                        "}";
-                webSocket.send(infoMsg);
-                // Log.i(TAG + " Jiayi", "rebuffering infoMsg: " + infoMsg);
+            public void onSessionError(IOException error) {
+                sessionError = error;
+                mediaBuffer.close();
+                isOpenCV.open();
             }
         };
-        WebSocket webSocket = callFactory.newWebSocket(request, webSocketListener);
+        // A session closes its logger when it ends, so every session gets a new one.
+        SessionLogger sessionLogger = logDirectory == null ? SessionLogger.NONE
+                : new BinarySessionLogger(logDirectory,
+                "log-exoplayer-net-" + SystemClock.elapsedRealtime());
+        session = new PufferSession(callFactory, dataSpec.uri, sessionLogger, null);
+        session.attach(player, sessionListener);
 
         bytesToSkip = 0;
         bytesToRead = -1;
 
         isOpenCV.block();
+        if (sessionError != null) {
+            throw new HttpDataSourceException(
+                    sessionError, dataSpec, HttpDataSourceException.TYPE_OPEN);
+        }
 
         opened = true;
         transferStarted(dataSpec);
@@ -516,7 +300,6 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
         // Log.e(TAG, "Jiayi: WebSocket read len " + Integer.toString(readLength));
 
         try {
-            // skipInternal();
             return readInternal(buffer, offset, readLength);
         } catch (IOException e) {
             throw new HttpDataSourceException(
@@ -529,13 +312,11 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
         if (opened) {
             opened = false;
             transferEnded();
-            closeConnectionQuietly();
-            try {
-                logStream.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
         }
+        mediaBuffer.close();
+        Log.i(TAG, "Jiayi: closed, buffer high water " + mediaBuffer.getHighWaterBytes()
+                + " B, reader blocked " + mediaBuffer.getProducerBlockedTimeMs() + " ms");
+        closeConnectionQuietly();
     }
 
     /**
@@ -570,33 +351,6 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
         return bytesToRead == C.LENGTH_UNSET ? bytesToRead : bytesToRead - bytesRead;
     }
 
-    /**
-     * Skips any bytes that need skipping. Else does nothing.
-     * <p>
-     * This implementation is based roughly on {@code libcore.io.Streams.skipByReading()}.
-     *
-     * @throws InterruptedIOException If the thread is interrupted during the operation.
-     * @throws EOFException           If the end of the input stream is reached before the bytes are skipped.
-     */
-    private void skipInternal() throws IOException {
-        if (bytesSkipped == bytesToSkip) {
-            return;
-        }
-
-        while (bytesSkipped != bytesToSkip) {
-            int readLength = (int) Math.min(bytesToSkip - bytesSkipped, SKIP_BUFFER.length);
-            int read = castNonNull(responseByteStream).read(SKIP_BUFFER, 0, readLength);
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedIOException();
-            }
-            if (read == -1) {
-                throw new EOFException();
-            }
-            bytesSkipped += read;
-            bytesTransferred(read);
-        }
-    }
-
     /**
      * Reads up to {@code length} bytes of data and stores them into {@code buffer}, starting at
      * index {@code offset}.
@@ -622,11 +376,11 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
             }
             readLength = (int) Math.min(readLength, bytesRemaining);
         }
-        // Log.e(TAG, "Jiayi: mediadata len " + Integer.toString(mediaLen) + "; buffer len " + Integer.toString(buffer.length));
-        // if (buffer.length < mediaLen) System.arraycopy(mediadata, 0, buffer, 0, buffer.length);
-        // else System.arraycopy(mediadata, 0, buffer, 0, mediaLen);
-        int read = castNonNull(mediaDataInputStream).read(buffer, offset, readLength);
-        if (read == -1) {
+        int read = mediaBuffer.read(buffer, offset, readLength);
+        if (read == C.RESULT_END_OF_INPUT) {
+            if (sessionError != null) {
+                throw sessionError;
+            }
             if (bytesToRead != C.LENGTH_UNSET) {
                 // End of stream reached having not read sufficient data.
                 throw new EOFException();
@@ -643,11 +397,10 @@ public class WebSocketDataSource extends BaseDataSource implements HttpDataSourc
      * Closes the current connection quietly, if there is one.
      */
     private void closeConnectionQuietly() {
-        if (response != null) {
-            Assertions.checkNotNull(response.body()).close();
-            response = null;
+        if (session != null) {
+            session.release();
+            session = null;
         }
-        responseByteStream = null;
     }
 
 }
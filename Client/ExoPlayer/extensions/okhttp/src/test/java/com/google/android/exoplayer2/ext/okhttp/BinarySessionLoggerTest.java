@@ -0,0 +1,295 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameParser;
+import com.google.android.exoplayer2.ext.puffer.PufferMessageEncoder;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.ByteString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Unit test for {@link BinarySessionLogger} and {@link SessionLogConverter}. */
+@RunWith(RobolectricTestRunner.class)
+public final class BinarySessionLoggerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String PREFIX = "session";
+    private static final long FAST_FLUSH_INTERVAL_MS = 1;
+    private static final long SLOW_FLUSH_INTERVAL_MS = 60_000;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Util.createTempDirectory(RuntimeEnvironment.application, "ExoPlayerTest");
+    }
+
+    @After
+    public void tearDown() {
+        Util.recursiveDelete(directory);
+    }
+
+    @Test
+    public void testDrainStopsAtFirstUnpublishedRecord() throws Exception {
+        BinarySessionLogger logger = new BinarySessionLogger(directory, PREFIX,
+                /* capacityRecords= */ 8, FAST_FLUSH_INTERVAL_MS, Long.MAX_VALUE);
+        int first = logger.claim();
+        logger.logServerInit(/* timeMs= */ 2);
+
+        // The second record is published but must not be written before the first.
+        Thread.sleep(50);
+        assertThat(getLoggedBytes()).isEqualTo(0);
+        logger.writeServerInit(first, /* timeMs= */ 1);
+        logger.publish(first);
+        logger.close();
+        logger.awaitTermination();
+
+        assertThat(getLoggedTimes()).containsExactly(1L, 2L).inOrder();
+    }
+
+    @Test
+    public void testCloseWritesRecordsPublishedAfterIt() throws Exception {
+        BinarySessionLogger logger = new BinarySessionLogger(directory, PREFIX,
+                /* capacityRecords= */ 8, FAST_FLUSH_INTERVAL_MS, Long.MAX_VALUE);
+        logger.logServerInit(/* timeMs= */ 1);
+        int claimed = logger.claim();
+        logger.close();
+        // Records logged after close are ignored.
+        logger.logServerInit(/* timeMs= */ 3);
+
+        Thread.sleep(50);
+        logger.writeServerInit(claimed, /* timeMs= */ 2);
+        logger.publish(claimed);
+        logger.awaitTermination();
+
+        assertThat(getLoggedTimes()).containsExactly(1L, 2L).inOrder();
+        assertThat(logger.getDroppedRecords()).isEqualTo(0);
+    }
+
+    @Test
+    public void testConcurrentLoggersLoseNothingOnClose() throws Exception {
+        BinarySessionLogger logger = new BinarySessionLogger(directory, PREFIX,
+                /* capacityRecords= */ 1024, FAST_FLUSH_INTERVAL_MS, Long.MAX_VALUE);
+        Thread[] producers = new Thread[4];
+        AtomicLong accepted = new AtomicLong();
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    int offset = logger.claim();
+                    if (offset >= 0) {
+                        accepted.incrementAndGet();
+                        logger.writeServerInit(offset, j);
+                        logger.publish(offset);
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        Thread.sleep(20);
+        logger.close();
+        logger.awaitTermination();
+        for (Thread producer : producers) {
+            producer.join(TIMEOUT_MS);
+        }
+
+        // Every claimed record is written, even if it was published after close.
+        assertThat(getLoggedBytes())
+                .isEqualTo(4 + accepted.get() * BinarySessionLogger.RECORD_SIZE);
+    }
+
+    @Test
+    public void testWrapsAroundTheRing() throws Exception {
+        BinarySessionLogger logger = new BinarySessionLogger(directory, PREFIX,
+                /* capacityRecords= */ 4, FAST_FLUSH_INTERVAL_MS, Long.MAX_VALUE);
+        long time = 0;
+        for (int round = 0; round < 10; round++) {
+            // Three records per round, so that runs start at every slot and some wrap.
+            for (int i = 0; i < 3; i++) {
+                logger.logServerInit(time++);
+            }
+            awaitLoggedBytes(4 + time * BinarySessionLogger.RECORD_SIZE);
+        }
+        logger.close();
+        logger.awaitTermination();
+
+        List<Long> times = getLoggedTimes();
+        assertThat(times).hasSize(30);
+        for (int i = 0; i < times.size(); i++) {
+            assertThat(times.get(i)).isEqualTo((long) i);
+        }
+        assertThat(logger.getDroppedRecords()).isEqualTo(0);
+    }
+
+    @Test
+    public void testDropsRecordsWhileFull() throws Exception {
+        BinarySessionLogger logger = new BinarySessionLogger(directory, PREFIX,
+                /* capacityRecords= */ 4, SLOW_FLUSH_INTERVAL_MS, Long.MAX_VALUE);
+        int[] claimed = new int[4];
+        for (int i = 0; i < claimed.length; i++) {
+            claimed[i] = logger.claim();
+        }
+
+        assertThat(logger.claim()).isEqualTo(-1);
+        logger.logServerInit(/* timeMs= */ 100);
+        assertThat(logger.getDroppedRecords()).isEqualTo(2);
+        for (int i = 0; i < claimed.length; i++) {
+            logger.writeServerInit(claimed[i], i);
+            logger.publish(claimed[i]);
+        }
+        logger.close();
+        logger.awaitTermination();
+
+        assertThat(getLoggedTimes()).containsExactly(0L, 1L, 2L, 3L).inOrder();
+    }
+
+    @Test
+    public void testRotatesFiles() throws Exception {
+        long recordsPerFile = 2;
+        BinarySessionLogger logger = new BinarySessionLogger(directory, PREFIX,
+                /* capacityRecords= */ 8, FAST_FLUSH_INTERVAL_MS,
+                /* maxFileBytes= */ 4 + recordsPerFile * BinarySessionLogger.RECORD_SIZE);
+        for (int i = 0; i < 5; i++) {
+            logger.logServerInit(i);
+            // One record per write, so that the file boundaries are deterministic.
+            awaitLoggedBytes(4 * (1 + i / recordsPerFile)
+                    + (i + 1) * BinarySessionLogger.RECORD_SIZE);
+        }
+        logger.close();
+        logger.awaitTermination();
+
+        File[] files = getLogFiles();
+        assertThat(files).hasLength(3);
+        assertThat(files[0].length()).isEqualTo(4 + 2 * BinarySessionLogger.RECORD_SIZE);
+        assertThat(files[1].length()).isEqualTo(4 + 2 * BinarySessionLogger.RECORD_SIZE);
+        assertThat(files[2].length()).isEqualTo(4 + BinarySessionLogger.RECORD_SIZE);
+        assertThat(getLoggedTimes()).containsExactly(0L, 1L, 2L, 3L, 4L).inOrder();
+    }
+
+    @Test
+    public void testConverterReproducesSentMessages() throws Exception {
+        BinarySessionLogger logger = new BinarySessionLogger(directory, PREFIX,
+                /* capacityRecords= */ 8, FAST_FLUSH_INTERVAL_MS, Long.MAX_VALUE);
+        PufferFrameHeader video = header("{\"type\": \"server-video\", \"channel\": \"nbc\","
+                + " \"format\": \"1280x720-24\", \"timestamp\": 360360, \"byteOffset\": 100,"
+                + " \"totalByteLength\": 150, \"ssim\": 0.98765}", /* payloadLength= */ 50);
+        PufferFrameHeader audio = header("{\"type\": \"server-audio\", \"channel\": \"nbc\","
+                + " \"format\": \"128k\", \"timestamp\": 864000, \"byteOffset\": 0,"
+                + " \"totalByteLength\": 20}", /* payloadLength= */ 20);
+        PufferFrameHeader error = header("{\"type\": \"server-error\"}", /* payloadLength= */ 0);
+        logger.logServerInit(/* timeMs= */ 1000);
+        logger.logAck(/* timeMs= */ 1001, /* initId= */ 42, /* videoBufferMs= */ 7250,
+                /* audioBufferMs= */ 7250, /* cumRebufferMs= */ 15, /* videoTimelineMs= */ 12345,
+                video);
+        logger.logAck(/* timeMs= */ 1002, /* initId= */ 42, /* videoBufferMs= */ -5,
+                /* audioBufferMs= */ -5, /* cumRebufferMs= */ 0, /* videoTimelineMs= */ 0, audio);
+        logger.logAck(/* timeMs= */ 1003, /* initId= */ 42, /* videoBufferMs= */ 0,
+                /* audioBufferMs= */ 0, /* cumRebufferMs= */ 0, /* videoTimelineMs= */ 0, error);
+        logger.close();
+        logger.awaitTermination();
+
+        PufferMessageEncoder encoder = new PufferMessageEncoder();
+        String expected = "{\"time\":1000, \"type\":\"server-init\"}\n"
+                + "{\"time\":1001, \"ack\":"
+                + encoder.encodeVideoAck(42, 7250, 7250, 15, 12345, video).utf8() + "}\n"
+                + "{\"time\":1002, \"ack\":"
+                + encoder.encodeAudioAck(42, -5, -5, 0, audio).utf8() + "}\n"
+                + "{\"time\":1003, \"ack\":null}\n";
+        assertThat(convert()).isEqualTo(expected);
+    }
+
+    @Test
+    public void testConverterRejectsOtherFiles() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            new SessionLogConverter().convert(new ByteArrayInputStream(new byte[] {1, 2, 3, 4}),
+                    output);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private File[] getLogFiles() {
+        File[] files = directory.listFiles();
+        Arrays.sort(files, (a, b) -> Integer.compare(getFileIndex(a), getFileIndex(b)));
+        return files;
+    }
+
+    private static int getFileIndex(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(PREFIX.length() + 1, name.length() - 4));
+    }
+
+    private long getLoggedBytes() {
+        long bytes = 0;
+        for (File file : directory.listFiles()) {
+            bytes += file.length();
+        }
+        return bytes;
+    }
+
+    private void awaitLoggedBytes(long bytes) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        while (getLoggedBytes() < bytes) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadlineMs);
+            Thread.sleep(1);
+        }
+        assertThat(getLoggedBytes()).isEqualTo(bytes);
+    }
+
+    /** Converts all files and returns the output. */
+    private String convert() throws Exception {
+        SessionLogConverter converter = new SessionLogConverter();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (File file : getLogFiles()) {
+            try (InputStream input = new FileInputStream(file)) {
+                converter.convert(input, output);
+            }
+        }
+        return new String(output.toByteArray(), UTF_8);
+    }
+
+    /** Returns the times of the server-init records in all files, in order. */
+    private List<Long> getLoggedTimes() throws Exception {
+        List<Long> times = new ArrayList<>();
+        for (String line : convert().split("\n")) {
+            if (!line.isEmpty()) {
+                times.add(Long.parseLong(line.substring("{\"time\":".length(), line.indexOf(','))));
+            }
+        }
+        return times;
+    }
+
+    private static PufferFrameHeader header(String metadata, int payloadLength) throws Exception {
+        byte[] metadataBytes = metadata.getBytes(UTF_8);
+        byte[] frame = new byte[2 + metadataBytes.length + payloadLength];
+        frame[0] = (byte) (metadataBytes.length >> 8);
+        frame[1] = (byte) metadataBytes.length;
+        System.arraycopy(metadataBytes, 0, frame, 2, metadataBytes.length);
+        PufferFrameHeader header = new PufferFrameHeader();
+        new PufferFrameParser().parse(ByteString.of(frame), header);
+        return header;
+    }
+}
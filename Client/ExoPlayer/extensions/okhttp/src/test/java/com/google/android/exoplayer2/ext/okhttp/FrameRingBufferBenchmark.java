@@ -0,0 +1,124 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.C;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import okio.ByteString;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Compares {@link FrameRingBuffer} with {@link PipedFrameBuffer}, the pipe it replaced, as an
+ * OkHttp reader thread writes received frames and a loader thread reads them in 64 KB reads. It
+ * prints the throughput and the bytes allocated per second by both threads.
+ * <p>
+ * Runs only when the system property {@code benchmarks} is true. The frame size and count are set
+ * with the system properties {@code ring.benchmark.frameBytes} and {@code
+ * ring.benchmark.frames}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class FrameRingBufferBenchmark {
+
+    private static final int HEADER_LENGTH = 2;
+    private static final int READ_LENGTH = 64 * 1024;
+
+    @Test
+    public void compareWithPipe() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        int frameBytes = Integer.getInteger("ring.benchmark.frameBytes", 100 * 1024);
+        int frameCount = Integer.getInteger("ring.benchmark.frames", 20_000);
+        ByteString frame = ByteString.of(new byte[HEADER_LENGTH + frameBytes]);
+        System.out.println("Benchmark: " + frameCount + " frames of " + frameBytes + " B");
+        // Warm up, so that neither is measured before compilation.
+        measure(/* ring= */ true, frame, frameCount / 10);
+        measure(/* ring= */ false, frame, frameCount / 10);
+        for (boolean ring : new boolean[] {true, false}) {
+            Result result = measure(ring, frame, frameCount);
+            assertThat(result.bytesRead).isEqualTo((long) frameBytes * frameCount);
+            System.out.println(String.format(Locale.US,
+                    "Benchmark: %-15s %8.1f MB/s  %8.1f MB/s allocated",
+                    ring ? "FrameRingBuffer" : "pipe", result.bytesRead / result.seconds / 1e6,
+                    result.allocatedBytes / result.seconds / 1e6));
+        }
+    }
+
+    private static Result measure(boolean ring, ByteString frame, int frameCount)
+            throws Exception {
+        int payloadLength = frame.size() - HEADER_LENGTH;
+        FrameRingBuffer ringBuffer = ring ? new FrameRingBuffer() : null;
+        PipedFrameBuffer pipe = ring ? null : new PipedFrameBuffer();
+        long[] producerAllocatedBytes = new long[1];
+        Exception[] producerError = new Exception[1];
+        Thread producer = new Thread(() -> {
+            long allocatedBefore = getThreadAllocatedBytes();
+            try {
+                for (int i = 0; i < frameCount; i++) {
+                    if (ring) {
+                        ringBuffer.write(frame, HEADER_LENGTH, payloadLength);
+                    } else {
+                        pipe.write(frame, HEADER_LENGTH, payloadLength);
+                    }
+                }
+                if (ring) {
+                    ringBuffer.close();
+                } else {
+                    pipe.close();
+                }
+            } catch (Exception e) {
+                producerError[0] = e;
+            }
+            producerAllocatedBytes[0] = getThreadAllocatedBytes() - allocatedBefore;
+        });
+
+        byte[] target = new byte[READ_LENGTH];
+        long bytesRead = 0;
+        long allocatedBefore = getThreadAllocatedBytes();
+        long startNs = System.nanoTime();
+        producer.start();
+        while (true) {
+            int read = ring ? ringBuffer.read(target, 0, READ_LENGTH)
+                    : pipe.read(target, 0, READ_LENGTH);
+            if (read == C.RESULT_END_OF_INPUT) {
+                break;
+            }
+            bytesRead += read;
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+        long consumerAllocatedBytes = getThreadAllocatedBytes() - allocatedBefore;
+        producer.join();
+        if (producerError[0] != null) {
+            throw producerError[0];
+        }
+        return new Result(bytesRead, elapsedNs / 1e9,
+                producerAllocatedBytes[0] + consumerAllocatedBytes);
+    }
+
+    /** Returns the bytes allocated so far by the current thread, or 0 if it is not measured. */
+    private static long getThreadAllocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static final class Result {
+
+        public final long bytesRead;
+        public final double seconds;
+        public final long allocatedBytes;
+
+        public Result(long bytesRead, double seconds, long allocatedBytes) {
+            this.bytesRead = bytesRead;
+            this.seconds = seconds;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
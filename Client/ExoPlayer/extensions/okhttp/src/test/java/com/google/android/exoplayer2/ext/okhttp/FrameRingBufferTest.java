@@ -0,0 +1,248 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.C;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okio.ByteString;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link FrameRingBuffer}. */
+@RunWith(RobolectricTestRunner.class)
+public final class FrameRingBufferTest {
+
+    private static final int HEADER_LENGTH = 2;
+    private static final long TIMEOUT_MS = 10_000;
+
+    @Test
+    public void testWrapsAroundTheSlots() throws Exception {
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 4,
+                /* capacityBytes= */ 1024);
+        byte[] target = new byte[16];
+
+        for (int i = 0; i < 10; i++) {
+            byte[] payload = payload(i, /* length= */ 1 + i);
+            assertThat(buffer.write(frame(payload), HEADER_LENGTH, payload.length)).isTrue();
+            assertThat(buffer.read(target, 0, target.length)).isEqualTo(payload.length);
+            assertThat(Arrays.copyOf(target, payload.length)).isEqualTo(payload);
+        }
+
+        assertThat(buffer.getBufferedBytes()).isEqualTo(0);
+        assertThat(buffer.getTotalFramesWritten()).isEqualTo(10);
+        assertThat(buffer.getTotalBytesWritten()).isEqualTo(55);
+    }
+
+    @Test
+    public void testReadsAcrossFramesAndWithinOne() throws Exception {
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 4,
+                /* capacityBytes= */ 1024);
+        byte[] first = payload(0, /* length= */ 5);
+        byte[] second = payload(1, /* length= */ 7);
+        buffer.write(frame(first), HEADER_LENGTH, first.length);
+        buffer.write(frame(second), HEADER_LENGTH, second.length);
+        byte[] target = new byte[12];
+
+        assertThat(buffer.read(target, 0, 3)).isEqualTo(3);
+        assertThat(buffer.getHighWaterBytes()).isEqualTo(12);
+        assertThat(buffer.getBufferedBytes()).isEqualTo(9);
+        assertThat(buffer.read(target, 3, 9)).isEqualTo(9);
+
+        byte[] expected = new byte[12];
+        System.arraycopy(first, 0, expected, 0, 5);
+        System.arraycopy(second, 0, expected, 5, 7);
+        assertThat(target).isEqualTo(expected);
+    }
+
+    @Test
+    public void testConsumerBlocksWhileEmpty() throws Exception {
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 4,
+                /* capacityBytes= */ 1024);
+        byte[] payload = payload(0, /* length= */ 8);
+        byte[] target = new byte[8];
+        AtomicInteger bytesRead = new AtomicInteger();
+        Thread consumer = startThread(() -> bytesRead.set(buffer.read(target, 0, target.length)));
+
+        awaitParked(consumer);
+        buffer.write(frame(payload), HEADER_LENGTH, payload.length);
+        consumer.join(TIMEOUT_MS);
+
+        assertThat(bytesRead.get()).isEqualTo(8);
+        assertThat(target).isEqualTo(payload);
+    }
+
+    @Test
+    public void testProducerBlocksWhileFramesAreFull() throws Exception {
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 2,
+                /* capacityBytes= */ 1024);
+        byte[] payload = payload(0, /* length= */ 4);
+        buffer.write(frame(payload), HEADER_LENGTH, payload.length);
+        buffer.write(frame(payload), HEADER_LENGTH, payload.length);
+        AtomicReference<Boolean> written = new AtomicReference<>();
+        Thread producer = startThread(
+                () -> written.set(buffer.write(frame(payload), HEADER_LENGTH, payload.length)));
+
+        awaitParked(producer);
+        assertThat(written.get()).isNull();
+        buffer.read(new byte[4], 0, 4);
+        producer.join(TIMEOUT_MS);
+
+        assertThat(written.get()).isTrue();
+        assertThat(buffer.getBufferedBytes()).isEqualTo(8);
+    }
+
+    @Test
+    public void testProducerBlocksWhileBytesAreFull() throws Exception {
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 8,
+                /* capacityBytes= */ 10);
+        byte[] small = payload(0, /* length= */ 8);
+        byte[] large = payload(1, /* length= */ 24);
+        buffer.write(frame(small), HEADER_LENGTH, small.length);
+        AtomicReference<Boolean> written = new AtomicReference<>();
+        Thread producer = startThread(
+                () -> written.set(buffer.write(frame(large), HEADER_LENGTH, large.length)));
+
+        awaitParked(producer);
+        assertThat(written.get()).isNull();
+        buffer.read(new byte[8], 0, 8);
+        producer.join(TIMEOUT_MS);
+
+        // A frame larger than the capacity is accepted once the buffer is empty.
+        assertThat(written.get()).isTrue();
+        assertThat(buffer.getBufferedBytes()).isEqualTo(24);
+        assertThat(buffer.getProducerBlockedTimeMs()).isAtLeast(0L);
+    }
+
+    @Test
+    public void testCloseWakesBlockedConsumer() throws Exception {
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 4,
+                /* capacityBytes= */ 1024);
+        AtomicInteger bytesRead = new AtomicInteger();
+        Thread consumer = startThread(() -> bytesRead.set(buffer.read(new byte[8], 0, 8)));
+
+        awaitParked(consumer);
+        buffer.close();
+        consumer.join(TIMEOUT_MS);
+
+        assertThat(consumer.isAlive()).isFalse();
+        assertThat(bytesRead.get()).isEqualTo(C.RESULT_END_OF_INPUT);
+    }
+
+    @Test
+    public void testCloseWakesBlockedProducer() throws Exception {
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 1,
+                /* capacityBytes= */ 1024);
+        byte[] payload = payload(0, /* length= */ 4);
+        buffer.write(frame(payload), HEADER_LENGTH, payload.length);
+        AtomicReference<Boolean> written = new AtomicReference<>();
+        Thread producer = startThread(
+                () -> written.set(buffer.write(frame(payload), HEADER_LENGTH, payload.length)));
+
+        awaitParked(producer);
+        buffer.close();
+        producer.join(TIMEOUT_MS);
+
+        assertThat(producer.isAlive()).isFalse();
+        assertThat(written.get()).isFalse();
+    }
+
+    @Test
+    public void testCloseLeavesPendingDataReadable() throws Exception {
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 4,
+                /* capacityBytes= */ 1024);
+        byte[] payload = payload(0, /* length= */ 6);
+        buffer.write(frame(payload), HEADER_LENGTH, payload.length);
+        buffer.close();
+        byte[] target = new byte[6];
+
+        assertThat(buffer.write(frame(payload), HEADER_LENGTH, payload.length)).isFalse();
+        assertThat(buffer.read(target, 0, target.length)).isEqualTo(6);
+        assertThat(target).isEqualTo(payload);
+        assertThat(buffer.read(target, 0, target.length)).isEqualTo(C.RESULT_END_OF_INPUT);
+
+        buffer.reset();
+        assertThat(buffer.write(frame(payload), HEADER_LENGTH, payload.length)).isTrue();
+        assertThat(buffer.getTotalFramesWritten()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTwoThreadsKeepFrameOrder() throws Exception {
+        // Small bounds, so that both threads block often.
+        FrameRingBuffer buffer = new FrameRingBuffer(/* capacityFrames= */ 8,
+                /* capacityBytes= */ 2048);
+        int frameCount = 20_000;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte[][] payloads = new byte[frameCount][];
+        Random random = new Random(/* seed= */ 0);
+        for (int i = 0; i < frameCount; i++) {
+            payloads[i] = payload(i, /* length= */ 1 + random.nextInt(700));
+            expected.write(payloads[i]);
+        }
+        Thread producer = startThread(() -> {
+            for (byte[] payload : payloads) {
+                buffer.write(frame(payload), HEADER_LENGTH, payload.length);
+            }
+            buffer.close();
+        });
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        byte[] target = new byte[1024];
+        int bytesRead;
+        while ((bytesRead = buffer.read(target, 0, 1 + random.nextInt(target.length)))
+                != C.RESULT_END_OF_INPUT) {
+            received.write(target, 0, bytesRead);
+        }
+        producer.join(TIMEOUT_MS);
+
+        assertThat(received.toByteArray()).isEqualTo(expected.toByteArray());
+        assertThat(buffer.getTotalFramesWritten()).isEqualTo(frameCount);
+        assertThat(buffer.getHighWaterBytes()).isAtMost(2048L);
+    }
+
+    /** Returns a payload whose bytes depend on {@code seed}. */
+    private static byte[] payload(int seed, int length) {
+        byte[] payload = new byte[length];
+        new Random(seed).nextBytes(payload);
+        return payload;
+    }
+
+    /** Returns a frame holding {@code payload} after a header, as the Puffer server sends it. */
+    private static ByteString frame(byte[] payload) {
+        byte[] frame = new byte[HEADER_LENGTH + payload.length];
+        System.arraycopy(payload, 0, frame, HEADER_LENGTH, payload.length);
+        return ByteString.of(frame);
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    private static Thread startThread(ThrowingRunnable runnable) {
+        Thread thread = new Thread(() -> {
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /** Waits until {@code thread} is parked, which is how the buffer blocks. */
+    private static void awaitParked(Thread thread) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadlineMs);
+            Thread.sleep(1);
+        }
+    }
+}
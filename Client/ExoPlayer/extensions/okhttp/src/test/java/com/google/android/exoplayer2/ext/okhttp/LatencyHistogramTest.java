@@ -0,0 +1,89 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link LatencyHistogram}. */
+@RunWith(RobolectricTestRunner.class)
+public final class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram("test");
+
+    @Test
+    public void testBucketBoundaries() {
+        for (int i = 1; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            // Bucket i counts [2^(i-1), 2^i).
+            histogram.add(1L << (i - 1));
+            histogram.add((1L << i) - 1);
+            assertThat(histogram.getBucketCount(i)).isEqualTo(2);
+            assertThat(histogram.getBucketCount(i - 1)).isEqualTo(i == 1 ? 0 : 2);
+        }
+        assertThat(histogram.getCount()).isEqualTo(2 * (LatencyHistogram.BUCKET_COUNT - 2));
+    }
+
+    @Test
+    public void testCountsBelowOneMillisecondAndNegativeInFirstBucket() {
+        histogram.add(0);
+        histogram.add(-5);
+
+        assertThat(histogram.getBucketCount(0)).isEqualTo(2);
+        assertThat(histogram.getMaxMs()).isEqualTo(0);
+        assertThat(histogram.getMeanMs()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLastBucketIsOpenEnded() {
+        int last = LatencyHistogram.BUCKET_COUNT - 1;
+        histogram.add((1L << (last - 1)) - 1);
+        histogram.add(1L << (last - 1));
+        histogram.add(1L << 40);
+
+        assertThat(histogram.getBucketCount(last - 1)).isEqualTo(1);
+        assertThat(histogram.getBucketCount(last)).isEqualTo(2);
+        assertThat(histogram.getMaxMs()).isEqualTo(1L << 40);
+    }
+
+    @Test
+    public void testPercentilesAreBucketUpperBounds() {
+        // Ten latencies of 3 ms, in [2, 4), and one of 100 ms, in [64, 128).
+        for (int i = 0; i < 10; i++) {
+            histogram.add(3);
+        }
+        histogram.add(100);
+
+        assertThat(histogram.getPercentileMs(50)).isEqualTo(4);
+        assertThat(histogram.getPercentileMs(90)).isEqualTo(4);
+        // The bound of the last non-empty bucket is capped at the largest latency.
+        assertThat(histogram.getPercentileMs(95)).isEqualTo(100);
+        assertThat(histogram.getPercentileMs(100)).isEqualTo(100);
+        assertThat(histogram.getMeanMs()).isEqualTo(130 / 11);
+    }
+
+    @Test
+    public void testPercentileInLastBucketIsMax() {
+        histogram.add(1L << 20);
+
+        assertThat(histogram.getPercentileMs(50)).isEqualTo(1L << 20);
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getPercentileMs(50)).isEqualTo(0);
+        assertThat(histogram.getMeanMs()).isEqualTo(0);
+        assertThat(histogram.toString()).isEqualTo("test: n=0 mean=0 p50<=0 p95<=0 max=0 [ ]");
+    }
+
+    @Test
+    public void testToStringListsNonEmptyBucketsByLowerBound() {
+        histogram.add(0);
+        histogram.add(5);
+        histogram.add(6);
+
+        assertThat(histogram.toString())
+                .isEqualTo("test: n=3 mean=3 p50<=6 p95<=6 max=6 [ 0ms:1 4ms:2 ]");
+    }
+}
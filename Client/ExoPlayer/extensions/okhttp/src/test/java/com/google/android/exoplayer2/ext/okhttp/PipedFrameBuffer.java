@@ -0,0 +1,42 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import okio.ByteString;
+
+/**
+ * The pipe that {@link WebSocketDataSource} drained frames through before {@link
+ * FrameRingBuffer}: each frame is copied into an array, its payload into another, and the payload
+ * into a 16 MB pipe. Kept as a reference for {@link FrameRingBufferBenchmark}.
+ */
+/* package */ final class PipedFrameBuffer {
+
+    private final PipedInputStream input;
+    private final PipedOutputStream output;
+
+    public PipedFrameBuffer() throws IOException {
+        input = new PipedInputStream(16000000);
+        output = new PipedOutputStream();
+        input.connect(output);
+    }
+
+    /** Appends the region {@code [offset, offset + length)} of {@code frame}. */
+    public void write(ByteString frame, int offset, int length) throws IOException {
+        byte[] data = frame.toByteArray();
+        byte[] mediaData = new byte[length];
+        System.arraycopy(data, offset, mediaData, 0, length);
+        output.write(mediaData);
+    }
+
+    /** Reads up to {@code length} bytes, or returns -1 once closed and drained. */
+    public int read(byte[] target, int offset, int length) throws IOException {
+        return input.read(target, offset, length);
+    }
+
+    /** Closes the writing end. */
+    public void close() throws IOException {
+        output.close();
+    }
+}
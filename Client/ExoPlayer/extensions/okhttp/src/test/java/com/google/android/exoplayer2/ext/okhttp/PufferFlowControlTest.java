@@ -0,0 +1,178 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link PufferFlowControl}. */
+@RunWith(RobolectricTestRunner.class)
+public final class PufferFlowControlTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final PufferFlowControl flowControl =
+            new PufferFlowControl(/* maxBytes= */ 1000, /* maxDurationUs= */ 4_000_000);
+
+    @Test
+    public void testAwaitsNothingWithinBudget() throws Exception {
+        flowControl.acquire(400, 2_000_000);
+        flowControl.acquire(600, 2_000_000);
+        flowControl.awaitCapacity();
+
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(1000);
+        assertThat(flowControl.getInFlightDurationUs()).isEqualTo(4_000_000);
+        assertThat(flowControl.getBlockedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAcquiresOverBudgetWithoutBlocking() {
+        flowControl.acquire(5000, 10_000_000);
+        flowControl.acquire(5000, 10_000_000);
+
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(10_000);
+        assertThat(flowControl.getHighWaterDurationUs()).isEqualTo(20_000_000);
+        assertThat(flowControl.getBlockedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAwaitsOverByteBudgetUntilReleased() throws Exception {
+        flowControl.acquire(800, 0);
+        flowControl.acquire(300, 0);
+        Thread reader = startAwait();
+        waitUntilBlocked(reader);
+        assertThat(flowControl.getBlockedCount()).isEqualTo(1);
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(1100);
+
+        flowControl.release(800, 0);
+        join(reader);
+
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(300);
+        assertThat(flowControl.getHighWaterBytes()).isEqualTo(1100);
+    }
+
+    @Test
+    public void testAwaitsOverDurationBudgetUntilReleased() throws Exception {
+        flowControl.acquire(10, 3_000_000);
+        flowControl.acquire(10, 2_000_000);
+        Thread reader = startAwait();
+        waitUntilBlocked(reader);
+
+        // Returning part of the duration is not enough.
+        flowControl.release(0, 500_000);
+        Thread.sleep(10);
+        assertThat(reader.getState()).isEqualTo(Thread.State.WAITING);
+        flowControl.release(10, 2_500_000);
+        join(reader);
+
+        assertThat(flowControl.getInFlightDurationUs()).isEqualTo(2_000_000);
+        assertThat(flowControl.getHighWaterDurationUs()).isEqualTo(5_000_000);
+        assertThat(flowControl.getBlockedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCloseUnblocksAndAdmitsEverything() throws Exception {
+        flowControl.acquire(2000, 0);
+        Thread reader = startAwait();
+        waitUntilBlocked(reader);
+
+        flowControl.close();
+        join(reader);
+        flowControl.acquire(1000, 4_000_000);
+        flowControl.awaitCapacity();
+
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(3000);
+        assertThat(flowControl.getHighWaterBytes()).isEqualTo(3000);
+        assertThat(flowControl.getBlockedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInterruptLeavesCreditUnchanged() throws Exception {
+        flowControl.acquire(1001, 0);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    flowControl.awaitCapacity();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        };
+        reader.start();
+        waitUntilBlocked(reader);
+
+        reader.interrupt();
+        join(reader);
+
+        assertThat(interrupted.get()).isTrue();
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(1001);
+        assertThat(flowControl.getHighWaterBytes()).isEqualTo(1001);
+    }
+
+    @Test
+    public void testFromLoadControlUsesBufferTargets() {
+        DefaultLoadControl loadControl = new DefaultLoadControl.Builder()
+                .setBufferDurationsMs(/* minBufferMs= */ 5000, /* maxBufferMs= */ 30_000,
+                        /* bufferForPlaybackMs= */ 1000,
+                        /* bufferForPlaybackAfterRebufferMs= */ 2000)
+                .setTargetBufferBytes(2_000_000)
+                .createDefaultLoadControl();
+        PufferFlowControl fromLoadControl = PufferFlowControl.fromLoadControl(loadControl);
+
+        assertThat(fromLoadControl.toString()).startsWith("PufferFlowControl(budget 2000000 B"
+                + " / 30000 ms");
+    }
+
+    @Test
+    public void testFromLoadControlKeepsMinimumDurationAndDefaultBytes() {
+        DefaultLoadControl loadControl = new DefaultLoadControl.Builder()
+                .setBufferDurationsMs(/* minBufferMs= */ 1000, /* maxBufferMs= */ 2000,
+                        /* bufferForPlaybackMs= */ 500,
+                        /* bufferForPlaybackAfterRebufferMs= */ 1000)
+                .setTargetBufferBytes(C.LENGTH_UNSET)
+                .createDefaultLoadControl();
+        PufferFlowControl fromLoadControl = PufferFlowControl.fromLoadControl(loadControl);
+
+        assertThat(fromLoadControl.toString()).startsWith("PufferFlowControl(budget "
+                + (C.DEFAULT_VIDEO_BUFFER_SIZE + C.DEFAULT_AUDIO_BUFFER_SIZE) + " B / "
+                + PufferFlowControl.MIN_DURATION_BUDGET_US / 1000 + " ms");
+    }
+
+    /** Awaits capacity on a new thread, standing in for the WebSocket reader. */
+    private Thread startAwait() {
+        Thread reader = new Thread("PufferFlowControlTest:reader") {
+            @Override
+            public void run() {
+                try {
+                    flowControl.awaitCapacity();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        reader.start();
+        return reader;
+    }
+
+    private static void waitUntilBlocked(Thread reader) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        while (reader.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(1);
+        }
+        assertThat(reader.getState()).isEqualTo(Thread.State.WAITING);
+    }
+
+    private static void join(Thread reader) throws InterruptedException {
+        reader.join(TIMEOUT_MS);
+        assertThat(reader.isAlive()).isFalse();
+    }
+}
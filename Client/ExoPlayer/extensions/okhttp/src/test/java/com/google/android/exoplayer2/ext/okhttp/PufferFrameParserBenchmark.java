@@ -0,0 +1,116 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameParser;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+import okio.ByteString;
+
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Compares {@link PufferFrameParser} with the {@link JSONObject} path it replaced in {@link
+ * WebSocketDataSource}, over synthetic {@code server-video} frames. It prints the time and the
+ * bytes allocated per frame.
+ * <p>
+ * Runs only when the system property {@code benchmarks} is true. The number of frames is set with
+ * the system property {@code parser.benchmark.frames}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class PufferFrameParserBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] FORMATS = {
+            "426x240-26", "640x360-24", "854x480-22", "1280x720-20", "1280x720-24", "1920x1080-22",
+            "1920x1080-24", "1920x1080-26"
+    };
+    private static final int DISTINCT_FRAMES = 4096;
+
+    @Test
+    public void compareWithJsonObject() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        int frameCount = Integer.getInteger("parser.benchmark.frames", 1_000_000);
+        ByteString[] frames = createFrames();
+        System.out.println("Benchmark: " + frameCount + " frames");
+        // Warm up, so that neither is measured before compilation.
+        measure(/* parser= */ true, frames, frameCount / 10);
+        measure(/* parser= */ false, frames, frameCount / 10);
+        for (boolean parser : new boolean[] {true, false}) {
+            long allocatedBefore = getThreadAllocatedBytes();
+            long startNs = System.nanoTime();
+            long checksum = measure(parser, frames, frameCount);
+            long elapsedNs = System.nanoTime() - startNs;
+            long allocatedBytes = getThreadAllocatedBytes() - allocatedBefore;
+            assertThat(checksum).isNotEqualTo(0);
+            System.out.println(String.format(Locale.US,
+                    "Benchmark: %-17s %6.2f us/frame  %7.1f B/frame allocated",
+                    parser ? "PufferFrameParser" : "JSONObject", elapsedNs / 1e3 / frameCount,
+                    (double) allocatedBytes / frameCount));
+        }
+    }
+
+    /** Parses {@code frameCount} frames, returning a checksum of the decoded fields. */
+    private static long measure(boolean parser, ByteString[] frames, int frameCount)
+            throws Exception {
+        PufferFrameParser frameParser = new PufferFrameParser();
+        PufferFrameHeader header = new PufferFrameHeader();
+        long checksum = 0;
+        for (int i = 0; i < frameCount; i++) {
+            ByteString frame = frames[i % frames.length];
+            if (parser) {
+                frameParser.parse(frame, header);
+                checksum += header.timestamp + header.byteOffset + header.totalByteLength
+                        + header.getChannel().length() + header.getFormat().length()
+                        + (long) (header.ssim * 1000);
+            } else {
+                int metadataLength = ((frame.getByte(0) & 0xFF) << 8) | (frame.getByte(1) & 0xFF);
+                JSONObject metadata = new JSONObject(frame.substring(2, 2 + metadataLength).utf8());
+                metadata.getString("type");
+                checksum += metadata.getInt("timestamp") + metadata.getInt("byteOffset")
+                        + metadata.getInt("totalByteLength")
+                        + metadata.getString("channel").length()
+                        + metadata.getString("format").length()
+                        + (long) (metadata.getDouble("ssim") * 1000);
+            }
+        }
+        return checksum;
+    }
+
+    private static ByteString[] createFrames() {
+        Random random = new Random(/* seed= */ 0);
+        ByteString[] frames = new ByteString[DISTINCT_FRAMES];
+        for (int i = 0; i < frames.length; i++) {
+            String metadata = String.format(Locale.US, "{\"type\":\"server-video\","
+                    + "\"channel\":\"nbc\",\"format\":\"%s\",\"timestamp\":%d,\"byteOffset\":%d,"
+                    + "\"totalByteLength\":%d,\"ssim\":%.6f}",
+                    FORMATS[random.nextInt(FORMATS.length)], 180180 * i, 0, 100_000,
+                    0.9 + random.nextDouble() / 10);
+            byte[] metadataBytes = metadata.getBytes(UTF_8);
+            byte[] frame = new byte[2 + metadataBytes.length + 64];
+            frame[0] = (byte) (metadataBytes.length >> 8);
+            frame[1] = (byte) metadataBytes.length;
+            System.arraycopy(metadataBytes, 0, frame, 2, metadataBytes.length);
+            frames[i] = ByteString.of(frame);
+        }
+        return frames;
+    }
+
+    /** Returns the bytes allocated so far by the current thread, or 0 if it is not measured. */
+    private static long getThreadAllocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,437 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.ext.puffer.PufferClient;
+import com.google.android.exoplayer2.source.DefaultMediaSourceEventListener;
+import com.google.android.exoplayer2.source.MediaPeriod;
+import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.EventDispatcher;
+import com.google.android.exoplayer2.source.SampleStream;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+/** Unit test for {@link PufferMediaPeriod}. */
+@RunWith(RobolectricTestRunner.class)
+public final class PufferMediaPeriodTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+    /** The decode time of the first chunk, which the period plays at position zero. */
+    private static final long FIRST_TIMESTAMP = 10 * PufferTestChunks.TIMESCALE;
+    /** Three video samples of 100 ms each. */
+    private static final int[] VIDEO_DURATIONS = {9000, 9000, 9000};
+    private static final int[] VIDEO_SIZES = {500, 200, 200};
+    /** Five audio samples of 20 ms each. */
+    private static final int[] AUDIO_DURATIONS = {1800, 1800, 1800, 1800, 1800};
+    private static final int[] AUDIO_SIZES = {10, 10, 10, 10, 10};
+
+    private OkHttpClient callFactory;
+    private PufferSessionManager sessionManager;
+    private SimpleExoPlayer player;
+    private List<PufferChunk> loadedChunks;
+    private EventDispatcher eventDispatcher;
+    private PufferMediaPeriod period;
+    private int preparedCount;
+    private int continueLoadingRequestCount;
+
+    @Before
+    public void setUp() {
+        // Callbacks posted by the loading and reader threads wait for the test to run them.
+        ShadowLooper.pauseMainLooper();
+        callFactory = mock(OkHttpClient.class);
+        sessionManager = new PufferSessionManager(callFactory,
+                Uri.parse("ws://localhost/ws"), /* logDirectory= */ null);
+        player = mock(SimpleExoPlayer.class);
+        when(player.getApplicationLooper()).thenReturn(Looper.getMainLooper());
+        when(player.getPlaybackParameters()).thenReturn(PlaybackParameters.DEFAULT);
+        loadedChunks = new ArrayList<>();
+        eventDispatcher = new EventDispatcher().withParameters(/* windowIndex= */ 0,
+                new MediaPeriodId(/* periodUid= */ new Object()), /* mediaTimeOffsetMs= */ 0);
+        eventDispatcher.addEventListener(new Handler(), new DefaultMediaSourceEventListener() {
+            @Override
+            public void onLoadCompleted(int windowIndex, MediaPeriodId mediaPeriodId,
+                                        LoadEventInfo loadEventInfo, MediaLoadData mediaLoadData) {
+                loadedChunks.add((PufferChunk) mediaLoadData.trackSelectionData);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (period != null) {
+            period.release();
+        }
+        sessionManager.release();
+    }
+
+    @Test
+    public void testPreparesAfterFirstVideoChunk() throws Exception {
+        preparePeriod(new PufferFlowControl(1 << 20, PufferFlowControl.MIN_DURATION_BUDGET_US));
+        sendChunk("server-audio", "128k", FIRST_TIMESTAMP, audioChunk(0, /* init= */ true));
+        runLooper();
+        assertThat(preparedCount).isEqualTo(0);
+
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP, videoChunk(0, /* init= */ true));
+        runUntilLoaded(2);
+
+        assertThat(preparedCount).isEqualTo(1);
+        TrackGroupArray trackGroups = period.getTrackGroups();
+        assertThat(trackGroups.length).isEqualTo(2);
+        assertThat(trackGroups.get(0).getFormat(0).sampleMimeType).isEqualTo("video/3gpp");
+        assertThat(trackGroups.get(1).getFormat(0).sampleMimeType).isEqualTo("audio/3gpp");
+    }
+
+    @Test
+    public void testReportsChunkBoundaries() throws Exception {
+        preparePeriod(new PufferFlowControl(1 << 20, PufferFlowControl.MIN_DURATION_BUDGET_US));
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP, videoChunk(0, /* init= */ true));
+        sendChunk("server-audio", "128k", FIRST_TIMESTAMP, audioChunk(0, /* init= */ true));
+        runUntilLoaded(2);
+
+        // The end of a chunk is its last sample plus the average sample duration.
+        assertChunk(loadedChunks.get(0), C.TRACK_TYPE_VIDEO, 0, 300_000);
+        assertChunk(loadedChunks.get(1), C.TRACK_TYPE_AUDIO, 0, 100_000);
+        assertThat(loadedChunks.get(0).bytes).isEqualTo(videoChunk(0, /* init= */ true).length);
+        assertThat(period.getBufferedPositionMs(C.TRACK_TYPE_VIDEO)).isEqualTo(300);
+        assertThat(period.getBufferedPositionMs(C.TRACK_TYPE_AUDIO)).isEqualTo(100);
+
+        // The player has enough media, so the next chunk is held until it asks for more.
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP + 27000, videoChunk(1, false));
+        runLooper();
+        assertThat(loadedChunks).hasSize(2);
+        // A chunk that has been received counts towards the buffer reported to the server.
+        assertThat(period.getBufferedPositionMs(C.TRACK_TYPE_VIDEO)).isEqualTo(600);
+
+        assertThat(period.continueLoading(/* positionUs= */ 0)).isTrue();
+        runUntilLoaded(3);
+        assertChunk(loadedChunks.get(2), C.TRACK_TYPE_VIDEO, 300_000, 600_000);
+        assertThat(loadedChunks.get(2).timestamp).isEqualTo(FIRST_TIMESTAMP + 27000);
+        assertThat(continueLoadingRequestCount).isEqualTo(1);
+        assertThat(period.getBufferedPositionMs(C.TRACK_TYPE_VIDEO)).isEqualTo(600);
+
+        // Nothing is pending, so the next chunk is loaded as soon as it arrives.
+        assertThat(period.continueLoading(/* positionUs= */ 0)).isFalse();
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP + 54000, videoChunk(2, false));
+        runLooper();
+        assertThat(continueLoadingRequestCount).isEqualTo(2);
+        assertThat(period.continueLoading(/* positionUs= */ 0)).isTrue();
+        runUntilLoaded(4);
+        assertChunk(loadedChunks.get(3), C.TRACK_TYPE_VIDEO, 600_000, 900_000);
+    }
+
+    @Test
+    public void testRebasesSampleTimesToFirstSample() throws Exception {
+        preparePeriod(new PufferFlowControl(1 << 20, PufferFlowControl.MIN_DURATION_BUDGET_US));
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP, videoChunk(0, /* init= */ true));
+        // Audio starts 50 ms after video, and keeps that offset.
+        byte[] audio = PufferTestChunks.initSegment(C.TRACK_TYPE_AUDIO);
+        audio = concat(audio, PufferTestChunks.mediaSegment(FIRST_TIMESTAMP + 4500,
+                AUDIO_DURATIONS, AUDIO_SIZES));
+        sendChunk("server-audio", "128k", FIRST_TIMESTAMP + 4500, audio);
+        runUntilLoaded(2);
+
+        SampleStream[] streams = selectAllTracks();
+        assertThat(readSampleTimesUs(streams[0])).asList().containsExactly(0L, 100_000L, 200_000L)
+                .inOrder();
+        assertThat(readSampleTimesUs(streams[1])).asList()
+                .containsExactly(50_000L, 70_000L, 90_000L, 110_000L, 130_000L).inOrder();
+        assertChunk(loadedChunks.get(1), C.TRACK_TYPE_AUDIO, 50_000, 150_000);
+    }
+
+    @Test
+    public void testCommitsMultiSampleTrackRun() throws Exception {
+        // Forty samples of 10 ms, more than the extractor passes on in one batch.
+        int[] durations = new int[40];
+        int[] sizes = new int[40];
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = 900;
+            sizes[i] = 20 + i;
+        }
+        preparePeriod(new PufferFlowControl(1 << 20, PufferFlowControl.MIN_DURATION_BUDGET_US));
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP,
+                concat(PufferTestChunks.initSegment(C.TRACK_TYPE_VIDEO),
+                        PufferTestChunks.mediaSegment(FIRST_TIMESTAMP, durations, sizes)));
+        runUntilLoaded(1);
+
+        assertChunk(loadedChunks.get(0), C.TRACK_TYPE_VIDEO, 0, 400_000);
+        SampleStream stream = selectAllTracks()[0];
+        FormatHolder formatHolder = new FormatHolder();
+        DecoderInputBuffer buffer =
+                new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+        assertThat(stream.readData(formatHolder, buffer, /* formatRequired= */ false))
+                .isEqualTo(C.RESULT_FORMAT_READ);
+        for (int i = 0; i < durations.length; i++) {
+            buffer.clear();
+            assertThat(stream.readData(formatHolder, buffer, /* formatRequired= */ false))
+                    .isEqualTo(C.RESULT_BUFFER_READ);
+            assertThat(buffer.timeUs).isEqualTo(10_000L * i);
+            assertThat(buffer.isKeyFrame()).isEqualTo(i == 0);
+            // Sample i holds sizes[i] bytes of value i.
+            assertThat(buffer.data.position()).isEqualTo(sizes[i]);
+            assertThat(buffer.data.get(0)).isEqualTo((byte) i);
+            assertThat(buffer.data.get(sizes[i] - 1)).isEqualTo((byte) i);
+        }
+        buffer.clear();
+        assertThat(stream.readData(formatHolder, buffer, /* formatRequired= */ false))
+                .isEqualTo(C.RESULT_NOTHING_READ);
+    }
+
+    @Test
+    public void testFlowControlBlocksReaderUntilChunkIsTaken() throws Exception {
+        // The duration budget holds one chunk of 300 ms, but not two.
+        PufferFlowControl flowControl =
+                new PufferFlowControl(/* maxBytes= */ 1 << 20, /* maxDurationUs= */ 500_000);
+        preparePeriod(flowControl);
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP, videoChunk(0, /* init= */ true));
+        runUntilLoaded(1);
+        // The first chunk was handed to the loader, which returned its credit.
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(0);
+
+        final byte[] secondChunk = videoChunk(1, /* init= */ false);
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP + 27000, secondChunk);
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(secondChunk.length);
+        assertThat(flowControl.getInFlightDurationUs()).isEqualTo(300_000);
+
+        Thread reader = startReader(FIRST_TIMESTAMP + 54000, videoChunk(2, /* init= */ false));
+        waitUntilBlocked(flowControl, reader);
+        assertThat(flowControl.getBlockedCount()).isEqualTo(1);
+
+        // The third chunk is in flight, and taking the second brings it back within the budget.
+        assertThat(flowControl.getInFlightDurationUs()).isEqualTo(600_000);
+        assertThat(period.continueLoading(/* positionUs= */ 0)).isTrue();
+        reader.join(TIMEOUT_MS);
+        assertThat(reader.isAlive()).isFalse();
+        assertThat(flowControl.getInFlightDurationUs()).isEqualTo(300_000);
+        assertThat(flowControl.getHighWaterDurationUs()).isEqualTo(600_000);
+        runUntilLoaded(2);
+        assertThat(period.continueLoading(/* positionUs= */ 0)).isTrue();
+        runUntilLoaded(3);
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(0);
+        assertChunk(loadedChunks.get(2), C.TRACK_TYPE_VIDEO, 600_000, 900_000);
+    }
+
+    @Test
+    public void testReleaseUnblocksReader() throws Exception {
+        PufferFlowControl flowControl =
+                new PufferFlowControl(/* maxBytes= */ 1 << 20, /* maxDurationUs= */ 500_000);
+        preparePeriod(flowControl);
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP, videoChunk(0, /* init= */ true));
+        runUntilLoaded(1);
+        sendChunk("server-video", "640x360-24", FIRST_TIMESTAMP + 27000, videoChunk(1, false));
+        Thread reader = startReader(FIRST_TIMESTAMP + 54000, videoChunk(2, /* init= */ false));
+        waitUntilBlocked(flowControl, reader);
+
+        period.release();
+        period = null;
+        reader.join(TIMEOUT_MS);
+
+        assertThat(reader.isAlive()).isFalse();
+        runLooper();
+        assertThat(loadedChunks).hasSize(1);
+    }
+
+    @Test
+    public void testAttachesWarmSessionOverByteBudget() throws Exception {
+        final WebSocket webSocket = mock(WebSocket.class);
+        final List<WebSocketListener> socketListeners = new ArrayList<>();
+        when(callFactory.newWebSocket(any(Request.class), any(WebSocketListener.class)))
+                .thenAnswer(new Answer<WebSocket>() {
+                    @Override
+                    public WebSocket answer(InvocationOnMock invocation) {
+                        socketListeners.add((WebSocketListener) invocation.getArguments()[1]);
+                        return webSocket;
+                    }
+                });
+        sessionManager.preconnect();
+        WebSocketListener socketListener = socketListeners.get(0);
+        socketListener.onOpen(webSocket, /* response= */ null);
+        socketListener.onMessage(webSocket,
+                PufferTestChunks.serverInit(PufferClient.DEFAULT_INIT_ID));
+        // The session keeps three chunks, while the byte budget holds only the first.
+        byte[] firstChunk = videoChunk(0, /* init= */ true);
+        long keptBytes = 0;
+        for (int i = 0; i < 3; i++) {
+            byte[] chunk = i == 0 ? firstChunk : videoChunk(i, /* init= */ false);
+            keptBytes += chunk.length;
+            for (ByteString frame : PufferTestChunks.frames("server-video", "640x360-24",
+                    FIRST_TIMESTAMP + 27000 * i, chunk, /* fragmentSize= */ 256)) {
+                socketListener.onMessage(webSocket, frame);
+            }
+        }
+        PufferFlowControl flowControl = new PufferFlowControl(/* maxBytes= */ firstChunk.length,
+                PufferFlowControl.MIN_DURATION_BUDGET_US);
+
+        // The kept chunks are delivered on this thread, which must not wait for their credit.
+        preparePeriod(flowControl);
+
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(keptBytes);
+        assertThat(flowControl.getBlockedCount()).isEqualTo(0);
+        runUntilLoaded(3);
+        assertThat(preparedCount).isEqualTo(1);
+        assertThat(flowControl.getInFlightBytes()).isEqualTo(0);
+        assertChunk(loadedChunks.get(2), C.TRACK_TYPE_VIDEO, 600_000, 900_000);
+    }
+
+    private void preparePeriod(PufferFlowControl flowControl) {
+        period = new PufferMediaPeriod(sessionManager, player, flowControl,
+                new DefaultAllocator(/* trimOnReset= */ true, /* individualAllocationSize= */ 1024),
+                eventDispatcher, /* chunkQualityStore= */ null);
+        period.prepare(new MediaPeriod.Callback() {
+            @Override
+            public void onPrepared(MediaPeriod mediaPeriod) {
+                preparedCount++;
+            }
+
+            @Override
+            public void onContinueLoadingRequested(MediaPeriod source) {
+                continueLoadingRequestCount++;
+            }
+        }, /* positionUs= */ 0);
+    }
+
+    /**
+     * Delivers a chunk to the period in frames of 256 payload bytes, waiting for capacity after
+     * each frame as a session does.
+     */
+    private void sendChunk(String type, String format, long timestamp, byte[] chunk)
+            throws InterruptedException {
+        for (ByteString frame : PufferTestChunks.frames(type, format, timestamp, chunk, 256)) {
+            period.onMediaFrame(PufferTestChunks.parseHeader(frame), frame);
+            period.awaitCapacity();
+        }
+    }
+
+    /** Delivers a video chunk on a new thread, standing in for the WebSocket reader. */
+    private Thread startReader(final long timestamp, final byte[] chunk) {
+        Thread reader = new Thread("PufferMediaPeriodTest:reader") {
+            @Override
+            public void run() {
+                try {
+                    sendChunk("server-video", "640x360-24", timestamp, chunk);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        reader.start();
+        return reader;
+    }
+
+    private SampleStream[] selectAllTracks() {
+        TrackGroupArray trackGroups = period.getTrackGroups();
+        TrackSelection[] selections = new TrackSelection[trackGroups.length];
+        for (int i = 0; i < trackGroups.length; i++) {
+            selections[i] = new FixedTrackSelection(trackGroups.get(i), /* track= */ 0);
+        }
+        SampleStream[] streams = new SampleStream[selections.length];
+        period.selectTracks(selections, new boolean[selections.length], streams,
+                new boolean[selections.length], /* positionUs= */ 0);
+        return streams;
+    }
+
+    /** Reads the samples that are queued in {@code stream} and returns their times. */
+    private static long[] readSampleTimesUs(SampleStream stream) {
+        FormatHolder formatHolder = new FormatHolder();
+        DecoderInputBuffer buffer =
+                new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+        List<Long> timesUs = new ArrayList<>();
+        int result;
+        do {
+            buffer.clear();
+            result = stream.readData(formatHolder, buffer, /* formatRequired= */ false);
+            if (result == C.RESULT_BUFFER_READ) {
+                timesUs.add(buffer.timeUs);
+            }
+        } while (result != C.RESULT_NOTHING_READ);
+        long[] times = new long[timesUs.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = timesUs.get(i);
+        }
+        return times;
+    }
+
+    /** Runs the main looper until {@code count} chunks have been loaded. */
+    private void runUntilLoaded(int count) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        while (loadedChunks.size() < count && System.currentTimeMillis() < deadlineMs) {
+            runLooper();
+            Thread.sleep(1);
+        }
+        runLooper();
+        assertThat(loadedChunks).hasSize(count);
+    }
+
+    private static void runLooper() {
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private static void waitUntilBlocked(PufferFlowControl flowControl, Thread reader)
+            throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        while ((flowControl.getBlockedCount() == 0 || reader.getState() != Thread.State.WAITING)
+                && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(1);
+        }
+        assertThat(reader.getState()).isEqualTo(Thread.State.WAITING);
+    }
+
+    private static void assertChunk(PufferChunk chunk, int trackType, long startTimeUs,
+                                    long endTimeUs) {
+        assertThat(chunk.trackType).isEqualTo(trackType);
+        assertThat(chunk.startTimeUs).isEqualTo(startTimeUs);
+        assertThat(chunk.endTimeUs).isEqualTo(endTimeUs);
+    }
+
+    /** Returns the {@code index}th video chunk, 300 ms long, preceded by an init segment. */
+    private static byte[] videoChunk(int index, boolean init) {
+        byte[] media = PufferTestChunks.mediaSegment(FIRST_TIMESTAMP + 27000 * index,
+                VIDEO_DURATIONS, VIDEO_SIZES);
+        return init ? concat(PufferTestChunks.initSegment(C.TRACK_TYPE_VIDEO), media) : media;
+    }
+
+    /** Returns the {@code index}th audio chunk, 100 ms long, preceded by an init segment. */
+    private static byte[] audioChunk(int index, boolean init) {
+        byte[] media = PufferTestChunks.mediaSegment(FIRST_TIMESTAMP + 9000 * index,
+                AUDIO_DURATIONS, AUDIO_SIZES);
+        return init ? concat(PufferTestChunks.initSegment(C.TRACK_TYPE_AUDIO), media) : media;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,203 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import android.os.Looper;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.ext.puffer.PufferClient;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link PufferSessionManager}. */
+@RunWith(RobolectricTestRunner.class)
+public final class PufferSessionManagerTest {
+
+    private static final long INIT_ID = PufferClient.DEFAULT_INIT_ID;
+
+    private OkHttpClient callFactory;
+    private WebSocket webSocket;
+    private List<WebSocketListener> socketListeners;
+    private SimpleExoPlayer player;
+    private PufferSessionManager sessionManager;
+
+    @Before
+    public void setUp() {
+        webSocket = mock(WebSocket.class);
+        socketListeners = new ArrayList<>();
+        callFactory = mock(OkHttpClient.class);
+        when(callFactory.newWebSocket(any(Request.class), any(WebSocketListener.class)))
+                .thenAnswer(new Answer<WebSocket>() {
+                    @Override
+                    public WebSocket answer(InvocationOnMock invocation) {
+                        socketListeners.add((WebSocketListener) invocation.getArguments()[1]);
+                        return webSocket;
+                    }
+                });
+        player = mock(SimpleExoPlayer.class);
+        when(player.getApplicationLooper()).thenReturn(Looper.getMainLooper());
+        when(player.getPlaybackParameters()).thenReturn(PlaybackParameters.DEFAULT);
+        sessionManager = new PufferSessionManager(callFactory, Uri.parse("ws://localhost/ws"),
+                /* logDirectory= */ null);
+    }
+
+    @Test
+    public void testReplaysWarmFramesWhenListenerAttaches() {
+        sessionManager.preconnect();
+        WebSocketListener socketListener = openSocket();
+        List<ByteString> video = PufferTestChunks.frames("server-video", "640x360-24",
+                /* timestamp= */ 0, new byte[1000], /* fragmentSize= */ 400);
+        List<ByteString> audio = PufferTestChunks.frames("server-audio", "128k",
+                /* timestamp= */ 0, new byte[300], /* fragmentSize= */ 400);
+        receive(socketListener, video.get(0), video.get(1), audio.get(0), video.get(2));
+        // Every frame is acked while it is kept, after the client-info sent for server-init.
+        verify(webSocket, times(5)).send(any(ByteString.class));
+
+        PufferSession session = sessionManager.acquireSession();
+        assertThat(session.isConnected()).isTrue();
+        RecordingListener listener = new RecordingListener();
+        session.attach(player, listener);
+
+        assertThat(listener.frames)
+                .containsExactly(video.get(0), video.get(1), audio.get(0), video.get(2)).inOrder();
+        assertThat(listener.types).containsExactly(PufferFrameHeader.TYPE_SERVER_VIDEO,
+                PufferFrameHeader.TYPE_SERVER_VIDEO, PufferFrameHeader.TYPE_SERVER_AUDIO,
+                PufferFrameHeader.TYPE_SERVER_VIDEO).inOrder();
+        assertThat(sessionManager.getTimeToFirstByteHistogram().getCount()).isEqualTo(1);
+
+        // Later frames go straight to the listener, and the replay is not repeated.
+        List<ByteString> nextVideo = PufferTestChunks.frames("server-video", "640x360-24",
+                /* timestamp= */ 180180, new byte[100], /* fragmentSize= */ 400);
+        receive(socketListener, nextVideo.get(0));
+        assertThat(listener.frames).hasSize(5);
+        assertThat(listener.frames.get(4)).isEqualTo(nextVideo.get(0));
+        assertThat(sessionManager.getTimeToFirstByteHistogram().getCount()).isEqualTo(1);
+        assertThat(socketListeners).hasSize(1);
+        session.release();
+    }
+
+    @Test
+    public void testReleasedSessionRestartsStreamForNextListener() {
+        PufferSession session = sessionManager.acquireSession();
+        RecordingListener listener = new RecordingListener();
+        session.attach(player, listener);
+        WebSocketListener socketListener = openSocket();
+        receive(socketListener, PufferTestChunks.frames("server-video", "640x360-24",
+                /* timestamp= */ 0, new byte[100], /* fragmentSize= */ 400).get(0));
+        assertThat(listener.frames).hasSize(1);
+
+        sessionManager.releaseSession(session);
+        // The consumed stream is replaced by a new one over the same connection.
+        verify(webSocket).send(startsWith("{\"initId\":" + (INIT_ID + 1) + ","));
+        // Frames of the old stream still in flight are not kept.
+        receive(socketListener, PufferTestChunks.frames("server-video", "640x360-24",
+                /* timestamp= */ 180180, new byte[100], /* fragmentSize= */ 400).get(0));
+        List<ByteString> newStream = PufferTestChunks.frames(INIT_ID + 1, "server-video",
+                "640x360-24", /* timestamp= */ 0, new byte[100], /* fragmentSize= */ 400);
+        receive(socketListener, PufferTestChunks.serverInit(INIT_ID + 1), newStream.get(0));
+
+        assertThat(sessionManager.acquireSession()).isSameAs(session);
+        RecordingListener nextListener = new RecordingListener();
+        session.attach(player, nextListener);
+        assertThat(nextListener.frames).containsExactly(newStream.get(0));
+        assertThat(listener.frames).hasSize(1);
+        assertThat(socketListeners).hasSize(1);
+        session.release();
+    }
+
+    @Test
+    public void testReleaseClosesWarmSession() {
+        sessionManager.preconnect();
+        openSocket();
+
+        sessionManager.release();
+
+        verify(webSocket).close(1000, null);
+        // A released manager opens no more warm sessions.
+        sessionManager.preconnect();
+        assertThat(socketListeners).hasSize(1);
+    }
+
+    @Test
+    public void testFailedWarmSessionIsNotReused() {
+        sessionManager.preconnect();
+        WebSocketListener socketListener = openSocket();
+        socketListener.onFailure(webSocket, new IOException("reset"), /* response= */ null);
+
+        PufferSession session = sessionManager.acquireSession();
+
+        // The failed session was closed, and a new one connects when it is started.
+        verify(webSocket).close(1000, null);
+        assertThat(session.isUsable()).isTrue();
+        assertThat(session.isConnected()).isFalse();
+        session.start();
+        assertThat(socketListeners).hasSize(2);
+        session.release();
+    }
+
+    /** Opens the last requested WebSocket and starts a stream on it. */
+    private WebSocketListener openSocket() {
+        WebSocketListener socketListener = socketListeners.get(socketListeners.size() - 1);
+        socketListener.onOpen(webSocket, /* response= */ null);
+        receive(socketListener, PufferTestChunks.serverInit(INIT_ID));
+        return socketListener;
+    }
+
+    private void receive(WebSocketListener socketListener, ByteString... frames) {
+        for (ByteString frame : frames) {
+            socketListener.onMessage(webSocket, frame);
+        }
+    }
+
+    private static final class RecordingListener implements PufferSession.Listener {
+
+        public final List<ByteString> frames = new ArrayList<>();
+        public final List<Integer> types = new ArrayList<>();
+
+        @Override
+        public void onMediaFrame(PufferFrameHeader header, ByteString frame) {
+            frames.add(frame);
+            types.add(header.type);
+        }
+
+        @Override
+        public void awaitCapacity() {
+            // Do nothing.
+        }
+
+        @Override
+        public long getBufferedPositionMs(int trackType) {
+            return trackType == C.TRACK_TYPE_VIDEO ? 2002 : 0;
+        }
+
+        @Override
+        public void onSessionError(IOException error) {
+            // Do nothing.
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.ext.puffer.PufferClient;
+import com.google.android.exoplayer2.testutil.StubExoPlayer;
+import com.google.android.exoplayer2.util.Clock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+/** Unit test for {@link PufferTelemetryScheduler}. */
+@RunWith(RobolectricTestRunner.class)
+public final class PufferTelemetrySchedulerTest {
+
+    private static final long THRESHOLD_MS = 7000;
+    private static final long RETRY_INTERVAL_MS = 1000;
+
+    private FakePlayer player;
+    private List<String> events;
+    private PufferTelemetryScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        player = new FakePlayer();
+        events = new ArrayList<>();
+        scheduler = new PufferTelemetryScheduler(player, events::add, Clock.DEFAULT, THRESHOLD_MS,
+                RETRY_INTERVAL_MS);
+    }
+
+    @Test
+    public void testCoalescesChunkDeadlinesIntoOneTimer() {
+        player.setState(/* playWhenReady= */ true, Player.STATE_READY);
+        scheduler.start();
+        idle(0);
+
+        // Each chunk moves the deadline later, replacing the timer armed for the previous one.
+        scheduler.onChunkBuffered(20_000);
+        idle(1000);
+        scheduler.onChunkBuffered(22_000);
+        idle(1000);
+        scheduler.onChunkBuffered(24_000);
+        idle(0);
+
+        // The buffer crosses the threshold at 24000 - 7000 ms of playback.
+        idle(16_999 - 2000);
+        assertThat(events).isEmpty();
+        assertThat(scheduler.getWakeups()).isEqualTo(0);
+        idle(2);
+        assertThat(events).containsExactly(PufferClient.EVENT_TIMER);
+        assertThat(scheduler.getWakeups()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRepeatsTimerOnlyWhileNoMediaArrives() {
+        player.setState(/* playWhenReady= */ true, Player.STATE_READY);
+        scheduler.start();
+        scheduler.onChunkBuffered(THRESHOLD_MS + 1000);
+        idle(1001);
+        assertThat(events).containsExactly(PufferClient.EVENT_TIMER);
+
+        idle(RETRY_INTERVAL_MS);
+        assertThat(events).hasSize(2);
+        // Media arrives during the next interval, so the server needs no reminder.
+        idle(RETRY_INTERVAL_MS / 2);
+        scheduler.onFrameReceived();
+        idle(RETRY_INTERVAL_MS / 2);
+        assertThat(events).hasSize(2);
+        idle(RETRY_INTERVAL_MS);
+        assertThat(events).hasSize(3);
+        assertThat(scheduler.getWakeups()).isEqualTo(4);
+    }
+
+    @Test
+    public void testNewChunkCancelsRetries() {
+        player.setState(/* playWhenReady= */ true, Player.STATE_READY);
+        scheduler.start();
+        scheduler.onChunkBuffered(THRESHOLD_MS);
+        idle(10 * RETRY_INTERVAL_MS);
+        int sent = events.size();
+        assertThat(sent).isGreaterThan(1);
+
+        long positionMs = player.getCurrentPosition();
+        scheduler.onChunkBuffered(positionMs + THRESHOLD_MS + 5000);
+        idle(4999);
+        assertThat(events).hasSize(sent);
+        idle(2);
+        assertThat(events).hasSize(sent + 1);
+    }
+
+    @Test
+    public void testArmsNoTimerWhilePaused() {
+        player.setState(/* playWhenReady= */ false, Player.STATE_READY);
+        scheduler.start();
+        scheduler.onChunkBuffered(THRESHOLD_MS + 1000);
+        idle(60_000);
+
+        assertThat(events).isEmpty();
+        assertThat(scheduler.getWakeups()).isEqualTo(0);
+    }
+
+    @Test
+    public void testScalesDeadlineWithPlaybackSpeed() {
+        player.setState(/* playWhenReady= */ true, Player.STATE_READY);
+        player.speed = 2f;
+        scheduler.start();
+        scheduler.onChunkBuffered(THRESHOLD_MS + 4000);
+
+        idle(1999);
+        assertThat(events).isEmpty();
+        idle(2);
+        assertThat(events).containsExactly(PufferClient.EVENT_TIMER);
+    }
+
+    @Test
+    public void testReportsRebufferAndPlay() {
+        player.setState(/* playWhenReady= */ true, Player.STATE_READY);
+        scheduler.start();
+        scheduler.onChunkBuffered(60_000);
+        idle(0);
+
+        player.setState(/* playWhenReady= */ true, Player.STATE_BUFFERING);
+        scheduler.onPlayerStateChanged(true, Player.STATE_BUFFERING);
+        idle(1500);
+        assertThat(scheduler.getCumRebufferMs()).isEqualTo(1500);
+        player.setState(/* playWhenReady= */ true, Player.STATE_READY);
+        scheduler.onPlayerStateChanged(true, Player.STATE_READY);
+
+        assertThat(events).containsExactly(PufferClient.EVENT_REBUFFER, PufferClient.EVENT_PLAY)
+                .inOrder();
+        assertThat(scheduler.getCumRebufferMs()).isEqualTo(1500);
+    }
+
+    @Test
+    public void testReleaseCancelsTimers() {
+        player.setState(/* playWhenReady= */ true, Player.STATE_READY);
+        scheduler.start();
+        scheduler.onChunkBuffered(THRESHOLD_MS + 1000);
+        idle(0);
+        scheduler.release();
+        idle(60_000);
+
+        assertThat(events).isEmpty();
+        assertThat(player.listener).isNull();
+    }
+
+    /** Runs the main looper for {@code ms}, advancing the clock. */
+    private static void idle(long ms) {
+        ShadowLooper.idleMainLooper(ms, TimeUnit.MILLISECONDS);
+    }
+
+    /** A player whose position advances with the clock while it plays. */
+    private static final class FakePlayer extends StubExoPlayer {
+
+        public Player.EventListener listener;
+        public float speed;
+
+        private boolean playWhenReady;
+        private int playbackState;
+        private long positionMs;
+        private long positionRealtimeMs;
+
+        public FakePlayer() {
+            speed = 1f;
+            playbackState = Player.STATE_IDLE;
+            positionRealtimeMs = SystemClock.elapsedRealtime();
+        }
+
+        public void setState(boolean playWhenReady, int playbackState) {
+            positionMs = getCurrentPosition();
+            positionRealtimeMs = SystemClock.elapsedRealtime();
+            this.playWhenReady = playWhenReady;
+            this.playbackState = playbackState;
+        }
+
+        @Override
+        public Looper getApplicationLooper() {
+            return Looper.getMainLooper();
+        }
+
+        @Override
+        public void addListener(Player.EventListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void removeListener(Player.EventListener listener) {
+            this.listener = null;
+        }
+
+        @Override
+        public boolean getPlayWhenReady() {
+            return playWhenReady;
+        }
+
+        @Override
+        public int getPlaybackState() {
+            return playbackState;
+        }
+
+        @Override
+        public PlaybackParameters getPlaybackParameters() {
+            return new PlaybackParameters(speed);
+        }
+
+        @Override
+        public long getCurrentPosition() {
+            if (!playWhenReady || playbackState != Player.STATE_READY) {
+                return positionMs;
+            }
+            return positionMs
+                    + (long) ((SystemClock.elapsedRealtime() - positionRealtimeMs) * speed);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ext.puffer.PufferClient;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameParser;
+import com.google.android.exoplayer2.ext.puffer.PufferProtocolException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import okio.ByteString;
+
+/**
+ * Builds the smallest fragmented MP4 chunks that {@link
+ * com.google.android.exoplayer2.extractor.mp4.FragmentedMp4Extractor} accepts, and splits them into
+ * Puffer frames. Video is H.263 and audio is AMR, since neither needs codec specific data. Every
+ * segment holds a single track with id 1.
+ */
+/* package */ final class PufferTestChunks {
+
+    /** The timescale of the tracks, as used by the Puffer server. */
+    public static final int TIMESCALE = 90000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int TRACK_ID = 1;
+    private static final int SAMPLE_FLAGS_SYNC = 0;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x00010000;
+
+    private PufferTestChunks() {}
+
+    /** Returns an initialization segment for a track of {@code trackType}. */
+    public static byte[] initSegment(int trackType) {
+        boolean video = trackType == C.TRACK_TYPE_VIDEO;
+        byte[] sampleEntry = video
+                ? box("s263", bytes(new byte[6], shorts(1), new byte[16], shorts(640, 360),
+                new byte[50]), box("d263", new byte[7]))
+                : box("samr", bytes(new byte[6], shorts(1), new byte[8], shorts(1),
+                new byte[6], ints(8000 << 16)));
+        byte[] stbl = box("stbl",
+                fullBox("stsd", ints(1), sampleEntry),
+                fullBox("stts", ints(0)),
+                fullBox("stsc", ints(0)),
+                fullBox("stsz", ints(0, 0)),
+                fullBox("stco", ints(0)));
+        byte[] trak = box("trak",
+                fullBox("tkhd", ints(0, 0, TRACK_ID, 0, 0, 0, 0, 0, 0, 0x10000, 0, 0, 0, 0x10000,
+                        0, 0, 0, 0x40000000, video ? 640 << 16 : 0, video ? 360 << 16 : 0)),
+                box("mdia",
+                        fullBox("mdhd", ints(0, 0, TIMESCALE, 0), shorts(0x55c4, 0)),
+                        fullBox("hdlr", ints(0), ascii(video ? "vide" : "soun"), new byte[13]),
+                        box("minf", stbl)));
+        byte[] moov = box("moov",
+                fullBox("mvhd", ints(0, 0, TIMESCALE, 0, 0x10000), shorts(0x100), new byte[10],
+                        ints(0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000), new byte[24],
+                        ints(TRACK_ID + 1)),
+                trak,
+                box("mvex", fullBox("trex", ints(TRACK_ID, 1, 0, 0, 0))));
+        return bytes(box("ftyp", ascii("iso6"), ints(0), ascii("iso6")), moov);
+    }
+
+    /**
+     * Returns a media segment whose samples form a single track run. Only the first sample is a
+     * sync sample, and sample {@code i} holds {@code sampleSizes[i]} bytes of value {@code i}.
+     *
+     * @param baseMediaDecodeTime The decode time of the first sample, in {@link #TIMESCALE} units.
+     * @param sampleDurations     The durations of the samples, in {@link #TIMESCALE} units.
+     * @param sampleSizes         The sizes of the samples.
+     */
+    public static byte[] mediaSegment(long baseMediaDecodeTime, int[] sampleDurations,
+                                      int[] sampleSizes) {
+        int sampleCount = sampleDurations.length;
+        int[] trunSamples = new int[3 * sampleCount];
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        for (int i = 0; i < sampleCount; i++) {
+            trunSamples[3 * i] = sampleDurations[i];
+            trunSamples[3 * i + 1] = sampleSizes[i];
+            trunSamples[3 * i + 2] = i == 0 ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC;
+            for (int j = 0; j < sampleSizes[i]; j++) {
+                mdat.write(i);
+            }
+        }
+        // The data offset is relative to the start of the moof, whose size does not depend on it.
+        int moofSize = moof(baseMediaDecodeTime, sampleCount, 0, trunSamples).length;
+        byte[] moof = moof(baseMediaDecodeTime, sampleCount, moofSize + 8, trunSamples);
+        return bytes(moof, box("mdat", mdat.toByteArray()));
+    }
+
+    /** Returns a {@code server-init} frame for the stream {@code initId}. */
+    public static ByteString serverInit(long initId) {
+        return frame(String.format(Locale.US, "{\"type\": \"server-init\", \"channel\": \"nbc\","
+                + " \"initId\": %d, \"timescale\": %d, \"videoDuration\": 180180,"
+                + " \"audioDuration\": 432000}", initId, TIMESCALE), new byte[0], 0, 0);
+    }
+
+    /**
+     * Splits a chunk into Puffer frames of the first stream of a session, of at most {@code
+     * fragmentSize} payload bytes each. See {@link #frames(long, String, String, long, byte[],
+     * int)}.
+     */
+    public static List<ByteString> frames(String type, String format, long timestamp, byte[] chunk,
+                                          int fragmentSize) {
+        return frames(PufferClient.DEFAULT_INIT_ID, type, format, timestamp, chunk, fragmentSize);
+    }
+
+    /**
+     * Splits a chunk into Puffer frames of at most {@code fragmentSize} payload bytes.
+     *
+     * @param initId       The {@code initId} of the stream.
+     * @param type         The frame type, {@code server-video} or {@code server-audio}.
+     * @param format       The format of the chunk.
+     * @param timestamp    The presentation timestamp of the chunk, in {@link #TIMESCALE} units.
+     * @param chunk        The chunk.
+     * @param fragmentSize The maximum payload of a frame.
+     */
+    public static List<ByteString> frames(long initId, String type, String format, long timestamp,
+                                          byte[] chunk, int fragmentSize) {
+        List<ByteString> frames = new ArrayList<>();
+        for (int offset = 0; offset < chunk.length; offset += fragmentSize) {
+            int length = Math.min(fragmentSize, chunk.length - offset);
+            frames.add(frame(String.format(Locale.US, "{\"type\": \"%s\", \"channel\": \"nbc\","
+                    + " \"initId\": %d, \"format\": \"%s\", \"timestamp\": %d,"
+                    + " \"byteOffset\": %d, \"totalByteLength\": %d, \"ssim\": 0.95}", type,
+                    initId, format, timestamp, offset, chunk.length), chunk, offset, length));
+        }
+        return frames;
+    }
+
+    /** Parses the header of a frame returned by {@link #frames}. */
+    public static PufferFrameHeader parseHeader(ByteString frame) {
+        PufferFrameHeader header = new PufferFrameHeader();
+        try {
+            new PufferFrameParser().parse(frame, header);
+        } catch (PufferProtocolException e) {
+            throw new IllegalStateException(e);
+        }
+        return header;
+    }
+
+    private static ByteString frame(String metadata, byte[] payload, int offset, int length) {
+        byte[] metadataBytes = metadata.getBytes(UTF_8);
+        byte[] frame = new byte[2 + metadataBytes.length + length];
+        frame[0] = (byte) (metadataBytes.length >> 8);
+        frame[1] = (byte) metadataBytes.length;
+        System.arraycopy(metadataBytes, 0, frame, 2, metadataBytes.length);
+        System.arraycopy(payload, offset, frame, 2 + metadataBytes.length, length);
+        return ByteString.of(frame);
+    }
+
+    private static byte[] moof(long baseMediaDecodeTime, int sampleCount, int dataOffset,
+                               int[] trunSamples) {
+        return box("moof",
+                fullBox("mfhd", ints(1)),
+                box("traf",
+                        // default-base-is-moof.
+                        fullBox("tfhd", 0x020000, ints(TRACK_ID)),
+                        fullBox("tfdt", 1 << 24, longs(baseMediaDecodeTime)),
+                        // data-offset, sample-duration, sample-size and sample-flags present.
+                        fullBox("trun", 0x000701, ints(sampleCount, dataOffset),
+                                ints(trunSamples))));
+    }
+
+    private static byte[] box(String type, byte[]... payloads) {
+        byte[] payload = bytes(payloads);
+        return bytes(ints(8 + payload.length), ascii(type), payload);
+    }
+
+    private static byte[] fullBox(String type, byte[]... payloads) {
+        return fullBox(type, /* versionAndFlags= */ 0, payloads);
+    }
+
+    private static byte[] fullBox(String type, int versionAndFlags, byte[]... payloads) {
+        return box(type, ints(versionAndFlags), bytes(payloads));
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(UTF_8);
+    }
+
+    private static byte[] shorts(int... values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int value : values) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] ints(int... values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(bytes);
+            for (int value : values) {
+                output.writeInt(value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] longs(long value) {
+        return bytes(ints((int) (value >>> 32)), ints((int) value));
+    }
+
+    private static byte[] bytes(byte[]... arrays) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            bytes.write(array, 0, array.length);
+        }
+        return bytes.toByteArray();
+    }
+}
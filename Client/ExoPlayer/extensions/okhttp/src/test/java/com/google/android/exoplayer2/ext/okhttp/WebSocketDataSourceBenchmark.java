@@ -0,0 +1,207 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.testutil.puffer.MediaDirectory;
+import com.google.android.exoplayer2.testutil.puffer.PufferTestServer;
+import com.google.android.exoplayer2.testutil.puffer.ServerStats;
+import com.google.android.exoplayer2.testutil.puffer.ThroughputTrace;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import okhttp3.OkHttpClient;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Streams from a {@link PufferTestServer} through a {@link WebSocketDataSource} and prints the
+ * throughput, the ack round-trip time and the allocation rate of the process.
+ * <p>
+ * Runs only when the system property {@code benchmarks} is true, since it starts a server. By
+ * default it streams a synthetic channel over a constant 50 Mbit/s link for 3 s; {@link
+ * WebSocketDataSourceTest} runs a shorter check of the same path with the regular tests. Longer
+ * runs are configured with system properties:
+ * <ul>
+ *   <li>{@code puffer.benchmark.mediaDir} and {@code puffer.benchmark.channel}: a Puffer media
+ *   directory to serve instead of the synthetic channel.
+ *   <li>{@code puffer.benchmark.trace}: a Mahimahi trace file for the link, or {@code
+ *   puffer.benchmark.rateKbps} for a constant rate.
+ *   <li>{@code puffer.benchmark.seconds}: how long to stream.
+ *   <li>{@code puffer.benchmark.speed}: the playback speed reported to the server. It is high by
+ *   default, so that the buffer drains faster than the link fills it and the link is measured
+ *   rather than the server's buffer limit.
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class WebSocketDataSourceBenchmark {
+
+    private static final String[] SYNTHETIC_FORMATS = {"426x240-26", "854x480-24", "1280x720-22"};
+    private static final int[] SYNTHETIC_CHUNK_BYTES = {60_000, 180_000, 400_000};
+    private static final int SYNTHETIC_CHUNK_COUNT = 8;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PufferTestServer server;
+    private WebSocketDataSource dataSource;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        String mediaDir = System.getProperty("puffer.benchmark.mediaDir");
+        String channel = System.getProperty("puffer.benchmark.channel", "cbs");
+        MediaDirectory media;
+        if (mediaDir != null) {
+            media = MediaDirectory.load(new File(mediaDir), channel);
+        } else {
+            File directory = temporaryFolder.newFolder();
+            MediaDirectory.writeSynthetic(directory, channel, SYNTHETIC_FORMATS,
+                    SYNTHETIC_CHUNK_BYTES, SYNTHETIC_CHUNK_COUNT, /* seed= */ 0);
+            media = MediaDirectory.load(directory, channel);
+        }
+        String tracePath = System.getProperty("puffer.benchmark.trace");
+        ThroughputTrace trace = tracePath != null ? ThroughputTrace.load(new File(tracePath))
+                : ThroughputTrace.constant(
+                Long.getLong("puffer.benchmark.rateKbps", 50_000) * 1000);
+        server = new PufferTestServer(media, trace);
+        server.start(/* port= */ 0);
+        System.out.println("Benchmark: serving " + media.getFormatCount() + " formats of "
+                + media.getChunkCount() + " chunks over " + trace);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void streamOverLoopback() throws Exception {
+        long durationMs = (long) (Double.parseDouble(
+                System.getProperty("puffer.benchmark.seconds", "3")) * 1000);
+        final float speed = Float.parseFloat(System.getProperty("puffer.benchmark.speed", "1000"));
+        final long playbackStartMs = SystemClock.elapsedRealtime();
+        SimpleExoPlayer player = mock(SimpleExoPlayer.class);
+        when(player.getCurrentPosition()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return (long) ((SystemClock.elapsedRealtime() - playbackStartMs) * speed);
+            }
+        });
+        when(player.getApplicationLooper()).thenReturn(Looper.getMainLooper());
+        when(player.getPlayWhenReady()).thenReturn(true);
+        when(player.getPlaybackState()).thenReturn(Player.STATE_READY);
+        when(player.getPlaybackParameters()).thenReturn(new PlaybackParameters(speed));
+        dataSource = new WebSocketDataSource(new OkHttpClient(), /* userAgent= */ null,
+                /* contentTypePredicate= */ null, /* cacheControl= */ null, player,
+                /* defaultRequestProperties= */ null, /* logDirectory= */ null);
+
+        final DataSpec dataSpec = new DataSpec(Uri.parse(server.getLoopbackUri()));
+        final long[] bytesRead = new long[1];
+        final long[] openedNanos = new long[1];
+        final long[] finishedNanos = new long[1];
+        final long[] allocatedAfter = new long[1];
+        final IOException[] error = new IOException[1];
+        final long deadlineNanos = System.nanoTime() + durationMs * 1_000_000;
+        Thread reader = new Thread("benchmark:read") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[64 * 1024];
+                try {
+                    dataSource.open(dataSpec);
+                    openedNanos[0] = System.nanoTime();
+                    while (System.nanoTime() < deadlineNanos) {
+                        int read = dataSource.read(buffer, 0, buffer.length);
+                        if (read == C.RESULT_END_OF_INPUT) {
+                            break;
+                        }
+                        bytesRead[0] += read;
+                    }
+                } catch (IOException e) {
+                    error[0] = e;
+                } finally {
+                    // Measured before this thread ends, so that its own allocations count.
+                    allocatedAfter[0] = getAllocatedBytes();
+                    finishedNanos[0] = System.nanoTime();
+                }
+            }
+        };
+
+        long allocatedBefore = getAllocatedBytes();
+        long startNanos = System.nanoTime();
+        reader.start();
+        // The telemetry of the session runs on the main looper, whose clock only advances when the
+        // looper is idled.
+        while (reader.isAlive()) {
+            Thread.sleep(10);
+            ShadowLooper.idleMainLooper(10);
+        }
+        long elapsedNanos = finishedNanos[0] - startNanos;
+        long allocated = allocatedAfter[0] - allocatedBefore;
+        if (error[0] != null) {
+            throw error[0];
+        }
+
+        ServerStats stats = server.getStats();
+        double streamingSeconds = (finishedNanos[0] - openedNanos[0]) / 1e9;
+        System.out.println("Benchmark: time to open " + (openedNanos[0] - startNanos) / 1_000_000
+                + " ms");
+        System.out.println("Benchmark: read " + bytesRead[0] + " B in "
+                + String.format("%.2f", streamingSeconds) + " s, "
+                + String.format("%.1f", bytesRead[0] * 8 / streamingSeconds / 1e6) + " Mbit/s");
+        System.out.println("Benchmark: ack rtt over " + stats.getAckCount() + " frames: mean "
+                + stats.getMeanAckRttUs() + " us, p50 " + stats.getAckRttPercentileUs(50)
+                + " us, p99 " + stats.getAckRttPercentileUs(99) + " us");
+        System.out.println("Benchmark: allocated " + allocated / 1024 + " KiB, "
+                + String.format("%.1f", allocated / (elapsedNanos / 1e9) / 1e6) + " MB/s, "
+                + (bytesRead[0] == 0 ? 0 : allocated / bytesRead[0]) + " B per byte read");
+        System.out.println("Benchmark: server " + stats);
+
+        assertThat(bytesRead[0]).isGreaterThan(0L);
+        assertThat(stats.getChunksAcked()).isGreaterThan(0L);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the live threads, or 0 if the JVM does not measure
+     * them. Threads that end during the run are not counted.
+     */
+    private static long getAllocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(allocated, 0);
+        }
+        return total;
+    }
+}
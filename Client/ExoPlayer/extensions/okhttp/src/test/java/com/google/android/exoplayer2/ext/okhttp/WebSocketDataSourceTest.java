@@ -0,0 +1,117 @@
+package com.google.android.exoplayer2.ext.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import android.os.Looper;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.testutil.puffer.MediaDirectory;
+import com.google.android.exoplayer2.testutil.puffer.PufferTestServer;
+import com.google.android.exoplayer2.testutil.puffer.ServerStats;
+import com.google.android.exoplayer2.testutil.puffer.ThroughputTrace;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Unit test for {@link WebSocketDataSource}. Streams a short synthetic channel from a {@link
+ * PufferTestServer} over loopback, checking that the client and the server still talk to each
+ * other. {@link WebSocketDataSourceBenchmark} measures the same path.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class WebSocketDataSourceTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+    private static final String CHANNEL = "cbs";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PufferTestServer server;
+    private WebSocketDataSource dataSource;
+
+    @Before
+    public void setUp() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        MediaDirectory.writeSynthetic(directory, CHANNEL, new String[] {"426x240-26"},
+                new int[] {20_000}, /* chunkCount= */ 4, /* seed= */ 0);
+        server = new PufferTestServer(MediaDirectory.load(directory, CHANNEL),
+                ThroughputTrace.constant(/* bitsPerSecond= */ 50_000_000));
+        server.start(/* port= */ 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void testStreamsAndAcksOverLoopback() throws Exception {
+        SimpleExoPlayer player = mock(SimpleExoPlayer.class);
+        when(player.getApplicationLooper()).thenReturn(Looper.getMainLooper());
+        when(player.getPlayWhenReady()).thenReturn(true);
+        when(player.getPlaybackState()).thenReturn(Player.STATE_READY);
+        when(player.getPlaybackParameters()).thenReturn(PlaybackParameters.DEFAULT);
+        dataSource = new WebSocketDataSource(new OkHttpClient(), /* userAgent= */ null,
+                /* contentTypePredicate= */ null, /* cacheControl= */ null, player,
+                /* defaultRequestProperties= */ null, /* logDirectory= */ null);
+        final DataSpec dataSpec = new DataSpec(Uri.parse(server.getLoopbackUri()));
+        final ServerStats stats = server.getStats();
+        final long[] bytesRead = new long[1];
+        final IOException[] error = new IOException[1];
+        final long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        Thread reader = new Thread("WebSocketDataSourceTest:read") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[16 * 1024];
+                try {
+                    dataSource.open(dataSpec);
+                    // Read until the server has received an ack for a whole chunk.
+                    while (stats.getChunksAcked() == 0 && System.currentTimeMillis() < deadlineMs) {
+                        int read = dataSource.read(buffer, 0, buffer.length);
+                        if (read == C.RESULT_END_OF_INPUT) {
+                            break;
+                        }
+                        bytesRead[0] += read;
+                    }
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        };
+
+        reader.start();
+        // The telemetry of the session runs on the main looper.
+        while (reader.isAlive()) {
+            Thread.sleep(10);
+            ShadowLooper.idleMainLooper(10);
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+
+        assertThat(bytesRead[0]).isGreaterThan(0L);
+        assertThat(stats.getChunksAcked()).isGreaterThan(0L);
+    }
+}
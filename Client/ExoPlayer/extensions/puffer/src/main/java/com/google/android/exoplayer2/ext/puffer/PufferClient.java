@@ -0,0 +1,258 @@
+package com.google.android.exoplayer2.ext.puffer;
+
+import okio.ByteString;
+
+/**
+ * The platform-independent part of a Puffer client: the {@code client-init} / {@code server-init}
+ * handshake, the bookkeeping of fragmented chunks, and the encoding of acks and {@code client-info}
+ * messages.
+ * <p>
+ * The client does no I/O and reads no clock. The caller owns the connection and the playback state,
+ * passes every received frame to {@link #onMessage}, and sends the messages returned by the {@code
+ * encode*} methods. This is what the Android session and the JVM load generator have in common.
+ * <p>
+ * {@link #onMessage} and {@link #encodeAck} must be called from one thread at a time, normally the
+ * thread that reads the connection. The other methods may be called from any thread.
+ */
+public final class PufferClient {
+
+    /**
+     * Returned by {@link #onMessage} for a frame of a stream that has been replaced by a new {@code
+     * client-init}, or of the current stream before its {@code server-init}. It must be dropped.
+     */
+    public static final int RESULT_DROPPED = 0;
+    /** Returned by {@link #onMessage} for the {@code server-init} of the current stream. */
+    public static final int RESULT_SERVER_INIT = 1;
+    /** Returned by {@link #onMessage} for any other frame of the current stream. */
+    public static final int RESULT_FRAME = 2;
+
+    /** The {@code client-info} event sent once {@code server-init} has been received. */
+    public static final String EVENT_STARTUP = "startup";
+    /** The {@code client-info} event sent while the video buffer is below the threshold. */
+    public static final String EVENT_TIMER = "timer";
+    /** The {@code client-info} event sent when playback stalls. */
+    public static final String EVENT_REBUFFER = "rebuffer";
+    /** The {@code client-info} event sent when playback resumes. */
+    public static final String EVENT_PLAY = "play";
+
+    /** The {@code initId} of the first stream of a session, as used by the original client. */
+    public static final long DEFAULT_INIT_ID = 298665506;
+    /** The channel requested by default. */
+    public static final String DEFAULT_CHANNEL = "cbs";
+    /** The chunk duration assumed when {@code server-init} does not announce one. */
+    public static final long DEFAULT_CHUNK_DURATION_MS = 2002;
+    /** The default video buffer level below which the server serves the next chunk. */
+    public static final long DEFAULT_BUFFER_THRESHOLD_MS = 7000;
+    /** The default interval at which a {@code timer} message is repeated. */
+    public static final long DEFAULT_RETRY_INTERVAL_MS = 1000;
+
+    private static final String SESSION_KEY = "376m3bv1pkvgczfcscalwul558bcgtvn";
+    private static final int SCREEN_WIDTH = 1440;
+    private static final int SCREEN_HEIGHT = 900;
+
+    private final String channel;
+    private final PufferFrameParser parser = new PufferFrameParser();
+    private final PufferFrameHeader header = new PufferFrameHeader();
+    private final PufferMessageEncoder ackEncoder = new PufferMessageEncoder();
+    // client-info is sent from whichever thread observes playback.
+    private final ThreadLocal<PufferMessageEncoder> infoEncoder =
+            new ThreadLocal<PufferMessageEncoder>() {
+                @Override
+                protected PufferMessageEncoder initialValue() {
+                    return new PufferMessageEncoder();
+                }
+            };
+
+    private volatile long initId;
+    private volatile boolean streaming;
+    private volatile long videoChunkDurationMs = DEFAULT_CHUNK_DURATION_MS;
+    private volatile long audioChunkDurationMs = DEFAULT_CHUNK_DURATION_MS;
+
+    // Confined to the thread calling onMessage. The offset is 0 between chunks.
+    private long videoChunkTimestamp;
+    private int videoChunkOffset;
+    private long audioChunkTimestamp;
+    private int audioChunkOffset;
+
+    public PufferClient() {
+        this(DEFAULT_INIT_ID, DEFAULT_CHANNEL);
+    }
+
+    /**
+     * @param initId The {@code initId} of the first stream.
+     * @param channel The channel to request.
+     */
+    public PufferClient(long initId, String channel) {
+        this.initId = initId;
+        this.channel = channel;
+    }
+
+    /** Returns the {@code initId} of the current stream. */
+    public long getInitId() {
+        return initId;
+    }
+
+    /** Returns whether the {@code server-init} of the current stream has been received. */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /** Returns the duration of a video chunk, as announced by the server. */
+    public long getVideoChunkDurationMs() {
+        return videoChunkDurationMs;
+    }
+
+    /** Returns the duration of an audio chunk, as announced by the server. */
+    public long getAudioChunkDurationMs() {
+        return audioChunkDurationMs;
+    }
+
+    /**
+     * Returns the header of the frame last passed to {@link #onMessage}. Only valid until the next
+     * call, and only on the thread that made it.
+     */
+    public PufferFrameHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Starts a new stream over the same connection. Frames of the previous stream that are still in
+     * flight are dropped by their {@code initId}. The caller must then send {@link
+     * #encodeClientInit()}.
+     */
+    public void restart() {
+        initId++;
+        streaming = false;
+    }
+
+    /** Returns the {@code client-init} message that requests the current stream. */
+    public String encodeClientInit() {
+        return "{\"initId\":" + initId +
+                ",\"sessionKey\": \"" + SESSION_KEY + "\"" +
+                ",\"userName\":\"test\",\"channel\":\"" + channel + "\"" +
+                ",\"os\":\"Mac OS X\",\"browser\":\"Chrome\"" +
+                ",\"screenWidth\":" + Integer.toString(SCREEN_WIDTH) +
+                ",\"screenHeight\":" + Integer.toString(SCREEN_HEIGHT) +
+                ",\"type\":\"client-init\"}";
+    }
+
+    /**
+     * Handles a frame received from the server. The parsed frame is available from {@link
+     * #getHeader()}.
+     *
+     * @param frame The frame.
+     * @return {@link #RESULT_DROPPED}, {@link #RESULT_SERVER_INIT} or {@link #RESULT_FRAME}.
+     * @throws PufferProtocolException If the frame is malformed, or is a fragment that does not
+     *     continue the chunk being received.
+     */
+    public int onMessage(ByteString frame) throws PufferProtocolException {
+        parser.parse(frame, header);
+        return onParsed();
+    }
+
+    /**
+     * Handles a frame of which only a prefix may be held in memory. The metadata must be complete,
+     * but the payload need not be, so that a client that discards media can skip it.
+     *
+     * @param frame An array holding at least the metadata of the frame.
+     * @param offset The offset of the frame in {@code frame}.
+     * @param length The length of the whole frame, including any part not held in {@code frame}.
+     * @return {@link #RESULT_DROPPED}, {@link #RESULT_SERVER_INIT} or {@link #RESULT_FRAME}.
+     * @throws PufferProtocolException If the frame is malformed, or is a fragment that does not
+     *     continue the chunk being received.
+     */
+    public int onMessage(byte[] frame, int offset, int length) throws PufferProtocolException {
+        parser.parse(frame, offset, length, header);
+        return onParsed();
+    }
+
+    /**
+     * Encodes the ack of the frame last passed to {@link #onMessage}.
+     *
+     * @param videoBufferMs The video buffer level, in milliseconds.
+     * @param audioBufferMs The audio buffer level, in milliseconds.
+     * @param cumRebufferMs The cumulative rebuffering time, in milliseconds.
+     * @param videoTimelineMs The playback position, in milliseconds.
+     * @return The {@code client-vidack} or {@code client-audack}, or null if the frame carries no
+     *     media.
+     */
+    public ByteString encodeAck(long videoBufferMs, long audioBufferMs, long cumRebufferMs,
+                                long videoTimelineMs) {
+        if (header.type == PufferFrameHeader.TYPE_SERVER_VIDEO) {
+            return ackEncoder.encodeVideoAck(initId, videoBufferMs, audioBufferMs, cumRebufferMs,
+                    videoTimelineMs, header);
+        } else if (header.type == PufferFrameHeader.TYPE_SERVER_AUDIO) {
+            return ackEncoder.encodeAudioAck(initId, videoBufferMs, audioBufferMs, cumRebufferMs,
+                    header);
+        }
+        return null;
+    }
+
+    /**
+     * Encodes a {@code client-info} message.
+     *
+     * @param event One of the {@code EVENT_*} constants.
+     * @param videoBufferMs The video buffer level, in milliseconds.
+     * @param audioBufferMs The audio buffer level, in milliseconds.
+     * @param cumRebufferMs The cumulative rebuffering time, in milliseconds.
+     * @param videoTimelineMs The playback position, in milliseconds.
+     * @return The encoded message.
+     */
+    public ByteString encodeClientInfo(String event, long videoBufferMs, long audioBufferMs,
+                                       long cumRebufferMs, long videoTimelineMs) {
+        return infoEncoder.get().encodeClientInfo(initId, event, videoBufferMs, audioBufferMs,
+                cumRebufferMs, videoTimelineMs, SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    private int onParsed() throws PufferProtocolException {
+        if (header.initId != initId) {
+            // Left over from a stream that has been replaced by a new client-init.
+            return RESULT_DROPPED;
+        }
+        if (header.type == PufferFrameHeader.TYPE_SERVER_INIT) {
+            if (header.timescale > 0) {
+                if (header.videoDuration > 0) {
+                    videoChunkDurationMs = header.videoDuration * 1000 / header.timescale;
+                }
+                if (header.audioDuration > 0) {
+                    audioChunkDurationMs = header.audioDuration * 1000 / header.timescale;
+                }
+            }
+            videoChunkOffset = 0;
+            audioChunkOffset = 0;
+            streaming = true;
+            return RESULT_SERVER_INIT;
+        }
+        if (!streaming) {
+            return RESULT_DROPPED;
+        }
+        if (header.type == PufferFrameHeader.TYPE_SERVER_VIDEO) {
+            videoChunkOffset = checkFragment(videoChunkTimestamp, videoChunkOffset);
+            videoChunkTimestamp = header.timestamp;
+        } else if (header.type == PufferFrameHeader.TYPE_SERVER_AUDIO) {
+            audioChunkOffset = checkFragment(audioChunkTimestamp, audioChunkOffset);
+            audioChunkTimestamp = header.timestamp;
+        }
+        return RESULT_FRAME;
+    }
+
+    /**
+     * Checks that the current fragment continues the chunk being received, and returns the offset
+     * at which the next fragment of its track must start.
+     */
+    private int checkFragment(long chunkTimestamp, int chunkOffset)
+            throws PufferProtocolException {
+        if (header.byteOffset != chunkOffset
+                || (chunkOffset != 0 && header.timestamp != chunkTimestamp)) {
+            throw new PufferProtocolException("Fragment at " + header.byteOffset + " of chunk "
+                    + header.timestamp + ", expected " + chunkOffset + " of chunk "
+                    + chunkTimestamp);
+        }
+        int end = header.byteOffset + header.payloadLength;
+        if (end > header.totalByteLength) {
+            throw new PufferProtocolException("Fragment ends at " + end + " of chunk "
+                    + header.timestamp + " of length " + header.totalByteLength);
+        }
+        return end == header.totalByteLength ? 0 : end;
+    }
+}
@@ -0,0 +1,145 @@
+package com.google.android.exoplayer2.ext.puffer;
+
+import android.support.annotation.Nullable;
+
+import java.nio.charset.Charset;
+
+/**
+ * The decoded metadata of a Puffer server frame. Instances are mutable and are meant to be reused
+ * for every frame received on a connection, see {@link PufferFrameParser#parse}.
+ */
+public final class PufferFrameHeader {
+
+    /** The frame type could not be determined. */
+    public static final int TYPE_UNKNOWN = 0;
+    /** A {@code server-init} message. */
+    public static final int TYPE_SERVER_INIT = 1;
+    /** A {@code server-video} message. */
+    public static final int TYPE_SERVER_VIDEO = 2;
+    /** A {@code server-audio} message. */
+    public static final int TYPE_SERVER_AUDIO = 3;
+    /** A {@code server-error} message. */
+    public static final int TYPE_SERVER_ERROR = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_STRING_LENGTH = 64;
+
+    /** The message type. One of the {@code TYPE_*} constants. */
+    public int type;
+    /** The {@code initId} the message refers to, or 0 if absent. */
+    public long initId;
+    /** The media timestamp of the chunk, in the channel's timescale. */
+    public long timestamp;
+    /** The offset of this fragment's payload within the chunk. */
+    public int byteOffset;
+    /** The length of the whole chunk. */
+    public int totalByteLength;
+    /** The SSIM of the chunk, or 0 if absent. */
+    public double ssim;
+    /** The offset of the payload within the frame. */
+    public int payloadOffset;
+    /** The length of the payload. */
+    public int payloadLength;
+    /** The timescale of the channel announced by {@code server-init}, or 0 if absent. */
+    public long timescale;
+    /** The duration of a video chunk announced by {@code server-init}, or 0 if absent. */
+    public long videoDuration;
+    /** The duration of an audio chunk announced by {@code server-init}, or 0 if absent. */
+    public long audioDuration;
+
+    /** The UTF-8 bytes of the channel name. Only the first {@link #channelLength} are valid. */
+    public final byte[] channel;
+    /** The length of the channel name in {@link #channel}. */
+    public int channelLength;
+    /** The UTF-8 bytes of the format name. Only the first {@link #formatLength} are valid. */
+    public final byte[] format;
+    /** The length of the format name in {@link #format}. */
+    public int formatLength;
+    /** The {@code ssim} value exactly as the server wrote it, so that it can be echoed verbatim. */
+    public final byte[] ssimText;
+    /** The length of the value in {@link #ssimText}. */
+    public int ssimTextLength;
+
+    private @Nullable String channelString;
+    private final byte[] channelStringBytes;
+    private int channelStringLength;
+    private @Nullable String formatString;
+    private final byte[] formatStringBytes;
+    private int formatStringLength;
+
+    public PufferFrameHeader() {
+        channel = new byte[MAX_STRING_LENGTH];
+        format = new byte[MAX_STRING_LENGTH];
+        ssimText = new byte[MAX_STRING_LENGTH];
+        channelStringBytes = new byte[MAX_STRING_LENGTH];
+        formatStringBytes = new byte[MAX_STRING_LENGTH];
+    }
+
+    /** Clears all fields, ready for the next frame. */
+    public void reset() {
+        type = TYPE_UNKNOWN;
+        initId = 0;
+        timestamp = 0;
+        byteOffset = 0;
+        totalByteLength = 0;
+        ssim = 0;
+        payloadOffset = 0;
+        payloadLength = 0;
+        timescale = 0;
+        videoDuration = 0;
+        audioDuration = 0;
+        channelLength = 0;
+        formatLength = 0;
+        ssimTextLength = 0;
+    }
+
+    /** Returns whether this fragment completes its chunk. */
+    public boolean isLastFragment() {
+        return byteOffset + payloadLength == totalByteLength;
+    }
+
+    /** Returns whether the message carries media, i.e. is {@code server-video} or {@code server-audio}. */
+    public boolean isMedia() {
+        return type == TYPE_SERVER_VIDEO || type == TYPE_SERVER_AUDIO;
+    }
+
+    /**
+     * Returns the channel name. A new {@link String} is only created when the value differs from the
+     * one returned previously.
+     */
+    public String getChannel() {
+        if (channelString == null
+                || !equals(channel, channelLength, channelStringBytes, channelStringLength)) {
+            System.arraycopy(channel, 0, channelStringBytes, 0, channelLength);
+            channelStringLength = channelLength;
+            channelString = new String(channel, 0, channelLength, UTF_8);
+        }
+        return channelString;
+    }
+
+    /**
+     * Returns the format name, e.g. {@code 1280x720-24}. A new {@link String} is only created when
+     * the value differs from the one returned previously.
+     */
+    public String getFormat() {
+        if (formatString == null
+                || !equals(format, formatLength, formatStringBytes, formatStringLength)) {
+            System.arraycopy(format, 0, formatStringBytes, 0, formatLength);
+            formatStringLength = formatLength;
+            formatString = new String(format, 0, formatLength, UTF_8);
+        }
+        return formatString;
+    }
+
+    private static boolean equals(byte[] a, int aLength, byte[] b, int bLength) {
+        if (aLength != bLength) {
+            return false;
+        }
+        for (int i = 0; i < aLength; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,509 @@
+package com.google.android.exoplayer2.ext.puffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import okio.ByteString;
+
+/**
+ * Parses Puffer server frames of the form {@code metadataLen | metadata JSON | payload}, where
+ * {@code metadataLen} is a big-endian unsigned 16-bit integer.
+ * <p>
+ * The metadata fields used by the client are decoded straight from the frame bytes into a reusable
+ * {@link PufferFrameHeader}. Unknown fields are skipped. No {@link String} or JSON object is created
+ * per frame. Instances hold parsing state and must be confined to a single thread.
+ */
+public final class PufferFrameParser {
+
+    private static final byte[] KEY_TYPE = ascii("type");
+    private static final byte[] KEY_INIT_ID = ascii("initId");
+    private static final byte[] KEY_CHANNEL = ascii("channel");
+    private static final byte[] KEY_FORMAT = ascii("format");
+    private static final byte[] KEY_TIMESTAMP = ascii("timestamp");
+    private static final byte[] KEY_BYTE_OFFSET = ascii("byteOffset");
+    private static final byte[] KEY_TOTAL_BYTE_LENGTH = ascii("totalByteLength");
+    private static final byte[] KEY_SSIM = ascii("ssim");
+    private static final byte[] KEY_TIMESCALE = ascii("timescale");
+    private static final byte[] KEY_VIDEO_DURATION = ascii("videoDuration");
+    private static final byte[] KEY_AUDIO_DURATION = ascii("audioDuration");
+
+    private static final byte[] TYPE_SERVER_INIT = ascii("server-init");
+    private static final byte[] TYPE_SERVER_VIDEO = ascii("server-video");
+    private static final byte[] TYPE_SERVER_AUDIO = ascii("server-audio");
+    private static final byte[] TYPE_SERVER_ERROR = ascii("server-error");
+
+    /** Powers of ten that are exactly representable as doubles. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+            1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] data;
+    private int end;
+    private int position;
+
+    public PufferFrameParser() {
+        data = new byte[1024];
+    }
+
+    /**
+     * Parses the metadata of {@code frame} into {@code header}. Must not be called concurrently.
+     *
+     * @param frame The received frame.
+     * @param header The header to populate. It is reset before parsing.
+     * @throws PufferProtocolException If the frame is malformed.
+     */
+    public void parse(ByteString frame, PufferFrameHeader header) throws PufferProtocolException {
+        header.reset();
+        int size = frame.size();
+        if (size < 2) {
+            throw new PufferProtocolException("Frame too short: " + size);
+        }
+        int metadataLength = ((frame.getByte(0) & 0xFF) << 8) | (frame.getByte(1) & 0xFF);
+        if (2 + metadataLength > size) {
+            throw new PufferProtocolException(
+                    "Metadata length " + metadataLength + " exceeds frame " + size);
+        }
+        header.payloadOffset = 2 + metadataLength;
+        header.payloadLength = size - header.payloadOffset;
+        if (data.length < metadataLength) {
+            data = new byte[metadataLength];
+        }
+        // Scanning a local copy of the (short) metadata is much cheaper than one ByteString.getByte
+        // call per character.
+        ByteBuffer metadata = frame.asByteBuffer();
+        metadata.position(2);
+        metadata.get(data, 0, metadataLength);
+        position = 0;
+        end = metadataLength;
+        parseObject(header);
+    }
+
+    /**
+     * Parses a frame held in {@code frame[offset, offset + length)} into {@code header}. Must not be
+     * called concurrently.
+     *
+     * @param frame An array holding the frame.
+     * @param offset The offset of the frame in {@code frame}.
+     * @param length The length of the frame.
+     * @param header The header to populate. It is reset before parsing. Its payload offset is
+     *     relative to {@code offset}.
+     * @throws PufferProtocolException If the frame is malformed.
+     */
+    public void parse(byte[] frame, int offset, int length, PufferFrameHeader header)
+            throws PufferProtocolException {
+        header.reset();
+        if (length < 2) {
+            throw new PufferProtocolException("Frame too short: " + length);
+        }
+        int metadataLength = ((frame[offset] & 0xFF) << 8) | (frame[offset + 1] & 0xFF);
+        if (2 + metadataLength > length) {
+            throw new PufferProtocolException(
+                    "Metadata length " + metadataLength + " exceeds frame " + length);
+        }
+        header.payloadOffset = 2 + metadataLength;
+        header.payloadLength = length - header.payloadOffset;
+        byte[] scratch = data;
+        data = frame;
+        position = offset + 2;
+        end = offset + 2 + metadataLength;
+        try {
+            parseObject(header);
+        } finally {
+            data = scratch;
+        }
+    }
+
+    private void parseObject(PufferFrameHeader header) throws PufferProtocolException {
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            int keyStart = position;
+            while (peek() != '"') {
+                if (peek() == '\\') {
+                    position++;
+                }
+                position++;
+            }
+            int keyEnd = position++;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            parseValue(keyStart, keyEnd - keyStart, header);
+            skipWhitespace();
+            int next = read();
+            if (next == '}') {
+                return;
+            } else if (next != ',') {
+                throw error("Expected , or }");
+            }
+        }
+    }
+
+    private void parseValue(int keyStart, int keyLength, PufferFrameHeader header)
+            throws PufferProtocolException {
+        if (keyEquals(keyStart, keyLength, KEY_TYPE)) {
+            header.type = parseType();
+        } else if (keyEquals(keyStart, keyLength, KEY_BYTE_OFFSET)) {
+            header.byteOffset = (int) parseLong();
+        } else if (keyEquals(keyStart, keyLength, KEY_TOTAL_BYTE_LENGTH)) {
+            header.totalByteLength = (int) parseLong();
+        } else if (keyEquals(keyStart, keyLength, KEY_TIMESTAMP)) {
+            header.timestamp = parseLong();
+        } else if (keyEquals(keyStart, keyLength, KEY_SSIM)) {
+            int start = position;
+            header.ssim = parseDouble();
+            int length = Math.min(position - start, header.ssimText.length);
+            System.arraycopy(data, start, header.ssimText, 0, length);
+            header.ssimTextLength = length;
+        } else if (keyEquals(keyStart, keyLength, KEY_CHANNEL)) {
+            header.channelLength = parseString(header.channel);
+        } else if (keyEquals(keyStart, keyLength, KEY_FORMAT)) {
+            header.formatLength = parseString(header.format);
+        } else if (keyEquals(keyStart, keyLength, KEY_INIT_ID)) {
+            header.initId = parseLong();
+        } else if (keyEquals(keyStart, keyLength, KEY_TIMESCALE)) {
+            header.timescale = parseLong();
+        } else if (keyEquals(keyStart, keyLength, KEY_VIDEO_DURATION)) {
+            header.videoDuration = parseLong();
+        } else if (keyEquals(keyStart, keyLength, KEY_AUDIO_DURATION)) {
+            header.audioDuration = parseLong();
+        } else {
+            skipValue(0);
+        }
+    }
+
+    private int parseType() throws PufferProtocolException {
+        expect('"');
+        int start = position;
+        while (peek() != '"') {
+            if (peek() == '\\') {
+                position++;
+            }
+            position++;
+        }
+        int length = position++ - start;
+        if (keyEquals(start, length, TYPE_SERVER_VIDEO)) {
+            return PufferFrameHeader.TYPE_SERVER_VIDEO;
+        } else if (keyEquals(start, length, TYPE_SERVER_AUDIO)) {
+            return PufferFrameHeader.TYPE_SERVER_AUDIO;
+        } else if (keyEquals(start, length, TYPE_SERVER_INIT)) {
+            return PufferFrameHeader.TYPE_SERVER_INIT;
+        } else if (keyEquals(start, length, TYPE_SERVER_ERROR)) {
+            return PufferFrameHeader.TYPE_SERVER_ERROR;
+        }
+        return PufferFrameHeader.TYPE_UNKNOWN;
+    }
+
+    /**
+     * Copies a string value into {@code target} as UTF-8, decoding escapes, and returns its length in
+     * bytes.
+     */
+    private int parseString(byte[] target) throws PufferProtocolException {
+        expect('"');
+        int length = 0;
+        int b;
+        while ((b = read()) != '"') {
+            if (b != '\\') {
+                length = append(target, length, b);
+                continue;
+            }
+            b = read();
+            switch (b) {
+                case '"':
+                case '\\':
+                case '/':
+                    length = append(target, length, b);
+                    break;
+                case 'b':
+                    length = append(target, length, '\b');
+                    break;
+                case 'f':
+                    length = append(target, length, '\f');
+                    break;
+                case 'n':
+                    length = append(target, length, '\n');
+                    break;
+                case 'r':
+                    length = append(target, length, '\r');
+                    break;
+                case 't':
+                    length = append(target, length, '\t');
+                    break;
+                case 'u':
+                    length = appendCodePoint(target, length, parseUnicodeEscape());
+                    break;
+                default:
+                    throw error("Invalid escape \\" + (char) b);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the code point of a unicode escape whose backslash and {@code u} have been consumed,
+     * combining a surrogate pair written as two escapes. An unpaired surrogate decodes to {@code
+     * '?'}, as {@link String#getBytes(Charset)} encodes it.
+     */
+    private int parseUnicodeEscape() throws PufferProtocolException {
+        char value = parseHexChar();
+        if (!Character.isSurrogate(value)) {
+            return value;
+        }
+        if (Character.isHighSurrogate(value) && end - position >= 6 && data[position] == '\\'
+                && data[position + 1] == 'u') {
+            int start = position;
+            position += 2;
+            char low = parseHexChar();
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(value, low);
+            }
+            // Not a pair. The second escape is decoded on its own.
+            position = start;
+        }
+        return '?';
+    }
+
+    private char parseHexChar() throws PufferProtocolException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = read();
+            int digit;
+            if (b >= '0' && b <= '9') {
+                digit = b - '0';
+            } else if (b >= 'a' && b <= 'f') {
+                digit = b - 'a' + 10;
+            } else if (b >= 'A' && b <= 'F') {
+                digit = b - 'A' + 10;
+            } else {
+                throw error("Invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    /** Appends {@code codePoint} to {@code target} as UTF-8, returning the new length. */
+    private int appendCodePoint(byte[] target, int length, int codePoint)
+            throws PufferProtocolException {
+        if (codePoint < 0x80) {
+            return append(target, length, codePoint);
+        } else if (codePoint < 0x800) {
+            length = append(target, length, 0xC0 | (codePoint >> 6));
+        } else if (codePoint < 0x10000) {
+            length = append(target, length, 0xE0 | (codePoint >> 12));
+            length = append(target, length, 0x80 | ((codePoint >> 6) & 0x3F));
+        } else {
+            length = append(target, length, 0xF0 | (codePoint >> 18));
+            length = append(target, length, 0x80 | ((codePoint >> 12) & 0x3F));
+            length = append(target, length, 0x80 | ((codePoint >> 6) & 0x3F));
+        }
+        return append(target, length, 0x80 | (codePoint & 0x3F));
+    }
+
+    private int append(byte[] target, int length, int b) throws PufferProtocolException {
+        if (length == target.length) {
+            throw error("String value too long");
+        }
+        target[length] = (byte) b;
+        return length + 1;
+    }
+
+    private long parseLong() throws PufferProtocolException {
+        boolean negative = peek() == '-';
+        if (negative) {
+            position++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (position < end && isDigit(peek())) {
+            value = value * 10 + (read() - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            throw error("Expected integer");
+        }
+        if (position < end && (peek() == '.' || peek() == 'e' || peek() == 'E')) {
+            // An integral field serialized as a floating point number.
+            position -= digits + (negative ? 1 : 0);
+            return (long) parseDouble();
+        }
+        return negative ? -value : value;
+    }
+
+    private double parseDouble() throws PufferProtocolException {
+        int start = position;
+        boolean negative = peek() == '-';
+        if (negative) {
+            position++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        int digits = 0;
+        while (position < end && isDigit(peek())) {
+            int digit = read() - '0';
+            if (significantDigits < 18) {
+                mantissa = mantissa * 10 + digit;
+                if (mantissa != 0) {
+                    significantDigits++;
+                }
+            } else {
+                exponent++;
+            }
+            digits++;
+        }
+        if (position < end && peek() == '.') {
+            position++;
+            while (position < end && isDigit(peek())) {
+                int digit = read() - '0';
+                if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + digit;
+                    exponent--;
+                    if (mantissa != 0) {
+                        significantDigits++;
+                    }
+                }
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            throw error("Expected number");
+        }
+        if (position < end && (peek() == 'e' || peek() == 'E')) {
+            position++;
+            boolean negativeExponent = peek() == '-';
+            if (negativeExponent || peek() == '+') {
+                position++;
+            }
+            int explicitExponent = 0;
+            while (position < end && isDigit(peek())) {
+                explicitExponent = Math.min(explicitExponent * 10 + (read() - '0'), 10000);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (Math.abs(exponent) >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(new String(data, start, position - start, UTF_8));
+        }
+        // Correctly rounded when the mantissa fits in 53 bits, otherwise within one ulp, which is far
+        // below the precision of any metadata value.
+        double value = exponent < 0
+                ? mantissa / POWERS_OF_TEN[-exponent]
+                : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /** Skips a value of any type. */
+    private void skipValue(int depth) throws PufferProtocolException {
+        if (depth > 16) {
+            throw error("Nesting too deep");
+        }
+        int b = peek();
+        if (b == '"') {
+            position++;
+            while ((b = read()) != '"') {
+                if (b == '\\') {
+                    position++;
+                }
+            }
+        } else if (b == '{' || b == '[') {
+            int close = b == '{' ? '}' : ']';
+            position++;
+            skipWhitespace();
+            if (peek() == close) {
+                position++;
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                if (close == '}') {
+                    skipValue(depth + 1);
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                }
+                skipValue(depth + 1);
+                skipWhitespace();
+                int next = read();
+                if (next == close) {
+                    return;
+                } else if (next != ',') {
+                    throw error("Malformed container");
+                }
+            }
+        } else {
+            // Number, true, false or null.
+            while (position < end) {
+                b = peek();
+                if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                    break;
+                }
+                position++;
+            }
+        }
+    }
+
+    private boolean keyEquals(int start, int length, byte[] key) {
+        if (length != key.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (position < end && isWhitespace(data[position])) {
+            position++;
+        }
+    }
+
+    private void expect(char c) throws PufferProtocolException {
+        if (read() != c) {
+            throw error("Expected " + c);
+        }
+    }
+
+    private int peek() throws PufferProtocolException {
+        if (position >= end) {
+            throw error("Unexpected end of metadata");
+        }
+        return data[position];
+    }
+
+    private int read() throws PufferProtocolException {
+        int b = peek();
+        position++;
+        return b;
+    }
+
+    private PufferProtocolException error(String message) {
+        return new PufferProtocolException(message + " at " + position);
+    }
+
+    private static boolean isDigit(int b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,234 @@
+package com.google.android.exoplayer2.ext.puffer;
+
+import java.util.Arrays;
+
+import okio.ByteString;
+
+/**
+ * Encodes the JSON messages the client sends to a Puffer server: {@code client-vidack}, {@code
+ * client-audack} and {@code client-info}.
+ * <p>
+ * Messages are written into a reused byte array from pre-encoded key fragments. Durations are
+ * passed in milliseconds and written as seconds with three decimals, which is exactly what the
+ * previous {@code DecimalFormat("0.000")} produced, without going through a {@code double}. The
+ * {@code channel}, {@code format} and {@code ssim} of an ack are copied from the {@link
+ * PufferFrameHeader} of the acked frame as the server wrote them.
+ * <p>
+ * Instances are not thread-safe. Each thread that sends messages should use its own instance.
+ */
+public final class PufferMessageEncoder {
+
+    private static final byte[] INIT_ID = ascii("{\"initId\": ");
+    private static final byte[] VIDEO_BUFFER = ascii(", \"videoBuffer\": ");
+    private static final byte[] AUDIO_BUFFER = ascii(", \"audioBuffer\": ");
+    private static final byte[] CUM_REBUFFER = ascii(", \"cumRebuffer\": ");
+    private static final byte[] VIDEO_TIMELINE = ascii(", \"videoTimeline\": ");
+    private static final byte[] CHANNEL = ascii(", \"channel\": \"");
+    private static final byte[] FORMAT = ascii("\", \"format\": \"");
+    private static final byte[] TIMESTAMP = ascii("\", \"timestamp\": ");
+    private static final byte[] BYTE_OFFSET = ascii(", \"byteOffset\": ");
+    private static final byte[] TOTAL_BYTE_LENGTH = ascii(", \"totalByteLength\": ");
+    private static final byte[] BYTE_LENGTH = ascii(", \"byteLength\": ");
+    private static final byte[] SSIM = ascii(", \"ssim\": ");
+    private static final byte[] EVENT = ascii(", \"event\": \"");
+    private static final byte[] SCREEN_WIDTH = ascii("\", \"screenWidth\": ");
+    private static final byte[] SCREEN_HEIGHT = ascii(", \"screenHeight\": ");
+    // The original client sends a second, numeric "event" field. It is kept so that the bytes on the
+    // wire do not change.
+    private static final byte[] EVENT_ZERO = ascii(", \"event\": 0");
+    private static final byte[] TYPE_VIDACK = ascii(", \"type\": \"client-vidack\"}");
+    private static final byte[] TYPE_AUDACK = ascii(", \"type\": \"client-audack\"}");
+    private static final byte[] TYPE_INFO = ascii(", \"type\": \"client-info\"}");
+
+    private static final byte[] ZERO = {'0'};
+
+    private byte[] buffer;
+    private int size;
+
+    public PufferMessageEncoder() {
+        buffer = new byte[512];
+    }
+
+    /**
+     * Encodes a {@code client-vidack} for the frame described by {@code header}.
+     *
+     * @param initId The session's {@code initId}.
+     * @param videoBufferMs The video buffer level, in milliseconds.
+     * @param audioBufferMs The audio buffer level, in milliseconds.
+     * @param cumRebufferMs The cumulative rebuffering time, in milliseconds.
+     * @param videoTimelineMs The playback position, in milliseconds.
+     * @param header The header of the acked frame.
+     * @return The encoded message.
+     */
+    public ByteString encodeVideoAck(long initId, long videoBufferMs, long audioBufferMs,
+                                     long cumRebufferMs, long videoTimelineMs, PufferFrameHeader header) {
+        size = 0;
+        writeBufferFields(initId, videoBufferMs, audioBufferMs, cumRebufferMs);
+        write(VIDEO_TIMELINE);
+        writeMillisAsSeconds(videoTimelineMs);
+        writeChunkFields(header);
+        write(SSIM);
+        if (header.ssimTextLength > 0) {
+            write(header.ssimText, header.ssimTextLength);
+        } else {
+            write(ZERO, 1);
+        }
+        write(TYPE_VIDACK);
+        return toByteString();
+    }
+
+    /**
+     * Encodes a {@code client-audack} for the frame described by {@code header}.
+     *
+     * @param initId The session's {@code initId}.
+     * @param videoBufferMs The video buffer level, in milliseconds.
+     * @param audioBufferMs The audio buffer level, in milliseconds.
+     * @param cumRebufferMs The cumulative rebuffering time, in milliseconds.
+     * @param header The header of the acked frame.
+     * @return The encoded message.
+     */
+    public ByteString encodeAudioAck(long initId, long videoBufferMs, long audioBufferMs,
+                                     long cumRebufferMs, PufferFrameHeader header) {
+        size = 0;
+        writeBufferFields(initId, videoBufferMs, audioBufferMs, cumRebufferMs);
+        writeChunkFields(header);
+        write(TYPE_AUDACK);
+        return toByteString();
+    }
+
+    /**
+     * Encodes a {@code client-info} message.
+     *
+     * @param initId The session's {@code initId}.
+     * @param event The event, e.g. {@code "timer"}, {@code "startup"}, {@code "rebuffer"} or {@code
+     *     "play"}. Must be ASCII.
+     * @param videoBufferMs The video buffer level, in milliseconds.
+     * @param audioBufferMs The audio buffer level, in milliseconds.
+     * @param cumRebufferMs The cumulative rebuffering time, in milliseconds.
+     * @param videoTimelineMs The playback position, in milliseconds.
+     * @param screenWidth The screen width, in pixels.
+     * @param screenHeight The screen height, in pixels.
+     * @return The encoded message.
+     */
+    public ByteString encodeClientInfo(long initId, String event, long videoBufferMs,
+                                       long audioBufferMs, long cumRebufferMs, long videoTimelineMs,
+                                       int screenWidth, int screenHeight) {
+        size = 0;
+        writeBufferFields(initId, videoBufferMs, audioBufferMs, cumRebufferMs);
+        write(VIDEO_TIMELINE);
+        writeMillisAsSeconds(videoTimelineMs);
+        write(EVENT);
+        writeAscii(event);
+        write(SCREEN_WIDTH);
+        writeLong(screenWidth);
+        write(SCREEN_HEIGHT);
+        writeLong(screenHeight);
+        write(EVENT_ZERO);
+        write(TYPE_INFO);
+        return toByteString();
+    }
+
+    private void writeBufferFields(long initId, long videoBufferMs, long audioBufferMs,
+                                   long cumRebufferMs) {
+        write(INIT_ID);
+        writeLong(initId);
+        write(VIDEO_BUFFER);
+        writeMillisAsSeconds(videoBufferMs);
+        write(AUDIO_BUFFER);
+        writeMillisAsSeconds(audioBufferMs);
+        write(CUM_REBUFFER);
+        writeMillisAsSeconds(cumRebufferMs);
+    }
+
+    private void writeChunkFields(PufferFrameHeader header) {
+        write(CHANNEL);
+        write(header.channel, header.channelLength);
+        write(FORMAT);
+        write(header.format, header.formatLength);
+        write(TIMESTAMP);
+        writeLong(header.timestamp);
+        write(BYTE_OFFSET);
+        writeLong(header.byteOffset);
+        write(TOTAL_BYTE_LENGTH);
+        writeLong(header.totalByteLength);
+        write(BYTE_LENGTH);
+        writeLong(header.payloadLength);
+    }
+
+    /**
+     * Copies the encoded message out of the reused buffer. The copy is needed because OkHttp queues
+     * outgoing messages and writes them from its own thread.
+     */
+    private ByteString toByteString() {
+        return ByteString.of(buffer, 0, size);
+    }
+
+    private void write(byte[] bytes) {
+        write(bytes, bytes.length);
+    }
+
+    private void write(byte[] bytes, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, 0, buffer, size, length);
+        size += length;
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeMillisAsSeconds(long ms) {
+        ensureCapacity(1);
+        if (ms < 0) {
+            buffer[size++] = '-';
+            ms = -ms;
+        }
+        writeLong(ms / 1000);
+        ensureCapacity(4);
+        int fraction = (int) (ms % 1000);
+        buffer[size++] = '.';
+        buffer[size++] = (byte) ('0' + fraction / 100);
+        buffer[size++] = (byte) ('0' + fraction / 10 % 10);
+        buffer[size++] = (byte) ('0' + fraction % 10);
+    }
+
+    private void writeLong(long value) {
+        // Long.MIN_VALUE has 20 characters including the sign.
+        ensureCapacity(20);
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+}
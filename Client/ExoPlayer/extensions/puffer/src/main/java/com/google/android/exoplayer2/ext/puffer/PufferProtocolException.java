@@ -0,0 +1,16 @@
+package com.google.android.exoplayer2.ext.puffer;
+
+import java.io.IOException;
+
+/** Thrown when a Puffer server sends something that violates the protocol. */
+public final class PufferProtocolException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message The detail message for the exception.
+     */
+    public PufferProtocolException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,214 @@
+package com.google.android.exoplayer2.ext.puffer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+
+import okio.ByteString;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test for {@link PufferFrameParser}. */
+@RunWith(JUnit4.class)
+public final class PufferFrameParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final PufferFrameParser parser = new PufferFrameParser();
+    private final PufferFrameHeader header = new PufferFrameHeader();
+
+    @Test
+    public void testParsesServerVideo() throws Exception {
+        parser.parse(frame("{\"type\": \"server-video\", \"channel\": \"nbc\", \"format\":"
+                + " \"1280x720-24\", \"timestamp\": 180180, \"byteOffset\": 0,"
+                + " \"totalByteLength\": 3, \"ssim\": 0.987654, \"initId\": 7}", 3), header);
+
+        assertThat(header.type).isEqualTo(PufferFrameHeader.TYPE_SERVER_VIDEO);
+        assertThat(header.getChannel()).isEqualTo("nbc");
+        assertThat(header.getFormat()).isEqualTo("1280x720-24");
+        assertThat(header.timestamp).isEqualTo(180180);
+        assertThat(header.ssim).isEqualTo(0.987654);
+        assertThat(new String(header.ssimText, 0, header.ssimTextLength, UTF_8))
+                .isEqualTo("0.987654");
+        assertThat(header.initId).isEqualTo(7);
+        assertThat(header.payloadLength).isEqualTo(3);
+        assertThat(header.isLastFragment()).isTrue();
+        assertThat(header.isMedia()).isTrue();
+    }
+
+    @Test
+    public void testParsesServerInit() throws Exception {
+        parser.parse(frame("{\"type\":\"server-init\",\"channel\":\"abc\",\"initId\":12,"
+                + "\"timescale\":90000,\"videoDuration\":180180,\"audioDuration\":432000}", 0),
+                header);
+
+        assertThat(header.type).isEqualTo(PufferFrameHeader.TYPE_SERVER_INIT);
+        assertThat(header.timescale).isEqualTo(90000);
+        assertThat(header.videoDuration).isEqualTo(180180);
+        assertThat(header.audioDuration).isEqualTo(432000);
+        assertThat(header.isMedia()).isFalse();
+    }
+
+    @Test
+    public void testDecodesEveryEscape() throws Exception {
+        parser.parse(frame("{\"channel\": \"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\"}", 0), header);
+
+        assertThat(header.getChannel()).isEqualTo("a\"b\\c/d\be\ff\ng\rh\ti");
+    }
+
+    @Test
+    public void testDecodesUnicodeEscapesToUtf8() throws Exception {
+        // A one, two and three byte character, and a surrogate pair for a four byte one.
+        parser.parse(frame("{\"channel\": \"\\u0041\\u00e9\\u20AC\\ud83d\\ude00\"}", 0), header);
+
+        String expected = "A\u00e9\u20ac\ud83d\ude00";
+        assertThat(header.getChannel()).isEqualTo(expected);
+        assertThat(header.channelLength).isEqualTo(expected.getBytes(UTF_8).length);
+    }
+
+    @Test
+    public void testDecodesUnpairedSurrogateAsStringDoes() throws Exception {
+        parser.parse(frame("{\"channel\": \"\\ud83dx\\ude00\\ud83d\\u0041\"}", 0), header);
+
+        assertThat(header.getChannel())
+                .isEqualTo(new String("\ud83dx\ude00\ud83dA".getBytes(UTF_8), UTF_8));
+    }
+
+    @Test
+    public void testKeepsRawUtf8() throws Exception {
+        parser.parse(frame("{\"channel\": \"caf\u00e9\"}", 0), header);
+
+        assertThat(header.getChannel()).isEqualTo("caf\u00e9");
+    }
+
+    @Test
+    public void testParsesNegativeAndExponentNumbers() throws Exception {
+        parser.parse(frame("{\"timestamp\": -42, \"byteOffset\": 1e3, \"totalByteLength\": 2.5E3,"
+                + " \"initId\": -1.5e1, \"ssim\": -9.5e-1}", 0), header);
+
+        assertThat(header.timestamp).isEqualTo(-42);
+        assertThat(header.byteOffset).isEqualTo(1000);
+        assertThat(header.totalByteLength).isEqualTo(2500);
+        assertThat(header.initId).isEqualTo(-15);
+        assertThat(header.ssim).isEqualTo(-0.95);
+    }
+
+    @Test
+    public void testParsesNumbersOutsideTheFastPath() throws Exception {
+        parser.parse(frame("{\"ssim\": 1.25e-30, \"timestamp\": 12345678901234567890e-10}", 0),
+                header);
+
+        assertThat(header.ssim).isEqualTo(1.25e-30);
+        assertThat(header.timestamp).isEqualTo(1234567890L);
+    }
+
+    @Test
+    public void testIgnoresFieldOrder() throws Exception {
+        PufferFrameHeader other = new PufferFrameHeader();
+        parser.parse(frame("{\"type\":\"server-audio\",\"format\":\"128k\",\"timestamp\":5,"
+                + "\"byteOffset\":1,\"totalByteLength\":9}", 2), header);
+        parser.parse(frame("{\"totalByteLength\":9,\"byteOffset\":1,\"timestamp\":5,"
+                + "\"format\":\"128k\",\"type\":\"server-audio\"}", 2), other);
+
+        assertThat(other.type).isEqualTo(header.type);
+        assertThat(other.getFormat()).isEqualTo(header.getFormat());
+        assertThat(other.timestamp).isEqualTo(header.timestamp);
+        assertThat(other.byteOffset).isEqualTo(header.byteOffset);
+        assertThat(other.totalByteLength).isEqualTo(header.totalByteLength);
+        assertThat(other.payloadOffset).isEqualTo(header.payloadOffset);
+    }
+
+    @Test
+    public void testSkipsUnknownFields() throws Exception {
+        parser.parse(frame("{\"extra\": {\"nested\": [1, \"x\\\"]\", {\"y\": null}]},"
+                + " \"flag\": true, \"note\": \"a\\\\\", \"type\": \"server-error\","
+                + " \"list\": [], \"timestamp\": 3}", 0), header);
+
+        assertThat(header.type).isEqualTo(PufferFrameHeader.TYPE_SERVER_ERROR);
+        assertThat(header.timestamp).isEqualTo(3);
+    }
+
+    @Test
+    public void testUnknownTypeIsUnknown() throws Exception {
+        parser.parse(frame("{\"type\": \"server-\\\"other\"}", 0), header);
+
+        assertThat(header.type).isEqualTo(PufferFrameHeader.TYPE_UNKNOWN);
+    }
+
+    @Test
+    public void testParsesFrameWithinArray() throws Exception {
+        byte[] frame = frame("{\"type\":\"server-video\",\"timestamp\":9}", 4).toByteArray();
+        byte[] array = new byte[frame.length + 10];
+        System.arraycopy(frame, 0, array, 7, frame.length);
+
+        parser.parse(array, 7, frame.length, header);
+
+        assertThat(header.type).isEqualTo(PufferFrameHeader.TYPE_SERVER_VIDEO);
+        assertThat(header.timestamp).isEqualTo(9);
+        assertThat(header.payloadOffset).isEqualTo(frame.length - 4);
+        assertThat(header.payloadLength).isEqualTo(4);
+    }
+
+    @Test
+    public void testResetsHeaderBetweenFrames() throws Exception {
+        parser.parse(frame("{\"type\":\"server-video\",\"timestamp\":9,\"ssim\":0.5}", 0), header);
+        parser.parse(frame("{}", 0), header);
+
+        assertThat(header.type).isEqualTo(PufferFrameHeader.TYPE_UNKNOWN);
+        assertThat(header.timestamp).isEqualTo(0);
+        assertThat(header.ssimTextLength).isEqualTo(0);
+    }
+
+    @Test
+    public void testRejectsTruncatedFrames() {
+        String metadata = "{\"type\": \"server-video\", \"channel\": \"a\\u00e9\", \"timestamp\": 1}";
+        byte[] bytes = metadata.getBytes(UTF_8);
+        for (int length = 0; length < bytes.length; length++) {
+            byte[] truncated = new byte[2 + length];
+            truncated[0] = (byte) (length >> 8);
+            truncated[1] = (byte) length;
+            System.arraycopy(bytes, 0, truncated, 2, length);
+            assertThrowsProtocolException(ByteString.of(truncated));
+        }
+        assertThrowsProtocolException(ByteString.of((byte) 0));
+        // The metadata length exceeds the frame.
+        assertThrowsProtocolException(ByteString.of((byte) 0, (byte) 10, (byte) '{', (byte) '}'));
+    }
+
+    @Test
+    public void testRejectsMalformedEscapes() {
+        assertThrowsProtocolException(frame("{\"channel\": \"\\x\"}", 0));
+        assertThrowsProtocolException(frame("{\"channel\": \"\\u12G4\"}", 0));
+    }
+
+    @Test
+    public void testRejectsOverlongString() {
+        StringBuilder channel = new StringBuilder();
+        for (int i = 0; i < 65; i++) {
+            channel.append('c');
+        }
+        assertThrowsProtocolException(frame("{\"channel\": \"" + channel + "\"}", 0));
+    }
+
+    private void assertThrowsProtocolException(ByteString frame) {
+        try {
+            parser.parse(frame, header);
+            fail();
+        } catch (PufferProtocolException e) {
+            // Expected.
+        }
+    }
+
+    /** Returns a frame with {@code metadata} followed by a payload of {@code payloadLength}. */
+    private static ByteString frame(String metadata, int payloadLength) {
+        byte[] metadataBytes = metadata.getBytes(UTF_8);
+        byte[] frame = new byte[2 + metadataBytes.length + payloadLength];
+        frame[0] = (byte) (metadataBytes.length >> 8);
+        frame[1] = (byte) metadataBytes.length;
+        System.arraycopy(metadataBytes, 0, frame, 2, metadataBytes.length);
+        return ByteString.of(frame);
+    }
+}
@@ -0,0 +1,184 @@
+package com.google.android.exoplayer2.ext.puffer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import okio.ByteString;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test for {@link PufferMessageEncoder}. The expected messages are built as the client built
+ * them before the encoder, by string concatenation and {@code DecimalFormat("0.000")}.
+ */
+@RunWith(JUnit4.class)
+public final class PufferMessageEncoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] EVENTS = {"timer", "startup", "rebuffer", "play"};
+    private static final long[] EDGE_MILLIS = {0, 1, 9, 10, 99, 100, 999, 1000, 1001, 59_999,
+            -1, -999, -1000, -1001, Integer.MAX_VALUE, 1L << 40};
+
+    private final DecimalFormat decimalFormat =
+            new DecimalFormat("0.000", DecimalFormatSymbols.getInstance(Locale.US));
+    private final PufferMessageEncoder encoder = new PufferMessageEncoder();
+
+    @Test
+    public void testVideoAckMatchesConcatenation() throws Exception {
+        Random random = new Random(/* seed= */ 0);
+        for (int i = 0; i < 2000; i++) {
+            long initId = random.nextInt(Integer.MAX_VALUE);
+            long videoBufferMs = millis(random, i);
+            long cumRebufferMs = millis(random, i + 1);
+            long videoTimelineMs = millis(random, i + 2);
+            double ssim = random.nextInt(1_000_000) / 1e6;
+            PufferFrameHeader header = header("server-video", "1920x1080-24",
+                    /* timestamp= */ 180180L * random.nextInt(10_000),
+                    /* byteOffset= */ random.nextInt(100_000), Double.toString(ssim),
+                    /* payloadLength= */ random.nextInt(2_000));
+
+            String expected = "{\"initId\": " + initId
+                    + ", \"videoBuffer\": " + seconds(videoBufferMs)
+                    + ", \"audioBuffer\": " + seconds(videoBufferMs)
+                    + ", \"cumRebuffer\": " + seconds(cumRebufferMs)
+                    + ", \"videoTimeline\": " + seconds(videoTimelineMs)
+                    + ", \"channel\": \"" + header.getChannel() + "\""
+                    + ", \"format\": \"" + header.getFormat() + "\""
+                    + ", \"timestamp\": " + header.timestamp
+                    + ", \"byteOffset\": " + header.byteOffset
+                    + ", \"totalByteLength\": " + header.totalByteLength
+                    + ", \"byteLength\": " + header.payloadLength
+                    + ", \"ssim\": " + ssim
+                    + ", \"type\": \"client-vidack\""
+                    + "}";
+            ByteString encoded = encoder.encodeVideoAck(initId, videoBufferMs, videoBufferMs,
+                    cumRebufferMs, videoTimelineMs, header);
+            assertThat(encoded.utf8()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testAudioAckMatchesConcatenation() throws Exception {
+        Random random = new Random(/* seed= */ 1);
+        for (int i = 0; i < 2000; i++) {
+            long initId = random.nextInt(Integer.MAX_VALUE);
+            long bufferMs = millis(random, i);
+            long cumRebufferMs = millis(random, i + 1);
+            PufferFrameHeader header = header("server-audio", "128k",
+                    /* timestamp= */ 432000L * random.nextInt(10_000),
+                    /* byteOffset= */ 0, /* ssimText= */ null,
+                    /* payloadLength= */ random.nextInt(2_000));
+
+            String expected = "{\"initId\": " + initId
+                    + ", \"videoBuffer\": " + seconds(bufferMs)
+                    + ", \"audioBuffer\": " + seconds(bufferMs)
+                    + ", \"cumRebuffer\": " + seconds(cumRebufferMs)
+                    + ", \"channel\": \"" + header.getChannel() + "\""
+                    + ", \"format\": \"" + header.getFormat() + "\""
+                    + ", \"timestamp\": " + header.timestamp
+                    + ", \"byteOffset\": " + header.byteOffset
+                    + ", \"totalByteLength\": " + header.totalByteLength
+                    + ", \"byteLength\": " + header.payloadLength
+                    + ", \"type\": \"client-audack\""
+                    + "}";
+            ByteString encoded =
+                    encoder.encodeAudioAck(initId, bufferMs, bufferMs, cumRebufferMs, header);
+            assertThat(encoded.utf8()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testClientInfoMatchesConcatenation() {
+        Random random = new Random(/* seed= */ 2);
+        for (int i = 0; i < 2000; i++) {
+            long initId = random.nextInt(Integer.MAX_VALUE);
+            String event = EVENTS[i % EVENTS.length];
+            long bufferMs = millis(random, i);
+            long cumRebufferMs = millis(random, i + 1);
+            long videoTimelineMs = millis(random, i + 2);
+            int screenWidth = random.nextInt(4000);
+            int screenHeight = random.nextInt(4000);
+
+            String expected = "{\"initId\": " + initId
+                    + ", \"videoBuffer\": " + seconds(bufferMs)
+                    + ", \"audioBuffer\": " + seconds(bufferMs)
+                    + ", \"cumRebuffer\": " + seconds(cumRebufferMs)
+                    + ", \"videoTimeline\": " + seconds(videoTimelineMs)
+                    + ", \"event\": \"" + event + "\""
+                    + ", \"screenWidth\": " + Integer.toString(screenWidth)
+                    + ", \"screenHeight\": " + Integer.toString(screenHeight)
+                    + ", \"event\": 0"
+                    + ", \"type\": \"client-info\""
+                    + "}";
+            ByteString encoded = encoder.encodeClientInfo(initId, event, bufferMs, bufferMs,
+                    cumRebufferMs, videoTimelineMs, screenWidth, screenHeight);
+            assertThat(encoded.utf8()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testVideoAckWithoutSsimWritesZero() throws Exception {
+        PufferFrameHeader header = header("server-video", "640x360-26", /* timestamp= */ 0,
+                /* byteOffset= */ 0, /* ssimText= */ null, /* payloadLength= */ 1);
+
+        String encoded = encoder.encodeVideoAck(/* initId= */ 1, /* videoBufferMs= */ 0,
+                /* audioBufferMs= */ 0, /* cumRebufferMs= */ 0, /* videoTimelineMs= */ 0,
+                header).utf8();
+
+        assertThat(encoded).contains(", \"ssim\": 0, \"type\": \"client-vidack\"}");
+    }
+
+    @Test
+    public void testGrowsBufferForLongMessages() {
+        StringBuilder event = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            event.append('e');
+        }
+
+        String encoded = encoder.encodeClientInfo(/* initId= */ Long.MIN_VALUE, event.toString(),
+                /* videoBufferMs= */ Long.MAX_VALUE, /* audioBufferMs= */ 0, /* cumRebufferMs= */ 0,
+                /* videoTimelineMs= */ 0, /* screenWidth= */ 1, /* screenHeight= */ 2).utf8();
+
+        assertThat(encoded).startsWith("{\"initId\": -9223372036854775808, \"videoBuffer\": "
+                + "9223372036854775.807, ");
+        assertThat(encoded).contains("\"event\": \"" + event + "\"");
+    }
+
+    /** Returns {@code ms} as the old client formatted it. */
+    private String seconds(long ms) {
+        return decimalFormat.format(1.0 * ms / 1000.0);
+    }
+
+    /** Returns an edge case for the first iterations, then a random duration. */
+    private static long millis(Random random, int iteration) {
+        if (iteration < EDGE_MILLIS.length) {
+            return EDGE_MILLIS[iteration];
+        }
+        return random.nextInt(600_000) - (iteration % 10 == 0 ? 300_000 : 0);
+    }
+
+    /** Returns the header of a parsed server frame. */
+    private static PufferFrameHeader header(String type, String format, long timestamp,
+                                            int byteOffset, String ssimText, int payloadLength)
+            throws PufferProtocolException {
+        String metadata = "{\"type\": \"" + type + "\", \"channel\": \"nbc\", \"format\": \""
+                + format + "\", \"timestamp\": " + timestamp + ", \"byteOffset\": " + byteOffset
+                + ", \"totalByteLength\": " + (byteOffset + payloadLength)
+                + (ssimText != null ? ", \"ssim\": " + ssimText : "") + "}";
+        byte[] metadataBytes = metadata.getBytes(UTF_8);
+        byte[] frame = new byte[2 + metadataBytes.length + payloadLength];
+        frame[0] = (byte) (metadataBytes.length >> 8);
+        frame[1] = (byte) metadataBytes.length;
+        System.arraycopy(metadataBytes, 0, frame, 2, metadataBytes.length);
+        PufferFrameHeader header = new PufferFrameHeader();
+        new PufferFrameParser().parse(ByteString.of(frame), header);
+        return header;
+    }
+}
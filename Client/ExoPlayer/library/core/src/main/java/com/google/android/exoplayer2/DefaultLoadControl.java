@@ -19,6 +19,7 @@ import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.PoolingAllocator;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.PriorityTaskManager;
 import com.google.android.exoplayer2.util.Util;
@@ -69,7 +70,7 @@ public class DefaultLoadControl implements LoadControl {
   /** Builder for {@link DefaultLoadControl}. */
   public static final class Builder {
 
-    private DefaultAllocator allocator;
+    private PoolingAllocator allocator;
     private int minBufferMs;
     private int maxBufferMs;
     private int bufferForPlaybackMs;
@@ -96,13 +97,13 @@ public class DefaultLoadControl implements LoadControl {
     }
 
     /**
-     * Sets the {@link DefaultAllocator} used by the loader.
+     * Sets the {@link PoolingAllocator} used by the loader, such as a {@link DefaultAllocator}.
      *
-     * @param allocator The {@link DefaultAllocator}.
+     * @param allocator The {@link PoolingAllocator}.
      * @return This builder, for convenience.
      * @throws IllegalStateException If {@link #createDefaultLoadControl()} has already been called.
      */
-    public Builder setAllocator(DefaultAllocator allocator) {
+    public Builder setAllocator(PoolingAllocator allocator) {
       Assertions.checkState(!createDefaultLoadControlCalled);
       this.allocator = allocator;
       return this;
@@ -215,7 +216,7 @@ public class DefaultLoadControl implements LoadControl {
     }
   }
 
-  private final DefaultAllocator allocator;
+  private final PoolingAllocator allocator;
 
   private final long minBufferUs;
   private final long maxBufferUs;
@@ -297,7 +298,7 @@ public class DefaultLoadControl implements LoadControl {
   }
 
   protected DefaultLoadControl(
-      DefaultAllocator allocator,
+      PoolingAllocator allocator,
       int minBufferMs,
       int maxBufferMs,
       int bufferForPlaybackMs,
@@ -371,6 +372,19 @@ public class DefaultLoadControl implements LoadControl {
     return retainBackBufferFromKeyframe;
   }
 
+  /** Returns the maximum duration of media the player will attempt to buffer, in microseconds. */
+  public long getMaxBufferUs() {
+    return maxBufferUs;
+  }
+
+  /**
+   * Returns the target buffer size in bytes this instance was created with, or {@link
+   * C#LENGTH_UNSET} if the target is calculated from the selected tracks.
+   */
+  public int getTargetBufferBytes() {
+    return targetBufferBytesOverwrite;
+  }
+
   @Override
   public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
     boolean targetBufferSizeReached = allocator.getTotalBytesAllocated() >= targetBufferSize;
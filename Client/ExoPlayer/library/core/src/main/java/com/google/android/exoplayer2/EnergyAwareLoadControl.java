@@ -0,0 +1,200 @@
+package com.google.android.exoplayer2;
+
+import com.google.android.exoplayer2.power.PowerModel;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.PoolingAllocator;
+import com.google.android.exoplayer2.util.Clock;
+
+/**
+ * A {@link LoadControl} that loads in bursts, so that the radio can leave its high-power state
+ * between them.
+ * <p>
+ * Once the buffer falls below a low watermark, it loads until the buffer reaches a high watermark,
+ * and then stays quiet until the buffer falls below the low watermark again. Every quiet period
+ * costs one radio tail, so the watermarks are apart by enough whole chunks to play for at least a
+ * number of tail times, as calibrated in the {@link PowerModel} of the device.
+ * <p>
+ * The tail time is the fixed {@link PowerModel#getNetworkTailTimeS()} of the model, which is also
+ * the one {@link com.google.android.exoplayer2.power.EnergyMeter} assumes, rather than a tail time
+ * measured during playback. The watermarks are therefore set once, when the load control is
+ * created.
+ * <p>
+ * It reports the share of time the radio is active, i.e. loading or in its tail state after a
+ * burst, and the number of bursts since the player was prepared.
+ */
+public class EnergyAwareLoadControl extends DefaultLoadControl {
+
+  /** The default buffer below which a burst starts, in milliseconds. */
+  public static final int DEFAULT_LOW_WATERMARK_MS = DEFAULT_MIN_BUFFER_MS;
+  /** The default chunk duration, as in Puffer, in milliseconds. */
+  public static final int DEFAULT_CHUNK_DURATION_MS = 2002;
+  /** The default number of tail times a quiet period should last at least. */
+  public static final int DEFAULT_TAIL_AMORTIZATION = 20;
+
+  private final long lowWatermarkUs;
+  private final long tailTimeMs;
+  private final Clock clock;
+
+  private boolean isLoading;
+  private long lastUpdateMs;
+  private long quietMs;
+  private long totalMs;
+  private long activeMs;
+  private int burstCount;
+
+  /** Creates a load control with the default parameters. */
+  public EnergyAwareLoadControl() {
+    this(
+        PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH),
+        DEFAULT_LOW_WATERMARK_MS,
+        DEFAULT_CHUNK_DURATION_MS,
+        DEFAULT_TAIL_AMORTIZATION,
+        Clock.DEFAULT);
+  }
+
+  /**
+   * Creates a load control that uses a {@link DefaultAllocator}.
+   *
+   * @param powerModel The power model of the device, which gives the tail time of the radio.
+   * @param lowWatermarkMs The buffer below which a burst starts, in milliseconds.
+   * @param chunkDurationMs The duration of a chunk, in milliseconds.
+   * @param tailAmortization The number of tail times a quiet period should last at least.
+   * @param clock A {@link Clock}.
+   */
+  public EnergyAwareLoadControl(
+      PowerModel powerModel,
+      int lowWatermarkMs,
+      int chunkDurationMs,
+      int tailAmortization,
+      Clock clock) {
+    this(
+        new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+        powerModel,
+        lowWatermarkMs,
+        chunkDurationMs,
+        tailAmortization,
+        clock);
+  }
+
+  /**
+   * @param allocator The {@link PoolingAllocator} used by the loader, such as a {@link
+   *     com.google.android.exoplayer2.upstream.StripedAllocator}.
+   * @param powerModel The power model of the device, which gives the tail time of the radio.
+   * @param lowWatermarkMs The buffer below which a burst starts, in milliseconds.
+   * @param chunkDurationMs The duration of a chunk, in milliseconds.
+   * @param tailAmortization The number of tail times a quiet period should last at least.
+   * @param clock A {@link Clock}.
+   */
+  public EnergyAwareLoadControl(
+      PoolingAllocator allocator,
+      PowerModel powerModel,
+      int lowWatermarkMs,
+      int chunkDurationMs,
+      int tailAmortization,
+      Clock clock) {
+    super(
+        allocator,
+        /* minBufferMs= */ lowWatermarkMs,
+        /* maxBufferMs= */ lowWatermarkMs
+            + getBurstMs(powerModel, chunkDurationMs, tailAmortization),
+        /* bufferForPlaybackMs= */ Math.min(DEFAULT_BUFFER_FOR_PLAYBACK_MS, lowWatermarkMs),
+        /* bufferForPlaybackAfterRebufferMs= */
+        Math.min(DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS, lowWatermarkMs),
+        DEFAULT_TARGET_BUFFER_BYTES,
+        DEFAULT_PRIORITIZE_TIME_OVER_SIZE_THRESHOLDS,
+        /* priorityTaskManager= */ null,
+        DEFAULT_BACK_BUFFER_DURATION_MS,
+        DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME);
+    this.lowWatermarkUs = C.msToUs(lowWatermarkMs);
+    this.tailTimeMs = (long) (powerModel.getNetworkTailTimeS() * 1000);
+    this.clock = clock;
+    lastUpdateMs = C.TIME_UNSET;
+  }
+
+  /** Returns the buffer below which a burst starts, in microseconds. */
+  public long getLowWatermarkUs() {
+    return lowWatermarkUs;
+  }
+
+  /** Returns the buffer at which a burst ends, in microseconds. */
+  public long getHighWatermarkUs() {
+    return getMaxBufferUs();
+  }
+
+  /** Returns the number of bursts since the player was prepared. */
+  public synchronized int getBurstCount() {
+    return burstCount;
+  }
+
+  /**
+   * Returns the share of time since the player was prepared during which the radio was loading
+   * or in its tail state after a burst, or 0 if no time has passed.
+   */
+  public synchronized double getRadioActiveDutyCycle() {
+    return totalMs == 0 ? 0 : (double) activeMs / totalMs;
+  }
+
+  @Override
+  public void onPrepared() {
+    super.onPrepared();
+    synchronized (this) {
+      isLoading = false;
+      lastUpdateMs = C.TIME_UNSET;
+      quietMs = 0;
+      totalMs = 0;
+      activeMs = 0;
+      burstCount = 0;
+    }
+  }
+
+  @Override
+  public void onStopped() {
+    super.onStopped();
+    stopAccounting();
+  }
+
+  @Override
+  public void onReleased() {
+    super.onReleased();
+    stopAccounting();
+  }
+
+  @Override
+  public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
+    boolean shouldContinueLoading = super.shouldContinueLoading(bufferedDurationUs,
+        playbackSpeed);
+    updateDutyCycle(shouldContinueLoading, clock.elapsedRealtime());
+    return shouldContinueLoading;
+  }
+
+  private synchronized void updateDutyCycle(boolean shouldContinueLoading, long nowMs) {
+    if (lastUpdateMs != C.TIME_UNSET) {
+      long elapsedMs = nowMs - lastUpdateMs;
+      totalMs += elapsedMs;
+      if (isLoading) {
+        activeMs += elapsedMs;
+      } else {
+        activeMs += Math.max(0, Math.min(elapsedMs, tailTimeMs - quietMs));
+        quietMs += elapsedMs;
+      }
+    }
+    if (shouldContinueLoading && !isLoading) {
+      burstCount++;
+    } else if (!shouldContinueLoading && isLoading) {
+      quietMs = 0;
+    }
+    isLoading = shouldContinueLoading;
+    lastUpdateMs = nowMs;
+  }
+
+  private synchronized void stopAccounting() {
+    updateDutyCycle(/* shouldContinueLoading= */ false, clock.elapsedRealtime());
+    lastUpdateMs = C.TIME_UNSET;
+  }
+
+  private static int getBurstMs(PowerModel powerModel, int chunkDurationMs, int tailAmortization) {
+    double quietMs = powerModel.getNetworkTailTimeS() * 1000 * tailAmortization;
+    int chunks = Math.max(1, (int) Math.ceil(quietMs / chunkDurationMs));
+    return chunks * chunkDurationMs;
+  }
+}
@@ -35,6 +35,7 @@ import com.google.android.exoplayer2.decoder.DecoderCounters;
 import com.google.android.exoplayer2.drm.DefaultDrmSessionEventListener;
 import com.google.android.exoplayer2.metadata.Metadata;
 import com.google.android.exoplayer2.metadata.MetadataOutput;
+import com.google.android.exoplayer2.power.EnergyMeter;
 import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
 import com.google.android.exoplayer2.source.MediaSourceEventListener;
 import com.google.android.exoplayer2.source.TrackGroupArray;
@@ -70,6 +71,7 @@ public class AnalyticsCollector
         VideoRendererEventListener,
         MediaSourceEventListener,
         BandwidthMeter.EventListener,
+        EnergyMeter.EventListener,
         DefaultDrmSessionEventListener,
         VideoListener,
         AudioListener {
@@ -640,6 +642,16 @@ public class AnalyticsCollector
     }
   }
 
+  // EnergyMeter.EventListener implementation.
+
+  @Override
+  public final void onChunkEnergy(EnergyMeter.ChunkEnergy chunkEnergy) {
+    EventTime eventTime = generateLoadingMediaPeriodEventTime();
+    for (AnalyticsListener listener : listeners) {
+      listener.onEnergyEstimate(eventTime, chunkEnergy);
+    }
+  }
+
   // DefaultDrmSessionManager.EventListener implementation.
 
   @Override
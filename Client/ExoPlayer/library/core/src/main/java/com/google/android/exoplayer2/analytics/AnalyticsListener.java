@@ -29,6 +29,7 @@ import com.google.android.exoplayer2.audio.AudioAttributes;
 import com.google.android.exoplayer2.audio.AudioSink;
 import com.google.android.exoplayer2.decoder.DecoderCounters;
 import com.google.android.exoplayer2.metadata.Metadata;
+import com.google.android.exoplayer2.power.EnergyMeter;
 import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
 import com.google.android.exoplayer2.source.MediaSourceEventListener.LoadEventInfo;
 import com.google.android.exoplayer2.source.MediaSourceEventListener.MediaLoadData;
@@ -309,6 +310,14 @@ public interface AnalyticsListener {
   default void onBandwidthEstimate(
       EventTime eventTime, int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate) {}
 
+  /**
+   * Called when an {@link EnergyMeter} has estimated the energy of a chunk.
+   *
+   * @param eventTime The event time.
+   * @param chunkEnergy The energy of the chunk, and of the session up to it.
+   */
+  default void onEnergyEstimate(EventTime eventTime, EnergyMeter.ChunkEnergy chunkEnergy) {}
+
   /**
    * Called when the output surface size changed.
    *
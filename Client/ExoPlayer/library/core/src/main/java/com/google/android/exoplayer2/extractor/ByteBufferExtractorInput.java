@@ -0,0 +1,266 @@
+package com.google.android.exoplayer2.extractor;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.ParsableByteBuffer;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * An {@link ExtractorInput} that reads data already held in memory, such as the received frames
+ * of a chunk, from a sequence of {@link ByteBuffer}s.
+ * <p>
+ * Unlike a {@link DefaultExtractorInput}, it needs no peek buffer, since peeked data stays in the
+ * buffers, and skips data without reading it. {@link #readFully(ParsableByteBuffer, int,
+ * boolean)} hands out views onto the buffers rather than copying, so that headers can be parsed
+ * in place.
+ */
+public final class ByteBufferExtractorInput implements ExtractorInput {
+
+  private final ByteBuffer[] buffers;
+  /** The offset of the end of each buffer from the start of the first one. */
+  private final long[] bufferEnds;
+  private final long startPosition;
+  private final long streamLength;
+
+  private ByteBuffer scratch;
+  private long readOffset;
+  private long peekOffset;
+  private int readBufferIndex;
+
+  /**
+   * @param buffers The buffers holding the data, whose remaining bytes are read in order. Their
+   *     positions and limits are not changed.
+   * @param position The position in the stream of the first byte of the first buffer.
+   * @param length The length of the stream, or {@link C#LENGTH_UNSET} if it is unknown.
+   */
+  public ByteBufferExtractorInput(List<ByteBuffer> buffers, long position, long length) {
+    int bufferCount = buffers.size();
+    this.buffers = new ByteBuffer[bufferCount];
+    bufferEnds = new long[bufferCount];
+    long end = 0;
+    for (int i = 0; i < bufferCount; i++) {
+      // Own views, so that reading moves neither the position of the buffers nor each other.
+      ByteBuffer buffer = buffers.get(i).slice().asReadOnlyBuffer();
+      this.buffers[i] = buffer;
+      end += buffer.remaining();
+      bufferEnds[i] = end;
+    }
+    startPosition = position;
+    streamLength = length;
+    scratch = ByteBuffer.allocate(0);
+  }
+
+  /**
+   * Reads {@code length} bytes into {@code target}, which wraps them where they are held if they
+   * lie in a single buffer, and a copy otherwise. The view is valid until the next read.
+   *
+   * @param target The instance to wrap the bytes.
+   * @param length The number of bytes to read.
+   * @param allowEndOfInput True if encountering the end of the input having read no data is
+   *     allowed, and should result in {@code false} being returned.
+   * @return True if the read was successful. False if the end of the input was encountered having
+   *     read no data.
+   * @throws EOFException If the end of input was encountered having partially satisfied the read,
+   *     or if no bytes were read and {@code allowEndOfInput} is false.
+   */
+  public boolean readFully(ParsableByteBuffer target, int length, boolean allowEndOfInput)
+      throws EOFException {
+    if (!checkAvailable(readOffset, length, allowEndOfInput)) {
+      return false;
+    }
+    if (length == 0) {
+      target.reset(scratch, 0, 0);
+      return true;
+    }
+    int bufferIndex = findBuffer(readOffset, readBufferIndex);
+    int bufferOffset = (int) (readOffset - getBufferStart(bufferIndex));
+    if (bufferOffset + length <= buffers[bufferIndex].limit()) {
+      target.reset(buffers[bufferIndex], bufferOffset, length);
+    } else {
+      if (scratch.capacity() < length) {
+        scratch = ByteBuffer.allocate(length);
+      }
+      copy(readOffset, scratch.array(), 0, length);
+      target.reset(scratch, 0, length);
+    }
+    commitBytesRead(length);
+    return true;
+  }
+
+  @Override
+  public int read(byte[] target, int offset, int length) {
+    int bytesRead = (int) Math.min(length, getBytesLeft(readOffset));
+    if (length != 0 && bytesRead == 0) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    copy(readOffset, target, offset, bytesRead);
+    commitBytesRead(bytesRead);
+    return bytesRead;
+  }
+
+  @Override
+  public boolean readFully(byte[] target, int offset, int length, boolean allowEndOfInput)
+      throws EOFException {
+    if (!checkAvailable(readOffset, length, allowEndOfInput)) {
+      return false;
+    }
+    copy(readOffset, target, offset, length);
+    commitBytesRead(length);
+    return true;
+  }
+
+  @Override
+  public void readFully(byte[] target, int offset, int length) throws EOFException {
+    readFully(target, offset, length, false);
+  }
+
+  @Override
+  public int skip(int length) {
+    int bytesSkipped = (int) Math.min(length, getBytesLeft(readOffset));
+    if (length != 0 && bytesSkipped == 0) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    commitBytesRead(bytesSkipped);
+    return bytesSkipped;
+  }
+
+  @Override
+  public boolean skipFully(int length, boolean allowEndOfInput) throws EOFException {
+    if (!checkAvailable(readOffset, length, allowEndOfInput)) {
+      return false;
+    }
+    commitBytesRead(length);
+    return true;
+  }
+
+  @Override
+  public void skipFully(int length) throws EOFException {
+    skipFully(length, false);
+  }
+
+  @Override
+  public boolean peekFully(byte[] target, int offset, int length, boolean allowEndOfInput)
+      throws EOFException {
+    if (!checkAvailable(peekOffset, length, allowEndOfInput)) {
+      return false;
+    }
+    copy(peekOffset, target, offset, length);
+    peekOffset += length;
+    return true;
+  }
+
+  @Override
+  public void peekFully(byte[] target, int offset, int length) throws EOFException {
+    peekFully(target, offset, length, false);
+  }
+
+  @Override
+  public boolean advancePeekPosition(int length, boolean allowEndOfInput) throws EOFException {
+    if (!checkAvailable(peekOffset, length, allowEndOfInput)) {
+      return false;
+    }
+    peekOffset += length;
+    return true;
+  }
+
+  @Override
+  public void advancePeekPosition(int length) throws EOFException {
+    advancePeekPosition(length, false);
+  }
+
+  @Override
+  public void resetPeekPosition() {
+    peekOffset = readOffset;
+  }
+
+  @Override
+  public long getPeekPosition() {
+    return startPosition + peekOffset;
+  }
+
+  @Override
+  public long getPosition() {
+    return startPosition + readOffset;
+  }
+
+  @Override
+  public long getLength() {
+    return streamLength;
+  }
+
+  @Override
+  public <E extends Throwable> void setRetryPosition(long position, E e) throws E {
+    Assertions.checkArgument(position >= 0);
+    long offset = position - startPosition;
+    if (offset >= 0 && offset <= getBytesLeft(0)) {
+      readOffset = offset;
+      peekOffset = offset;
+      readBufferIndex = 0;
+    }
+    throw e;
+  }
+
+  // Internal methods.
+
+  private long getBytesLeft(long offset) {
+    return (bufferEnds.length == 0 ? 0 : bufferEnds[bufferEnds.length - 1]) - offset;
+  }
+
+  private long getBufferStart(int bufferIndex) {
+    return bufferIndex == 0 ? 0 : bufferEnds[bufferIndex - 1];
+  }
+
+  /**
+   * Returns the index of the buffer holding the byte at {@code offset}, searching forward from
+   * {@code fromIndex}. The byte must exist.
+   */
+  private int findBuffer(long offset, int fromIndex) {
+    int bufferIndex = fromIndex;
+    while (bufferEnds[bufferIndex] <= offset) {
+      bufferIndex++;
+    }
+    return bufferIndex;
+  }
+
+  /**
+   * Returns whether {@code length} bytes are available from {@code offset}.
+   *
+   * @throws EOFException If the end of input would be encountered having partially satisfied the
+   *     read, or if no bytes are left and {@code allowEndOfInput} is false.
+   */
+  private boolean checkAvailable(long offset, int length, boolean allowEndOfInput)
+      throws EOFException {
+    long bytesLeft = getBytesLeft(offset);
+    if (bytesLeft >= length) {
+      return true;
+    }
+    if (bytesLeft == 0 && allowEndOfInput) {
+      return false;
+    }
+    throw new EOFException();
+  }
+
+  private void copy(long offset, byte[] target, int targetOffset, int length) {
+    int bufferIndex = offset < readOffset ? 0 : readBufferIndex;
+    while (length > 0) {
+      bufferIndex = findBuffer(offset, bufferIndex);
+      ByteBuffer buffer = buffers[bufferIndex];
+      buffer.position((int) (offset - getBufferStart(bufferIndex)));
+      int bytesCopied = Math.min(length, buffer.remaining());
+      buffer.get(target, targetOffset, bytesCopied);
+      offset += bytesCopied;
+      targetOffset += bytesCopied;
+      length -= bytesCopied;
+    }
+  }
+
+  private void commitBytesRead(int bytesRead) {
+    readOffset += bytesRead;
+    peekOffset = readOffset;
+    if (readOffset < getBytesLeft(0)) {
+      readBufferIndex = findBuffer(readOffset, readBufferIndex);
+    }
+  }
+}
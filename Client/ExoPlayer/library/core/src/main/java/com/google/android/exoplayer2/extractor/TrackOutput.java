@@ -144,4 +144,44 @@ public interface TrackOutput {
       int size,
       int offset,
       @Nullable CryptoData encryptionData);
+
+  /**
+   * Called when the metadata of consecutive samples has been extracted from the stream, such as
+   * the samples of a track run. Equivalent to calling {@link #sampleMetadata(long, int, int, int,
+   * CryptoData)} for each sample in order, which is what the default implementation does.
+   * Implementations that queue samples may override it to commit them at once.
+   *
+   * <p>The data of the samples will have already been passed to the output, contiguously and in
+   * order.
+   *
+   * @param timesUs The media timestamps of the samples, in microseconds.
+   * @param flags Flags associated with the samples. See {@code C.BUFFER_FLAG_*}.
+   * @param sizes The sizes of the samples, in bytes.
+   * @param start The index of the first sample in the arrays.
+   * @param count The number of samples.
+   * @param offset The number of bytes that have been passed to {@link #sampleData(ExtractorInput,
+   *     int, boolean)} or {@link #sampleData(ParsableByteArray, int)} since the last byte belonging
+   *     to the last sample.
+   * @param encryptionData The encryption data required to decrypt the samples. May be null.
+   */
+  default void sampleMetadata(
+      long[] timesUs,
+      int[] flags,
+      int[] sizes,
+      int start,
+      int count,
+      int offset,
+      @Nullable CryptoData encryptionData) {
+    int end = start + count;
+    int sampleOffset = offset;
+    for (int i = start + 1; i < end; i++) {
+      sampleOffset += sizes[i];
+    }
+    for (int i = start; i < end; i++) {
+      sampleMetadata(timesUs[i], flags[i], sizes[i], sampleOffset, encryptionData);
+      if (i + 1 < end) {
+        sampleOffset -= sizes[i + 1];
+      }
+    }
+  }
 }
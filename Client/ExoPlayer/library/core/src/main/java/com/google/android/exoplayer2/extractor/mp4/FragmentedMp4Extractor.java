@@ -24,6 +24,7 @@ import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.ParserException;
 import com.google.android.exoplayer2.drm.DrmInitData;
 import com.google.android.exoplayer2.drm.DrmInitData.SchemeData;
+import com.google.android.exoplayer2.extractor.ByteBufferExtractorInput;
 import com.google.android.exoplayer2.extractor.ChunkIndex;
 import com.google.android.exoplayer2.extractor.Extractor;
 import com.google.android.exoplayer2.extractor.ExtractorInput;
@@ -40,6 +41,7 @@ import com.google.android.exoplayer2.util.Log;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.NalUnitUtil;
 import com.google.android.exoplayer2.util.ParsableByteArray;
+import com.google.android.exoplayer2.util.ParsableByteBuffer;
 import com.google.android.exoplayer2.util.TimestampAdjuster;
 import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
@@ -120,6 +122,12 @@ public final class FragmentedMp4Extractor implements Extractor {
   private static final int STATE_READING_SAMPLE_START = 3;
   private static final int STATE_READING_SAMPLE_CONTINUE = 4;
 
+  /**
+   * The maximum number of samples of a track run whose metadata is queued before being output, so
+   * that samples become readable before long runs end.
+   */
+  private static final int MAX_QUEUED_SAMPLE_COUNT = 32;
+
   // Workarounds.
   @Flags private final int flags;
   private final @Nullable Track sideloadedTrack;
@@ -141,6 +149,7 @@ public final class FragmentedMp4Extractor implements Extractor {
 
   // Parser state.
   private final ParsableByteArray atomHeader;
+  private final ParsableByteBuffer atomHeaderView;
   private final byte[] extendedTypeScratch;
   private final ArrayDeque<ContainerAtom> containerAtoms;
   private final ArrayDeque<MetadataSampleInfo> pendingMetadataSampleInfos;
@@ -253,6 +262,7 @@ public final class FragmentedMp4Extractor implements Extractor {
     this.closedCaptionFormats = Collections.unmodifiableList(closedCaptionFormats);
     this.additionalEmsgTrackOutput = additionalEmsgTrackOutput;
     atomHeader = new ParsableByteArray(Atom.LONG_HEADER_SIZE);
+    atomHeaderView = new ParsableByteBuffer();
     nalStartCode = new ParsableByteArray(NalUnitUtil.NAL_START_CODE);
     nalPrefix = new ParsableByteArray(5);
     nalBuffer = new ParsableByteArray();
@@ -331,23 +341,39 @@ public final class FragmentedMp4Extractor implements Extractor {
   }
 
   private boolean readAtomHeader(ExtractorInput input) throws IOException, InterruptedException {
+    // An input that holds the data in memory lets the header be parsed in place, without a copy.
+    ByteBufferExtractorInput byteBufferInput =
+        input instanceof ByteBufferExtractorInput ? (ByteBufferExtractorInput) input : null;
     if (atomHeaderBytesRead == 0) {
       // Read the standard length atom header.
-      if (!input.readFully(atomHeader.data, 0, Atom.HEADER_SIZE, true)) {
-        return false;
+      if (byteBufferInput != null) {
+        if (!byteBufferInput.readFully(atomHeaderView, Atom.HEADER_SIZE, true)) {
+          return false;
+        }
+        atomSize = atomHeaderView.readUnsignedInt();
+        atomType = atomHeaderView.readInt();
+      } else {
+        if (!input.readFully(atomHeader.data, 0, Atom.HEADER_SIZE, true)) {
+          return false;
+        }
+        atomHeader.setPosition(0);
+        atomSize = atomHeader.readUnsignedInt();
+        atomType = atomHeader.readInt();
       }
       atomHeaderBytesRead = Atom.HEADER_SIZE;
-      atomHeader.setPosition(0);
-      atomSize = atomHeader.readUnsignedInt();
-      atomType = atomHeader.readInt();
     }
 
     if (atomSize == Atom.DEFINES_LARGE_SIZE) {
       // Read the large size.
       int headerBytesRemaining = Atom.LONG_HEADER_SIZE - Atom.HEADER_SIZE;
-      input.readFully(atomHeader.data, Atom.HEADER_SIZE, headerBytesRemaining);
+      if (byteBufferInput != null) {
+        byteBufferInput.readFully(atomHeaderView, headerBytesRemaining, false);
+        atomSize = atomHeaderView.readUnsignedLongToLong();
+      } else {
+        input.readFully(atomHeader.data, Atom.HEADER_SIZE, headerBytesRemaining);
+        atomSize = atomHeader.readUnsignedLongToLong();
+      }
       atomHeaderBytesRead += headerBytesRemaining;
-      atomSize = atomHeader.readUnsignedLongToLong();
     } else if (atomSize == Atom.EXTENDS_TO_END_SIZE) {
       // The atom extends to the end of the file. Note that if the atom is within a container we can
       // work out its size even if the input length is unknown.
@@ -405,7 +431,11 @@ public final class FragmentedMp4Extractor implements Extractor {
         throw new ParserException("Leaf atom with length > 2147483647 (unsupported).");
       }
       atomData = new ParsableByteArray((int) atomSize);
-      System.arraycopy(atomHeader.data, 0, atomData.data, 0, Atom.HEADER_SIZE);
+      // The parsers expect the standard length header at the start of the data.
+      for (int i = 0; i < 4; i++) {
+        atomData.data[i] = (byte) (atomSize >> (24 - 8 * i));
+        atomData.data[4 + i] = (byte) (atomType >> (24 - 8 * i));
+      }
       parserState = STATE_READING_ATOM_PAYLOAD;
     } else {
       if (atomSize > Integer.MAX_VALUE) {
@@ -1283,11 +1313,12 @@ public final class FragmentedMp4Extractor implements Extractor {
       cryptoData = encryptionBox.cryptoData;
     }
 
-    output.sampleMetadata(sampleTimeUs, sampleFlags, sampleSize, 0, cryptoData);
+    currentTrackBundle.queueSampleMetadata(sampleTimeUs, sampleFlags, sampleSize, cryptoData);
 
     // After we have the sampleTimeUs, we can commit all the pending metadata samples
     outputPendingMetadataSamples(sampleTimeUs);
     if (!currentTrackBundle.next()) {
+      currentTrackBundle.outputQueuedSampleMetadata(/* offset= */ 0);
       currentTrackBundle = null;
     }
     parserState = STATE_READING_SAMPLE_START;
@@ -1409,12 +1440,21 @@ public final class FragmentedMp4Extractor implements Extractor {
 
     private final ParsableByteArray encryptionSignalByte;
     private final ParsableByteArray defaultInitializationVector;
+    private final long[] queuedTimesUs;
+    private final int[] queuedFlags;
+    private final int[] queuedSizes;
+
+    private int queuedSampleCount;
+    private TrackOutput.CryptoData queuedCryptoData;
 
     public TrackBundle(TrackOutput output) {
       this.output = output;
       fragment = new TrackFragment();
       encryptionSignalByte = new ParsableByteArray(1);
       defaultInitializationVector = new ParsableByteArray();
+      queuedTimesUs = new long[MAX_QUEUED_SAMPLE_COUNT];
+      queuedFlags = new int[MAX_QUEUED_SAMPLE_COUNT];
+      queuedSizes = new int[MAX_QUEUED_SAMPLE_COUNT];
     }
 
     public void init(Track track, DefaultSampleValues defaultSampleValues) {
@@ -1431,8 +1471,44 @@ public final class FragmentedMp4Extractor implements Extractor {
       output.format(track.format.copyWithDrmInitData(drmInitData.copyWithSchemeType(schemeType)));
     }
 
+    /**
+     * Queues the metadata of a sample whose data has been output, to be output with the other
+     * samples of its track run. Outputs the queued metadata first if it has different encryption
+     * data, and all of it if the queue is full.
+     */
+    public void queueSampleMetadata(
+        long timeUs, @C.BufferFlags int flags, int size, TrackOutput.CryptoData cryptoData) {
+      if (queuedSampleCount > 0 && cryptoData != queuedCryptoData) {
+        outputQueuedSampleMetadata(/* offset= */ size);
+      }
+      queuedTimesUs[queuedSampleCount] = timeUs;
+      queuedFlags[queuedSampleCount] = flags;
+      queuedSizes[queuedSampleCount] = size;
+      queuedCryptoData = cryptoData;
+      queuedSampleCount++;
+      if (queuedSampleCount == MAX_QUEUED_SAMPLE_COUNT) {
+        outputQueuedSampleMetadata(/* offset= */ 0);
+      }
+    }
+
+    /**
+     * Outputs the queued sample metadata.
+     *
+     * @param offset The number of bytes output since the data of the last queued sample.
+     */
+    public void outputQueuedSampleMetadata(int offset) {
+      if (queuedSampleCount > 0) {
+        output.sampleMetadata(queuedTimesUs, queuedFlags, queuedSizes, /* start= */ 0,
+            queuedSampleCount, offset, queuedCryptoData);
+        queuedSampleCount = 0;
+        queuedCryptoData = null;
+      }
+    }
+
     /** Resets the current fragment and sample indices. */
     public void reset() {
+      queuedSampleCount = 0;
+      queuedCryptoData = null;
       fragment.reset();
       currentSampleIndex = 0;
       currentTrackRunIndex = 0;
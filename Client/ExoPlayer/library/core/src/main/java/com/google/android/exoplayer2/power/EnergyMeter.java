@@ -0,0 +1,400 @@
+package com.google.android.exoplayer2.power;
+
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.EventDispatcher;
+
+/**
+ * Estimates the energy a playback spends, chunk by chunk, with a {@link PowerModel}.
+ * <p>
+ * The radio is active from the start of a network transfer until no transfer is open, or until
+ * no byte has arrived for longer than a maximum gap. The latter splits the continuous transfer of
+ * a WebSocket into the bursts the server sends, each of which is reported when the next one
+ * starts. A chunk spans from the end of a burst to the end of the next one. Its energy is that of
+ * the radio in its tail state and idle during the gap, active during the burst, and of decoding
+ * and displaying the video meanwhile. Decoding counts while the player plays, and display while a
+ * video decoder is enabled. Frames rendered and dropped are read from the decoder counters of the
+ * video renderer.
+ * <p>
+ * After each chunk, the average power and the energy deposit of the session are updated as the
+ * server's {@code power_history_} and {@code energy_deposit_} are, so that they can be compared
+ * against the power budget. Chunk estimates are published to {@link EventListener}s, such as the
+ * {@link com.google.android.exoplayer2.analytics.AnalyticsCollector}, which forwards them to
+ * {@link AnalyticsListener#onEnergyEstimate}.
+ * <p>
+ * To meter a player, pass the meter as the {@link TransferListener} of its data sources and add it
+ * with {@code SimpleExoPlayer.addAnalyticsListener}. Transfer callbacks arrive on loading threads,
+ * so the meter is thread safe.
+ */
+public final class EnergyMeter implements TransferListener, AnalyticsListener {
+
+  /** Receives the energy of each chunk. */
+  public interface EventListener {
+
+    /**
+     * Called on the handler of the listener when the energy of a chunk has been estimated.
+     *
+     * @param chunkEnergy The estimate.
+     */
+    void onChunkEnergy(ChunkEnergy chunkEnergy);
+  }
+
+  /** The energy of a chunk, and of the session up to it. */
+  public static final class ChunkEnergy {
+
+    /** The number of the chunk in the session, from 1. */
+    public final int chunkIndex;
+    /** The end of the chunk, in {@link Clock#elapsedRealtime()} milliseconds. */
+    public final long endTimeMs;
+    /** The duration of the chunk, from the end of the previous one. */
+    public final double durationS;
+    /** The bytes transferred while the radio was active. */
+    public final long bytes;
+    /** The time the radio was active. */
+    public final double activeTimeS;
+    /** The time the radio was in its tail state. */
+    public final double tailTimeS;
+    /** The time the radio was idle. */
+    public final double idleTimeS;
+    /** The energy of the active radio. */
+    public final double networkActiveMj;
+    /** The energy of the radio in its tail state. */
+    public final double networkTailMj;
+    /** The energy of the idle radio. */
+    public final double networkIdleMj;
+    /** The energy of decoding. */
+    public final double decodeMj;
+    /** The energy of the display. */
+    public final double displayMj;
+    /** The video format played at the end of the chunk, or null if none. */
+    @Nullable public final Format videoFormat;
+    /** The frames rendered during the chunk. */
+    public final int renderedFrames;
+    /** The frames dropped during the chunk. */
+    public final int droppedFrames;
+    /** The average power of the session since the warm-up, after this chunk. */
+    public final double averagePowerMw;
+    /** The energy saved by staying below the power budget, after this chunk. */
+    public final double energyDepositMj;
+
+    /* package */ ChunkEnergy(
+        int chunkIndex,
+        long endTimeMs,
+        double durationS,
+        long bytes,
+        double activeTimeS,
+        double tailTimeS,
+        double idleTimeS,
+        double networkActiveMj,
+        double networkTailMj,
+        double networkIdleMj,
+        double decodeMj,
+        double displayMj,
+        @Nullable Format videoFormat,
+        int renderedFrames,
+        int droppedFrames,
+        double averagePowerMw,
+        double energyDepositMj) {
+      this.chunkIndex = chunkIndex;
+      this.endTimeMs = endTimeMs;
+      this.durationS = durationS;
+      this.bytes = bytes;
+      this.activeTimeS = activeTimeS;
+      this.tailTimeS = tailTimeS;
+      this.idleTimeS = idleTimeS;
+      this.networkActiveMj = networkActiveMj;
+      this.networkTailMj = networkTailMj;
+      this.networkIdleMj = networkIdleMj;
+      this.decodeMj = decodeMj;
+      this.displayMj = displayMj;
+      this.videoFormat = videoFormat;
+      this.renderedFrames = renderedFrames;
+      this.droppedFrames = droppedFrames;
+      this.averagePowerMw = averagePowerMw;
+      this.energyDepositMj = energyDepositMj;
+    }
+
+    /** Returns the energy of the radio. */
+    public double getNetworkMj() {
+      return networkActiveMj + networkTailMj + networkIdleMj;
+    }
+
+    /** Returns the energy of the chunk. */
+    public double getTotalMj() {
+      return getNetworkMj() + decodeMj + displayMj;
+    }
+  }
+
+  /** The default longest pause between bytes of an active transfer. */
+  public static final long DEFAULT_MAX_GAP_MS = 50;
+
+  // Chunks after which the energy deposit starts to accumulate, as on the server.
+  private static final int WARM_UP_CHUNKS = 6;
+
+  private final PowerModel powerModel;
+  private final double powerBudgetMw;
+  private final long maxGapMs;
+  private final Clock clock;
+  private final EventDispatcher<EventListener> eventDispatcher;
+
+  // The radio.
+  private int openTransfers;
+  private boolean isBurstActive;
+  private long burstStartMs;
+  private long lastByteMs;
+  private long burstBytes;
+  private long chunkStartMs;
+
+  // The video, accounted up to lastVideoUpdateMs.
+  @Nullable private Format videoFormat;
+  @Nullable private DecoderCounters videoCounters;
+  private boolean isPlaying;
+  private long lastVideoUpdateMs;
+  private double decodeMj;
+  private double displayMj;
+  private int renderedFrames;
+  private int droppedFrames;
+  private int countedRenderedFrames;
+  private int countedDroppedFrames;
+
+  // The session.
+  private int chunkCount;
+  private double totalMj;
+  private double powerHistoryMw;
+  private double timeHistoryS;
+  private double energyDepositMj;
+
+  /**
+   * @param powerModel The power model of the device.
+   * @param powerBudgetMw The average power the session should not exceed.
+   */
+  public EnergyMeter(PowerModel powerModel, double powerBudgetMw) {
+    this(powerModel, powerBudgetMw, DEFAULT_MAX_GAP_MS, Clock.DEFAULT);
+  }
+
+  /**
+   * @param powerModel The power model of the device.
+   * @param powerBudgetMw The average power the session should not exceed.
+   * @param maxGapMs The longest pause between bytes of an active transfer.
+   * @param clock A {@link Clock}.
+   */
+  public EnergyMeter(PowerModel powerModel, double powerBudgetMw, long maxGapMs, Clock clock) {
+    this.powerModel = powerModel;
+    this.powerBudgetMw = powerBudgetMw;
+    this.maxGapMs = maxGapMs;
+    this.clock = clock;
+    eventDispatcher = new EventDispatcher<>();
+    chunkStartMs = C.TIME_UNSET;
+    lastVideoUpdateMs = clock.elapsedRealtime();
+  }
+
+  /** Adds a listener to receive the energy of each chunk on a handler. */
+  public void addEventListener(Handler eventHandler, EventListener eventListener) {
+    eventDispatcher.addListener(eventHandler, eventListener);
+  }
+
+  /** Removes a listener. */
+  public void removeEventListener(EventListener eventListener) {
+    eventDispatcher.removeListener(eventListener);
+  }
+
+  /** Returns the number of chunks estimated so far. */
+  public synchronized int getChunkCount() {
+    return chunkCount;
+  }
+
+  /** Returns the energy of the chunks estimated so far. */
+  public synchronized double getTotalEnergyMj() {
+    return totalMj;
+  }
+
+  /** Returns the average power of the session since the warm-up. */
+  public synchronized double getAveragePowerMw() {
+    return powerHistoryMw;
+  }
+
+  /** Returns the energy saved so far by staying below the power budget. */
+  public synchronized double getEnergyDepositMj() {
+    return energyDepositMj;
+  }
+
+  // TransferListener implementation.
+
+  @Override
+  public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    // Do nothing.
+  }
+
+  @Override
+  public synchronized void onTransferStart(
+      DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    if (!isNetwork) {
+      return;
+    }
+    openTransfers++;
+    onRadioActive(clock.elapsedRealtime());
+  }
+
+  @Override
+  public synchronized void onBytesTransferred(
+      DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+    if (!isNetwork) {
+      return;
+    }
+    onRadioActive(clock.elapsedRealtime());
+    burstBytes += bytesTransferred;
+  }
+
+  @Override
+  public synchronized void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    if (!isNetwork) {
+      return;
+    }
+    openTransfers--;
+    if (openTransfers == 0 && isBurstActive) {
+      endBurst(clock.elapsedRealtime());
+    }
+  }
+
+  // AnalyticsListener implementation.
+
+  @Override
+  public synchronized void onPlayerStateChanged(
+      EventTime eventTime, boolean playWhenReady, int playbackState) {
+    updateVideo(clock.elapsedRealtime());
+    isPlaying = playWhenReady && playbackState == Player.STATE_READY;
+  }
+
+  @Override
+  public synchronized void onDecoderEnabled(
+      EventTime eventTime, int trackType, DecoderCounters decoderCounters) {
+    if (trackType != C.TRACK_TYPE_VIDEO) {
+      return;
+    }
+    updateVideo(clock.elapsedRealtime());
+    decoderCounters.ensureUpdated();
+    videoCounters = decoderCounters;
+    countedRenderedFrames = decoderCounters.renderedOutputBufferCount;
+    countedDroppedFrames = decoderCounters.droppedBufferCount;
+  }
+
+  @Override
+  public synchronized void onDecoderInputFormatChanged(
+      EventTime eventTime, int trackType, Format format) {
+    if (trackType != C.TRACK_TYPE_VIDEO) {
+      return;
+    }
+    updateVideo(clock.elapsedRealtime());
+    videoFormat = format;
+  }
+
+  @Override
+  public synchronized void onDecoderDisabled(
+      EventTime eventTime, int trackType, DecoderCounters decoderCounters) {
+    if (trackType != C.TRACK_TYPE_VIDEO) {
+      return;
+    }
+    updateVideo(clock.elapsedRealtime());
+    countFrames();
+    videoCounters = null;
+  }
+
+  // Internal methods.
+
+  private void onRadioActive(long nowMs) {
+    if (isBurstActive && burstBytes > 0 && nowMs - lastByteMs > maxGapMs) {
+      endBurst(lastByteMs);
+    }
+    if (!isBurstActive) {
+      isBurstActive = true;
+      burstStartMs = nowMs;
+      burstBytes = 0;
+      if (chunkStartMs == C.TIME_UNSET) {
+        chunkStartMs = nowMs;
+        lastVideoUpdateMs = nowMs;
+      }
+    }
+    lastByteMs = nowMs;
+  }
+
+  private void endBurst(long endMs) {
+    isBurstActive = false;
+    updateVideo(endMs);
+    countFrames();
+
+    double activeTimeS = (endMs - burstStartMs) / 1000.0;
+    double gapS = (burstStartMs - chunkStartMs) / 1000.0;
+    double tailTimeS = Math.min(gapS, powerModel.getNetworkTailTimeS());
+    double idleTimeS = gapS - tailTimeS;
+    double durationS = (endMs - chunkStartMs) / 1000.0;
+    double networkActiveMj =
+        powerModel.getNetworkActivePowerMw(burstBytes, activeTimeS) * activeTimeS;
+    double networkTailMj = powerModel.getNetworkTailPowerMw() * tailTimeS;
+    double networkIdleMj = powerModel.getNetworkIdlePowerMw() * idleTimeS;
+    double chunkMj = networkActiveMj + networkTailMj + networkIdleMj + decodeMj + displayMj;
+
+    chunkCount++;
+    totalMj += chunkMj;
+    if (durationS > 0) {
+      double energyMj = powerHistoryMw * timeHistoryS + chunkMj;
+      timeHistoryS += durationS;
+      powerHistoryMw = energyMj / timeHistoryS;
+    }
+    if (chunkCount >= WARM_UP_CHUNKS) {
+      energyDepositMj = (powerBudgetMw - powerHistoryMw) * timeHistoryS;
+    } else {
+      powerHistoryMw = 0;
+      timeHistoryS = 0;
+      energyDepositMj = 0;
+    }
+
+    ChunkEnergy chunkEnergy = new ChunkEnergy(chunkCount, endMs, durationS, burstBytes,
+        activeTimeS, tailTimeS, idleTimeS, networkActiveMj, networkTailMj, networkIdleMj,
+        decodeMj, displayMj, videoFormat, renderedFrames, droppedFrames, powerHistoryMw,
+        energyDepositMj);
+    eventDispatcher.dispatch(listener -> listener.onChunkEnergy(chunkEnergy));
+
+    chunkStartMs = endMs;
+    decodeMj = 0;
+    displayMj = 0;
+    renderedFrames = 0;
+    droppedFrames = 0;
+  }
+
+  /** Accounts for the decoding and display energy up to a time. */
+  private void updateVideo(long nowMs) {
+    if (nowMs <= lastVideoUpdateMs) {
+      return;
+    }
+    double elapsedS = (nowMs - lastVideoUpdateMs) / 1000.0;
+    lastVideoUpdateMs = nowMs;
+    if (videoCounters == null) {
+      return;
+    }
+    displayMj += powerModel.getDisplayPowerMw() * elapsedS;
+    if (isPlaying && videoFormat != null) {
+      decodeMj += powerModel.getDecodePowerMw(videoFormat.width, videoFormat.bitrate)
+          * elapsedS;
+    }
+  }
+
+  private void countFrames() {
+    if (videoCounters == null) {
+      return;
+    }
+    videoCounters.ensureUpdated();
+    renderedFrames += videoCounters.renderedOutputBufferCount - countedRenderedFrames;
+    droppedFrames += videoCounters.droppedBufferCount - countedDroppedFrames;
+    countedRenderedFrames = videoCounters.renderedOutputBufferCount;
+    countedDroppedFrames = videoCounters.droppedBufferCount;
+  }
+}
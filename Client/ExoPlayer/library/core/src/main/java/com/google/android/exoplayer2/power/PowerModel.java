@@ -0,0 +1,445 @@
+package com.google.android.exoplayer2.power;
+
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.ParserException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The power a handset draws while streaming, split into a network, a decoding and a display
+ * component, as calibrated for one device in one streaming mode.
+ * <p>
+ * The network is active while a chunk is transferred, with a power that is piecewise linear in
+ * the throughput. It then stays in a tail state of fixed power and duration, and idles afterwards.
+ * The decoding power is tabulated over the width and the bitrate of the format. It is
+ * interpolated linearly between the calibrated widths and bitrates, and clamped outside them. The
+ * display power is constant.
+ * <p>
+ * A calibration file has one entry per line, with {@code #} starting a comment:
+ * <pre>
+ * network-active &lt;kbps&gt; &lt;mW&gt;           # a point of the active power, repeatable
+ * network-active-linear &lt;mW/kbps&gt; &lt;mW&gt;  # or a single line, as the server models it
+ * network-tail &lt;mW&gt; &lt;s&gt;
+ * network-idle &lt;mW&gt;
+ * decode &lt;width&gt; &lt;mW&gt;                  # at any bitrate
+ * decode &lt;width&gt; &lt;kbps&gt; &lt;mW&gt;           # at a bitrate, repeatable per width
+ * display &lt;mW&gt;
+ * </pre>
+ * Network throughput is in kbit/s of 1024 bits, as the server computes it. Format bitrates are in
+ * kbit/s of 1000 bits.
+ * <p>
+ * Models are immutable. Lookups only read primitive arrays, so that they can be evaluated on the
+ * selection path.
+ */
+public final class PowerModel {
+
+  /** The 360-degree player, navigated by touch. */
+  public static final int STREAMING_MODE_TOUCH = 1;
+  /** The 360-degree player, navigated with the gyroscope. */
+  public static final int STREAMING_MODE_GYRO = 2;
+
+  /**
+   * Builder for {@link PowerModel} instances. Components that are not set draw no power, except
+   * that the tail state lasts {@link #DEFAULT_TAIL_TIME_S}.
+   */
+  public static final class Builder {
+
+    /** The default duration of the tail state of the radio. */
+    public static final double DEFAULT_TAIL_TIME_S = 0.2;
+
+    private final List<double[]> networkPoints = new ArrayList<>();
+    private final List<double[]> decodePoints = new ArrayList<>();
+    private double networkCoeff;
+    private double networkInterceptMw;
+    private boolean isNetworkLinear;
+    private double tailPowerMw;
+    private double tailTimeS = DEFAULT_TAIL_TIME_S;
+    private double idlePowerMw;
+    private double displayPowerMw;
+
+    /**
+     * Models the active network power as {@code coeff * kbps + interceptMw}. Replaces points
+     * added with {@link #addNetworkActivePower}.
+     */
+    public Builder setNetworkActivePower(double coeff, double interceptMw) {
+      networkPoints.clear();
+      networkCoeff = coeff;
+      networkInterceptMw = interceptMw;
+      isNetworkLinear = true;
+      return this;
+    }
+
+    /**
+     * Adds a point of the active network power. The power is interpolated linearly between
+     * points, and extrapolated along the first and last segments. Replaces a model set with
+     * {@link #setNetworkActivePower}.
+     */
+    public Builder addNetworkActivePower(double kbps, double powerMw) {
+      isNetworkLinear = false;
+      networkPoints.add(new double[] {kbps, powerMw});
+      return this;
+    }
+
+    /** Sets the power and the duration of the tail state that follows a transfer. */
+    public Builder setNetworkTail(double powerMw, double timeS) {
+      tailPowerMw = powerMw;
+      tailTimeS = timeS;
+      return this;
+    }
+
+    /** Sets the power of the idle radio. */
+    public Builder setNetworkIdlePower(double powerMw) {
+      idlePowerMw = powerMw;
+      return this;
+    }
+
+    /**
+     * Adds a point of the decoding power.
+     *
+     * @param width The width of the format.
+     * @param bitrate The bitrate of the format, or {@link Format#NO_VALUE} if the power does
+     *     not depend on it.
+     * @param powerMw The power.
+     */
+    public Builder addDecodePower(int width, int bitrate, double powerMw) {
+      decodePoints.add(new double[] {width, bitrate == Format.NO_VALUE ? -1 : bitrate,
+          powerMw});
+      return this;
+    }
+
+    /** Sets the power of the display. */
+    public Builder setDisplayPower(double powerMw) {
+      displayPowerMw = powerMw;
+      return this;
+    }
+
+    public PowerModel build() {
+      return new PowerModel(this);
+    }
+  }
+
+  private static final PowerModel DEFAULT_TOUCH = new Builder()
+      .setNetworkActivePower(0.0018, 152.56)
+      .setNetworkTail(123.27, 0.2)
+      .setNetworkIdlePower(0)
+      .addDecodePower(256, Format.NO_VALUE, 185.70)
+      .addDecodePower(426, Format.NO_VALUE, 185.21)
+      .addDecodePower(640, Format.NO_VALUE, 189.71)
+      .addDecodePower(854, Format.NO_VALUE, 191.34)
+      .addDecodePower(1280, Format.NO_VALUE, 194.10)
+      .addDecodePower(1920, Format.NO_VALUE, 199.00)
+      .addDecodePower(2560, Format.NO_VALUE, 206.76)
+      .addDecodePower(3840, Format.NO_VALUE, 227.42)
+      .build();
+
+  private static final PowerModel DEFAULT_GYRO = new Builder()
+      .setNetworkActivePower(0.0018, 152.56)
+      .setNetworkTail(123.27, 0.2)
+      .setNetworkIdlePower(0)
+      .addDecodePower(256, Format.NO_VALUE, 213.00)
+      .addDecodePower(426, Format.NO_VALUE, 213.00)
+      .addDecodePower(640, Format.NO_VALUE, 213.00)
+      .addDecodePower(854, Format.NO_VALUE, 218.00)
+      .addDecodePower(1280, Format.NO_VALUE, 226.00)
+      .addDecodePower(1920, Format.NO_VALUE, 234.00)
+      .addDecodePower(2560, Format.NO_VALUE, 235.00)
+      .addDecodePower(3840, Format.NO_VALUE, 259.00)
+      .build();
+
+  // Segment i of the active network power starts at networkKbps[i], the first one at -infinity.
+  private final double[] networkKbps;
+  private final double[] networkCoeff;
+  private final double[] networkInterceptMw;
+  private final double tailPowerMw;
+  private final double tailTimeS;
+  private final double idlePowerMw;
+  // The decoding power of width decodeWidths[i] is tabulated at the bitrates
+  // decodeBitrates[decodeRows[i]] to decodeBitrates[decodeRows[i + 1] - 1], in ascending order.
+  // A bitrate of -1 stands for any bitrate.
+  private final int[] decodeWidths;
+  private final int[] decodeRows;
+  private final double[] decodeBitrates;
+  private final double[] decodePowerMw;
+  private final double displayPowerMw;
+
+  private PowerModel(Builder builder) {
+    if (builder.isNetworkLinear || builder.networkPoints.isEmpty()) {
+      networkKbps = new double[] {Double.NEGATIVE_INFINITY};
+      networkCoeff = new double[] {builder.networkCoeff};
+      networkInterceptMw = new double[] {builder.networkInterceptMw};
+    } else {
+      double[][] points = sort(builder.networkPoints);
+      int segments = Math.max(1, points.length - 1);
+      networkKbps = new double[segments];
+      networkCoeff = new double[segments];
+      networkInterceptMw = new double[segments];
+      if (points.length == 1) {
+        networkKbps[0] = Double.NEGATIVE_INFINITY;
+        networkInterceptMw[0] = points[0][1];
+      }
+      for (int i = 0; i < points.length - 1; i++) {
+        double[] start = points[i];
+        double[] end = points[i + 1];
+        if (end[0] == start[0]) {
+          throw new IllegalArgumentException("Duplicate network point " + end[0]);
+        }
+        networkKbps[i] = i == 0 ? Double.NEGATIVE_INFINITY : start[0];
+        networkCoeff[i] = (end[1] - start[1]) / (end[0] - start[0]);
+        networkInterceptMw[i] = start[1] - networkCoeff[i] * start[0];
+      }
+    }
+    tailPowerMw = builder.tailPowerMw;
+    tailTimeS = builder.tailTimeS;
+    idlePowerMw = builder.idlePowerMw;
+
+    double[][] points = sort(builder.decodePoints);
+    int rows = 0;
+    for (int i = 0; i < points.length; i++) {
+      if (i == 0 || points[i][0] != points[i - 1][0]) {
+        rows++;
+      }
+    }
+    decodeWidths = new int[rows];
+    decodeRows = new int[rows + 1];
+    decodeBitrates = new double[points.length];
+    decodePowerMw = new double[points.length];
+    int row = -1;
+    for (int i = 0; i < points.length; i++) {
+      if (i == 0 || points[i][0] != points[i - 1][0]) {
+        row++;
+        decodeWidths[row] = (int) points[i][0];
+        decodeRows[row] = i;
+      } else if (points[i][1] == points[i - 1][1] || points[i - 1][1] < 0) {
+        throw new IllegalArgumentException("Duplicate decode point " + (int) points[i][0]
+            + " " + points[i][1]);
+      }
+      decodeBitrates[i] = points[i][1];
+      decodePowerMw[i] = points[i][2];
+    }
+    decodeRows[rows] = points.length;
+    displayPowerMw = builder.displayPowerMw;
+  }
+
+  /**
+   * Returns the calibration of the phone the server's model was measured on.
+   *
+   * @param streamingMode {@link #STREAMING_MODE_TOUCH} or {@link #STREAMING_MODE_GYRO}.
+   */
+  public static PowerModel getDefault(int streamingMode) {
+    switch (streamingMode) {
+      case STREAMING_MODE_TOUCH: return DEFAULT_TOUCH;
+      case STREAMING_MODE_GYRO: return DEFAULT_GYRO;
+      default: throw new IllegalArgumentException("Streaming mode " + streamingMode);
+    }
+  }
+
+  /** Reads a calibration file. */
+  public static PowerModel load(File file) throws IOException {
+    InputStream inputStream = new FileInputStream(file);
+    try {
+      return parse(inputStream);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /** Parses a calibration. Does not close the stream. */
+  public static PowerModel parse(InputStream inputStream) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+    Builder builder = new Builder();
+    int lineNumber = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      int commentIndex = line.indexOf('#');
+      if (commentIndex >= 0) {
+        line = line.substring(0, commentIndex);
+      }
+      line = line.trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      try {
+        switch (fields[0]) {
+          case "network-active":
+            checkFieldCount(fields, 3);
+            builder.addNetworkActivePower(parseDouble(fields[1]),
+                parseDouble(fields[2]));
+            break;
+          case "network-active-linear":
+            checkFieldCount(fields, 3);
+            builder.setNetworkActivePower(parseDouble(fields[1]),
+                parseDouble(fields[2]));
+            break;
+          case "network-tail":
+            checkFieldCount(fields, 3);
+            builder.setNetworkTail(parseDouble(fields[1]), parseDouble(fields[2]));
+            break;
+          case "network-idle":
+            checkFieldCount(fields, 2);
+            builder.setNetworkIdlePower(parseDouble(fields[1]));
+            break;
+          case "decode":
+            if (fields.length == 3) {
+              builder.addDecodePower(Integer.parseInt(fields[1]), Format.NO_VALUE,
+                  parseDouble(fields[2]));
+            } else {
+              checkFieldCount(fields, 4);
+              builder.addDecodePower(Integer.parseInt(fields[1]),
+                  (int) (parseDouble(fields[2]) * 1000),
+                  parseDouble(fields[3]));
+            }
+            break;
+          case "display":
+            checkFieldCount(fields, 2);
+            builder.setDisplayPower(parseDouble(fields[1]));
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown entry " + fields[0]);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new ParserException("Line " + lineNumber + ": " + e.getMessage());
+      }
+    }
+    try {
+      return builder.build();
+    } catch (IllegalArgumentException e) {
+      throw new ParserException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the power of the radio while it transfers at a throughput.
+   *
+   * @param kbps The throughput, in kbit/s of 1024 bits.
+   */
+  public double getNetworkActivePowerMw(double kbps) {
+    int segment = networkKbps.length - 1;
+    while (segment > 0 && kbps < networkKbps[segment]) {
+      segment--;
+    }
+    return networkCoeff[segment] * kbps + networkInterceptMw[segment];
+  }
+
+  /**
+   * Returns the power of the radio while it transfers a number of bytes in a time, or at zero
+   * throughput if the time is not positive.
+   */
+  public double getNetworkActivePowerMw(long bytes, double transferTimeS) {
+    if (transferTimeS <= 0) {
+      return getNetworkActivePowerMw(0);
+    }
+    return getNetworkActivePowerMw(8.0 * bytes / (transferTimeS * 1024.0));
+  }
+
+  /** Returns the power of the tail state that follows a transfer. */
+  public double getNetworkTailPowerMw() {
+    return tailPowerMw;
+  }
+
+  /** Returns the duration of the tail state that follows a transfer. */
+  public double getNetworkTailTimeS() {
+    return tailTimeS;
+  }
+
+  /** Returns the power of the idle radio. */
+  public double getNetworkIdlePowerMw() {
+    return idlePowerMw;
+  }
+
+  /**
+   * Returns the power of decoding a format.
+   *
+   * @param width The width of the format.
+   * @param bitrate The bitrate of the format, or {@link Format#NO_VALUE} if unknown, in which
+   *     case the highest calibrated bitrate is assumed.
+   */
+  public double getDecodePowerMw(int width, int bitrate) {
+    int rows = decodeWidths.length;
+    if (rows == 0) {
+      return 0;
+    }
+    int row = Arrays.binarySearch(decodeWidths, width);
+    if (row >= 0) {
+      return getRowPowerMw(row, bitrate);
+    }
+    int upper = -row - 1;
+    if (upper == 0) {
+      return getRowPowerMw(0, bitrate);
+    } else if (upper == rows) {
+      return getRowPowerMw(rows - 1, bitrate);
+    }
+    int lower = upper - 1;
+    double lowerPowerMw = getRowPowerMw(lower, bitrate);
+    double upperPowerMw = getRowPowerMw(upper, bitrate);
+    return lowerPowerMw + (upperPowerMw - lowerPowerMw) * (width - decodeWidths[lower])
+        / (decodeWidths[upper] - decodeWidths[lower]);
+  }
+
+  /** Returns the power of the display. */
+  public double getDisplayPowerMw() {
+    return displayPowerMw;
+  }
+
+  /**
+   * Returns the power of decoding and displaying a format.
+   *
+   * @see #getDecodePowerMw(int, int)
+   */
+  public double getVideoPowerMw(int width, int bitrate) {
+    return getDecodePowerMw(width, bitrate) + displayPowerMw;
+  }
+
+  private double getRowPowerMw(int row, int bitrate) {
+    int start = decodeRows[row];
+    int end = decodeRows[row + 1] - 1;
+    if (bitrate == Format.NO_VALUE || bitrate >= decodeBitrates[end]) {
+      return decodePowerMw[end];
+    } else if (bitrate <= decodeBitrates[start]) {
+      return decodePowerMw[start];
+    }
+    int upper = start + 1;
+    while (decodeBitrates[upper] < bitrate) {
+      upper++;
+    }
+    int lower = upper - 1;
+    return decodePowerMw[lower] + (decodePowerMw[upper] - decodePowerMw[lower])
+        * (bitrate - decodeBitrates[lower]) / (decodeBitrates[upper] - decodeBitrates[lower]);
+  }
+
+  private static double[][] sort(List<double[]> points) {
+    double[][] sorted = points.toArray(new double[points.size()][]);
+    Arrays.sort(sorted, (a, b) -> {
+      for (int i = 0; i < a.length; i++) {
+        int result = Double.compare(a[i], b[i]);
+        if (result != 0) {
+          return result;
+        }
+      }
+      return 0;
+    });
+    return sorted;
+  }
+
+  private static void checkFieldCount(String[] fields, int count) {
+    if (fields.length != count) {
+      throw new IllegalArgumentException(fields[0] + " takes " + (count - 1) + " values");
+    }
+  }
+
+  private static double parseDouble(String field) {
+    double value = Double.parseDouble(field);
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new IllegalArgumentException("Not a finite number " + field);
+    }
+    return value;
+  }
+}
@@ -22,6 +22,7 @@ import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
 import com.google.android.exoplayer2.extractor.TrackOutput.CryptoData;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Util;
+import java.util.Arrays;
 
 /**
  * A queue of metadata describing the contents of a media buffer.
@@ -420,43 +421,73 @@ import com.google.android.exoplayer2.util.Util;
     length++;
     if (length == capacity) {
       // Increase the capacity.
-      int newCapacity = capacity + SAMPLE_CAPACITY_INCREMENT;
-      int[] newSourceIds = new int[newCapacity];
-      long[] newOffsets = new long[newCapacity];
-      long[] newTimesUs = new long[newCapacity];
-      int[] newFlags = new int[newCapacity];
-      int[] newSizes = new int[newCapacity];
-      CryptoData[] newCryptoDatas = new CryptoData[newCapacity];
-      Format[] newFormats = new Format[newCapacity];
-      int beforeWrap = capacity - relativeFirstIndex;
-      System.arraycopy(offsets, relativeFirstIndex, newOffsets, 0, beforeWrap);
-      System.arraycopy(timesUs, relativeFirstIndex, newTimesUs, 0, beforeWrap);
-      System.arraycopy(flags, relativeFirstIndex, newFlags, 0, beforeWrap);
-      System.arraycopy(sizes, relativeFirstIndex, newSizes, 0, beforeWrap);
-      System.arraycopy(cryptoDatas, relativeFirstIndex, newCryptoDatas, 0, beforeWrap);
-      System.arraycopy(formats, relativeFirstIndex, newFormats, 0, beforeWrap);
-      System.arraycopy(sourceIds, relativeFirstIndex, newSourceIds, 0, beforeWrap);
-      int afterWrap = relativeFirstIndex;
-      System.arraycopy(offsets, 0, newOffsets, beforeWrap, afterWrap);
-      System.arraycopy(timesUs, 0, newTimesUs, beforeWrap, afterWrap);
-      System.arraycopy(flags, 0, newFlags, beforeWrap, afterWrap);
-      System.arraycopy(sizes, 0, newSizes, beforeWrap, afterWrap);
-      System.arraycopy(cryptoDatas, 0, newCryptoDatas, beforeWrap, afterWrap);
-      System.arraycopy(formats, 0, newFormats, beforeWrap, afterWrap);
-      System.arraycopy(sourceIds, 0, newSourceIds, beforeWrap, afterWrap);
-      offsets = newOffsets;
-      timesUs = newTimesUs;
-      flags = newFlags;
-      sizes = newSizes;
-      cryptoDatas = newCryptoDatas;
-      formats = newFormats;
-      sourceIds = newSourceIds;
-      relativeFirstIndex = 0;
-      length = capacity;
-      capacity = newCapacity;
+      growCapacity(capacity + SAMPLE_CAPACITY_INCREMENT);
     }
   }
 
+  /**
+   * Commits the metadata of consecutive samples at once. Equivalent to calling {@link
+   * #commitSample(long, int, long, int, CryptoData)} for each sample in order, but grows the queue
+   * at most once and copies the metadata in bulk.
+   *
+   * @param sampleTimesUs The timestamps of the samples, before {@code timeOffsetUs} is added.
+   * @param timeOffsetUs An offset added to each timestamp.
+   * @param sampleFlags The flags of the samples.
+   * @param sampleSizes The sizes of the samples.
+   * @param start The index of the first sample in the arrays.
+   * @param count The number of samples.
+   * @param endOffset The absolute position one byte past the data of the last sample.
+   * @param cryptoData The encryption data of every sample, or null.
+   */
+  public synchronized void commitSamples(long[] sampleTimesUs, long timeOffsetUs,
+      int[] sampleFlags, int[] sampleSizes, int start, int count, long endOffset,
+      CryptoData cryptoData) {
+    int end = start + count;
+    if (upstreamKeyframeRequired) {
+      while (start < end && (sampleFlags[start] & C.BUFFER_FLAG_KEY_FRAME) == 0) {
+        start++;
+      }
+      if (start == end) {
+        return;
+      }
+      upstreamKeyframeRequired = false;
+      count = end - start;
+    }
+    if (count == 0) {
+      return;
+    }
+    Assertions.checkState(!upstreamFormatRequired);
+
+    isLastSampleQueued = (sampleFlags[end - 1] & C.BUFFER_FLAG_LAST_SAMPLE) != 0;
+    for (int i = start; i < end; i++) {
+      largestQueuedTimestampUs =
+          Math.max(largestQueuedTimestampUs, sampleTimesUs[i] + timeOffsetUs);
+    }
+
+    if (length + count >= capacity) {
+      // Grow once, keeping a free slot as commitSample does.
+      int increments = (length + count - capacity) / SAMPLE_CAPACITY_INCREMENT + 1;
+      growCapacity(capacity + increments * SAMPLE_CAPACITY_INCREMENT);
+    }
+
+    // The samples are written in at most two segments, either side of the end of the arrays.
+    int relativeEndIndex = getRelativeIndex(length);
+    int beforeWrap = Math.min(count, capacity - relativeEndIndex);
+    copySamples(sampleTimesUs, timeOffsetUs, sampleFlags, sampleSizes, cryptoData, start,
+        relativeEndIndex, beforeWrap);
+    copySamples(sampleTimesUs, timeOffsetUs, sampleFlags, sampleSizes, cryptoData,
+        start + beforeWrap, /* relativeIndex= */ 0, count - beforeWrap);
+
+    // Each sample ends where the next one starts.
+    long offset = endOffset;
+    for (int i = count - 1; i >= 0; i--) {
+      int relativeIndex = getRelativeIndex(length + i);
+      offset -= sizes[relativeIndex];
+      offsets[relativeIndex] = offset;
+    }
+    length += count;
+  }
+
   /**
    * Attempts to discard samples from the end of the queue to allow samples starting from the
    * specified timestamp to be spliced in. Samples will not be discarded prior to the read position.
@@ -572,6 +603,60 @@ import com.google.android.exoplayer2.util.Util;
     return largestTimestampUs;
   }
 
+  private void copySamples(long[] sampleTimesUs, long timeOffsetUs, int[] sampleFlags,
+      int[] sampleSizes, CryptoData cryptoData, int start, int relativeIndex, int count) {
+    if (count == 0) {
+      return;
+    }
+    if (timeOffsetUs == 0) {
+      System.arraycopy(sampleTimesUs, start, timesUs, relativeIndex, count);
+    } else {
+      for (int i = 0; i < count; i++) {
+        timesUs[relativeIndex + i] = sampleTimesUs[start + i] + timeOffsetUs;
+      }
+    }
+    System.arraycopy(sampleFlags, start, flags, relativeIndex, count);
+    System.arraycopy(sampleSizes, start, sizes, relativeIndex, count);
+    Arrays.fill(cryptoDatas, relativeIndex, relativeIndex + count, cryptoData);
+    Arrays.fill(formats, relativeIndex, relativeIndex + count, upstreamFormat);
+    Arrays.fill(sourceIds, relativeIndex, relativeIndex + count, upstreamSourceId);
+  }
+
+  private void growCapacity(int newCapacity) {
+    int[] newSourceIds = new int[newCapacity];
+    long[] newOffsets = new long[newCapacity];
+    long[] newTimesUs = new long[newCapacity];
+    int[] newFlags = new int[newCapacity];
+    int[] newSizes = new int[newCapacity];
+    CryptoData[] newCryptoDatas = new CryptoData[newCapacity];
+    Format[] newFormats = new Format[newCapacity];
+    int beforeWrap = Math.min(length, capacity - relativeFirstIndex);
+    System.arraycopy(offsets, relativeFirstIndex, newOffsets, 0, beforeWrap);
+    System.arraycopy(timesUs, relativeFirstIndex, newTimesUs, 0, beforeWrap);
+    System.arraycopy(flags, relativeFirstIndex, newFlags, 0, beforeWrap);
+    System.arraycopy(sizes, relativeFirstIndex, newSizes, 0, beforeWrap);
+    System.arraycopy(cryptoDatas, relativeFirstIndex, newCryptoDatas, 0, beforeWrap);
+    System.arraycopy(formats, relativeFirstIndex, newFormats, 0, beforeWrap);
+    System.arraycopy(sourceIds, relativeFirstIndex, newSourceIds, 0, beforeWrap);
+    int afterWrap = length - beforeWrap;
+    System.arraycopy(offsets, 0, newOffsets, beforeWrap, afterWrap);
+    System.arraycopy(timesUs, 0, newTimesUs, beforeWrap, afterWrap);
+    System.arraycopy(flags, 0, newFlags, beforeWrap, afterWrap);
+    System.arraycopy(sizes, 0, newSizes, beforeWrap, afterWrap);
+    System.arraycopy(cryptoDatas, 0, newCryptoDatas, beforeWrap, afterWrap);
+    System.arraycopy(formats, 0, newFormats, beforeWrap, afterWrap);
+    System.arraycopy(sourceIds, 0, newSourceIds, beforeWrap, afterWrap);
+    offsets = newOffsets;
+    timesUs = newTimesUs;
+    flags = newFlags;
+    sizes = newSizes;
+    cryptoDatas = newCryptoDatas;
+    formats = newFormats;
+    sourceIds = newSourceIds;
+    relativeFirstIndex = 0;
+    capacity = newCapacity;
+  }
+
    /**
     * Returns the relative index for a given offset from the start of the queue.
     *
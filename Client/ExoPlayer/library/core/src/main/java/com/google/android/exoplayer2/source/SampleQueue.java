@@ -595,6 +595,39 @@ public class SampleQueue implements TrackOutput {
     metadataQueue.commitSample(timeUs, flags, absoluteOffset, size, cryptoData);
   }
 
+  @Override
+  public void sampleMetadata(
+      long[] timesUs,
+      int[] flags,
+      int[] sizes,
+      int start,
+      int count,
+      int offset,
+      @Nullable CryptoData cryptoData) {
+    if (pendingFormatAdjustment) {
+      format(lastUnadjustedFormat);
+    }
+    int end = start + count;
+    if (pendingSplice) {
+      // Samples are spliced in one at a time until the splice succeeds.
+      int sampleOffset = offset;
+      for (int i = start + 1; i < end; i++) {
+        sampleOffset += sizes[i];
+      }
+      while (pendingSplice && start < end) {
+        sampleMetadata(timesUs[start], flags[start], sizes[start], sampleOffset, cryptoData);
+        start++;
+        if (start < end) {
+          sampleOffset -= sizes[start];
+        }
+      }
+    }
+    if (start < end) {
+      metadataQueue.commitSamples(timesUs, sampleOffsetUs, flags, sizes, start, end - start,
+          totalBytesWritten - offset, cryptoData);
+    }
+  }
+
   // Private methods.
 
   /**
@@ -215,6 +215,27 @@ public final class ChunkExtractorWrapper implements ExtractorOutput {
       trackOutput.sampleMetadata(timeUs, flags, size, offset, cryptoData);
     }
 
+    @Override
+    public void sampleMetadata(long[] timesUs, int[] flags, int[] sizes, int start, int count,
+        int offset, CryptoData cryptoData) {
+      int end = start + count;
+      int endIndex = start;
+      while (endIndex < end && (endTimeUs == C.TIME_UNSET || timesUs[endIndex] < endTimeUs)) {
+        endIndex++;
+      }
+      if (endIndex < end) {
+        // Samples from the end time onwards are dropped, but their data follows the others.
+        for (int i = endIndex; i < end; i++) {
+          offset += sizes[i];
+        }
+        trackOutput.sampleMetadata(timesUs, flags, sizes, start, endIndex - start, offset,
+            cryptoData);
+        trackOutput = dummyTrackOutput;
+      } else {
+        trackOutput.sampleMetadata(timesUs, flags, sizes, start, count, offset, cryptoData);
+      }
+    }
+
   }
 
 }
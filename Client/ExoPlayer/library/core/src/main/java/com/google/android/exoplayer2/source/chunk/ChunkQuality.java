@@ -0,0 +1,140 @@
+package com.google.android.exoplayer2.source.chunk;
+
+import android.os.Parcel;
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.metadata.Metadata;
+import java.util.Arrays;
+
+/**
+ * The SSIM and size of the chunks of a format, in the order of the chunks from the first one,
+ * carried in the {@link Format#metadata} of formats whose manifest declares them. A {@link
+ * ChunkQualityStore} maps them to the times of the chunks.
+ * <p>
+ * A DASH representation declares them in a {@code SupplementalProperty} of scheme {@link
+ * #SCHEME_ID_URI}, whose value lists the chunks separated by spaces or commas. Each is written as
+ * {@code ssim} or {@code ssim:bytes}, with an empty {@code ssim} if only the size is known.
+ */
+public final class ChunkQuality implements Metadata.Entry {
+
+  /** The scheme of the DASH {@code SupplementalProperty} that declares the chunks. */
+  public static final String SCHEME_ID_URI = "urn:puffer:chunk-quality:2019";
+
+  /** The SSIM of each chunk, or {@link Float#NaN} if unknown. */
+  public final float[] ssims;
+  /** The size of each chunk in bytes, or {@link C#LENGTH_UNSET} if unknown. */
+  public final int[] bytes;
+
+  /**
+   * @param ssims The SSIM of each chunk, or {@link Float#NaN} if unknown.
+   * @param bytes The size of each chunk in bytes, or {@link C#LENGTH_UNSET} if unknown. Must be
+   *     as long as {@code ssims}.
+   */
+  public ChunkQuality(float[] ssims, int[] bytes) {
+    if (ssims.length != bytes.length) {
+      throw new IllegalArgumentException();
+    }
+    this.ssims = ssims;
+    this.bytes = bytes;
+  }
+
+  /* package */ ChunkQuality(Parcel in) {
+    ssims = in.createFloatArray();
+    bytes = in.createIntArray();
+  }
+
+  /**
+   * Parses the value of a {@code SupplementalProperty} of scheme {@link #SCHEME_ID_URI}.
+   *
+   * @throws ParserException If the value is malformed.
+   */
+  public static ChunkQuality parse(String value) throws ParserException {
+    String trimmed = value.trim();
+    String[] chunks = trimmed.isEmpty() ? new String[0] : trimmed.split("[\\s,]+");
+    float[] ssims = new float[chunks.length];
+    int[] bytes = new int[chunks.length];
+    try {
+      for (int i = 0; i < chunks.length; i++) {
+        String chunk = chunks[i];
+        int separator = chunk.indexOf(':');
+        String ssim = separator == -1 ? chunk : chunk.substring(0, separator);
+        ssims[i] = ssim.isEmpty() ? Float.NaN : Float.parseFloat(ssim);
+        bytes[i] = separator == -1 ? C.LENGTH_UNSET
+            : Integer.parseInt(chunk.substring(separator + 1));
+      }
+    } catch (NumberFormatException e) {
+      throw new ParserException(e);
+    }
+    return new ChunkQuality(ssims, bytes);
+  }
+
+  /** Returns the first {@link ChunkQuality} in the metadata of a format, or null if none. */
+  public static @Nullable ChunkQuality fromFormat(Format format) {
+    Metadata metadata = format.metadata;
+    if (metadata == null) {
+      return null;
+    }
+    for (int i = 0; i < metadata.length(); i++) {
+      if (metadata.get(i) instanceof ChunkQuality) {
+        return (ChunkQuality) metadata.get(i);
+      }
+    }
+    return null;
+  }
+
+  /** Returns the number of chunks. */
+  public int getChunkCount() {
+    return ssims.length;
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    ChunkQuality other = (ChunkQuality) obj;
+    return Arrays.equals(ssims, other.ssims) && Arrays.equals(bytes, other.bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(ssims) + Arrays.hashCode(bytes);
+  }
+
+  @Override
+  public String toString() {
+    return "ChunkQuality: chunks=" + ssims.length;
+  }
+
+  // Parcelable implementation.
+
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    dest.writeFloatArray(ssims);
+    dest.writeIntArray(bytes);
+  }
+
+  @Override
+  public int describeContents() {
+    return 0;
+  }
+
+  public static final Creator<ChunkQuality> CREATOR =
+      new Creator<ChunkQuality>() {
+
+        @Override
+        public ChunkQuality createFromParcel(Parcel in) {
+          return new ChunkQuality(in);
+        }
+
+        @Override
+        public ChunkQuality[] newArray(int size) {
+          return new ChunkQuality[size];
+        }
+      };
+}
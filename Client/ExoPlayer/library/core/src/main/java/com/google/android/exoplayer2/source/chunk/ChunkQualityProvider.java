@@ -0,0 +1,30 @@
+package com.google.android.exoplayer2.source.chunk;
+
+import com.google.android.exoplayer2.Format;
+
+/** Provides the SSIM of the chunks of a format. */
+public interface ChunkQualityProvider {
+
+  /**
+   * Estimates the SSIM from the bitrate, for servers that publish no SSIM. The estimate is a
+   * concave function of the bitrate that spans the SSIM range of the Puffer formats.
+   */
+  ChunkQualityProvider BITRATE_ESTIMATE =
+      new ChunkQualityProvider() {
+        @Override
+        public double getSsimDb(Format format, long chunkStartTimeUs) {
+          if (format.bitrate == Format.NO_VALUE || format.bitrate <= 0) {
+            return 0;
+          }
+          return Math.max(0, 2.3 * Math.log(format.bitrate / 1000.0) / Math.log(2) - 5);
+        }
+      };
+
+  /**
+   * Returns the SSIM of a chunk in dB, i.e. {@code -10 * log10(1 - ssim)}.
+   *
+   * @param format The format of the chunk.
+   * @param chunkStartTimeUs The start time of the chunk.
+   */
+  double getSsimDb(Format format, long chunkStartTimeUs);
+}
@@ -0,0 +1,276 @@
+package com.google.android.exoplayer2.source.chunk;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.ParserException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+
+/**
+ * The SSIM and size of media chunks, keyed by format and time, for the track selections that
+ * optimize quality rather than bitrate.
+ * <p>
+ * The store is filled from whatever declares the chunks: the metadata of the chunks of a Puffer
+ * stream, the {@link ChunkQuality} of DASH representations, or a sidecar file read with {@link
+ * #readSidecar(InputStream)}. Formats are identified by {@link Format#id}, or by any other name
+ * the source and the reader agree on, such as a Puffer format. Track selections read the chunks
+ * their {@link MediaChunkIterator}s point to with {@link #getSsimDb(Format, MediaChunkIterator)}
+ * and {@link #getChunkBytes(Format, MediaChunkIterator)}.
+ * <p>
+ * Each format keeps at most a fixed number of chunks in primitive arrays, sorted by time, and
+ * drops the earliest ones first, so that a live stream does not grow the store. Chunks are filled
+ * and read on different threads, so the store is thread safe.
+ */
+public final class ChunkQualityStore implements ChunkQualityProvider {
+
+  /** The default number of chunks kept per format. */
+  public static final int DEFAULT_MAX_CHUNKS_PER_FORMAT = 1024;
+  /** The SSIM in dB of a chunk that is identical to its source, as on the Puffer server. */
+  public static final double MAX_SSIM_DB = 60;
+
+  private final int maxChunksPerFormat;
+  private final ChunkQualityProvider fallbackProvider;
+  private final HashMap<String, FormatChunks> formats;
+
+  /**
+   * Creates a store that keeps {@link #DEFAULT_MAX_CHUNKS_PER_FORMAT} chunks per format, and
+   * estimates the SSIM of other chunks from the bitrate.
+   */
+  public ChunkQualityStore() {
+    this(DEFAULT_MAX_CHUNKS_PER_FORMAT, ChunkQualityProvider.BITRATE_ESTIMATE);
+  }
+
+  /**
+   * @param maxChunksPerFormat The number of chunks kept per format.
+   * @param fallbackProvider Provides the SSIM of the chunks the store does not hold.
+   */
+  public ChunkQualityStore(int maxChunksPerFormat, ChunkQualityProvider fallbackProvider) {
+    if (maxChunksPerFormat <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.maxChunksPerFormat = maxChunksPerFormat;
+    this.fallbackProvider = fallbackProvider;
+    formats = new HashMap<>();
+  }
+
+  /**
+   * Converts an SSIM to dB, i.e. {@code -10 * log10(1 - ssim)} clamped to [0, {@link
+   * #MAX_SSIM_DB}], as the Puffer server does.
+   */
+  public static double toSsimDb(double ssim) {
+    if (ssim >= 1) {
+      return MAX_SSIM_DB;
+    }
+    return Math.max(0, Math.min(MAX_SSIM_DB, -10 * Math.log10(1 - ssim)));
+  }
+
+  /**
+   * Adds a chunk, or replaces the chunk of the format that starts at the same time. A chunk
+   * earlier than all chunks of a full format is dropped.
+   *
+   * @param formatId The format of the chunk.
+   * @param startTimeUs The start time of the chunk.
+   * @param endTimeUs The end time of the chunk.
+   * @param ssim The SSIM of the chunk, or {@link Double#NaN} if unknown.
+   * @param bytes The size of the chunk, or {@link C#LENGTH_UNSET} if unknown.
+   */
+  public synchronized void put(String formatId, long startTimeUs, long endTimeUs, double ssim,
+      long bytes) {
+    FormatChunks chunks = formats.get(formatId);
+    if (chunks == null) {
+      chunks = new FormatChunks(maxChunksPerFormat);
+      formats.put(formatId, chunks);
+    }
+    chunks.put(startTimeUs, endTimeUs, (float) ssim,
+        bytes < 0 ? C.LENGTH_UNSET : (int) Math.min(bytes, Integer.MAX_VALUE));
+  }
+
+  /** Returns the number of chunks held for a format. */
+  public synchronized int getChunkCount(String formatId) {
+    FormatChunks chunks = formats.get(formatId);
+    return chunks == null ? 0 : chunks.size;
+  }
+
+  /** Removes all chunks. */
+  public synchronized void clear() {
+    formats.clear();
+  }
+
+  /**
+   * Returns the SSIM of the chunk of a format that spans a time, or {@link Double#NaN} if the
+   * store does not know it.
+   */
+  public synchronized double getSsim(String formatId, long timeUs) {
+    FormatChunks chunks = formats.get(formatId);
+    int index = chunks == null ? C.INDEX_UNSET : chunks.indexOf(timeUs);
+    return index == C.INDEX_UNSET ? Double.NaN : chunks.ssims[chunks.getSlot(index)];
+  }
+
+  /**
+   * Returns the size of the chunk of a format that spans a time, or {@link C#LENGTH_UNSET} if
+   * the store does not know it.
+   */
+  public synchronized long getChunkBytes(String formatId, long timeUs) {
+    FormatChunks chunks = formats.get(formatId);
+    int index = chunks == null ? C.INDEX_UNSET : chunks.indexOf(timeUs);
+    return index == C.INDEX_UNSET ? C.LENGTH_UNSET : chunks.bytes[chunks.getSlot(index)];
+  }
+
+  /**
+   * Returns the SSIM in dB of the chunk an iterator points to, falling back to the provider of
+   * the store if it does not know it.
+   */
+  public double getSsimDb(Format format, MediaChunkIterator iterator) {
+    return getSsimDb(format, getMiddleTimeUs(iterator), iterator.getChunkStartTimeUs());
+  }
+
+  /**
+   * Returns the size of the chunk an iterator points to, from its {@link
+   * MediaChunkIterator#getDataSpec()} if it tells, or else from the store. Returns {@link
+   * C#LENGTH_UNSET} if neither knows it.
+   */
+  public long getChunkBytes(Format format, MediaChunkIterator iterator) {
+    long bytes = iterator.getDataSpec().length;
+    if (bytes != C.LENGTH_UNSET || format.id == null) {
+      return bytes;
+    }
+    return getChunkBytes(format.id, getMiddleTimeUs(iterator));
+  }
+
+  // ChunkQualityProvider implementation.
+
+  @Override
+  public double getSsimDb(Format format, long chunkStartTimeUs) {
+    return getSsimDb(format, chunkStartTimeUs, chunkStartTimeUs);
+  }
+
+  /**
+   * Reads the chunks of a sidecar file, a UTF-8 text with one chunk per line:
+   * <pre>
+   *   format,start_us,end_us,ssim,bytes
+   * </pre>
+   * where {@code ssim} and {@code bytes} may be empty if unknown. Empty lines and lines that
+   * start with {@code #} are skipped. The stream is not closed.
+   *
+   * @throws IOException If the stream cannot be read or a line is malformed.
+   */
+  public void readSidecar(InputStream inputStream) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, C.UTF8_NAME));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split(",", -1);
+      if (fields.length != 5 || fields[0].isEmpty()) {
+        throw new ParserException("Malformed chunk: " + line);
+      }
+      try {
+        put(fields[0],
+            Long.parseLong(fields[1].trim()),
+            Long.parseLong(fields[2].trim()),
+            fields[3].trim().isEmpty() ? Double.NaN
+                : Double.parseDouble(fields[3].trim()),
+            fields[4].trim().isEmpty() ? C.LENGTH_UNSET
+                : Long.parseLong(fields[4].trim()));
+      } catch (NumberFormatException e) {
+        throw new ParserException(e);
+      }
+    }
+  }
+
+  // Internal methods.
+
+  private double getSsimDb(Format format, long lookupTimeUs, long chunkStartTimeUs) {
+    double ssim = format.id == null ? Double.NaN : getSsim(format.id, lookupTimeUs);
+    return Double.isNaN(ssim) ? fallbackProvider.getSsimDb(format, chunkStartTimeUs)
+        : toSsimDb(ssim);
+  }
+
+  /** Returns the middle of a chunk, which is robust to the rounding of its boundaries. */
+  private static long getMiddleTimeUs(MediaChunkIterator iterator) {
+    long startTimeUs = iterator.getChunkStartTimeUs();
+    return startTimeUs + (iterator.getChunkEndTimeUs() - startTimeUs) / 2;
+  }
+
+  /** The chunks of a format in a ring of arrays, sorted by start time. */
+  private static final class FormatChunks {
+
+    private final long[] startTimesUs;
+    private final long[] endTimesUs;
+    private final float[] ssims;
+    private final int[] bytes;
+    private int first;
+    private int size;
+
+    private FormatChunks(int capacity) {
+      startTimesUs = new long[capacity];
+      endTimesUs = new long[capacity];
+      ssims = new float[capacity];
+      bytes = new int[capacity];
+    }
+
+    /** Returns the slot of the arrays that holds the chunk at an index. */
+    private int getSlot(int index) {
+      return (first + index) % startTimesUs.length;
+    }
+
+    /** Returns the index of the chunk that spans a time, or {@link C#INDEX_UNSET}. */
+    private int indexOf(long timeUs) {
+      int index = floorIndex(timeUs);
+      return index >= 0 && timeUs < endTimesUs[getSlot(index)] ? index : C.INDEX_UNSET;
+    }
+
+    private void put(long startTimeUs, long endTimeUs, float ssim, int chunkBytes) {
+      int index = floorIndex(startTimeUs);
+      if (index >= 0 && startTimesUs[getSlot(index)] == startTimeUs) {
+        set(getSlot(index), startTimeUs, endTimeUs, ssim, chunkBytes);
+        return;
+      }
+      int position = index + 1;
+      if (size == startTimesUs.length) {
+        if (position == 0) {
+          return;
+        }
+        // Drop the earliest chunk.
+        first = getSlot(1);
+        size--;
+        position--;
+      }
+      // Chunks usually arrive in order, in which case nothing moves.
+      for (int i = size; i > position; i--) {
+        int to = getSlot(i);
+        int from = getSlot(i - 1);
+        set(to, startTimesUs[from], endTimesUs[from], ssims[from], bytes[from]);
+      }
+      size++;
+      set(getSlot(position), startTimeUs, endTimeUs, ssim, chunkBytes);
+    }
+
+    private void set(int slot, long startTimeUs, long endTimeUs, float ssim, int chunkBytes) {
+      startTimesUs[slot] = startTimeUs;
+      endTimesUs[slot] = endTimeUs;
+      ssims[slot] = ssim;
+      bytes[slot] = chunkBytes;
+    }
+
+    /** Returns the index of the last chunk that starts at or before a time, or -1. */
+    private int floorIndex(long timeUs) {
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        if (startTimesUs[getSlot(middle)] <= timeUs) {
+          low = middle + 1;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return high;
+    }
+  }
+}
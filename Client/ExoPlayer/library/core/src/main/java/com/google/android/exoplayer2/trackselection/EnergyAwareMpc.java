@@ -0,0 +1,586 @@
+package com.google.android.exoplayer2.trackselection;
+
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.power.PowerModel;
+
+/**
+ * The proactive, energy-budgeted model predictive control of the server's {@code MPCProactiveSim},
+ * for running the same ABR on the device.
+ * <p>
+ * Each decision is a dynamic program over the lookahead chunks, the discretized buffer level, the
+ * format of the previous chunk and the discretized energy spent beyond the power budget. The
+ * reward of a chunk is its SSIM in dB, minus the SSIM change from the previous chunk and a
+ * rebuffering penalty. A path whose energy at the end of the horizon exceeds the energy deposit,
+ * i.e. what the session has saved so far by staying below the budget, is infeasible. Energy is
+ * estimated with the {@link PowerModel} of the device, which is tabulated per format by {@link
+ * #setFormats} and per chunk ahead by {@link #selectFormat}.
+ * <p>
+ * The states are searched depth first in the order of the server's recursion, with an explicit
+ * stack, and memoized in flat arrays that are stamped with the number of the solve instead of
+ * being cleared. Before a solve, a lower bound of the energy that any path can still add gives,
+ * for each chunk, the lowest energy level from which every path is infeasible. States at or above
+ * it are not searched. The memory is 12 bytes per state and is allocated by {@link #setFormats};
+ * a decision allocates nothing.
+ * <p>
+ * Formats are indexed in ascending order of quality and power, so that format 0 is the one chosen
+ * when no format is feasible. A decision is first solved for the next chunk alone, and then for
+ * the requested horizon. If the time budget runs out during the latter, the former is used.
+ * <p>
+ * The caller describes a decision with {@link #setFormats}, {@link #setChunk} and {@link
+ * #setBufferedFormats} and then calls {@link #selectFormat}. It reports each downloaded chunk with
+ * {@link #onChunkDownloaded}. Not thread safe.
+ */
+public final class EnergyAwareMpc {
+
+    /** The default maximum number of chunks to look ahead. */
+    public static final int DEFAULT_MAX_HORIZON = 5;
+    /** The default number of levels the buffer is discretized into. */
+    public static final int DEFAULT_BUFFER_BINS = 100;
+    /** The default number of levels the energy is discretized into. */
+    public static final int DEFAULT_ENERGY_BINS = 100;
+    /** The default buffer level that is discretized, as on the server. */
+    public static final double DEFAULT_MAX_BUFFER_S = 7.0;
+    /** The default power budget, as in the deployed server configuration. */
+    public static final double DEFAULT_POWER_BUDGET_MW = 450;
+    /** The default weight of a second of rebuffering, in SSIM dB. */
+    public static final double DEFAULT_REBUFFER_COEFF = 20;
+    /** The default weight of the SSIM change between consecutive chunks. */
+    public static final double DEFAULT_SSIM_DIFF_COEFF = 1;
+    /** The default time budget of a decision. */
+    public static final long DEFAULT_DECISION_BUDGET_NS = 20_000_000;
+
+    /** The maximum number of formats of a decision. */
+    public static final int MAX_FORMATS = 20;
+
+    private static final double MIN_ENERGY_MJ = -1000;
+    private static final double MAX_ENERGY_MJ = 1000;
+    private static final double INFEASIBLE = -99999;
+    private static final double HIGH_SENDING_TIME_S = 10000;
+    // Chunks selected before the energy deposit starts to accumulate.
+    private static final int WARM_UP_CHUNKS = 6;
+    // Transitions evaluated between two reads of the clock.
+    private static final int CLOCK_CHECK_INTERVAL = 256;
+
+    private final int maxHorizon;
+    private final int bufferBins;
+    private final int energyBins;
+    private final double unitBufferS;
+    private final double unitEnergyMj;
+    private final double bufferThresholdS;
+    private final double powerBudgetMw;
+    private final double rebufferCoeff;
+    private final double ssimDiffCoeff;
+    private final PowerModel powerModel;
+    private final double netTailMw;
+    private final double netIdleMw;
+    // The radio stays in its tail state for at most this long after a transfer.
+    private final double maxTailTimeS;
+    private final long decisionBudgetNs;
+
+    // The decision, as described by the caller. Chunk 0 is the last downloaded one.
+    private int formatCount;
+    private final double[] videoPowerMw = new double[MAX_FORMATS];
+    private final double[][] ssimDb;
+    private final long[][] chunkBytes;
+    private int[] bufferedFormats = new int[0];
+    private int bufferedCount;
+
+    // Derived per decision.
+    private final double[][] sendingTimeS;
+    private final double[][] netPowerMw;
+    private final int[] lookaheadFormats;
+    private double chunkDurationS;
+    private double sinceLastAckS;
+    private boolean isInit;
+    private int horizon;
+
+    // The lowest energy level from which every path is infeasible, per chunk.
+    private final int[] infeasibleEnergy;
+    private final double[] minEnergyDeltaMj;
+
+    // The memo of chunks 1 to maxHorizon - 1, allocated for the largest format count seen. A state
+    // is memoized if its stamp is the current round.
+    private int memoFormats;
+    private int[] memoRound = new int[0];
+    private double[] memoValue = new double[0];
+    private int round;
+    private int callsUntilClockCheck;
+
+    // The stack of the search, one frame per chunk.
+    private final int[] stackBuffer;
+    private final int[] stackFormat;
+    private final int[] stackEnergy;
+    private final int[] stackMemoIndex;
+    private final int[] stackNextFormat;
+    private final int[] stackBestFormat;
+    private final double[] stackMaxQvalue;
+    // The terms of the q-value of the transition to the next format that precede the value of the
+    // next state, and the SSIM change that follows it, in the order the server adds them.
+    private final double[] stackQvalueHead;
+    private final double[] stackSsimDiff;
+    private long deadlineNs;
+    private boolean timedOut;
+
+    private int prevSelectedFormat;
+    private int selectedCount;
+    private double powerHistoryMw;
+    private double timeHistoryS;
+    private double energyDepositMj;
+    private long lastSolveNs;
+    private int lastSolvedHorizon;
+
+    public EnergyAwareMpc() {
+        this(DEFAULT_MAX_HORIZON, DEFAULT_BUFFER_BINS, DEFAULT_ENERGY_BINS, DEFAULT_MAX_BUFFER_S,
+                DEFAULT_POWER_BUDGET_MW, DEFAULT_REBUFFER_COEFF, DEFAULT_SSIM_DIFF_COEFF,
+                PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH),
+                DEFAULT_DECISION_BUDGET_NS);
+    }
+
+    /**
+     * @param maxHorizon The maximum number of chunks to look ahead.
+     * @param bufferBins The number of levels the buffer is discretized into.
+     * @param energyBins The number of levels the energy is discretized into.
+     * @param maxBufferS The buffer level that is discretized. Higher levels are clamped. It is also
+     *     the level above which the client stops downloading.
+     * @param powerBudgetMw The average power the session should not exceed.
+     * @param rebufferCoeff The weight of a second of rebuffering, in SSIM dB.
+     * @param ssimDiffCoeff The weight of the SSIM change between consecutive chunks.
+     * @param powerModel The power model of the device.
+     * @param decisionBudgetNs The time budget of a decision.
+     */
+    public EnergyAwareMpc(int maxHorizon, int bufferBins, int energyBins, double maxBufferS,
+                          double powerBudgetMw, double rebufferCoeff, double ssimDiffCoeff,
+                          PowerModel powerModel, long decisionBudgetNs) {
+        if (maxHorizon < 1 || bufferBins < 1 || energyBins < 2) {
+            throw new IllegalArgumentException();
+        }
+        this.maxHorizon = maxHorizon;
+        this.bufferBins = bufferBins;
+        this.energyBins = energyBins;
+        this.unitBufferS = maxBufferS / bufferBins;
+        this.unitEnergyMj = (MAX_ENERGY_MJ - MIN_ENERGY_MJ) / energyBins;
+        this.bufferThresholdS = maxBufferS;
+        this.powerBudgetMw = powerBudgetMw;
+        this.rebufferCoeff = rebufferCoeff;
+        this.ssimDiffCoeff = ssimDiffCoeff;
+        this.powerModel = powerModel;
+        this.netTailMw = powerModel.getNetworkTailPowerMw();
+        this.netIdleMw = powerModel.getNetworkIdlePowerMw();
+        this.maxTailTimeS = powerModel.getNetworkTailTimeS();
+        this.decisionBudgetNs = decisionBudgetNs;
+        ssimDb = new double[maxHorizon + 1][MAX_FORMATS];
+        chunkBytes = new long[maxHorizon + 1][MAX_FORMATS];
+        sendingTimeS = new double[maxHorizon + 1][MAX_FORMATS];
+        netPowerMw = new double[maxHorizon + 1][MAX_FORMATS];
+        lookaheadFormats = new int[maxHorizon + 1];
+        infeasibleEnergy = new int[maxHorizon + 1];
+        minEnergyDeltaMj = new double[maxHorizon];
+        stackBuffer = new int[maxHorizon];
+        stackFormat = new int[maxHorizon];
+        stackEnergy = new int[maxHorizon];
+        stackMemoIndex = new int[maxHorizon];
+        stackNextFormat = new int[maxHorizon];
+        stackBestFormat = new int[maxHorizon];
+        stackMaxQvalue = new double[maxHorizon];
+        stackQvalueHead = new double[maxHorizon];
+        stackSsimDiff = new double[maxHorizon];
+    }
+
+    /** Returns the maximum number of chunks to look ahead. */
+    public int getMaxHorizon() {
+        return maxHorizon;
+    }
+
+    /**
+     * Sets the formats of the next decisions, with unknown bitrates.
+     *
+     * @see #setFormats(int, int[], int[])
+     */
+    public void setFormats(int count, int[] widths) {
+        setFormats(count, widths, /* bitrates= */ null);
+    }
+
+    /**
+     * Sets the formats of the next decisions.
+     *
+     * @param count The number of formats.
+     * @param widths The widths of the formats, in ascending order of quality.
+     * @param bitrates The bitrates of the formats, or null if unknown. Elements may be {@link
+     *     Format#NO_VALUE}.
+     */
+    public void setFormats(int count, int[] widths, int[] bitrates) {
+        if (count < 1 || count > MAX_FORMATS) {
+            throw new IllegalArgumentException("Format count " + count);
+        }
+        formatCount = count;
+        for (int i = 0; i < count; i++) {
+            videoPowerMw[i] = powerModel.getVideoPowerMw(widths[i],
+                    bitrates == null ? Format.NO_VALUE : bitrates[i]);
+        }
+        if (count > memoFormats) {
+            memoFormats = count;
+            int states = (maxHorizon - 1) * (bufferBins + 1) * count * energyBins;
+            memoRound = new int[states];
+            memoValue = new double[states];
+            round = 0;
+        }
+    }
+
+    /**
+     * Describes a chunk ahead.
+     *
+     * @param chunk The position of the chunk, from 1 for the next one to download up to the
+     *     horizon.
+     * @param format The format.
+     * @param chunkSsimDb The SSIM of the chunk in this format, in dB.
+     * @param bytes The size of the chunk in this format.
+     */
+    public void setChunk(int chunk, int format, double chunkSsimDb, long bytes) {
+        ssimDb[chunk][format] = chunkSsimDb;
+        chunkBytes[chunk][format] = bytes;
+    }
+
+    /**
+     * Sets the formats of the chunks that are buffered but not played yet, from the one being
+     * played. They determine the decoding power while the next chunks are downloaded.
+     *
+     * @param formats The formats. The array is kept, not copied.
+     * @param count The number of buffered chunks.
+     */
+    public void setBufferedFormats(int[] formats, int count) {
+        bufferedFormats = formats;
+        bufferedCount = count;
+    }
+
+    /**
+     * Selects the format of the next chunk.
+     *
+     * @param horizon The number of chunks ahead described by {@link #setChunk}, at most {@link
+     *     #getMaxHorizon()}.
+     * @param bufferS The buffered duration.
+     * @param chunkDurationS The duration of a chunk.
+     * @param secondsPerByte The predicted transfer time of a byte, or a non-positive value if
+     *     nothing has been downloaded yet.
+     * @param sinceLastDownloadS The time since the last chunk finished downloading, during which the
+     *     radio has been idle.
+     * @param lastSsimDb The SSIM in dB of the last downloaded chunk, or {@link Double#NaN} if none.
+     * @return The selected format.
+     */
+    public int selectFormat(int horizon, double bufferS, double chunkDurationS,
+                            double secondsPerByte, double sinceLastDownloadS, double lastSsimDb) {
+        long startNs = System.nanoTime();
+        this.chunkDurationS = chunkDurationS;
+        this.sinceLastAckS = selectedCount == 0 ? 0 : sinceLastDownloadS;
+        isInit = Double.isNaN(lastSsimDb);
+        ssimDb[0][0] = isInit ? 0 : lastSsimDb;
+        double unitSendingTimeS = secondsPerByte > 0 ? secondsPerByte : HIGH_SENDING_TIME_S;
+        horizon = Math.max(1, Math.min(horizon, maxHorizon));
+        for (int i = 1; i <= horizon; i++) {
+            for (int j = 0; j < formatCount; j++) {
+                long bytes = chunkBytes[i][j];
+                sendingTimeS[i][j] = bytes * unitSendingTimeS;
+                netPowerMw[i][j] = powerModel.getNetworkActivePowerMw(bytes, sendingTimeS[i][j]);
+            }
+        }
+        int buffer = Math.min(bufferBins, discretizeBuffer(Math.max(0, bufferS)));
+
+        deadlineNs = decisionBudgetNs > Long.MAX_VALUE - startNs ? Long.MAX_VALUE
+                : startNs + decisionBudgetNs;
+        timedOut = false;
+        callsUntilClockCheck = CLOCK_CHECK_INTERVAL;
+        int format = 0;
+        lastSolvedHorizon = 0;
+        if (horizon > 1) {
+            int candidate = solve(/* horizon= */ 1, buffer, energyBins / 2);
+            if (!timedOut) {
+                format = candidate;
+                lastSolvedHorizon = 1;
+            }
+        }
+        int candidate = solve(horizon, buffer, energyBins / 2);
+        if (!timedOut) {
+            format = candidate;
+            lastSolvedHorizon = horizon;
+        }
+
+        if (format > prevSelectedFormat) {
+            format = prevSelectedFormat + 1;
+        }
+        prevSelectedFormat = format;
+        selectedCount++;
+        lastSolveNs = System.nanoTime() - startNs;
+        return format;
+    }
+
+    /**
+     * Accounts for the energy of a downloaded chunk and updates the energy deposit.
+     *
+     * @param format The format of the chunk.
+     * @param bytes The size of the chunk.
+     * @param transferTimeS The time the chunk took to download.
+     * @param durationS The time since the previous chunk finished downloading.
+     * @param playingFormat The format being played, which determines the decoding power.
+     */
+    public void onChunkDownloaded(int format, long bytes, double transferTimeS, double durationS,
+                                  int playingFormat) {
+        if (durationS > 0) {
+            double idleTimeS = Math.max(0, durationS - transferTimeS);
+            double tailTimeS = Math.min(idleTimeS, maxTailTimeS);
+            idleTimeS -= tailTimeS;
+            double chunkEnergyMj = powerModel.getNetworkActivePowerMw(bytes, transferTimeS)
+                    * transferTimeS + netTailMw * tailTimeS + netIdleMw * idleTimeS
+                    + videoPowerMw[playingFormat] * durationS;
+            double energyMj = powerHistoryMw * timeHistoryS + chunkEnergyMj;
+            timeHistoryS += durationS;
+            powerHistoryMw = energyMj / timeHistoryS;
+        }
+        if (selectedCount >= WARM_UP_CHUNKS) {
+            energyDepositMj = (powerBudgetMw - powerHistoryMw) * timeHistoryS;
+        } else {
+            powerHistoryMw = 0;
+            timeHistoryS = 0;
+            energyDepositMj = 0;
+        }
+    }
+
+    /** Returns the energy saved so far by staying below the power budget. */
+    public double getEnergyDepositMj() {
+        return energyDepositMj;
+    }
+
+    /** Returns the average power of the session since the warm-up. */
+    public double getAveragePowerMw() {
+        return powerHistoryMw;
+    }
+
+    /** Returns the time the last call to {@link #selectFormat} took. */
+    public long getLastDecisionNs() {
+        return lastSolveNs;
+    }
+
+    /**
+     * Returns the longest horizon solved by the last call to {@link #selectFormat}, which is less
+     * than the requested one if the time budget ran out. 0 means that not even the next chunk was
+     * solved and the lowest format was selected.
+     */
+    public int getLastSolvedHorizon() {
+        return lastSolvedHorizon;
+    }
+
+    /**
+     * Searches the states reachable from chunk 0 in the given buffer and energy levels, and returns
+     * the best format of chunk 1.
+     */
+    private int solve(int horizon, int buffer, int energy) {
+        this.horizon = horizon;
+        round++;
+        computeInfeasibleEnergy();
+        if (energy >= infeasibleEnergy[0]) {
+            return 0;
+        }
+        int depth = 0;
+        push(0, buffer, 0, energy, /* memoIndex= */ -1);
+        while (true) {
+            int i = depth;
+            int nextFormat = stackNextFormat[i];
+            if (nextFormat == formatCount) {
+                // All transitions evaluated: store the value and return it to the previous chunk.
+                double value = stackMaxQvalue[i];
+                if (i == 0) {
+                    // No feasible path: fall back to the format that draws the least power.
+                    return value >= 0 ? stackBestFormat[0] : 0;
+                }
+                memoValue[stackMemoIndex[i]] = value;
+                depth--;
+                addQvalue(depth, stackQvalueHead[depth] + value - stackSsimDiff[depth]);
+                continue;
+            }
+            if (--callsUntilClockCheck == 0) {
+                callsUntilClockCheck = CLOCK_CHECK_INTERVAL;
+                timedOut |= System.nanoTime() > deadlineNs;
+                if (timedOut) {
+                    return 0;
+                }
+            }
+            lookaheadFormats[i + 1] = nextFormat;
+
+            int format = stackFormat[i];
+            double transTimeS = sendingTimeS[i + 1][nextFormat];
+            double rebufferS = transTimeS - stackBuffer[i] * unitBufferS;
+            double idleTimeS = i == 0 ? sinceLastAckS : 0;
+            if (rebufferS > bufferThresholdS) {
+                idleTimeS += rebufferS - bufferThresholdS;
+            }
+            double tailTimeS = Math.min(Math.max(idleTimeS, 0), maxTailTimeS);
+            idleTimeS = Math.max(idleTimeS - tailTimeS, 0);
+            double estTimeS = transTimeS + tailTimeS + idleTimeS;
+            double estEnergyMj = MIN_ENERGY_MJ + stackEnergy[i] * unitEnergyMj + unitEnergyMj * 0.5;
+            estEnergyMj += netPowerMw[i + 1][nextFormat] * transTimeS + netTailMw * tailTimeS
+                    + netIdleMw * idleTimeS;
+            estEnergyMj += getPlayingVideoPowerMw(i) * estTimeS;
+            estEnergyMj -= powerBudgetMw * estTimeS;
+            if (i == horizon - 1 && estEnergyMj > energyDepositMj) {
+                addQvalue(i, INFEASIBLE);
+                continue;
+            }
+            double qvalueHead = ssimDb[i][format] - rebufferCoeff * Math.max(0, rebufferS);
+            double ssimDiff = !isInit || i != 0
+                    ? ssimDiffCoeff * Math.abs(ssimDb[i][format] - ssimDb[i + 1][nextFormat]) : 0;
+            double nextValue;
+            if (i + 1 == horizon) {
+                nextValue = ssimDb[i + 1][nextFormat];
+            } else {
+                int nextEnergy = discretizeEnergy(estEnergyMj);
+                if (nextEnergy >= infeasibleEnergy[i + 1]) {
+                    nextValue = INFEASIBLE;
+                } else {
+                    int nextBuffer = Math.min(bufferBins,
+                            discretizeBuffer(Math.max(0, -rebufferS + chunkDurationS)));
+                    int memoIndex = getMemoIndex(i + 1, nextBuffer, nextFormat, nextEnergy);
+                    if (memoRound[memoIndex] == round) {
+                        nextValue = memoValue[memoIndex];
+                    } else {
+                        memoRound[memoIndex] = round;
+                        stackQvalueHead[i] = qvalueHead;
+                        stackSsimDiff[i] = ssimDiff;
+                        depth++;
+                        push(depth, nextBuffer, nextFormat, nextEnergy, memoIndex);
+                        continue;
+                    }
+                }
+            }
+            addQvalue(i, qvalueHead + nextValue - ssimDiff);
+        }
+    }
+
+    private void push(int i, int buffer, int format, int energy, int memoIndex) {
+        stackBuffer[i] = buffer;
+        stackFormat[i] = format;
+        stackEnergy[i] = energy;
+        stackMemoIndex[i] = memoIndex;
+        stackNextFormat[i] = 0;
+        stackBestFormat[i] = formatCount;
+        stackMaxQvalue[i] = 0;
+        lookaheadFormats[i] = format;
+    }
+
+    /** Accounts for the q-value of the transition being evaluated at chunk {@code i}. */
+    private void addQvalue(int i, double qvalue) {
+        if (stackBestFormat[i] == formatCount || qvalue > stackMaxQvalue[i]) {
+            stackMaxQvalue[i] = qvalue;
+            stackBestFormat[i] = stackNextFormat[i];
+        }
+        stackNextFormat[i]++;
+    }
+
+    /**
+     * Returns the energy spent beyond the budget while chunk {@code i + 1} is downloaded, plus the
+     * tail and idle time before it, as {@link #solve} adds it up.
+     */
+    private double getEnergyDeltaMj(int i, int nextFormat, double rebufferS,
+                                    double videoPowerMw) {
+        double transTimeS = sendingTimeS[i + 1][nextFormat];
+        double idleTimeS = i == 0 ? sinceLastAckS : 0;
+        if (rebufferS > bufferThresholdS) {
+            idleTimeS += rebufferS - bufferThresholdS;
+        }
+        double tailTimeS = Math.min(Math.max(idleTimeS, 0), maxTailTimeS);
+        idleTimeS = Math.max(idleTimeS - tailTimeS, 0);
+        double estTimeS = transTimeS + tailTimeS + idleTimeS;
+        return netPowerMw[i + 1][nextFormat] * transTimeS + netTailMw * tailTimeS
+                + netIdleMw * idleTimeS + videoPowerMw * estTimeS - powerBudgetMw * estTimeS;
+    }
+
+    /**
+     * Computes {@link #infeasibleEnergy} for the current horizon.
+     * <p>
+     * The energy a transition adds is bounded below by its minimum over the next format, over the
+     * buffer level and over the decoding power. As a function of the buffer level it is piecewise
+     * linear, so the minimum is at the ends of the buffer range or where the radio starts to idle
+     * or leaves its tail state. Discretizing the energy of a state loses at most half a level, and
+     * clamping it to the highest level loses the rest. A state is infeasible if even the lowest
+     * energy it can reach at the end of the horizon exceeds the deposit. That is monotone in the
+     * energy level, so a binary search finds the lowest infeasible level.
+     */
+    private void computeInfeasibleEnergy() {
+        double minVideoPowerMw = Double.MAX_VALUE;
+        for (int j = 0; j < formatCount; j++) {
+            minVideoPowerMw = Math.min(minVideoPowerMw, videoPowerMw[j]);
+        }
+        double maxBufferS = bufferBins * unitBufferS;
+        for (int i = 0; i < horizon; i++) {
+            double minDeltaMj = Double.MAX_VALUE;
+            double idleBeforeS = i == 0 ? sinceLastAckS : 0;
+            for (int j = 0; j < formatCount; j++) {
+                double transTimeS = sendingTimeS[i + 1][j];
+                double idleStartS = transTimeS - bufferThresholdS;
+                minDeltaMj = Math.min(minDeltaMj, Math.min(
+                        Math.min(getEnergyDeltaMj(i, j, transTimeS, minVideoPowerMw),
+                                getEnergyDeltaMj(i, j, transTimeS - maxBufferS, minVideoPowerMw)),
+                        Math.min(getEnergyDeltaMj(i, j,
+                                transTimeS - clamp(idleStartS, maxBufferS), minVideoPowerMw),
+                                getEnergyDeltaMj(i, j, transTimeS - clamp(
+                                        idleStartS + idleBeforeS - maxTailTimeS, maxBufferS),
+                                        minVideoPowerMw))));
+            }
+            minEnergyDeltaMj[i] = minDeltaMj;
+        }
+        for (int i = 0; i < horizon; i++) {
+            int low = 0;
+            int high = energyBins;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (isInfeasible(i, middle)) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            infeasibleEnergy[i] = low;
+        }
+    }
+
+    /** Returns whether every path from chunk {@code i} at the given energy level is infeasible. */
+    private boolean isInfeasible(int i, int energy) {
+        double energyMj = MIN_ENERGY_MJ + energy * unitEnergyMj + unitEnergyMj * 0.5;
+        for (int j = i; j < horizon - 1; j++) {
+            energyMj = Math.min(energyMj + minEnergyDeltaMj[j] - unitEnergyMj * 0.5,
+                    MAX_ENERGY_MJ - unitEnergyMj * 0.5);
+        }
+        return energyMj + minEnergyDeltaMj[horizon - 1] > energyDepositMj;
+    }
+
+    private int getMemoIndex(int i, int buffer, int format, int energy) {
+        return (((i - 1) * (bufferBins + 1) + buffer) * memoFormats + format) * energyBins + energy;
+    }
+
+    /**
+     * Returns the decoding power while chunk {@code i} ahead is downloaded: that of the buffered
+     * chunk being played then, or of the lookahead chunk once the buffer has been played out.
+     */
+    private double getPlayingVideoPowerMw(int i) {
+        if (i < bufferedCount) {
+            return videoPowerMw[bufferedFormats[i]];
+        }
+        int lookahead = i - bufferedCount;
+        return videoPowerMw[lookahead >= maxHorizon ? 0 : lookaheadFormats[lookahead + 1]];
+    }
+
+    private static double clamp(double bufferS, double maxBufferS) {
+        return Math.max(0, Math.min(bufferS, maxBufferS));
+    }
+
+    private int discretizeBuffer(double bufferS) {
+        return (int) ((bufferS + unitBufferS * 0.5) / unitBufferS);
+    }
+
+    private int discretizeEnergy(double energyMj) {
+        if (energyMj >= MAX_ENERGY_MJ) {
+            return energyBins - 1;
+        }
+        if (energyMj < MIN_ENERGY_MJ) {
+            return 0;
+        }
+        return Math.min(energyBins - 1, (int) ((energyMj - MIN_ENERGY_MJ) / unitEnergyMj));
+    }
+}
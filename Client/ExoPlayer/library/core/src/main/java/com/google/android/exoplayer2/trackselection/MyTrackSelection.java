@@ -6,19 +6,36 @@ import android.util.Log;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.power.PowerModel;
 import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityProvider;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityStore;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.ChunkThroughputPredictor;
 import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.Util;
 
 import java.util.List;
 
+/**
+ * Selects video tracks with the energy-aware MPC of the Puffer server ({@link EnergyAwareMpc}), so
+ * that the same ABR runs against plain DASH/HTTP servers.
+ * <p>
+ * Chunk sizes are read from the {@link MediaChunkIterator}s where the manifest declares them, or
+ * from the {@link ChunkQualityStore} if the {@link ChunkQualityProvider} is one, and are otherwise
+ * estimated from the bitrate of the format. SSIMs come from the {@link ChunkQualityProvider}. The
+ * transfer time of a byte is predicted from the {@link BandwidthMeter}, with the robust prediction
+ * if it is a {@link ChunkThroughputPredictor}.
+ * <p>
+ * Tracks other than video, to which the power model does not apply, are selected as the highest
+ * bitrate that fits into a fraction of the estimated bandwidth.
+ */
 public class MyTrackSelection extends BaseTrackSelection {
 
     private static String TAG = "MyTrackSelection";
-    private static int num_rounds = 0;
 
     /**
      * Factory for {@link MyTrackSelection} instances.
@@ -27,23 +44,23 @@ public class MyTrackSelection extends BaseTrackSelection {
 
         private final @Nullable
         BandwidthMeter bandwidthMeter;
-        private final int minDurationForQualityIncreaseMs;
-        private final int maxDurationForQualityDecreaseMs;
-        private final int minDurationToRetainAfterDiscardMs;
-        private final float bandwidthFraction;
-        private final float bufferedFractionToLiveEdgeForQualityIncrease;
-        private final long minTimeBetweenBufferReevaluationMs;
+        private final ChunkQualityProvider qualityProvider;
+        private final int maxHorizon;
+        private final double powerBudgetMw;
+        private final double rebufferCoeff;
+        private final double ssimDiffCoeff;
+        private final PowerModel powerModel;
+        private final long decisionBudgetMs;
         private final Clock clock;
 
-        /** Creates an adaptive track selection factory with default parameters. */
+        /** Creates a track selection factory with default parameters. */
         public Factory() {
             this(
-                    DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
-                    DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
-                    DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
-                    DEFAULT_BANDWIDTH_FRACTION,
-                    DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
-                    DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
+                    ChunkQualityProvider.BITRATE_ESTIMATE,
+                    EnergyAwareMpc.DEFAULT_MAX_HORIZON,
+                    EnergyAwareMpc.DEFAULT_POWER_BUDGET_MW,
+                    PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH),
+                    DEFAULT_DECISION_BUDGET_MS,
                     Clock.DEFAULT);
         }
 
@@ -52,140 +69,100 @@ public class MyTrackSelection extends BaseTrackSelection {
          *     to the player in {@link ExoPlayerFactory}.
          */
         @Deprecated
-        @SuppressWarnings("deprecation")
         public Factory(BandwidthMeter bandwidthMeter) {
             this(
                     bandwidthMeter,
-                    DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
-                    DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
-                    DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
-                    DEFAULT_BANDWIDTH_FRACTION,
-                    DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
-                    DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
+                    ChunkQualityProvider.BITRATE_ESTIMATE,
+                    EnergyAwareMpc.DEFAULT_MAX_HORIZON,
+                    EnergyAwareMpc.DEFAULT_POWER_BUDGET_MW,
+                    EnergyAwareMpc.DEFAULT_REBUFFER_COEFF,
+                    EnergyAwareMpc.DEFAULT_SSIM_DIFF_COEFF,
+                    PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH),
+                    DEFAULT_DECISION_BUDGET_MS,
                     Clock.DEFAULT);
         }
 
         /**
-         * Creates an adaptive track selection factory.
+         * Creates a track selection factory.
          *
-         * @param minDurationForQualityIncreaseMs The minimum duration of buffered data required for the
-         *     selected track to switch to one of higher quality.
-         * @param maxDurationForQualityDecreaseMs The maximum duration of buffered data required for the
-         *     selected track to switch to one of lower quality.
-         * @param minDurationToRetainAfterDiscardMs When switching to a track of significantly higher
-         *     quality, the selection may indicate that media already buffered at the lower quality can
-         *     be discarded to speed up the switch. This is the minimum duration of media that must be
-         *     retained at the lower quality.
-         * @param bandwidthFraction The fraction of the available bandwidth that the selection should
-         *     consider available for use. Setting to a value less than 1 is recommended to account for
-         *     inaccuracies in the bandwidth estimator.
+         * @param qualityProvider Provides the SSIM of the chunks.
+         * @param maxHorizon The maximum number of chunks to look ahead.
+         * @param powerBudgetMw The average power the session should not exceed.
+         * @param powerModel The power model of the device.
+         * @param decisionBudgetMs The time budget of a decision. If it runs out, the decision is
+         *     based on a shorter horizon.
+         * @param clock A {@link Clock}.
          */
         public Factory(
-                int minDurationForQualityIncreaseMs,
-                int maxDurationForQualityDecreaseMs,
-                int minDurationToRetainAfterDiscardMs,
-                float bandwidthFraction) {
-            this(
-                    minDurationForQualityIncreaseMs,
-                    maxDurationForQualityDecreaseMs,
-                    minDurationToRetainAfterDiscardMs,
-                    bandwidthFraction,
-                    DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
-                    DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
-                    Clock.DEFAULT);
-        }
-
-        /**
-         * @deprecated Use {@link #Factory(int, int, int, float)} instead. Custom bandwidth meter should
-         *     be directly passed to the player in {@link ExoPlayerFactory}.
-         */
-        @Deprecated
-        @SuppressWarnings("deprecation")
-        public Factory(
-                BandwidthMeter bandwidthMeter,
-                int minDurationForQualityIncreaseMs,
-                int maxDurationForQualityDecreaseMs,
-                int minDurationToRetainAfterDiscardMs,
-                float bandwidthFraction) {
+                ChunkQualityProvider qualityProvider,
+                int maxHorizon,
+                double powerBudgetMw,
+                PowerModel powerModel,
+                long decisionBudgetMs,
+                Clock clock) {
             this(
-                    bandwidthMeter,
-                    minDurationForQualityIncreaseMs,
-                    maxDurationForQualityDecreaseMs,
-                    minDurationToRetainAfterDiscardMs,
-                    bandwidthFraction,
-                    DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
-                    DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
-                    Clock.DEFAULT);
+                    qualityProvider,
+                    maxHorizon,
+                    powerBudgetMw,
+                    EnergyAwareMpc.DEFAULT_REBUFFER_COEFF,
+                    EnergyAwareMpc.DEFAULT_SSIM_DIFF_COEFF,
+                    powerModel,
+                    decisionBudgetMs,
+                    clock);
         }
 
         /**
-         * Creates an adaptive track selection factory.
+         * Creates a track selection factory.
          *
-         * @param minDurationForQualityIncreaseMs The minimum duration of buffered data required for the
-         *     selected track to switch to one of higher quality.
-         * @param maxDurationForQualityDecreaseMs The maximum duration of buffered data required for the
-         *     selected track to switch to one of lower quality.
-         * @param minDurationToRetainAfterDiscardMs When switching to a track of significantly higher
-         *     quality, the selection may indicate that media already buffered at the lower quality can
-         *     be discarded to speed up the switch. This is the minimum duration of media that must be
-         *     retained at the lower quality.
-         * @param bandwidthFraction The fraction of the available bandwidth that the selection should
-         *     consider available for use. Setting to a value less than 1 is recommended to account for
-         *     inaccuracies in the bandwidth estimator.
-         * @param bufferedFractionToLiveEdgeForQualityIncrease For live streaming, the fraction of the
-         *     duration from current playback position to the live edge that has to be buffered before
-         *     the selected track can be switched to one of higher quality. This parameter is only
-         *     applied when the playback position is closer to the live edge than {@code
-         *     minDurationForQualityIncreaseMs}, which would otherwise prevent switching to a higher
-         *     quality from happening.
-         * @param minTimeBetweenBufferReevaluationMs The track selection may periodically reevaluate its
-         *     buffer and discard some chunks of lower quality to improve the playback quality if
-         *     network conditions have changed. This is the minimum duration between 2 consecutive
-         *     buffer reevaluation calls.
+         * @param qualityProvider Provides the SSIM of the chunks.
+         * @param maxHorizon The maximum number of chunks to look ahead.
+         * @param powerBudgetMw The average power the session should not exceed.
+         * @param rebufferCoeff The weight of a second of rebuffering, in SSIM dB.
+         * @param ssimDiffCoeff The weight of the SSIM change between consecutive chunks.
+         * @param powerModel The power model of the device.
+         * @param decisionBudgetMs The time budget of a decision. If it runs out, the decision is
+         *     based on a shorter horizon.
          * @param clock A {@link Clock}.
          */
-        @SuppressWarnings("deprecation")
         public Factory(
-                int minDurationForQualityIncreaseMs,
-                int maxDurationForQualityDecreaseMs,
-                int minDurationToRetainAfterDiscardMs,
-                float bandwidthFraction,
-                float bufferedFractionToLiveEdgeForQualityIncrease,
-                long minTimeBetweenBufferReevaluationMs,
+                ChunkQualityProvider qualityProvider,
+                int maxHorizon,
+                double powerBudgetMw,
+                double rebufferCoeff,
+                double ssimDiffCoeff,
+                PowerModel powerModel,
+                long decisionBudgetMs,
                 Clock clock) {
             this(
                     /* bandwidthMeter= */ null,
-                    minDurationForQualityIncreaseMs,
-                    maxDurationForQualityDecreaseMs,
-                    minDurationToRetainAfterDiscardMs,
-                    bandwidthFraction,
-                    bufferedFractionToLiveEdgeForQualityIncrease,
-                    minTimeBetweenBufferReevaluationMs,
+                    qualityProvider,
+                    maxHorizon,
+                    powerBudgetMw,
+                    rebufferCoeff,
+                    ssimDiffCoeff,
+                    powerModel,
+                    decisionBudgetMs,
                     clock);
         }
 
-        /**
-         * @deprecated Use {@link #Factory(int, int, int, float, float, long, Clock)} instead. Custom
-         *     bandwidth meter should be directly passed to the player in {@link ExoPlayerFactory}.
-         */
-        @Deprecated
-        public Factory(
+        private Factory(
                 @Nullable BandwidthMeter bandwidthMeter,
-                int minDurationForQualityIncreaseMs,
-                int maxDurationForQualityDecreaseMs,
-                int minDurationToRetainAfterDiscardMs,
-                float bandwidthFraction,
-                float bufferedFractionToLiveEdgeForQualityIncrease,
-                long minTimeBetweenBufferReevaluationMs,
+                ChunkQualityProvider qualityProvider,
+                int maxHorizon,
+                double powerBudgetMw,
+                double rebufferCoeff,
+                double ssimDiffCoeff,
+                PowerModel powerModel,
+                long decisionBudgetMs,
                 Clock clock) {
             this.bandwidthMeter = bandwidthMeter;
-            this.minDurationForQualityIncreaseMs = minDurationForQualityIncreaseMs;
-            this.maxDurationForQualityDecreaseMs = maxDurationForQualityDecreaseMs;
-            this.minDurationToRetainAfterDiscardMs = minDurationToRetainAfterDiscardMs;
-            this.bandwidthFraction = bandwidthFraction;
-            this.bufferedFractionToLiveEdgeForQualityIncrease =
-                    bufferedFractionToLiveEdgeForQualityIncrease;
-            this.minTimeBetweenBufferReevaluationMs = minTimeBetweenBufferReevaluationMs;
+            this.qualityProvider = qualityProvider;
+            this.maxHorizon = maxHorizon;
+            this.powerBudgetMw = powerBudgetMw;
+            this.rebufferCoeff = rebufferCoeff;
+            this.ssimDiffCoeff = ssimDiffCoeff;
+            this.powerModel = powerModel;
+            this.decisionBudgetMs = decisionBudgetMs;
             this.clock = clock;
         }
 
@@ -195,40 +172,39 @@ public class MyTrackSelection extends BaseTrackSelection {
             if (this.bandwidthMeter != null) {
                 bandwidthMeter = this.bandwidthMeter;
             }
-            return new MyTrackSelection(
-                    group,
-                    tracks,
-                    bandwidthMeter,
-                    minDurationForQualityIncreaseMs,
-                    maxDurationForQualityDecreaseMs,
-                    minDurationToRetainAfterDiscardMs,
-                    bandwidthFraction,
-                    bufferedFractionToLiveEdgeForQualityIncrease,
-                    minTimeBetweenBufferReevaluationMs,
-                    clock);
+            EnergyAwareMpc mpc = new EnergyAwareMpc(
+                    maxHorizon,
+                    EnergyAwareMpc.DEFAULT_BUFFER_BINS,
+                    EnergyAwareMpc.DEFAULT_ENERGY_BINS,
+                    EnergyAwareMpc.DEFAULT_MAX_BUFFER_S,
+                    powerBudgetMw,
+                    rebufferCoeff,
+                    ssimDiffCoeff,
+                    powerModel,
+                    decisionBudgetMs * 1_000_000);
+            return new MyTrackSelection(group, tracks, bandwidthMeter, qualityProvider, mpc, clock);
         }
     }
 
-    public static final int DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS = 10000;
-    public static final int DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS = 25000;
-    public static final int DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS = 25000;
+    /** The default time budget of a decision. */
+    public static final long DEFAULT_DECISION_BUDGET_MS = 20;
+    /** The chunk duration assumed when neither the queue nor the iterators tell it. */
+    public static final long DEFAULT_CHUNK_DURATION_US = 2_002_000;
+    /** The fraction of the estimated bandwidth that tracks other than video may use. */
     public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
-    public static final float DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE = 0.75f;
-    public static final long DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS = 2000;
 
     private final BandwidthMeter bandwidthMeter;
-    private final long minDurationForQualityIncreaseUs;
-    private final long maxDurationForQualityDecreaseUs;
-    private final long minDurationToRetainAfterDiscardUs;
-    private final float bandwidthFraction;
-    private final float bufferedFractionToLiveEdgeForQualityIncrease;
-    private final long minTimeBetweenBufferReevaluationMs;
+    private final ChunkQualityProvider qualityProvider;
+    private final EnergyAwareMpc mpc;
     private final Clock clock;
+    private final int[] bufferedFormats;
+    private final boolean isVideo;
 
     private float playbackSpeed;
     private int selectedIndex;
     private int reason;
-    private long lastBufferEvaluationMs;
+    private long lastDownloadedChunkStartUs;
+    private long lastDownloadMs;
 
     /**
      * @param group The {@link TrackGroup}.
@@ -238,17 +214,8 @@ public class MyTrackSelection extends BaseTrackSelection {
      */
     public MyTrackSelection(TrackGroup group, int[] tracks,
                                   BandwidthMeter bandwidthMeter) {
-        this(
-                group,
-                tracks,
-                bandwidthMeter,
-                DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
-                DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
-                DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
-                DEFAULT_BANDWIDTH_FRACTION,
-                DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
-                DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
-                Clock.DEFAULT);
+        this(group, tracks, bandwidthMeter, ChunkQualityProvider.BITRATE_ESTIMATE,
+                new EnergyAwareMpc(), Clock.DEFAULT);
     }
 
     /**
@@ -256,60 +223,42 @@ public class MyTrackSelection extends BaseTrackSelection {
      * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
      *     empty. May be in any order.
      * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
-     * @param minDurationForQualityIncreaseMs The minimum duration of buffered data required for the
-     *     selected track to switch to one of higher quality.
-     * @param maxDurationForQualityDecreaseMs The maximum duration of buffered data required for the
-     *     selected track to switch to one of lower quality.
-     * @param minDurationToRetainAfterDiscardMs When switching to a track of significantly higher
-     *     quality, the selection may indicate that media already buffered at the lower quality can be
-     *     discarded to speed up the switch. This is the minimum duration of media that must be
-     *     retained at the lower quality.
-     * @param bandwidthFraction The fraction of the available bandwidth that the selection should
-     *     consider available for use. Setting to a value less than 1 is recommended to account for
-     *     inaccuracies in the bandwidth estimator.
-     * @param bufferedFractionToLiveEdgeForQualityIncrease For live streaming, the fraction of the
-     *     duration from current playback position to the live edge that has to be buffered before the
-     *     selected track can be switched to one of higher quality. This parameter is only applied
-     *     when the playback position is closer to the live edge than {@code
-     *     minDurationForQualityIncreaseMs}, which would otherwise prevent switching to a higher
-     *     quality from happening.
-     * @param minTimeBetweenBufferReevaluationMs The track selection may periodically reevaluate its
-     *     buffer and discard some chunks of lower quality to improve the playback quality if network
-     *     condition has changed. This is the minimum duration between 2 consecutive buffer
-     *     reevaluation calls.
+     * @param qualityProvider Provides the SSIM of the chunks.
+     * @param mpc The {@link EnergyAwareMpc} that makes the decisions. Must not be shared.
+     * @param clock A {@link Clock}.
      */
     public MyTrackSelection(
             TrackGroup group,
             int[] tracks,
             BandwidthMeter bandwidthMeter,
-            long minDurationForQualityIncreaseMs,
-            long maxDurationForQualityDecreaseMs,
-            long minDurationToRetainAfterDiscardMs,
-            float bandwidthFraction,
-            float bufferedFractionToLiveEdgeForQualityIncrease,
-            long minTimeBetweenBufferReevaluationMs,
+            ChunkQualityProvider qualityProvider,
+            EnergyAwareMpc mpc,
             Clock clock) {
         super(group, tracks);
         this.bandwidthMeter = bandwidthMeter;
-        this.minDurationForQualityIncreaseUs = minDurationForQualityIncreaseMs * 1000L;
-        this.maxDurationForQualityDecreaseUs = maxDurationForQualityDecreaseMs * 1000L;
-        this.minDurationToRetainAfterDiscardUs = minDurationToRetainAfterDiscardMs * 1000L;
-        this.bandwidthFraction = bandwidthFraction;
-        this.bufferedFractionToLiveEdgeForQualityIncrease =
-                bufferedFractionToLiveEdgeForQualityIncrease;
-        this.minTimeBetweenBufferReevaluationMs = minTimeBetweenBufferReevaluationMs;
+        this.qualityProvider = qualityProvider;
+        this.mpc = mpc;
         this.clock = clock;
+        // Only the chunks played during the horizon matter.
+        bufferedFormats = new int[mpc.getMaxHorizon()];
+        Format format = getFormat(0);
+        isVideo = MimeTypes.isVideo(format.sampleMimeType)
+                || MimeTypes.isVideo(format.containerMimeType);
+        if (isVideo) {
+            int[] widths = new int[length];
+            int[] bitrates = new int[length];
+            for (int i = 0; i < length; i++) {
+                widths[toMpcFormat(i)] = getFormat(i).width;
+                bitrates[toMpcFormat(i)] = getFormat(i).bitrate;
+            }
+            mpc.setFormats(length, widths, bitrates);
+        }
         playbackSpeed = 1f;
+        // Video starts from the format that draws the least power, as the MPC does.
+        selectedIndex = isVideo ? length - 1 : determineIdealSelectedIndex(Long.MIN_VALUE);
         reason = C.SELECTION_REASON_INITIAL;
-        lastBufferEvaluationMs = C.TIME_UNSET;
-        @SuppressWarnings("nullness:method.invocation.invalid")
-        int selectedIndex = determineIdealSelectedIndex(Long.MIN_VALUE);
-        this.selectedIndex = selectedIndex;
-    }
-
-    @Override
-    public void enable() {
-        lastBufferEvaluationMs = C.TIME_UNSET;
+        lastDownloadedChunkStartUs = C.TIME_UNSET;
+        lastDownloadMs = C.TIME_UNSET;
     }
 
     @Override
@@ -324,41 +273,68 @@ public class MyTrackSelection extends BaseTrackSelection {
             long availableDurationUs,
             List<? extends MediaChunk> queue,
             MediaChunkIterator[] mediaChunkIterators) {
-        num_rounds = (num_rounds + 1) % 4;
-        selectedIndex = num_rounds;
-        Log.e(TAG, "Jiayi: updateSelectedTrack, num_rounds: " + Integer.toString(num_rounds));
-
         long nowMs = clock.elapsedRealtime();
-
-        // Stash the current selection, then make a new one.
-        int currentSelectedIndex = selectedIndex;
-        selectedIndex = determineIdealSelectedIndex(nowMs);
-        if (selectedIndex == currentSelectedIndex) {
+        if (!isVideo) {
+            int currentSelectedIndex = selectedIndex;
+            selectedIndex = determineIdealSelectedIndex(nowMs);
+            if (selectedIndex != currentSelectedIndex) {
+                reason = C.SELECTION_REASON_ADAPTIVE;
+            }
             return;
         }
 
-        if (!isBlacklisted(currentSelectedIndex, nowMs)) {
-            // Revert back to the current selection if conditions are not suitable for switching.
-            Format currentFormat = getFormat(currentSelectedIndex);
-            Format selectedFormat = getFormat(selectedIndex);
-            if (selectedFormat.bitrate > currentFormat.bitrate
-                    && bufferedDurationUs < minDurationForQualityIncreaseUs(availableDurationUs)) {
-                // The selected track is a higher quality, but we have insufficient buffer to safely switch
-                // up. Defer switching up for now.
-                selectedIndex = currentSelectedIndex;
-            } else if (selectedFormat.bitrate < currentFormat.bitrate
-                    && bufferedDurationUs >= maxDurationForQualityDecreaseUs) {
-                // The selected track is a lower quality, but we have sufficient buffer to defer switching
-                // down for now.
-                selectedIndex = currentSelectedIndex;
+        double secondsPerByte = bandwidthMeter instanceof ChunkThroughputPredictor
+                ? ((ChunkThroughputPredictor) bandwidthMeter).getRobustSecondsPerByte()
+                : 8.0 / Math.max(bandwidthMeter.getBitrateEstimate(), 1);
+
+        int bufferedCount = 0;
+        for (int i = 0; i < queue.size() && bufferedCount < bufferedFormats.length; i++) {
+            MediaChunk chunk = queue.get(i);
+            if (chunk.endTimeUs > playbackPositionUs) {
+                bufferedFormats[bufferedCount++] = toMpcFormat(chunk.trackFormat);
             }
         }
+        mpc.setBufferedFormats(bufferedFormats, bufferedCount);
+
+        MediaChunk lastChunk = queue.isEmpty() ? null : queue.get(queue.size() - 1);
+        long chunkDurationUs = lastChunk != null ? lastChunk.getDurationUs()
+                : DEFAULT_CHUNK_DURATION_US;
+        if (lastChunk != null && lastChunk.startTimeUs != lastDownloadedChunkStartUs) {
+            long bytes = lastChunk.bytesLoaded();
+            double durationS = lastDownloadMs == C.TIME_UNSET ? chunkDurationUs / 1e6
+                    : (nowMs - lastDownloadMs) / 1000.0;
+            mpc.onChunkDownloaded(toMpcFormat(lastChunk.trackFormat), bytes,
+                    bytes * secondsPerByte, durationS,
+                    bufferedCount > 0 ? bufferedFormats[0] : toMpcFormat(lastChunk.trackFormat));
+            lastDownloadedChunkStartUs = lastChunk.startTimeUs;
+            lastDownloadMs = nowMs;
+        }
+
+        int horizon = describeChunksAhead(
+                lastChunk != null ? lastChunk.endTimeUs : playbackPositionUs, chunkDurationUs,
+                mediaChunkIterators);
+        double bufferS = Util.getPlayoutDurationForMediaDuration(bufferedDurationUs, playbackSpeed)
+                / 1e6;
+        double sinceLastDownloadS = lastDownloadMs == C.TIME_UNSET ? 0
+                : (nowMs - lastDownloadMs) / 1000.0;
+        double lastSsimDb = lastChunk == null ? Double.NaN
+                : qualityProvider.getSsimDb(lastChunk.trackFormat, lastChunk.startTimeUs);
+        int format = mpc.selectFormat(horizon, bufferS, chunkDurationUs / 1e6, secondsPerByte,
+                sinceLastDownloadS, lastSsimDb);
+
+        int currentSelectedIndex = selectedIndex;
+        selectedIndex = toTrackIndex(format);
+        while (selectedIndex < length - 1 && isBlacklisted(selectedIndex, nowMs)) {
+            selectedIndex++;
+        }
         // If we adapted, update the trigger.
         if (selectedIndex != currentSelectedIndex) {
             reason = C.SELECTION_REASON_ADAPTIVE;
         }
-
-        selectedIndex = num_rounds;
+        Log.e(TAG, "Jiayi: updateSelectedTrack, format: " + format
+                + ", horizon: " + mpc.getLastSolvedHorizon() + "/" + horizon
+                + ", decision us: " + mpc.getLastDecisionNs() / 1000
+                + ", deposit mJ: " + mpc.getEnergyDepositMj());
     }
 
     @Override
@@ -376,58 +352,69 @@ public class MyTrackSelection extends BaseTrackSelection {
         return null;
     }
 
+    /**
+     * Never discards buffered chunks: downloading a chunk again in a higher quality costs the radio
+     * energy that the MPC budgets for.
+     */
     @Override
     public int evaluateQueueSize(long playbackPositionUs, List<? extends MediaChunk> queue) {
-        // Log.e(TAG, "Jiayi: evaluateQueueSize");
-
-        long nowMs = clock.elapsedRealtime();
-        if (lastBufferEvaluationMs != C.TIME_UNSET
-                && nowMs - lastBufferEvaluationMs < minTimeBetweenBufferReevaluationMs) {
-            return queue.size();
-        }
-        lastBufferEvaluationMs = nowMs;
-        if (queue.isEmpty()) {
-            return 0;
-        }
+        return queue.size();
+    }
 
-        int queueSize = queue.size();
-        MediaChunk lastChunk = queue.get(queueSize - 1);
-        long playoutBufferedDurationBeforeLastChunkUs =
-                Util.getPlayoutDurationForMediaDuration(
-                        lastChunk.startTimeUs - playbackPositionUs, playbackSpeed);
-        if (playoutBufferedDurationBeforeLastChunkUs < minDurationToRetainAfterDiscardUs) {
-            return queueSize;
-        }
-        int idealSelectedIndex = determineIdealSelectedIndex(nowMs);
-        Format idealFormat = getFormat(idealSelectedIndex);
-        // If the chunks contain video, discard from the first SD chunk beyond
-        // minDurationToRetainAfterDiscardUs whose resolution and bitrate are both lower than the ideal
-        // track.
-        for (int i = 0; i < queueSize; i++) {
-            MediaChunk chunk = queue.get(i);
-            Format format = chunk.trackFormat;
-            long mediaDurationBeforeThisChunkUs = chunk.startTimeUs - playbackPositionUs;
-            long playoutDurationBeforeThisChunkUs =
-                    Util.getPlayoutDurationForMediaDuration(mediaDurationBeforeThisChunkUs, playbackSpeed);
-            if (playoutDurationBeforeThisChunkUs >= minDurationToRetainAfterDiscardUs
-                    && format.bitrate < idealFormat.bitrate
-                    && format.height != Format.NO_VALUE && format.height < 720
-                    && format.width != Format.NO_VALUE && format.width < 1280
-                    && format.height < idealFormat.height) {
-                return i;
+    /**
+     * Passes the SSIM and size of the chunks ahead of each format to the MPC, and returns the
+     * number of chunks ahead. Chunks the iterators do not cover are estimated from the bitrate.
+     */
+    private int describeChunksAhead(long nextChunkStartUs, long chunkDurationUs,
+                                    MediaChunkIterator[] mediaChunkIterators) {
+        int horizon = mpc.getMaxHorizon();
+        for (int i = 0; i < length; i++) {
+            Format format = getFormat(i);
+            int mpcFormat = toMpcFormat(i);
+            MediaChunkIterator iterator = i < mediaChunkIterators.length
+                    ? mediaChunkIterators[i]
+                    : MediaChunkIterator.EMPTY;
+            int chunk = 0;
+            while (chunk < horizon && iterator.next()) {
+                chunk++;
+                long bytes;
+                double ssimDb;
+                if (qualityProvider instanceof ChunkQualityStore) {
+                    ChunkQualityStore store = (ChunkQualityStore) qualityProvider;
+                    bytes = store.getChunkBytes(format, iterator);
+                    ssimDb = store.getSsimDb(format, iterator);
+                } else {
+                    bytes = iterator.getDataSpec().length;
+                    ssimDb = qualityProvider.getSsimDb(format, iterator.getChunkStartTimeUs());
+                }
+                if (bytes == C.LENGTH_UNSET) {
+                    bytes = estimateChunkBytes(format,
+                            iterator.getChunkEndTimeUs() - iterator.getChunkStartTimeUs());
+                }
+                mpc.setChunk(chunk, mpcFormat, ssimDb, bytes);
+            }
+            if (chunk > 0 && chunk < horizon) {
+                // The stream ends within the horizon.
+                horizon = chunk;
+            }
+            for (chunk++; chunk <= mpc.getMaxHorizon(); chunk++) {
+                long startTimeUs = nextChunkStartUs + (chunk - 1) * chunkDurationUs;
+                mpc.setChunk(chunk, mpcFormat, qualityProvider.getSsimDb(format, startTimeUs),
+                        estimateChunkBytes(format, chunkDurationUs));
             }
         }
-        return queueSize;
+        return horizon;
     }
 
     /**
-     * Computes the ideal selected index ignoring buffer health.
+     * Computes the highest bitrate track that fits into a fraction of the estimated bandwidth.
      *
      * @param nowMs The current time in the timebase of {@link Clock#elapsedRealtime()}, or {@link
      *     Long#MIN_VALUE} to ignore blacklisting.
      */
     private int determineIdealSelectedIndex(long nowMs) {
-        long effectiveBitrate = (long) (bandwidthMeter.getBitrateEstimate() * bandwidthFraction);
+        long effectiveBitrate =
+                (long) (bandwidthMeter.getBitrateEstimate() * DEFAULT_BANDWIDTH_FRACTION);
         int lowestBitrateNonBlacklistedIndex = 0;
         for (int i = 0; i < length; i++) {
             if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
@@ -442,11 +429,21 @@ public class MyTrackSelection extends BaseTrackSelection {
         return lowestBitrateNonBlacklistedIndex;
     }
 
-    private long minDurationForQualityIncreaseUs(long availableDurationUs) {
-        boolean isAvailableDurationTooShort = availableDurationUs != C.TIME_UNSET
-                && availableDurationUs <= minDurationForQualityIncreaseUs;
-        return isAvailableDurationTooShort
-                ? (long) (availableDurationUs * bufferedFractionToLiveEdgeForQualityIncrease)
-                : minDurationForQualityIncreaseUs;
+    private static long estimateChunkBytes(Format format, long durationUs) {
+        return format.bitrate == Format.NO_VALUE ? 0 : format.bitrate * durationUs / 8_000_000;
+    }
+
+    /** Maps a track index, in order of decreasing bandwidth, to an MPC format. */
+    private int toMpcFormat(int trackIndex) {
+        return length - 1 - trackIndex;
+    }
+
+    private int toMpcFormat(Format format) {
+        int trackIndex = indexOf(format);
+        return trackIndex == C.INDEX_UNSET ? 0 : toMpcFormat(trackIndex);
+    }
+
+    private int toTrackIndex(int mpcFormat) {
+        return length - 1 - mpcFormat;
     }
 }
@@ -18,9 +18,7 @@ import com.google.android.exoplayer2.util.Util;
 
 import org.checkerframework.checker.nullness.compatqual.NullableType;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class MyTrackSelector extends DefaultTrackSelector {
@@ -31,6 +29,14 @@ public class MyTrackSelector extends DefaultTrackSelector {
 
     private static final float FRACTION_TO_CONSIDER_FULLSCREEN = 0.98f;
     private static final int[] NO_TRACKS = new int[0];
+    /**
+     * The number of selections remembered, enough for the playing and the loading period to
+     * alternate without evicting each other.
+     */
+    private static final int SELECTION_CACHE_SIZE = 4;
+
+    private final CachedSelection[] selectionCache;
+    private int nextCachedSelection;
 
     public MyTrackSelector() {
         this(new MyTrackSelection.Factory());
@@ -43,6 +49,10 @@ public class MyTrackSelector extends DefaultTrackSelector {
     public MyTrackSelector(TrackSelection.Factory adaptiveTrackSelectionFactory) {
         this.adaptiveTrackSelectionFactory = adaptiveTrackSelectionFactory;
         parametersReference = new AtomicReference<>(Parameters.DEFAULT);
+        selectionCache = new CachedSelection[SELECTION_CACHE_SIZE];
+        for (int i = 0; i < SELECTION_CACHE_SIZE; i++) {
+            selectionCache[i] = new CachedSelection();
+        }
     }
 
     /* select only once at the start */
@@ -109,7 +119,7 @@ public class MyTrackSelector extends DefaultTrackSelector {
 
      */
 
-    private static @Nullable TrackSelection selectAdaptiveVideoTrack(
+    private @Nullable TrackSelection selectAdaptiveVideoTrack(
             TrackGroupArray groups,
             int[][] formatSupport,
             int mixedMimeTypeAdaptationSupports,
@@ -117,6 +127,39 @@ public class MyTrackSelector extends DefaultTrackSelector {
             TrackSelection.Factory adaptiveTrackSelectionFactory,
             BandwidthMeter bandwidthMeter)
             throws ExoPlaybackException {
+        int formatSupportHash = getFormatSupportHash(formatSupport);
+        CachedSelection cachedSelection = null;
+        for (CachedSelection candidate : selectionCache) {
+            if (candidate.matches(groups, formatSupport, formatSupportHash,
+                    mixedMimeTypeAdaptationSupports, params)) {
+                cachedSelection = candidate;
+                break;
+            }
+        }
+        if (cachedSelection == null) {
+            cachedSelection = selectionCache[nextCachedSelection];
+            nextCachedSelection = (nextCachedSelection + 1) % selectionCache.length;
+            cachedSelection.set(groups, formatSupport, formatSupportHash,
+                    mixedMimeTypeAdaptationSupports, params);
+            findAdaptiveVideoTracks(groups, formatSupport, mixedMimeTypeAdaptationSupports, params,
+                    cachedSelection);
+        }
+        if (cachedSelection.groupIndex == C.INDEX_UNSET) {
+            return null;
+        }
+        // The factory may keep the tracks, so it gets its own copy.
+        return Assertions.checkNotNull(adaptiveTrackSelectionFactory).createTrackSelection(
+                groups.get(cachedSelection.groupIndex), bandwidthMeter,
+                cachedSelection.tracks.clone());
+    }
+
+    /** Finds the first group with adaptive video tracks, and sets them as the cached result. */
+    private static void findAdaptiveVideoTracks(
+            TrackGroupArray groups,
+            int[][] formatSupport,
+            int mixedMimeTypeAdaptationSupports,
+            Parameters params,
+            CachedSelection result) {
         int requiredAdaptiveSupport = params.allowNonSeamlessAdaptiveness
                 ? (RendererCapabilities.ADAPTIVE_NOT_SEAMLESS | RendererCapabilities.ADAPTIVE_SEAMLESS)
                 : RendererCapabilities.ADAPTIVE_SEAMLESS;
@@ -139,11 +182,13 @@ public class MyTrackSelector extends DefaultTrackSelector {
                             params.viewportHeight,
                             params.viewportOrientationMayChange);
             if (adaptiveTracks.length > 0) {
-                return Assertions.checkNotNull(adaptiveTrackSelectionFactory)
-                        .createTrackSelection(group, bandwidthMeter, adaptiveTracks);
+                result.groupIndex = i;
+                result.tracks = adaptiveTracks;
+                return;
             }
         }
-        return null;
+        result.groupIndex = C.INDEX_UNSET;
+        result.tracks = NO_TRACKS;
     }
 
     private static int[] getAdaptiveVideoTracksForGroup(
@@ -162,21 +207,20 @@ public class MyTrackSelector extends DefaultTrackSelector {
             return NO_TRACKS;
         }
 
-        List<Integer> selectedTrackIndices = getViewportFilteredTrackIndices(group, viewportWidth,
+        int[] selectedTrackIndices = getViewportFilteredTrackIndices(group, viewportWidth,
                 viewportHeight, viewportOrientationMayChange);
-        if (selectedTrackIndices.size() < 2) {
+        int selectedTrackCount = selectedTrackIndices.length;
+        if (selectedTrackCount < 2) {
             return NO_TRACKS;
         }
 
         String selectedMimeType = null;
         if (!allowMixedMimeTypes) {
             // Select the mime type for which we have the most adaptive tracks.
-            HashSet<@NullableType String> seenMimeTypes = new HashSet<>();
             int selectedMimeTypeTrackCount = 0;
-            for (int i = 0; i < selectedTrackIndices.size(); i++) {
-                int trackIndex = selectedTrackIndices.get(i);
-                String sampleMimeType = group.getFormat(trackIndex).sampleMimeType;
-                if (seenMimeTypes.add(sampleMimeType)) {
+            for (int i = 0; i < selectedTrackCount; i++) {
+                String sampleMimeType = group.getFormat(selectedTrackIndices[i]).sampleMimeType;
+                if (isFirstWithMimeType(group, selectedTrackIndices, i)) {
                     int countForMimeType =
                             getAdaptiveVideoTrackCountForMimeType(
                                     group,
@@ -187,7 +231,8 @@ public class MyTrackSelector extends DefaultTrackSelector {
                                     maxVideoHeight,
                                     maxVideoFrameRate,
                                     maxVideoBitrate,
-                                    selectedTrackIndices);
+                                    selectedTrackIndices,
+                                    selectedTrackCount);
                     if (countForMimeType > selectedMimeTypeTrackCount) {
                         selectedMimeType = sampleMimeType;
                         selectedMimeTypeTrackCount = countForMimeType;
@@ -197,7 +242,7 @@ public class MyTrackSelector extends DefaultTrackSelector {
         }
 
         // Filter by the selected mime type.
-        filterAdaptiveVideoTrackCountForMimeType(
+        selectedTrackCount = filterAdaptiveVideoTrackCountForMimeType(
                 group,
                 formatSupport,
                 requiredAdaptiveSupport,
@@ -206,9 +251,22 @@ public class MyTrackSelector extends DefaultTrackSelector {
                 maxVideoHeight,
                 maxVideoFrameRate,
                 maxVideoBitrate,
-                selectedTrackIndices);
+                selectedTrackIndices,
+                selectedTrackCount);
 
-        return selectedTrackIndices.size() < 2 ? NO_TRACKS : Util.toArray(selectedTrackIndices);
+        return selectedTrackCount < 2 ? NO_TRACKS
+                : Arrays.copyOf(selectedTrackIndices, selectedTrackCount);
+    }
+
+    /** Returns whether no track before a position has the mime type of the track at it. */
+    private static boolean isFirstWithMimeType(TrackGroup group, int[] trackIndices, int position) {
+        String mimeType = group.getFormat(trackIndices[position]).sampleMimeType;
+        for (int i = 0; i < position; i++) {
+            if (Util.areEqual(group.getFormat(trackIndices[i]).sampleMimeType, mimeType)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private static int getAdaptiveVideoTrackCountForMimeType(
@@ -220,10 +278,11 @@ public class MyTrackSelector extends DefaultTrackSelector {
             int maxVideoHeight,
             int maxVideoFrameRate,
             int maxVideoBitrate,
-            List<Integer> selectedTrackIndices) {
+            int[] selectedTrackIndices,
+            int selectedTrackCount) {
         int adaptiveTrackCount = 0;
-        for (int i = 0; i < selectedTrackIndices.size(); i++) {
-            int trackIndex = selectedTrackIndices.get(i);
+        for (int i = 0; i < selectedTrackCount; i++) {
+            int trackIndex = selectedTrackIndices[i];
             if (isSupportedAdaptiveVideoTrack(
                     group.getFormat(trackIndex),
                     mimeType,
@@ -239,7 +298,11 @@ public class MyTrackSelector extends DefaultTrackSelector {
         return adaptiveTrackCount;
     }
 
-    private static void filterAdaptiveVideoTrackCountForMimeType(
+    /**
+     * Removes the tracks that are not supported adaptive tracks of a mime type, keeping the order
+     * of the others, and returns the number of tracks kept.
+     */
+    private static int filterAdaptiveVideoTrackCountForMimeType(
             TrackGroup group,
             int[] formatSupport,
             int requiredAdaptiveSupport,
@@ -248,10 +311,12 @@ public class MyTrackSelector extends DefaultTrackSelector {
             int maxVideoHeight,
             int maxVideoFrameRate,
             int maxVideoBitrate,
-            List<Integer> selectedTrackIndices) {
-        for (int i = selectedTrackIndices.size() - 1; i >= 0; i--) {
-            int trackIndex = selectedTrackIndices.get(i);
-            if (!isSupportedAdaptiveVideoTrack(
+            int[] selectedTrackIndices,
+            int selectedTrackCount) {
+        int keptCount = 0;
+        for (int i = 0; i < selectedTrackCount; i++) {
+            int trackIndex = selectedTrackIndices[i];
+            if (isSupportedAdaptiveVideoTrack(
                     group.getFormat(trackIndex),
                     mimeType,
                     formatSupport[trackIndex],
@@ -260,9 +325,10 @@ public class MyTrackSelector extends DefaultTrackSelector {
                     maxVideoHeight,
                     maxVideoFrameRate,
                     maxVideoBitrate)) {
-                selectedTrackIndices.remove(i);
+                selectedTrackIndices[keptCount++] = trackIndex;
             }
         }
+        return keptCount;
     }
 
     private static boolean isSupportedAdaptiveVideoTrack(
@@ -283,12 +349,12 @@ public class MyTrackSelector extends DefaultTrackSelector {
                 && (format.bitrate == Format.NO_VALUE || format.bitrate <= maxVideoBitrate);
     }
 
-    private static List<Integer> getViewportFilteredTrackIndices(TrackGroup group, int viewportWidth,
-                                                                 int viewportHeight, boolean orientationMayChange) {
+    private static int[] getViewportFilteredTrackIndices(TrackGroup group, int viewportWidth,
+                                                         int viewportHeight, boolean orientationMayChange) {
         // Initially include all indices.
-        ArrayList<Integer> selectedTrackIndices = new ArrayList<>(group.length);
+        int[] selectedTrackIndices = new int[group.length];
         for (int i = 0; i < group.length; i++) {
-            selectedTrackIndices.add(i);
+            selectedTrackIndices[i] = i;
         }
 
         if (viewportWidth == Integer.MAX_VALUE || viewportHeight == Integer.MAX_VALUE) {
@@ -297,4 +363,61 @@ public class MyTrackSelector extends DefaultTrackSelector {
         }
         return selectedTrackIndices;
     }
+
+    private static int getFormatSupportHash(int[][] formatSupport) {
+        int hash = 1;
+        for (int[] groupSupport : formatSupport) {
+            hash = 31 * hash + Arrays.hashCode(groupSupport);
+        }
+        return hash;
+    }
+
+    /**
+     * The adaptive video tracks selected for a {@link TrackGroupArray}, the renderer capabilities
+     * and the {@link Parameters}. The groups and parameters are immutable, so they are compared by
+     * identity; a new {@link Parameters} instance, such as one set with {@link
+     * #setParameters(Parameters)}, invalidates the selection.
+     */
+    private static final class CachedSelection {
+
+        private @Nullable TrackGroupArray groups;
+        private @Nullable Parameters params;
+        private int[][] formatSupport;
+        private int formatSupportHash;
+        private int mixedMimeTypeAdaptationSupports;
+
+        /** The index of the selected group, or {@link C#INDEX_UNSET} if none has adaptive tracks. */
+        private int groupIndex;
+        private int[] tracks;
+
+        private CachedSelection() {
+            formatSupport = new int[0][];
+            groupIndex = C.INDEX_UNSET;
+            tracks = NO_TRACKS;
+        }
+
+        private boolean matches(TrackGroupArray groups, int[][] formatSupport,
+                                int formatSupportHash, int mixedMimeTypeAdaptationSupports,
+                                Parameters params) {
+            return this.groups == groups
+                    && this.params == params
+                    && this.formatSupportHash == formatSupportHash
+                    && this.mixedMimeTypeAdaptationSupports == mixedMimeTypeAdaptationSupports
+                    && Arrays.deepEquals(this.formatSupport, formatSupport);
+        }
+
+        private void set(TrackGroupArray groups, int[][] formatSupport, int formatSupportHash,
+                         int mixedMimeTypeAdaptationSupports, Parameters params) {
+            this.groups = groups;
+            this.params = params;
+            if (this.formatSupport.length != formatSupport.length) {
+                this.formatSupport = new int[formatSupport.length][];
+            }
+            for (int i = 0; i < formatSupport.length; i++) {
+                this.formatSupport[i] = formatSupport[i].clone();
+            }
+            this.formatSupportHash = formatSupportHash;
+            this.mixedMimeTypeAdaptationSupports = mixedMimeTypeAdaptationSupports;
+        }
+    }
 }
@@ -0,0 +1,216 @@
+package com.google.android.exoplayer2.upstream;
+
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.MediaLoadData;
+import com.google.android.exoplayer2.util.EventDispatcher;
+
+/**
+ * A {@link BandwidthMeter} that predicts the transmission time of the next chunk from those of the
+ * last chunks, as the throughput predictor of the Puffer server's MPC does.
+ * <p>
+ * A sample is taken whenever a media chunk has been loaded, i.e. on every {@link
+ * AnalyticsListener#onLoadCompleted} of {@link C#DATA_TYPE_MEDIA}. This covers the {@link
+ * com.google.android.exoplayer2.source.chunk.MediaChunk}s of chunked sources as well as the
+ * chunks of a Puffer session, which are reported with the time it took to receive them. Audio
+ * chunks are ignored, like the server ignores them.
+ * <p>
+ * The point prediction is the mean sending time of a byte over the last samples, i.e. the
+ * harmonic mean of their throughputs. Each sample also records the relative error of the
+ * prediction that was made before it arrived, and the robust prediction inflates the sending time
+ * by the largest of these errors, as the server's {@code is_robust_} branch does. Samples are held
+ * in a fixed ring with a running sum and a monotonic queue of the errors, so an update costs
+ * amortized constant time and no allocation.
+ * <p>
+ * To feed the predictor, add it to the player with {@code SimpleExoPlayer.addAnalyticsListener}.
+ * Load events arrive on the playback thread, but the estimate may be read from any thread, so the
+ * predictor is thread safe.
+ */
+public final class ChunkThroughputPredictor implements BandwidthMeter, AnalyticsListener {
+
+  /** The default number of chunks the prediction is made from, as on the server. */
+  public static final int DEFAULT_MAX_SAMPLES = 8;
+
+  /** The default estimate before any chunk has been loaded. */
+  public static final long DEFAULT_INITIAL_BITRATE_ESTIMATE =
+      DefaultBandwidthMeter.DEFAULT_INITIAL_BITRATE_ESTIMATE;
+
+  private final int maxSamples;
+  private final long initialBitrateEstimate;
+  private final EventDispatcher<EventListener> eventDispatcher;
+
+  // The sending time of a byte and the prediction error of the samples, by sample number modulo
+  // maxSamples.
+  private final double[] unitSendingTimes;
+  private final double[] predictionErrors;
+  // The numbers of the samples in the window whose error is larger than that of every later
+  // sample, oldest first, in a ring. The first one holds the largest error.
+  private final long[] maxErrorQueue;
+  private int maxErrorQueueStart;
+  private int maxErrorQueueSize;
+
+  private long totalSampleCount;
+  private double unitSendingTimeSum;
+
+  public ChunkThroughputPredictor() {
+    this(DEFAULT_MAX_SAMPLES, DEFAULT_INITIAL_BITRATE_ESTIMATE);
+  }
+
+  /**
+   * @param maxSamples The number of chunks the prediction is made from.
+   * @param initialBitrateEstimate The estimate before any chunk has been loaded, in bits/s.
+   */
+  public ChunkThroughputPredictor(int maxSamples, long initialBitrateEstimate) {
+    if (maxSamples <= 0 || initialBitrateEstimate <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.maxSamples = maxSamples;
+    this.initialBitrateEstimate = initialBitrateEstimate;
+    eventDispatcher = new EventDispatcher<>();
+    unitSendingTimes = new double[maxSamples];
+    predictionErrors = new double[maxSamples];
+    maxErrorQueue = new long[maxSamples];
+  }
+
+  /** Returns the number of samples the prediction is currently made from. */
+  public synchronized int getSampleCount() {
+    return (int) Math.min(totalSampleCount, maxSamples);
+  }
+
+  /** Returns the predicted sending time of a byte, in seconds. */
+  public synchronized double getPredictedSecondsPerByte() {
+    int sampleCount = getSampleCount();
+    return sampleCount == 0 ? 8.0 / initialBitrateEstimate : unitSendingTimeSum / sampleCount;
+  }
+
+  /**
+   * Returns the largest relative error of the predictions made before the samples of the window,
+   * or 0 if there is none.
+   */
+  public synchronized double getMaxPredictionError() {
+    return maxErrorQueueSize == 0 ? 0
+        : predictionErrors[getSlot(maxErrorQueue[maxErrorQueueStart])];
+  }
+
+  /**
+   * Returns the predicted sending time of a byte, inflated by the largest recent prediction
+   * error, in seconds.
+   */
+  public synchronized double getRobustSecondsPerByte() {
+    return getPredictedSecondsPerByte() * (1 + getMaxPredictionError());
+  }
+
+  /** Returns the robust lower bound of the bitrate, in bits/s. */
+  public synchronized long getRobustBitrateEstimate() {
+    return toBitrate(getRobustSecondsPerByte());
+  }
+
+  /** Discards all samples. */
+  public synchronized void reset() {
+    totalSampleCount = 0;
+    unitSendingTimeSum = 0;
+    maxErrorQueueStart = 0;
+    maxErrorQueueSize = 0;
+  }
+
+  /**
+   * Adds the sample of a chunk.
+   *
+   * @param bytes The size of the chunk.
+   * @param transmissionTimeMs The time it took to receive the chunk. Less than a millisecond
+   *     counts as one.
+   */
+  public void addSample(long bytes, long transmissionTimeMs) {
+    if (bytes <= 0) {
+      return;
+    }
+    long elapsedMs = Math.max(transmissionTimeMs, 1);
+    long bitrate;
+    synchronized (this) {
+      double unitSendingTime = elapsedMs / 1000.0 / bytes;
+      double error = totalSampleCount == 0 ? 0
+          : Math.abs(1 - unitSendingTime / getPredictedSecondsPerByte());
+
+      long sample = totalSampleCount++;
+      int slot = getSlot(sample);
+      if (sample >= maxSamples) {
+        // Evict the sample that held this slot.
+        unitSendingTimeSum -= unitSendingTimes[slot];
+        if (maxErrorQueueSize > 0
+            && maxErrorQueue[maxErrorQueueStart] == sample - maxSamples) {
+          maxErrorQueueStart = (maxErrorQueueStart + 1) % maxSamples;
+          maxErrorQueueSize--;
+        }
+      }
+      while (maxErrorQueueSize > 0 && predictionErrors[getSlot(
+          maxErrorQueue[(maxErrorQueueStart + maxErrorQueueSize - 1) % maxSamples])]
+          <= error) {
+        maxErrorQueueSize--;
+      }
+      maxErrorQueue[(maxErrorQueueStart + maxErrorQueueSize) % maxSamples] = sample;
+      maxErrorQueueSize++;
+      unitSendingTimes[slot] = unitSendingTime;
+      predictionErrors[slot] = error;
+      if (slot == maxSamples - 1) {
+        // Sum afresh once per lap, so that rounding errors do not accumulate.
+        unitSendingTimeSum = 0;
+        for (double value : unitSendingTimes) {
+          unitSendingTimeSum += value;
+        }
+      } else {
+        unitSendingTimeSum += unitSendingTime;
+      }
+      bitrate = toBitrate(unitSendingTimeSum / getSampleCount());
+    }
+    eventDispatcher.dispatch(
+        listener -> listener.onBandwidthSample((int) elapsedMs, bytes, bitrate));
+  }
+
+  // BandwidthMeter implementation.
+
+  @Override
+  public synchronized long getBitrateEstimate() {
+    return toBitrate(getPredictedSecondsPerByte());
+  }
+
+  @Override
+  public @Nullable TransferListener getTransferListener() {
+    // Chunk boundaries come from load events rather than transfers.
+    return null;
+  }
+
+  @Override
+  public void addEventListener(Handler eventHandler, EventListener eventListener) {
+    eventDispatcher.addListener(eventHandler, eventListener);
+  }
+
+  @Override
+  public void removeEventListener(EventListener eventListener) {
+    eventDispatcher.removeListener(eventListener);
+  }
+
+  // AnalyticsListener implementation.
+
+  @Override
+  public void onLoadCompleted(
+      EventTime eventTime, LoadEventInfo loadEventInfo, MediaLoadData mediaLoadData) {
+    if (mediaLoadData.dataType != C.DATA_TYPE_MEDIA
+        || mediaLoadData.trackType == C.TRACK_TYPE_AUDIO) {
+      return;
+    }
+    addSample(loadEventInfo.bytesLoaded, loadEventInfo.loadDurationMs);
+  }
+
+  // Internal methods.
+
+  private int getSlot(long sample) {
+    return (int) (sample % maxSamples);
+  }
+
+  private static long toBitrate(double secondsPerByte) {
+    return Math.max(1, Math.round(8 / secondsPerByte));
+  }
+}
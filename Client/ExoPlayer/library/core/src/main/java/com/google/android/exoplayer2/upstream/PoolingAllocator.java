@@ -0,0 +1,19 @@
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * An {@link Allocator} that keeps released allocations for reuse, up to a target buffer size set
+ * by its {@link com.google.android.exoplayer2.LoadControl}.
+ */
+public interface PoolingAllocator extends Allocator {
+
+  /**
+   * Sets the target buffer size, beyond which {@link #trim()} discards released allocations.
+   * Trims if the size is reduced.
+   *
+   * @param targetBufferSize The target buffer size in bytes.
+   */
+  void setTargetBufferSize(int targetBufferSize);
+
+  /** Resets the allocator when its player stops, which frees its memory if configured to. */
+  void reset();
+}
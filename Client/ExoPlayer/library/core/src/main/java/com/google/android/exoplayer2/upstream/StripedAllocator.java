@@ -0,0 +1,271 @@
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link PoolingAllocator} for players that allocate on several threads at once, such as the
+ * audio and video loaders and the playback thread that releases what they load.
+ * <p>
+ * {@link DefaultAllocator} takes a single lock for every allocation and release. This allocator
+ * keeps released allocations in a few stripes instead, each a small stack behind its own lock,
+ * which overflow into a lock-free global pool. A thread starts at the stripe its id maps to, and
+ * tries the next one rather than wait if the lock is held, which counts as contention.
+ * <p>
+ * Allocations may be carved from slabs that hold several of them, so that the garbage collector
+ * tracks a few large arrays rather than one per allocation. A trimmed allocation of a slab frees
+ * memory once no other allocation of its slab is kept.
+ */
+public final class StripedAllocator implements PoolingAllocator {
+
+  /** The default number of stripes. */
+  public static final int DEFAULT_STRIPE_COUNT = 4;
+  /** The number of released allocations a stripe holds before overflowing. */
+  private static final int STRIPE_CAPACITY = 16;
+
+  private final boolean trimOnReset;
+  private final int individualAllocationSize;
+  private final int allocationsPerSlab;
+  private final Stripe[] stripes;
+  private final ConcurrentLinkedQueue<Allocation> globalPool;
+  private final AtomicInteger allocatedCount;
+  private final AtomicInteger availableCount;
+  private final AtomicLong createdCount;
+  private final AtomicLong contentionCount;
+  private final AtomicLong trimmedCount;
+
+  private volatile int targetBufferSize;
+
+  /**
+   * Creates an allocator with {@link #DEFAULT_STRIPE_COUNT} stripes, which creates each
+   * allocation in its own array.
+   *
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   */
+  public StripedAllocator(boolean trimOnReset, int individualAllocationSize) {
+    this(trimOnReset, individualAllocationSize, /* allocationsPerSlab= */ 1, DEFAULT_STRIPE_COUNT);
+  }
+
+  /**
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param allocationsPerSlab The number of allocations created at once in a shared array, or 1
+   *     to create each in its own array.
+   * @param stripeCount The number of stripes, about the number of threads that allocate at once.
+   */
+  public StripedAllocator(boolean trimOnReset, int individualAllocationSize,
+      int allocationsPerSlab, int stripeCount) {
+    Assertions.checkArgument(individualAllocationSize > 0);
+    Assertions.checkArgument(allocationsPerSlab > 0
+        && (long) individualAllocationSize * allocationsPerSlab <= Integer.MAX_VALUE);
+    Assertions.checkArgument(stripeCount > 0);
+    this.trimOnReset = trimOnReset;
+    this.individualAllocationSize = individualAllocationSize;
+    this.allocationsPerSlab = allocationsPerSlab;
+    stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+    globalPool = new ConcurrentLinkedQueue<>();
+    allocatedCount = new AtomicInteger();
+    availableCount = new AtomicInteger();
+    createdCount = new AtomicLong();
+    contentionCount = new AtomicLong();
+    trimmedCount = new AtomicLong();
+  }
+
+  /** Returns the number of allocations created. */
+  public long getCreatedAllocationCount() {
+    return createdCount.get();
+  }
+
+  /** Returns the number of released allocations held for reuse. */
+  public int getAvailableAllocationCount() {
+    return availableCount.get();
+  }
+
+  /** Returns the number of times a thread found the lock of a stripe held by another. */
+  public long getContentionCount() {
+    return contentionCount.get();
+  }
+
+  /** Returns the number of released allocations discarded by {@link #trim()}. */
+  public long getTrimmedAllocationCount() {
+    return trimmedCount.get();
+  }
+
+  // PoolingAllocator implementation.
+
+  @Override
+  public void reset() {
+    if (trimOnReset) {
+      setTargetBufferSize(0);
+    }
+  }
+
+  @Override
+  public void setTargetBufferSize(int targetBufferSize) {
+    boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
+    this.targetBufferSize = targetBufferSize;
+    if (targetBufferSizeReduced) {
+      trim();
+    }
+  }
+
+  @Override
+  public Allocation allocate() {
+    allocatedCount.incrementAndGet();
+    Allocation allocation = pollStripes();
+    if (allocation == null) {
+      allocation = globalPool.poll();
+    }
+    if (allocation != null) {
+      availableCount.decrementAndGet();
+      return allocation;
+    }
+    return createAllocation();
+  }
+
+  @Override
+  public void release(Allocation allocation) {
+    allocatedCount.decrementAndGet();
+    availableCount.incrementAndGet();
+    Stripe stripe = stripes[getHomeStripeIndex()];
+    if (stripe.lock.tryLock()) {
+      try {
+        if (stripe.size < STRIPE_CAPACITY) {
+          stripe.allocations[stripe.size++] = allocation;
+          return;
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    } else {
+      contentionCount.incrementAndGet();
+    }
+    globalPool.offer(allocation);
+  }
+
+  @Override
+  public void release(Allocation[] allocations) {
+    allocatedCount.addAndGet(-allocations.length);
+    availableCount.addAndGet(allocations.length);
+    int released = 0;
+    Stripe stripe = stripes[getHomeStripeIndex()];
+    if (stripe.lock.tryLock()) {
+      try {
+        while (released < allocations.length && stripe.size < STRIPE_CAPACITY) {
+          stripe.allocations[stripe.size++] = allocations[released++];
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    } else {
+      contentionCount.incrementAndGet();
+    }
+    while (released < allocations.length) {
+      globalPool.offer(allocations[released++]);
+    }
+  }
+
+  @Override
+  public void trim() {
+    int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
+    int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount.get());
+    int excessCount = availableCount.get() - targetAvailableCount;
+    // Discard from the global pool first, which the stripes overflow into.
+    while (excessCount > 0 && globalPool.poll() != null) {
+      excessCount--;
+      discarded(1);
+    }
+    for (int i = 0; i < stripes.length && excessCount > 0; i++) {
+      Stripe stripe = stripes[i];
+      stripe.lock.lock();
+      try {
+        int count = Math.min(excessCount, stripe.size);
+        for (int j = 0; j < count; j++) {
+          stripe.allocations[--stripe.size] = null;
+        }
+        excessCount -= count;
+        discarded(count);
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public int getTotalBytesAllocated() {
+    return allocatedCount.get() * individualAllocationSize;
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  // Internal methods.
+
+  private int getHomeStripeIndex() {
+    return (int) (Thread.currentThread().getId() % stripes.length);
+  }
+
+  private Allocation pollStripes() {
+    int homeStripeIndex = getHomeStripeIndex();
+    for (int i = 0; i < stripes.length; i++) {
+      Stripe stripe = stripes[(homeStripeIndex + i) % stripes.length];
+      if (!stripe.lock.tryLock()) {
+        contentionCount.incrementAndGet();
+        continue;
+      }
+      try {
+        if (stripe.size > 0) {
+          Allocation allocation = stripe.allocations[--stripe.size];
+          stripe.allocations[stripe.size] = null;
+          return allocation;
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return null;
+  }
+
+  private Allocation createAllocation() {
+    createdCount.addAndGet(allocationsPerSlab);
+    if (allocationsPerSlab == 1) {
+      return new Allocation(new byte[individualAllocationSize], 0);
+    }
+    byte[] slab = new byte[individualAllocationSize * allocationsPerSlab];
+    availableCount.addAndGet(allocationsPerSlab - 1);
+    for (int i = 1; i < allocationsPerSlab; i++) {
+      globalPool.offer(new Allocation(slab, i * individualAllocationSize));
+    }
+    return new Allocation(slab, 0);
+  }
+
+  private void discarded(int count) {
+    availableCount.addAndGet(-count);
+    trimmedCount.addAndGet(count);
+  }
+
+  /** A stack of released allocations behind a lock. */
+  private static final class Stripe {
+
+    private final ReentrantLock lock;
+    private final Allocation[] allocations;
+    private int size;
+
+    private Stripe() {
+      lock = new ReentrantLock();
+      allocations = new Allocation[STRIPE_CAPACITY];
+    }
+  }
+}
@@ -0,0 +1,768 @@
+package com.google.android.exoplayer2.upstream.cache;
+
+import android.os.ConditionVariable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link Cache} for several loaders writing and reading at once, such as when renditions are
+ * cached in parallel. It keeps the same files and index as {@link SimpleCache}, so either may open
+ * a directory written by the other, and likewise only one instance is allowed for a given
+ * directory at a given time.
+ * <p>
+ * {@link SimpleCache} synchronizes every method on the cache, so a loader renaming or committing
+ * a file holds up loaders of every other key. This cache instead guards the spans of each key
+ * with one of a few striped locks, and a loader waiting in {@link #startReadWrite(String, long)}
+ * waits on the condition of its stripe only. The index is locked only to look up and store
+ * contents. Span lookups, namely {@link #getCachedSpans(String)}, {@link #isCached(String, long,
+ * long)} and {@link #getCachedLength(String, long, long)}, take no lock at all: each change to the
+ * spans of a key publishes a sorted copy of them, which lookups read.
+ * <p>
+ * The {@link CacheEvictor} is not thread-safe, and may remove spans of any key. Span changes are
+ * therefore queued for it in the order they are made under the key locks, and a thread delivers
+ * them, serialized by a separate lock, once it holds no key lock. Removals requested by the
+ * evictor are delivered back to it directly, before {@link #removeSpan(CacheSpan)} returns, as it
+ * expects. If the evictor asks to remove a span that has since been touched or removed, its
+ * queued change is split: the evictor is told at once that the span was removed, and later that
+ * the touched span was added.
+ */
+public final class ConcurrentSimpleCache implements Cache {
+
+  /** The default number of key lock stripes. */
+  public static final int DEFAULT_STRIPE_COUNT = 16;
+
+  private static final String TAG = "ConcurrentSimpleCache";
+  private static final SimpleCacheSpan[] NO_SPANS = new SimpleCacheSpan[0];
+
+  private final File cacheDir;
+  private final CacheEvictor evictor;
+  /** Guards itself, and the metadata of its contents. Never held while taking another lock. */
+  private final CachedContentIndex index;
+  private final ReentrantLock[] keyLocks;
+  private final Condition[] keyConditions;
+  /** The sorted spans of each key that has any, for lookups without locking. */
+  private final ConcurrentHashMap<String, SimpleCacheSpan[]> publishedSpans;
+  /** The listeners of each key, each list guarded by the lock of its key. */
+  private final ConcurrentHashMap<String, ArrayList<Listener>> listeners;
+  private final ConcurrentLinkedQueue<Runnable> evictorEvents;
+  /** The queued changes of the spans the evictor may still hold, by span instance. */
+  private final ConcurrentHashMap<CacheSpan, SupersededSpan> supersededSpans;
+  private final ReentrantLock evictorLock;
+  private final ConditionVariable initializedCondition;
+  private final Thread initializationThread;
+  private final AtomicLong totalSpace;
+
+  private volatile boolean initialized;
+  private volatile boolean released;
+
+  /**
+   * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
+   * the directory cannot be used to store other files.
+   *
+   * @param cacheDir A dedicated cache directory.
+   * @param evictor The evictor to be used.
+   */
+  public ConcurrentSimpleCache(File cacheDir, CacheEvictor evictor) {
+    this(cacheDir, evictor, null, false);
+  }
+
+  /**
+   * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
+   * the directory cannot be used to store other files.
+   *
+   * @param cacheDir A dedicated cache directory.
+   * @param evictor The evictor to be used.
+   * @param secretKey If not null, cache keys will be stored encrypted on filesystem using
+   *     AES/CBC. The key must be 16 bytes long.
+   * @param encrypt Whether the index will be encrypted when written. Must be false if {@code
+   *     secretKey} is null.
+   */
+  public ConcurrentSimpleCache(File cacheDir, CacheEvictor evictor, byte[] secretKey,
+      boolean encrypt) {
+    this(cacheDir, evictor, new CachedContentIndex(cacheDir, secretKey, encrypt),
+        DEFAULT_STRIPE_COUNT);
+  }
+
+  /**
+   * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
+   * the directory cannot be used to store other files.
+   *
+   * @param cacheDir A dedicated cache directory.
+   * @param evictor The evictor to be used.
+   * @param index The CachedContentIndex to be used.
+   * @param stripeCount The number of key lock stripes, about the number of keys used at once.
+   */
+  /* package */ ConcurrentSimpleCache(File cacheDir, CacheEvictor evictor,
+      CachedContentIndex index, int stripeCount) {
+    Assertions.checkArgument(stripeCount > 0);
+    if (!SimpleCache.lockFolder(cacheDir)) {
+      throw new IllegalStateException("Another SimpleCache instance uses the folder: "
+          + cacheDir);
+    }
+    this.cacheDir = cacheDir;
+    this.evictor = evictor;
+    this.index = index;
+    keyLocks = new ReentrantLock[stripeCount];
+    keyConditions = new Condition[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      keyLocks[i] = new ReentrantLock();
+      keyConditions[i] = keyLocks[i].newCondition();
+    }
+    publishedSpans = new ConcurrentHashMap<>();
+    listeners = new ConcurrentHashMap<>();
+    evictorEvents = new ConcurrentLinkedQueue<>();
+    supersededSpans = new ConcurrentHashMap<>();
+    evictorLock = new ReentrantLock();
+    initializedCondition = new ConditionVariable();
+    totalSpace = new AtomicLong();
+
+    // Initialize without blocking the caller. Methods block until it completes, except on the
+    // initializing thread, where the evictor may remove spans.
+    initializationThread = new Thread("ConcurrentSimpleCache.initialize()") {
+      @Override
+      public void run() {
+        initialize();
+        dispatchEvictorEvents();
+        ConcurrentSimpleCache.this.evictor.onCacheInitialized();
+        initialized = true;
+        initializedCondition.open();
+      }
+    };
+    initializationThread.start();
+  }
+
+  @Override
+  public synchronized void release() {
+    if (released) {
+      return;
+    }
+    blockUntilInitialized();
+    listeners.clear();
+    removeStaleSpans();
+    try {
+      synchronized (index) {
+        index.store();
+      }
+    } catch (CacheException e) {
+      Log.e(TAG, "Storing index file failed", e);
+    } finally {
+      SimpleCache.unlockFolder(cacheDir);
+      released = true;
+    }
+  }
+
+  @Override
+  public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+    checkAvailable();
+    ReentrantLock keyLock = getKeyLock(key);
+    keyLock.lock();
+    try {
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey == null) {
+        listenersForKey = new ArrayList<>();
+        listeners.put(key, listenersForKey);
+      }
+      listenersForKey.add(listener);
+      // Under the key lock, so that the listener is told of every change after these spans.
+      return getCachedSpans(key);
+    } finally {
+      keyLock.unlock();
+    }
+  }
+
+  @Override
+  public void removeListener(String key, Listener listener) {
+    if (released) {
+      return;
+    }
+    ReentrantLock keyLock = getKeyLock(key);
+    keyLock.lock();
+    try {
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey != null) {
+        listenersForKey.remove(listener);
+        if (listenersForKey.isEmpty()) {
+          listeners.remove(key);
+        }
+      }
+    } finally {
+      keyLock.unlock();
+    }
+  }
+
+  @NonNull
+  @Override
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
+    checkAvailable();
+    return new TreeSet<CacheSpan>(Arrays.asList(getPublishedSpans(key)));
+  }
+
+  @Override
+  public Set<String> getKeys() {
+    checkAvailable();
+    synchronized (index) {
+      return new HashSet<>(index.getKeys());
+    }
+  }
+
+  @Override
+  public long getCacheSpace() {
+    checkAvailable();
+    return totalSpace.get();
+  }
+
+  @Override
+  public SimpleCacheSpan startReadWrite(String key, long position)
+      throws InterruptedException, CacheException {
+    checkAvailable();
+    int stripe = getStripe(key);
+    SimpleCacheSpan span;
+    keyLocks[stripe].lock();
+    try {
+      while ((span = startReadWriteLocked(key, position)) == null) {
+        // Write case, lock not available. We'll be signalled when a locked span of the
+        // stripe is released or when a span is added to a key of the stripe.
+        keyConditions[stripe].await();
+      }
+    } finally {
+      keyLocks[stripe].unlock();
+    }
+    dispatchEvictorEvents();
+    return span;
+  }
+
+  @Override
+  public @Nullable SimpleCacheSpan startReadWriteNonBlocking(String key, long position)
+      throws CacheException {
+    checkAvailable();
+    SimpleCacheSpan span;
+    ReentrantLock keyLock = getKeyLock(key);
+    keyLock.lock();
+    try {
+      span = startReadWriteLocked(key, position);
+    } finally {
+      keyLock.unlock();
+    }
+    dispatchEvictorEvents();
+    return span;
+  }
+
+  @Override
+  public File startFile(String key, long position, long maxLength) throws CacheException {
+    checkAvailable();
+    int id;
+    ReentrantLock keyLock = getKeyLock(key);
+    keyLock.lock();
+    try {
+      CachedContent cachedContent = getContent(key);
+      Assertions.checkNotNull(cachedContent);
+      Assertions.checkState(cachedContent.isLocked());
+      id = cachedContent.id;
+    } finally {
+      keyLock.unlock();
+    }
+    if (!cacheDir.exists()) {
+      // For some reason the cache directory doesn't exist. Make a best effort to create it.
+      cacheDir.mkdirs();
+      removeStaleSpans();
+    }
+    evictorEvents.add(() -> evictor.onStartFile(this, key, position, maxLength));
+    dispatchEvictorEvents();
+    return SimpleCacheSpan.getCacheFile(cacheDir, id, position, System.currentTimeMillis());
+  }
+
+  @Override
+  public void commitFile(File file) throws CacheException {
+    checkAvailable();
+    SimpleCacheSpan span;
+    synchronized (index) {
+      span = SimpleCacheSpan.createCacheEntry(file, index);
+    }
+    Assertions.checkState(span != null);
+    int stripe = getStripe(span.key);
+    keyLocks[stripe].lock();
+    try {
+      CachedContent cachedContent = getContent(span.key);
+      Assertions.checkNotNull(cachedContent);
+      Assertions.checkState(cachedContent.isLocked());
+      // If the file doesn't exist, don't add it to the in-memory representation.
+      if (!file.exists()) {
+        return;
+      }
+      // If the file has length 0, delete it and don't add it to the in-memory
+      // representation.
+      if (file.length() == 0) {
+        file.delete();
+        return;
+      }
+      // Check if the span conflicts with the set content length
+      long length;
+      synchronized (index) {
+        length = ContentMetadataInternal.getContentLength(cachedContent.getMetadata());
+      }
+      if (length != C.LENGTH_UNSET) {
+        Assertions.checkState((span.position + span.length) <= length);
+      }
+      addSpan(cachedContent, span);
+      keyConditions[stripe].signalAll();
+    } finally {
+      keyLocks[stripe].unlock();
+    }
+    dispatchEvictorEvents();
+    synchronized (index) {
+      index.store();
+    }
+  }
+
+  @Override
+  public void releaseHoleSpan(CacheSpan holeSpan) {
+    checkAvailable();
+    int stripe = getStripe(holeSpan.key);
+    keyLocks[stripe].lock();
+    try {
+      CachedContent cachedContent = getContent(holeSpan.key);
+      Assertions.checkNotNull(cachedContent);
+      Assertions.checkState(cachedContent.isLocked());
+      cachedContent.setLocked(false);
+      synchronized (index) {
+        index.maybeRemove(cachedContent.key);
+      }
+      keyConditions[stripe].signalAll();
+    } finally {
+      keyLocks[stripe].unlock();
+    }
+  }
+
+  @Override
+  public void removeSpan(CacheSpan span) {
+    checkAvailable();
+    ReentrantLock keyLock = getKeyLock(span.key);
+    boolean removed;
+    keyLock.lock();
+    try {
+      removed = removeSpanInternal(span);
+    } finally {
+      keyLock.unlock();
+    }
+    if (!evictorLock.isHeldByCurrentThread()) {
+      dispatchEvictorEvents();
+    } else if (!removed) {
+      // The evictor holds a span it has yet to be told was touched or removed.
+      SupersededSpan supersededSpan = supersededSpans.remove(span);
+      if (supersededSpan != null) {
+        supersededSpan.removeOldSpan();
+      }
+    }
+  }
+
+  @Override
+  public boolean isCached(String key, long position, long length) {
+    checkAvailable();
+    return getCachedBytesLength(getPublishedSpans(key), position, length) >= length;
+  }
+
+  @Override
+  public long getCachedLength(String key, long position, long length) {
+    checkAvailable();
+    return getCachedBytesLength(getPublishedSpans(key), position, length);
+  }
+
+  @Override
+  public void setContentLength(String key, long length) throws CacheException {
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataInternal.setContentLength(mutations, length);
+    applyContentMetadataMutations(key, mutations);
+  }
+
+  @Override
+  public long getContentLength(String key) {
+    return ContentMetadataInternal.getContentLength(getContentMetadata(key));
+  }
+
+  @Override
+  public void applyContentMetadataMutations(String key, ContentMetadataMutations mutations)
+      throws CacheException {
+    checkAvailable();
+    synchronized (index) {
+      index.applyContentMetadataMutations(key, mutations);
+      index.store();
+    }
+  }
+
+  @Override
+  public ContentMetadata getContentMetadata(String key) {
+    checkAvailable();
+    synchronized (index) {
+      return index.getContentMetadata(key);
+    }
+  }
+
+  // Internal methods.
+
+  private void blockUntilInitialized() {
+    if (!initialized && Thread.currentThread() != initializationThread) {
+      initializedCondition.block();
+    }
+  }
+
+  private void checkAvailable() {
+    blockUntilInitialized();
+    Assertions.checkState(!released);
+  }
+
+  private int getStripe(String key) {
+    int hash = key.hashCode();
+    // Spread the high bits, as keys often differ only in their last characters.
+    hash ^= hash >>> 16;
+    return (hash & Integer.MAX_VALUE) % keyLocks.length;
+  }
+
+  private ReentrantLock getKeyLock(String key) {
+    return keyLocks[getStripe(key)];
+  }
+
+  private @Nullable CachedContent getContent(String key) {
+    synchronized (index) {
+      return index.get(key);
+    }
+  }
+
+  private SimpleCacheSpan[] getPublishedSpans(String key) {
+    SimpleCacheSpan[] spans = publishedSpans.get(key);
+    return spans == null ? NO_SPANS : spans;
+  }
+
+  /**
+   * Publishes a copy of the spans of {@code cachedContent} for lookups. Must be called with the
+   * key lock held, after each change to the spans.
+   */
+  private void publishSpans(CachedContent cachedContent) {
+    if (cachedContent.isEmpty()) {
+      publishedSpans.remove(cachedContent.key);
+    } else {
+      publishedSpans.put(cachedContent.key, cachedContent.getSpans().toArray(NO_SPANS));
+    }
+  }
+
+  /**
+   * Returns a span to read or write, or null if the content is locked for writing by another
+   * loader. Must be called with the key lock held.
+   */
+  private @Nullable SimpleCacheSpan startReadWriteLocked(String key, long position)
+      throws CacheException {
+    Assertions.checkState(!released);
+    SimpleCacheSpan cacheSpan = getSpan(key, position);
+
+    // Read case.
+    if (cacheSpan.isCached) {
+      CachedContent cachedContent = getContent(key);
+      try {
+        // Obtain a new span with updated last access timestamp.
+        SimpleCacheSpan newCacheSpan = cachedContent.touch(cacheSpan);
+        publishSpans(cachedContent);
+        notifySpanTouched(cacheSpan, newCacheSpan);
+        return newCacheSpan;
+      } catch (CacheException e) {
+        // Ignore. In worst case the cache span is evicted early.
+        return cacheSpan;
+      }
+    }
+
+    CachedContent cachedContent;
+    synchronized (index) {
+      cachedContent = index.getOrAdd(key);
+    }
+    if (!cachedContent.isLocked()) {
+      // Write case, lock available.
+      cachedContent.setLocked(true);
+      return cacheSpan;
+    }
+
+    // Write case, lock not available.
+    return null;
+  }
+
+  /**
+   * Returns the cached span containing {@code position}, or the hole around it, as {@link
+   * SimpleCache} does. Must be called with the key lock held.
+   */
+  private SimpleCacheSpan getSpan(String key, long position) {
+    CachedContent cachedContent = getContent(key);
+    if (cachedContent == null) {
+      return SimpleCacheSpan.createOpenHole(key, position);
+    }
+    while (true) {
+      SimpleCacheSpan span = cachedContent.getSpan(position);
+      if (span.isCached && !span.file.exists()) {
+        // The file has been deleted from under us. Other keys are scanned when their own
+        // stale spans are found, so as not to take their locks while holding this one.
+        removeStaleSpans(cachedContent);
+        continue;
+      }
+      return span;
+    }
+  }
+
+  /** Ensures that the cache's in-memory representation has been initialized. */
+  private void initialize() {
+    if (!cacheDir.exists()) {
+      cacheDir.mkdirs();
+      return;
+    }
+
+    index.load();
+
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.getName().equals(CachedContentIndex.FILE_NAME)) {
+        continue;
+      }
+      SimpleCacheSpan span =
+          file.length() > 0 ? SimpleCacheSpan.createCacheEntry(file, index) : null;
+      if (span != null) {
+        // No other thread uses the cache yet, so no lock is needed.
+        addSpan(index.getOrAdd(span.key), span);
+      } else {
+        file.delete();
+      }
+    }
+
+    index.removeEmpty();
+    try {
+      index.store();
+    } catch (CacheException e) {
+      Log.e(TAG, "Storing index file failed", e);
+    }
+  }
+
+  /** Adds a cached span. Must be called with the key lock held. */
+  private void addSpan(CachedContent cachedContent, SimpleCacheSpan span) {
+    cachedContent.addSpan(span);
+    totalSpace.addAndGet(span.length);
+    publishSpans(cachedContent);
+    notifySpanAdded(span);
+  }
+
+  /**
+   * Removes {@code span} if it is still cached, rather than a span touched since. Spans are
+   * compared by instance, as a span touched twice in a millisecond keeps its file. Must be called
+   * with the key lock held.
+   *
+   * @return Whether the span was removed.
+   */
+  private boolean removeSpanInternal(CacheSpan span) {
+    CachedContent cachedContent = getContent(span.key);
+    if (cachedContent == null) {
+      return false;
+    }
+    SimpleCacheSpan cachedSpan = cachedContent.getSpan(span.position);
+    if (cachedSpan != span || !cachedContent.removeSpan(cachedSpan)) {
+      return false;
+    }
+    totalSpace.addAndGet(-cachedSpan.length);
+    synchronized (index) {
+      index.maybeRemove(cachedContent.key);
+    }
+    publishSpans(cachedContent);
+    notifySpanRemoved(cachedSpan);
+    return true;
+  }
+
+  /**
+   * Removes the spans of each key for which files no longer exist. Must be called with no key
+   * lock held.
+   */
+  private void removeStaleSpans() {
+    String[] keys;
+    synchronized (index) {
+      keys = index.getKeys().toArray(new String[0]);
+    }
+    for (String key : keys) {
+      ReentrantLock keyLock = getKeyLock(key);
+      keyLock.lock();
+      try {
+        CachedContent cachedContent = getContent(key);
+        if (cachedContent != null) {
+          removeStaleSpans(cachedContent);
+        }
+      } finally {
+        keyLock.unlock();
+      }
+    }
+    dispatchEvictorEvents();
+  }
+
+  /**
+   * Removes the spans of {@code cachedContent} for which files no longer exist. Must be called
+   * with the key lock held.
+   */
+  private void removeStaleSpans(CachedContent cachedContent) {
+    ArrayList<CacheSpan> spansToBeRemoved = new ArrayList<>();
+    for (CacheSpan span : cachedContent.getSpans()) {
+      if (!span.file.exists()) {
+        spansToBeRemoved.add(span);
+      }
+    }
+    for (int i = 0; i < spansToBeRemoved.size(); i++) {
+      removeSpanInternal(spansToBeRemoved.get(i));
+    }
+  }
+
+  private void notifySpanRemoved(CacheSpan span) {
+    ArrayList<Listener> keyListeners = listeners.get(span.key);
+    if (keyListeners != null) {
+      for (int i = keyListeners.size() - 1; i >= 0; i--) {
+        keyListeners.get(i).onSpanRemoved(this, span);
+      }
+    }
+    if (evictorLock.isHeldByCurrentThread()) {
+      // Requested by the evictor, which holds the current span.
+      evictor.onSpanRemoved(this, span);
+    } else {
+      queueSupersededSpan(new SupersededSpan(span, /* newSpan= */ null));
+    }
+  }
+
+  private void notifySpanAdded(SimpleCacheSpan span) {
+    ArrayList<Listener> keyListeners = listeners.get(span.key);
+    if (keyListeners != null) {
+      for (int i = keyListeners.size() - 1; i >= 0; i--) {
+        keyListeners.get(i).onSpanAdded(this, span);
+      }
+    }
+    evictorEvents.add(() -> evictor.onSpanAdded(this, span));
+  }
+
+  private void notifySpanTouched(SimpleCacheSpan oldSpan, CacheSpan newSpan) {
+    ArrayList<Listener> keyListeners = listeners.get(oldSpan.key);
+    if (keyListeners != null) {
+      for (int i = keyListeners.size() - 1; i >= 0; i--) {
+        keyListeners.get(i).onSpanTouched(this, oldSpan, newSpan);
+      }
+    }
+    queueSupersededSpan(new SupersededSpan(oldSpan, newSpan));
+  }
+
+  private void queueSupersededSpan(SupersededSpan supersededSpan) {
+    supersededSpans.put(supersededSpan.oldSpan, supersededSpan);
+    evictorEvents.add(supersededSpan);
+  }
+
+  /**
+   * Delivers the queued span changes to the evictor. Must be called with no key lock held, as
+   * the evictor may remove spans of any key.
+   * <p>
+   * A thread that finds the evictor busy leaves its changes to the thread delivering, which
+   * checks the queue again once it has let go of the lock.
+   */
+  private void dispatchEvictorEvents() {
+    while (!evictorEvents.isEmpty() && evictorLock.tryLock()) {
+      try {
+        Runnable event;
+        while ((event = evictorEvents.poll()) != null) {
+          event.run();
+        }
+      } finally {
+        evictorLock.unlock();
+      }
+    }
+  }
+
+  /** A queued change telling the evictor that a span was touched or removed. */
+  private final class SupersededSpan implements Runnable {
+
+    private final CacheSpan oldSpan;
+    private final @Nullable CacheSpan newSpan;
+
+    private boolean oldSpanRemoved;
+
+    /**
+     * @param oldSpan The span that was touched or removed.
+     * @param newSpan The touched span, or null if the span was removed.
+     */
+    public SupersededSpan(CacheSpan oldSpan, @Nullable CacheSpan newSpan) {
+      this.oldSpan = oldSpan;
+      this.newSpan = newSpan;
+    }
+
+    /** Tells the evictor that the old span was removed, ahead of the rest of the change. */
+    public void removeOldSpan() {
+      oldSpanRemoved = true;
+      evictor.onSpanRemoved(ConcurrentSimpleCache.this, oldSpan);
+    }
+
+    @Override
+    public void run() {
+      supersededSpans.remove(oldSpan, this);
+      if (!oldSpanRemoved) {
+        if (newSpan == null) {
+          evictor.onSpanRemoved(ConcurrentSimpleCache.this, oldSpan);
+        } else {
+          evictor.onSpanTouched(ConcurrentSimpleCache.this, oldSpan, newSpan);
+        }
+      } else if (newSpan != null) {
+        evictor.onSpanAdded(ConcurrentSimpleCache.this, newSpan);
+      }
+    }
+  }
+
+  /**
+   * Returns the length of the cached data from {@code position}, up to {@code length} bytes, or
+   * minus the length of the gap to the next cached data, up to {@code length} bytes, as {@link
+   * CachedContent#getCachedBytesLength(long, long)} does.
+   *
+   * @param spans The spans of a key, sorted by position.
+   * @param position The starting position of the data.
+   * @param length The maximum length of the data to be returned.
+   */
+  private static long getCachedBytesLength(SimpleCacheSpan[] spans, long position, long length) {
+    // Find the last span starting at or before the position.
+    int low = 0;
+    int high = spans.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (spans[middle].position <= position) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    int floorIndex = high;
+    if (floorIndex < 0 || spans[floorIndex].position + spans[floorIndex].length <= position) {
+      // We don't have a span covering the start of the queried region.
+      long holeLength = floorIndex + 1 < spans.length
+          ? spans[floorIndex + 1].position - position : Long.MAX_VALUE;
+      return -Math.min(holeLength, length);
+    }
+    long queryEndPosition = position + length;
+    long currentEndPosition = spans[floorIndex].position + spans[floorIndex].length;
+    for (int i = floorIndex + 1; i < spans.length && currentEndPosition < queryEndPosition;
+        i++) {
+      if (spans[i].position > currentEndPosition) {
+        // There's a hole in the cache within the queried region.
+        break;
+      }
+      // Guard against overlapping spans, as CachedContent does.
+      currentEndPosition = Math.max(currentEndPosition, spans[i].position + spans[i].length);
+    }
+    return Math.min(currentEndPosition - position, length);
+  }
+}
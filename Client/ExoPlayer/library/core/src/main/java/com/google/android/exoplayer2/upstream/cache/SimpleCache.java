@@ -492,14 +492,14 @@ public final class SimpleCache implements Cache {
     evictor.onSpanTouched(this, oldSpan, newSpan);
   }
 
-  private static synchronized boolean lockFolder(File cacheDir) {
+  /* package */ static synchronized boolean lockFolder(File cacheDir) {
     if (cacheFolderLockingDisabled) {
       return true;
     }
     return lockedCacheDirs.add(cacheDir.getAbsoluteFile());
   }
 
-  private static synchronized void unlockFolder(File cacheDir) {
+  /* package */ static synchronized void unlockFolder(File cacheDir) {
     if (!cacheFolderLockingDisabled) {
       lockedCacheDirs.remove(cacheDir.getAbsoluteFile());
     }
@@ -0,0 +1,207 @@
+package com.google.android.exoplayer2.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wraps a region of a {@link ByteBuffer}, providing the parsing methods of {@link
+ * ParsableByteArray} without copying the region into an array. The region is typically a view
+ * onto a received network buffer, which may be direct or read-only. Numerical values are parsed
+ * with the assumption that their constituent bytes are in big endian order, whatever the order of
+ * the buffer.
+ * <p>
+ * Values are read with absolute gets, so they do not move the position of the buffer. {@link
+ * #readBytes(byte[], int, int)} does, so a buffer should not be wrapped by several instances that
+ * read bytes at once.
+ * <p>
+ * Reads are checked against the limit of the region, since reading past it would otherwise return
+ * the bytes that follow the region in the buffer. A read of more than {@link #bytesLeft()} bytes
+ * throws an {@link IndexOutOfBoundsException} and leaves the position unchanged.
+ */
+public final class ParsableByteBuffer {
+
+  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+  private ByteBuffer data;
+  private int offset;
+  private int position;
+  private int limit;
+
+  /** Creates a new instance that initially has no backing data. */
+  public ParsableByteBuffer() {
+    data = EMPTY_BUFFER;
+  }
+
+  /**
+   * Creates a new instance wrapping the remaining bytes of {@code data}.
+   *
+   * @param data The buffer to wrap.
+   */
+  public ParsableByteBuffer(ByteBuffer data) {
+    reset(data, data.position(), data.remaining());
+  }
+
+  /**
+   * Updates the instance to wrap a region of {@code data}, and resets the position to zero.
+   *
+   * @param data The buffer to wrap.
+   * @param offset The index in {@code data} of the first byte of the region.
+   * @param length The length of the region, which becomes the limit.
+   */
+  public void reset(ByteBuffer data, int offset, int length) {
+    Assertions.checkArgument(offset >= 0 && length >= 0 && offset + length <= data.limit());
+    this.data = data;
+    this.offset = offset;
+    this.limit = length;
+    position = 0;
+  }
+
+  /** Returns the number of bytes yet to be read. */
+  public int bytesLeft() {
+    return limit - position;
+  }
+
+  /** Returns the limit, the length of the wrapped region. */
+  public int limit() {
+    return limit;
+  }
+
+  /** Returns the current offset in the region, in bytes. */
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * Sets the reading offset in the region.
+   *
+   * @param position Byte offset in the region from which to read.
+   * @throws IllegalArgumentException Thrown if the new position is neither in nor at the end of
+   *     the region.
+   */
+  public void setPosition(int position) {
+    Assertions.checkArgument(position >= 0 && position <= limit);
+    this.position = position;
+  }
+
+  /**
+   * Moves the reading offset by {@code bytes}.
+   *
+   * @param bytes The number of bytes to skip.
+   * @throws IllegalArgumentException Thrown if the new position is neither in nor at the end of
+   *     the region.
+   */
+  public void skipBytes(int bytes) {
+    setPosition(position + bytes);
+  }
+
+  /**
+   * Reads the next {@code length} bytes into {@code buffer} at {@code offset}.
+   *
+   * @param buffer The array into which the read data should be written.
+   * @param offset The offset in {@code buffer} at which the read data should be written.
+   * @param length The number of bytes to read.
+   */
+  public void readBytes(byte[] buffer, int offset, int length) {
+    checkBytesLeft(length);
+    data.position(this.offset + position);
+    data.get(buffer, offset, length);
+    position += length;
+  }
+
+  /** Peeks at the next byte as an unsigned value. */
+  public int peekUnsignedByte() {
+    checkBytesLeft(1);
+    return data.get(offset + position) & 0xFF;
+  }
+
+  /** Reads the next byte as an unsigned value. */
+  public int readUnsignedByte() {
+    checkBytesLeft(1);
+    return nextUnsignedByte();
+  }
+
+  /** Reads the next two bytes as an unsigned value. */
+  public int readUnsignedShort() {
+    checkBytesLeft(2);
+    return nextUnsignedByte() << 8 | nextUnsignedByte();
+  }
+
+  /** Reads the next three bytes as an unsigned value. */
+  public int readUnsignedInt24() {
+    checkBytesLeft(3);
+    return nextUnsignedByte() << 16 | nextUnsignedByte() << 8 | nextUnsignedByte();
+  }
+
+  /** Reads the next four bytes as an unsigned value. */
+  public long readUnsignedInt() {
+    return readInt() & 0xFFFFFFFFL;
+  }
+
+  /** Reads the next four bytes as a signed value. */
+  public int readInt() {
+    checkBytesLeft(4);
+    return nextUnsignedByte() << 24 | nextUnsignedByte() << 16 | nextUnsignedByte() << 8
+        | nextUnsignedByte();
+  }
+
+  /** Reads the next eight bytes as a signed value. */
+  public long readLong() {
+    checkBytesLeft(8);
+    return (readUnsignedInt() << 32) | readUnsignedInt();
+  }
+
+  /**
+   * Reads the next four bytes as an unsigned integer into an integer, if the top bit is a zero.
+   *
+   * @throws IllegalStateException Thrown if the top bit of the input data is set.
+   */
+  public int readUnsignedIntToInt() {
+    int result = readInt();
+    if (result < 0) {
+      throw new IllegalStateException("Top bit not zero: " + result);
+    }
+    return result;
+  }
+
+  /**
+   * Reads the next eight bytes as an unsigned long into a long, if the top bit is a zero.
+   *
+   * @throws IllegalStateException Thrown if the top bit of the input data is set.
+   */
+  public long readUnsignedLongToLong() {
+    long result = readLong();
+    if (result < 0) {
+      throw new IllegalStateException("Top bit not zero: " + result);
+    }
+    return result;
+  }
+
+  /**
+   * Reads an unsigned LEB128 value, in which each byte holds seven bits of the value, least
+   * significant first, and has its top bit set if more bytes follow.
+   *
+   * @throws IllegalStateException Thrown if the value does not fit in 63 bits.
+   */
+  public long readUnsignedLeb128ToLong() {
+    long value = 0;
+    // Nine bytes hold 63 bits.
+    for (int i = 0; i < 9; i++) {
+      int b = readUnsignedByte();
+      value |= (long) (b & 0x7F) << (7 * i);
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalStateException("LEB128 value too large");
+  }
+
+  private void checkBytesLeft(int length) {
+    if (length > limit - position) {
+      throw new IndexOutOfBoundsException(
+          "Read of " + length + " bytes at " + position + " past limit " + limit);
+    }
+  }
+
+  private int nextUnsignedByte() {
+    return data.get(offset + position++) & 0xFF;
+  }
+}
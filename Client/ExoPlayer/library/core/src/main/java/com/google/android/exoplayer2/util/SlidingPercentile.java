@@ -15,9 +15,7 @@
  */
 package com.google.android.exoplayer2.util;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 
 /**
  * Calculate any percentile over a sliding window of weighted values. A maximum weight is
@@ -28,41 +26,59 @@ import java.util.Comparator;
  * This class can be used for bandwidth estimation based on a sliding window of past transfer rate
  * observations. This is an alternative to sliding mean and exponential averaging which suffer from
  * susceptibility to outliers and slow adaptation to step functions.
+ * <p>
+ * Values are held in a treap, a binary search tree balanced by random priorities, ordered by value
+ * and then by age, whose nodes hold the total weight of their subtree. Adding a value, removing or
+ * reducing the oldest and computing a percentile each take expected logarithmic time. Nodes are
+ * held in primitive arrays and reused, so that nothing is allocated once the window has been full.
  *
  * @see <a href="http://en.wikipedia.org/wiki/Moving_average">Wiki: Moving average</a>
  * @see <a href="http://en.wikipedia.org/wiki/Selection_algorithm">Wiki: Selection algorithm</a>
  */
 public class SlidingPercentile {
 
-  // Orderings.
-  private static final Comparator<Sample> INDEX_COMPARATOR = (a, b) -> a.index - b.index;
-  private static final Comparator<Sample> VALUE_COMPARATOR =
-      (a, b) -> Float.compare(a.value, b.value);
-
-  private static final int SORT_ORDER_NONE = -1;
-  private static final int SORT_ORDER_BY_VALUE = 0;
-  private static final int SORT_ORDER_BY_INDEX = 1;
-
-  private static final int MAX_RECYCLED_SAMPLES = 5;
+  private static final int NIL = -1;
+  private static final int INITIAL_CAPACITY = 16;
 
   private final int maxWeight;
-  private final ArrayList<Sample> samples;
 
-  private final Sample[] recycledSamples;
+  // The nodes of the treap.
+  private float[] values;
+  private long[] indices;
+  private int[] weights;
+  private int[] subtreeWeights;
+  private int[] priorities;
+  private int[] lefts;
+  private int[] rights;
+  private int root;
+  private int usedNodeCount;
+  private int freeNode;
 
-  private int currentSortOrder;
-  private int nextSampleIndex;
+  // The nodes in the order their values were added, as a ring.
+  private int[] addedNodes;
+  private int oldestPosition;
+  private int sampleCount;
+
+  private long nextSampleIndex;
   private int totalWeight;
-  private int recycledSampleCount;
+  private int randomState;
 
   /**
    * @param maxWeight The maximum weight.
    */
   public SlidingPercentile(int maxWeight) {
     this.maxWeight = maxWeight;
-    recycledSamples = new Sample[MAX_RECYCLED_SAMPLES];
-    samples = new ArrayList<>();
-    currentSortOrder = SORT_ORDER_NONE;
+    values = new float[INITIAL_CAPACITY];
+    indices = new long[INITIAL_CAPACITY];
+    weights = new int[INITIAL_CAPACITY];
+    subtreeWeights = new int[INITIAL_CAPACITY];
+    priorities = new int[INITIAL_CAPACITY];
+    lefts = new int[INITIAL_CAPACITY];
+    rights = new int[INITIAL_CAPACITY];
+    addedNodes = new int[INITIAL_CAPACITY];
+    root = NIL;
+    freeNode = NIL;
+    randomState = 0x2545F491;
   }
 
   /**
@@ -72,27 +88,30 @@ public class SlidingPercentile {
    * @param value The value of the new observation.
    */
   public void addSample(int weight, float value) {
-    ensureSortedByIndex();
-
-    Sample newSample = recycledSampleCount > 0 ? recycledSamples[--recycledSampleCount]
-        : new Sample();
-    newSample.index = nextSampleIndex++;
-    newSample.weight = weight;
-    newSample.value = value;
-    samples.add(newSample);
+    int node = obtainNode();
+    values[node] = value;
+    indices[node] = nextSampleIndex++;
+    weights[node] = weight;
+    subtreeWeights[node] = weight;
+    priorities[node] = nextPriority();
+    lefts[node] = NIL;
+    rights[node] = NIL;
+    root = insert(root, node);
+    addedNodes[(oldestPosition + sampleCount) % addedNodes.length] = node;
+    sampleCount++;
     totalWeight += weight;
 
     while (totalWeight > maxWeight) {
       int excessWeight = totalWeight - maxWeight;
-      Sample oldestSample = samples.get(0);
-      if (oldestSample.weight <= excessWeight) {
-        totalWeight -= oldestSample.weight;
-        samples.remove(0);
-        if (recycledSampleCount < MAX_RECYCLED_SAMPLES) {
-          recycledSamples[recycledSampleCount++] = oldestSample;
-        }
+      int oldestNode = addedNodes[oldestPosition];
+      if (weights[oldestNode] <= excessWeight) {
+        totalWeight -= weights[oldestNode];
+        root = remove(root, oldestNode);
+        releaseNode(oldestNode);
+        oldestPosition = (oldestPosition + 1) % addedNodes.length;
+        sampleCount--;
       } else {
-        oldestSample.weight -= excessWeight;
+        reduceWeight(oldestNode, excessWeight);
         totalWeight -= excessWeight;
       }
     }
@@ -105,46 +124,164 @@ public class SlidingPercentile {
    * @return The requested percentile value or {@link Float#NaN} if no samples have been added.
    */
   public float getPercentile(float percentile) {
-    ensureSortedByValue();
+    if (root == NIL) {
+      return Float.NaN;
+    }
     float desiredWeight = percentile * totalWeight;
     int accumulatedWeight = 0;
-    for (int i = 0; i < samples.size(); i++) {
-      Sample currentSample = samples.get(i);
-      accumulatedWeight += currentSample.weight;
+    int node = root;
+    while (node != NIL) {
+      // The value is in the left subtree if the weight up to its end reaches the desired weight.
+      int left = lefts[node];
+      if (left != NIL && accumulatedWeight + subtreeWeights[left] >= desiredWeight) {
+        node = left;
+        continue;
+      }
+      accumulatedWeight += getSubtreeWeight(left) + weights[node];
       if (accumulatedWeight >= desiredWeight) {
-        return currentSample.value;
+        return values[node];
       }
+      node = rights[node];
+    }
+    // Clamp to maximum value.
+    node = root;
+    while (rights[node] != NIL) {
+      node = rights[node];
     }
-    // Clamp to maximum value or NaN if no values.
-    return samples.isEmpty() ? Float.NaN : samples.get(samples.size() - 1).value;
+    return values[node];
   }
 
-  /**
-   * Sorts the samples by index.
-   */
-  private void ensureSortedByIndex() {
-    if (currentSortOrder != SORT_ORDER_BY_INDEX) {
-      Collections.sort(samples, INDEX_COMPARATOR);
-      currentSortOrder = SORT_ORDER_BY_INDEX;
+  // Internal methods.
+
+  private int obtainNode() {
+    if (freeNode != NIL) {
+      int node = freeNode;
+      freeNode = lefts[node];
+      return node;
+    }
+    if (usedNodeCount == values.length) {
+      grow(values.length * 2);
     }
+    return usedNodeCount++;
   }
 
-  /**
-   * Sorts the samples by value.
-   */
-  private void ensureSortedByValue() {
-    if (currentSortOrder != SORT_ORDER_BY_VALUE) {
-      Collections.sort(samples, VALUE_COMPARATOR);
-      currentSortOrder = SORT_ORDER_BY_VALUE;
+  private void releaseNode(int node) {
+    lefts[node] = freeNode;
+    freeNode = node;
+  }
+
+  private void grow(int capacity) {
+    values = Arrays.copyOf(values, capacity);
+    indices = Arrays.copyOf(indices, capacity);
+    weights = Arrays.copyOf(weights, capacity);
+    subtreeWeights = Arrays.copyOf(subtreeWeights, capacity);
+    priorities = Arrays.copyOf(priorities, capacity);
+    lefts = Arrays.copyOf(lefts, capacity);
+    rights = Arrays.copyOf(rights, capacity);
+    // Unwrap the ring, oldest first.
+    int[] newAddedNodes = new int[capacity];
+    for (int i = 0; i < sampleCount; i++) {
+      newAddedNodes[i] = addedNodes[(oldestPosition + i) % addedNodes.length];
     }
+    addedNodes = newAddedNodes;
+    oldestPosition = 0;
   }
 
-  private static class Sample {
+  /** Returns a random priority, from a xorshift generator. */
+  private int nextPriority() {
+    randomState ^= randomState << 13;
+    randomState ^= randomState >>> 17;
+    randomState ^= randomState << 5;
+    return randomState;
+  }
 
-    public int index;
-    public int weight;
-    public float value;
+  /** Compares nodes by value, and then by the order they were added. */
+  private int compare(int node, int otherNode) {
+    int result = Float.compare(values[node], values[otherNode]);
+    return result != 0 ? result : Long.compare(indices[node], indices[otherNode]);
+  }
 
+  private int getSubtreeWeight(int node) {
+    return node == NIL ? 0 : subtreeWeights[node];
+  }
+
+  private void updateSubtreeWeight(int node) {
+    subtreeWeights[node] =
+        getSubtreeWeight(lefts[node]) + weights[node] + getSubtreeWeight(rights[node]);
+  }
+
+  /** Inserts a node into a subtree, returning the new root of the subtree. */
+  private int insert(int subtree, int node) {
+    if (subtree == NIL) {
+      return node;
+    }
+    if (compare(node, subtree) < 0) {
+      int left = insert(lefts[subtree], node);
+      lefts[subtree] = left;
+      if (priorities[left] > priorities[subtree]) {
+        // Rotate right.
+        lefts[subtree] = rights[left];
+        rights[left] = subtree;
+        updateSubtreeWeight(subtree);
+        updateSubtreeWeight(left);
+        return left;
+      }
+    } else {
+      int right = insert(rights[subtree], node);
+      rights[subtree] = right;
+      if (priorities[right] > priorities[subtree]) {
+        // Rotate left.
+        rights[subtree] = lefts[right];
+        lefts[right] = subtree;
+        updateSubtreeWeight(subtree);
+        updateSubtreeWeight(right);
+        return right;
+      }
+    }
+    updateSubtreeWeight(subtree);
+    return subtree;
+  }
+
+  /** Removes a node from a subtree, returning the new root of the subtree. */
+  private int remove(int subtree, int node) {
+    if (subtree == node) {
+      return merge(lefts[node], rights[node]);
+    }
+    if (compare(node, subtree) < 0) {
+      lefts[subtree] = remove(lefts[subtree], node);
+    } else {
+      rights[subtree] = remove(rights[subtree], node);
+    }
+    subtreeWeights[subtree] -= weights[node];
+    return subtree;
+  }
+
+  /** Merges two subtrees, the nodes of the first ordering before those of the second. */
+  private int merge(int left, int right) {
+    if (left == NIL) {
+      return right;
+    } else if (right == NIL) {
+      return left;
+    } else if (priorities[left] > priorities[right]) {
+      rights[left] = merge(rights[left], right);
+      updateSubtreeWeight(left);
+      return left;
+    } else {
+      lefts[right] = merge(left, lefts[right]);
+      updateSubtreeWeight(right);
+      return right;
+    }
+  }
+
+  /** Reduces the weight of a node, and of the subtrees on the path to it. */
+  private void reduceWeight(int node, int weight) {
+    weights[node] -= weight;
+    int subtree = root;
+    while (subtree != node) {
+      subtreeWeights[subtree] -= weight;
+      subtree = compare(node, subtree) < 0 ? lefts[subtree] : rights[subtree];
+    }
+    subtreeWeights[node] -= weight;
   }
 
 }
@@ -0,0 +1,113 @@
+package com.google.android.exoplayer2.video.spherical;
+
+/**
+ * Splits an equirectangular frame into a grid of equally sized tiles, and finds the tiles a
+ * viewport sees.
+ * <p>
+ * Tiles are indexed row by row from the top left corner of the frame. Orientations follow {@link
+ * ViewportPredictor}: a yaw of 0 is the center of the frame and a pitch of 0 the horizon.
+ */
+public final class TileGrid {
+
+  /** The default number of columns, which makes 30° wide tiles. */
+  public static final int DEFAULT_COLUMNS = 12;
+  /** The default number of rows, which makes 30° high tiles. */
+  public static final int DEFAULT_ROWS = 6;
+
+  /**
+   * The number of rays cast across each side of a viewport, which hit every tile of 15° or more
+   * that a viewport of up to 120° sees away from the poles.
+   */
+  private static final int RAYS_PER_SIDE = 17;
+
+  /** The number of columns. */
+  public final int columns;
+  /** The number of rows. */
+  public final int rows;
+
+  /** Creates a grid of {@link #DEFAULT_COLUMNS} by {@link #DEFAULT_ROWS} tiles. */
+  public TileGrid() {
+    this(DEFAULT_COLUMNS, DEFAULT_ROWS);
+  }
+
+  /**
+   * @param columns The number of columns.
+   * @param rows The number of rows.
+   */
+  public TileGrid(int columns, int rows) {
+    if (columns <= 0 || rows <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  /** Returns the number of tiles. */
+  public int getTileCount() {
+    return columns * rows;
+  }
+
+  /** Returns the index of the tile that holds an orientation. */
+  public int getTileIndex(double yawDegrees, double pitchDegrees) {
+    int column = (int) ((ViewportPredictor.wrapYaw(yawDegrees) + 180) / 360 * columns);
+    int row = (int) ((90 - pitchDegrees) / 180 * rows);
+    return Math.max(0, Math.min(rows - 1, row)) * columns
+        + Math.max(0, Math.min(columns - 1, column));
+  }
+
+  /**
+   * Marks the tiles a rectangular viewport sees. Tiles already marked stay marked, so that the
+   * tiles of several viewports can be merged.
+   *
+   * @param yawDegrees The yaw of the center of the viewport.
+   * @param pitchDegrees The pitch of the center of the viewport.
+   * @param horizontalFovDegrees The horizontal field of view, below 180°.
+   * @param verticalFovDegrees The vertical field of view, below 180°.
+   * @param visibleTiles Receives whether the viewport sees each tile. Must hold {@link
+   *     #getTileCount()} elements.
+   * @return The number of tiles marked, including those marked before.
+   */
+  public int markVisibleTiles(double yawDegrees, double pitchDegrees,
+      double horizontalFovDegrees, double verticalFovDegrees, boolean[] visibleTiles) {
+    double yaw = Math.toRadians(yawDegrees);
+    double pitch = Math.toRadians(pitchDegrees);
+    double sinYaw = Math.sin(yaw);
+    double cosYaw = Math.cos(yaw);
+    double sinPitch = Math.sin(pitch);
+    double cosPitch = Math.cos(pitch);
+    double halfWidth = Math.tan(Math.toRadians(horizontalFovDegrees) / 2);
+    double halfHeight = Math.tan(Math.toRadians(verticalFovDegrees) / 2);
+    for (int i = 0; i < RAYS_PER_SIDE; i++) {
+      double right = halfWidth * (2.0 * i / (RAYS_PER_SIDE - 1) - 1);
+      for (int j = 0; j < RAYS_PER_SIDE; j++) {
+        double up = halfHeight * (2.0 * j / (RAYS_PER_SIDE - 1) - 1);
+        // The ray through a point of the image plane, which is one unit in front.
+        double x = cosPitch * sinYaw + right * cosYaw - up * sinPitch * sinYaw;
+        double y = sinPitch + up * cosPitch;
+        double z = cosPitch * cosYaw - right * sinYaw - up * sinPitch * cosYaw;
+        visibleTiles[getTileIndex(Math.toDegrees(Math.atan2(x, z)),
+            Math.toDegrees(Math.atan2(y, Math.hypot(x, z))))] = true;
+      }
+    }
+    // A viewport that sees a pole sees its whole row, whose tiles narrow to a point there.
+    if (pitchDegrees + verticalFovDegrees / 2 >= 90) {
+      markRow(0, visibleTiles);
+    }
+    if (pitchDegrees - verticalFovDegrees / 2 <= -90) {
+      markRow(rows - 1, visibleTiles);
+    }
+    int count = 0;
+    for (int i = 0; i < visibleTiles.length; i++) {
+      if (visibleTiles[i]) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private void markRow(int row, boolean[] visibleTiles) {
+    for (int column = 0; column < columns; column++) {
+      visibleTiles[row * columns + column] = true;
+    }
+  }
+}
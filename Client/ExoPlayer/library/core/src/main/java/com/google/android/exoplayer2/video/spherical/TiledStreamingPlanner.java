@@ -0,0 +1,190 @@
+package com.google.android.exoplayer2.video.spherical;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.MediaLoadData;
+import java.util.Arrays;
+
+/**
+ * Plans the tiles of a 360° video chunk to stream at high quality, those the viewport is
+ * predicted to see while the chunk plays, and projects the bytes and decoded pixels of streaming
+ * the other tiles at low quality relative to streaming the full frame at high quality.
+ * <p>
+ * The viewport is predicted by a {@link ViewportPredictor}, which a {@code SphericalSurfaceView}
+ * feeds with the orientation of its camera, at the start, middle and end of the chunk. Each
+ * prediction is widened by a margin for its error, and the high quality tiles are those any of
+ * them sees in a {@link TileGrid}. Tiles cover equal parts of the frame, so the bytes and decoded
+ * pixels of a chunk scale with the tiles at each quality.
+ * <p>
+ * Added to a player with {@code SimpleExoPlayer.addAnalyticsListener}, the planner plans each
+ * video chunk as its load starts, to play once the buffered media has played. A tiled source
+ * fetches the tiles of {@link #getHighQualityTiles(boolean[])} at high quality and the others at
+ * low quality. The projections assume the relative size and pixels of a low quality tile given to
+ * the constructor, {@link #DEFAULT_LOW_QUALITY_BYTE_RATIO} and {@link
+ * #DEFAULT_LOW_QUALITY_PIXEL_RATIO} by default, and measure nothing that is fetched.
+ */
+public final class TiledStreamingPlanner implements AnalyticsListener {
+
+  /** The default field of view, that of {@code SphericalSurfaceView} in portrait. */
+  public static final double DEFAULT_FOV_DEGREES = 90;
+  /** The default margin added to each side of a predicted viewport. */
+  public static final double DEFAULT_MARGIN_DEGREES = 15;
+  /**
+   * The default size of a low quality tile relative to a high quality one, for a quarter of the
+   * pixels at a lower bitrate per pixel.
+   */
+  public static final double DEFAULT_LOW_QUALITY_BYTE_RATIO = 0.15;
+  /** The default pixels of a low quality tile relative to a high quality one, half each way. */
+  public static final double DEFAULT_LOW_QUALITY_PIXEL_RATIO = 0.25;
+  /** The default duration of a chunk whose load does not tell it, that of a Puffer chunk. */
+  public static final long DEFAULT_CHUNK_DURATION_MS = 2002;
+
+  private final ViewportPredictor viewportPredictor;
+  private final TileGrid tileGrid;
+  private final double horizontalFovDegrees;
+  private final double verticalFovDegrees;
+  private final double lowQualityByteRatio;
+  private final double lowQualityPixelRatio;
+  private final double[] orientation;
+  private final boolean[] highQualityTiles;
+
+  private int plannedChunks;
+  private double byteFractionSum;
+  private double pixelFractionSum;
+
+  /**
+   * Creates a planner with the default grid, field of view, margin and low quality.
+   *
+   * @param viewportPredictor Predicts the viewport.
+   */
+  public TiledStreamingPlanner(ViewportPredictor viewportPredictor) {
+    this(viewportPredictor, new TileGrid(), DEFAULT_FOV_DEGREES, DEFAULT_FOV_DEGREES,
+        DEFAULT_MARGIN_DEGREES, DEFAULT_LOW_QUALITY_BYTE_RATIO,
+        DEFAULT_LOW_QUALITY_PIXEL_RATIO);
+  }
+
+  /**
+   * @param viewportPredictor Predicts the viewport.
+   * @param tileGrid The tiles of the frame.
+   * @param horizontalFovDegrees The horizontal field of view of the viewport.
+   * @param verticalFovDegrees The vertical field of view of the viewport.
+   * @param marginDegrees The margin added to each side of a predicted viewport.
+   * @param lowQualityByteRatio The size of a low quality tile relative to a high quality one.
+   * @param lowQualityPixelRatio The pixels of a low quality tile relative to a high quality one.
+   */
+  public TiledStreamingPlanner(
+      ViewportPredictor viewportPredictor,
+      TileGrid tileGrid,
+      double horizontalFovDegrees,
+      double verticalFovDegrees,
+      double marginDegrees,
+      double lowQualityByteRatio,
+      double lowQualityPixelRatio) {
+    this.viewportPredictor = viewportPredictor;
+    this.tileGrid = tileGrid;
+    // Rays are cast through an image plane, which cannot span 180°.
+    this.horizontalFovDegrees = Math.min(170, horizontalFovDegrees + 2 * marginDegrees);
+    this.verticalFovDegrees = Math.min(170, verticalFovDegrees + 2 * marginDegrees);
+    this.lowQualityByteRatio = lowQualityByteRatio;
+    this.lowQualityPixelRatio = lowQualityPixelRatio;
+    orientation = new double[2];
+    highQualityTiles = new boolean[tileGrid.getTileCount()];
+  }
+
+  /**
+   * Plans the tiles of a chunk.
+   *
+   * @param nowMs The current time, in the time base of the {@link ViewportPredictor}.
+   * @param startDelayMs The time until the chunk plays.
+   * @param durationMs The duration of the chunk.
+   * @param highQualityTiles Receives whether to stream each tile at high quality, or null. Must
+   *     hold {@link TileGrid#getTileCount()} elements otherwise.
+   * @return The number of tiles to stream at high quality.
+   */
+  public synchronized int planChunk(long nowMs, long startDelayMs, long durationMs,
+      boolean[] highQualityTiles) {
+    Arrays.fill(this.highQualityTiles, false);
+    int highQualityTileCount = 0;
+    for (int i = 0; i <= 2; i++) {
+      viewportPredictor.predict(nowMs + startDelayMs + durationMs * i / 2, orientation);
+      highQualityTileCount = tileGrid.markVisibleTiles(orientation[0], orientation[1],
+          horizontalFovDegrees, verticalFovDegrees, this.highQualityTiles);
+    }
+    if (highQualityTiles != null) {
+      System.arraycopy(this.highQualityTiles, 0, highQualityTiles, 0,
+          this.highQualityTiles.length);
+    }
+    plannedChunks++;
+    byteFractionSum += getByteFraction(highQualityTileCount);
+    pixelFractionSum += getPixelFraction(highQualityTileCount);
+    return highQualityTileCount;
+  }
+
+  /**
+   * Copies the tiles of the latest planned chunk to stream at high quality.
+   *
+   * @param highQualityTiles Receives whether to stream each tile at high quality. Must hold
+   *     {@link TileGrid#getTileCount()} elements.
+   */
+  public synchronized void getHighQualityTiles(boolean[] highQualityTiles) {
+    System.arraycopy(this.highQualityTiles, 0, highQualityTiles, 0,
+        this.highQualityTiles.length);
+  }
+
+  /** Returns the projected size of a tiled chunk relative to the full frame at high quality. */
+  public double getByteFraction(int highQualityTileCount) {
+    return getFraction(highQualityTileCount, lowQualityByteRatio);
+  }
+
+  /** Returns the projected pixels of a tiled chunk relative to the full frame at high quality. */
+  public double getPixelFraction(int highQualityTileCount) {
+    return getFraction(highQualityTileCount, lowQualityPixelRatio);
+  }
+
+  /** Returns the number of chunks planned. */
+  public synchronized int getPlannedChunkCount() {
+    return plannedChunks;
+  }
+
+  /**
+   * Returns the projected size of the planned chunks relative to the full frame at high quality,
+   * averaged over the chunks, or 1 if no chunk is planned. See {@link #getByteFraction(int)}.
+   */
+  public synchronized double getProjectedByteRatio() {
+    return plannedChunks == 0 ? 1 : byteFractionSum / plannedChunks;
+  }
+
+  /**
+   * Returns the projected pixels of the planned chunks relative to the full frame at high
+   * quality, averaged over the chunks, or 1 if no chunk is planned. See {@link
+   * #getPixelFraction(int)}.
+   */
+  public synchronized double getProjectedPixelRatio() {
+    return plannedChunks == 0 ? 1 : pixelFractionSum / plannedChunks;
+  }
+
+  // AnalyticsListener implementation.
+
+  @Override
+  public void onLoadStarted(
+      EventTime eventTime, LoadEventInfo loadEventInfo, MediaLoadData mediaLoadData) {
+    if (mediaLoadData.dataType != C.DATA_TYPE_MEDIA
+        || mediaLoadData.trackType != C.TRACK_TYPE_VIDEO) {
+      return;
+    }
+    long durationMs = mediaLoadData.mediaStartTimeMs == C.TIME_UNSET
+        || mediaLoadData.mediaEndTimeMs == C.TIME_UNSET ? DEFAULT_CHUNK_DURATION_MS
+        : mediaLoadData.mediaEndTimeMs - mediaLoadData.mediaStartTimeMs;
+    planChunk(eventTime.realtimeMs, eventTime.totalBufferedDurationMs, durationMs,
+        /* highQualityTiles= */ null);
+  }
+
+  // Internal methods.
+
+  private double getFraction(int highQualityTileCount, double lowQualityRatio) {
+    int tileCount = tileGrid.getTileCount();
+    return (highQualityTileCount + (tileCount - highQualityTileCount) * lowQualityRatio)
+        / tileCount;
+  }
+}
@@ -0,0 +1,167 @@
+package com.google.android.exoplayer2.video.spherical;
+
+/**
+ * Predicts where the viewer of a 360° video will look, from the history of the orientation of
+ * the viewport.
+ * <p>
+ * The orientation is the yaw and pitch of the center of the viewport in the equirectangular frame,
+ * in degrees. A yaw of 0 is the center of the frame and grows to the right, up to ±180 at its
+ * edges. A pitch of 0 is the horizon and grows upwards, up to ±90 at the poles. Each is predicted
+ * by a least squares linear regression over the orientations of the last {@link
+ * #DEFAULT_HISTORY_MS}, which tracks head motion well over horizons of one to two seconds. The
+ * yaw is unwrapped, so that turning across the edges of the frame is a continuous motion.
+ * <p>
+ * Orientations are added on the thread that renders the view and predictions are read on the
+ * loading thread, so the predictor is thread safe.
+ */
+public final class ViewportPredictor {
+
+  /** The default duration of the history the predictions are fitted to. */
+  public static final long DEFAULT_HISTORY_MS = 1000;
+  /**
+   * The default shortest interval between two orientations of the history. Views render at up to
+   * 60 frames per second, which would fill the history with near duplicates.
+   */
+  public static final long DEFAULT_MIN_SAMPLE_INTERVAL_MS = 20;
+
+  private final long historyMs;
+  private final long minSampleIntervalMs;
+  private final long[] timesMs;
+  private final double[] yaws;
+  private final double[] pitches;
+  private int first;
+  private int size;
+
+  /** Creates a predictor with the default history. */
+  public ViewportPredictor() {
+    this(DEFAULT_HISTORY_MS, DEFAULT_MIN_SAMPLE_INTERVAL_MS);
+  }
+
+  /**
+   * @param historyMs The duration of the history the predictions are fitted to.
+   * @param minSampleIntervalMs The shortest interval between two orientations of the history.
+   *     An orientation that arrives sooner after the one before the latest replaces the latest.
+   */
+  public ViewportPredictor(long historyMs, long minSampleIntervalMs) {
+    if (historyMs <= 0 || minSampleIntervalMs <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.historyMs = historyMs;
+    this.minSampleIntervalMs = minSampleIntervalMs;
+    int capacity = (int) (historyMs / minSampleIntervalMs) + 2;
+    timesMs = new long[capacity];
+    yaws = new double[capacity];
+    pitches = new double[capacity];
+  }
+
+  /** Wraps an angle to [-180, 180). */
+  public static double wrapYaw(double yawDegrees) {
+    double wrapped = (yawDegrees + 180) % 360;
+    return (wrapped < 0 ? wrapped + 360 : wrapped) - 180;
+  }
+
+  /**
+   * Adds the orientation of the viewport.
+   *
+   * @param timeMs The time of the orientation, in {@link android.os.SystemClock#elapsedRealtime()}
+   *     milliseconds. Must not decrease.
+   * @param yawDegrees The yaw of the center of the viewport.
+   * @param pitchDegrees The pitch of the center of the viewport.
+   */
+  public synchronized void addOrientation(long timeMs, double yawDegrees, double pitchDegrees) {
+    double unwrappedYaw = yawDegrees;
+    if (size > 0) {
+      int lastSlot = getSlot(size - 1);
+      double lastYaw = yaws[lastSlot];
+      unwrappedYaw = lastYaw + wrapYaw(yawDegrees - lastYaw);
+      if (size > 1 && timeMs - timesMs[getSlot(size - 2)] < minSampleIntervalMs) {
+        // The latest orientation is too close to the one before, so it moves along.
+        set(lastSlot, timeMs, unwrappedYaw, pitchDegrees);
+        return;
+      }
+    }
+    while (size > 0 && timeMs - timesMs[first] > historyMs) {
+      first = getSlot(1);
+      size--;
+    }
+    if (size == timesMs.length) {
+      first = getSlot(1);
+      size--;
+    }
+    set(getSlot(size), timeMs, unwrappedYaw, pitchDegrees);
+    size++;
+  }
+
+  /** Removes the history, such as when the viewer recenters the view. */
+  public synchronized void reset() {
+    first = 0;
+    size = 0;
+  }
+
+  /** Returns the number of orientations in the history. */
+  public synchronized int getSampleCount() {
+    return size;
+  }
+
+  /**
+   * Predicts the orientation of the viewport at a time. If the history holds fewer than two
+   * orientations, the latest one is predicted, or the center of the frame if there is none.
+   *
+   * @param timeMs The time of the prediction, in the time base of {@link #addOrientation}.
+   * @param orientation Receives the predicted yaw, wrapped to [-180, 180), at index 0 and the
+   *     predicted pitch, clamped to [-90, 90], at index 1.
+   */
+  public synchronized void predict(long timeMs, double[] orientation) {
+    if (size == 0) {
+      orientation[0] = 0;
+      orientation[1] = 0;
+      return;
+    }
+    int lastSlot = getSlot(size - 1);
+    double yaw = yaws[lastSlot];
+    double pitch = pitches[lastSlot];
+    if (size > 1) {
+      // Times are relative to the latest orientation, to keep the sums precise.
+      long lastTimeMs = timesMs[lastSlot];
+      double meanTime = 0;
+      double meanYaw = 0;
+      double meanPitch = 0;
+      for (int i = 0; i < size; i++) {
+        int slot = getSlot(i);
+        meanTime += timesMs[slot] - lastTimeMs;
+        meanYaw += yaws[slot];
+        meanPitch += pitches[slot];
+      }
+      meanTime /= size;
+      meanYaw /= size;
+      meanPitch /= size;
+      double timeVariance = 0;
+      double yawCovariance = 0;
+      double pitchCovariance = 0;
+      for (int i = 0; i < size; i++) {
+        int slot = getSlot(i);
+        double time = timesMs[slot] - lastTimeMs - meanTime;
+        timeVariance += time * time;
+        yawCovariance += time * (yaws[slot] - meanYaw);
+        pitchCovariance += time * (pitches[slot] - meanPitch);
+      }
+      if (timeVariance > 0) {
+        double time = timeMs - lastTimeMs - meanTime;
+        yaw = meanYaw + yawCovariance / timeVariance * time;
+        pitch = meanPitch + pitchCovariance / timeVariance * time;
+      }
+    }
+    orientation[0] = wrapYaw(yaw);
+    orientation[1] = Math.max(-90, Math.min(90, pitch));
+  }
+
+  private int getSlot(int index) {
+    return (first + index) % timesMs.length;
+  }
+
+  private void set(int slot, long timeMs, double yaw, double pitch) {
+    timesMs[slot] = timeMs;
+    yaws[slot] = yaw;
+    pitches[slot] = pitch;
+  }
+}
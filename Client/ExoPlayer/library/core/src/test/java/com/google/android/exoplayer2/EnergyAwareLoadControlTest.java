@@ -0,0 +1,115 @@
+package com.google.android.exoplayer2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.power.PowerModel;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.testutil.FakeRenderer;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.StripedAllocator;
+import com.google.android.exoplayer2.util.MimeTypes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link EnergyAwareLoadControl}. */
+@RunWith(RobolectricTestRunner.class)
+public final class EnergyAwareLoadControlTest {
+
+  private static final float SPEED = 1f;
+  private static final int LOW_WATERMARK_MS = 2000;
+  private static final int CHUNK_DURATION_MS = 2002;
+
+  private FakeClock fakeClock;
+  private EnergyAwareLoadControl loadControl;
+
+  @Before
+  public void setUp() {
+    fakeClock = new FakeClock(0);
+    // A tail of 0.5 s, to be amortized over 10 tail times, takes 3 chunks of quiet.
+    PowerModel powerModel = new PowerModel.Builder().setNetworkTail(100, 0.5).build();
+    loadControl = new EnergyAwareLoadControl(powerModel, LOW_WATERMARK_MS, CHUNK_DURATION_MS,
+        /* tailAmortization= */ 10, fakeClock);
+    loadControl.onPrepared();
+    Format format = Format.createVideoSampleFormat(
+        /* id= */ null,
+        /* sampleMimeType= */ MimeTypes.VIDEO_H264,
+        /* codecs= */ null,
+        /* bitrate= */ Format.NO_VALUE,
+        /* maxInputSize= */ Format.NO_VALUE,
+        /* width= */ 1280,
+        /* height= */ 720,
+        /* frameRate= */ Format.NO_VALUE,
+        /* initializationData= */ null,
+        /* drmInitData= */ null);
+    loadControl.onTracksSelected(
+        new Renderer[] {new FakeRenderer(format)},
+        /* trackGroups= */ null,
+        new TrackSelectionArray(new FixedTrackSelection(new TrackGroup(format), 0)));
+  }
+
+  @Test
+  public void testWatermarksSpanWholeChunks() {
+    assertThat(loadControl.getLowWatermarkUs()).isEqualTo(C.msToUs(LOW_WATERMARK_MS));
+    assertThat(loadControl.getHighWatermarkUs())
+        .isEqualTo(C.msToUs(LOW_WATERMARK_MS + 3 * CHUNK_DURATION_MS));
+  }
+
+  @Test
+  public void testUsesGivenAllocator() {
+    StripedAllocator allocator =
+        new StripedAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    PowerModel powerModel = new PowerModel.Builder().setNetworkTail(100, 0.5).build();
+    EnergyAwareLoadControl loadControl = new EnergyAwareLoadControl(allocator, powerModel,
+        LOW_WATERMARK_MS, CHUNK_DURATION_MS, /* tailAmortization= */ 10, fakeClock);
+
+    assertThat(loadControl.getAllocator()).isSameAs(allocator);
+    assertThat(loadControl.getHighWatermarkUs())
+        .isEqualTo(C.msToUs(LOW_WATERMARK_MS + 3 * CHUNK_DURATION_MS));
+  }
+
+  @Test
+  public void testLoadsUntilHighWatermarkThenQuietUntilLowWatermark() {
+    long lowUs = loadControl.getLowWatermarkUs();
+    long highUs = loadControl.getHighWatermarkUs();
+
+    assertThat(loadControl.shouldContinueLoading(/* bufferedDurationUs= */ 0, SPEED)).isTrue();
+    assertThat(loadControl.shouldContinueLoading(highUs - 1, SPEED)).isTrue();
+    assertThat(loadControl.shouldContinueLoading(highUs, SPEED)).isFalse();
+    assertThat(loadControl.shouldContinueLoading(lowUs, SPEED)).isFalse();
+    assertThat(loadControl.shouldContinueLoading(lowUs - 1, SPEED)).isTrue();
+    assertThat(loadControl.getBurstCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testRadioActiveDutyCycleCountsBurstsAndTails() {
+    long highUs = loadControl.getHighWatermarkUs();
+
+    // Load for 1 s, stay quiet for 4 s, then load again.
+    loadControl.shouldContinueLoading(/* bufferedDurationUs= */ 0, SPEED);
+    fakeClock.advanceTime(1000);
+    loadControl.shouldContinueLoading(highUs, SPEED);
+    fakeClock.advanceTime(2000);
+    loadControl.shouldContinueLoading(highUs - 1, SPEED);
+    fakeClock.advanceTime(2000);
+    loadControl.shouldContinueLoading(/* bufferedDurationUs= */ 0, SPEED);
+
+    // 1 s of loading and 0.5 s of tail out of 5 s.
+    assertThat(loadControl.getRadioActiveDutyCycle()).isWithin(1e-9).of(0.3);
+  }
+
+  @Test
+  public void testPrepareResetsMetrics() {
+    loadControl.shouldContinueLoading(/* bufferedDurationUs= */ 0, SPEED);
+    fakeClock.advanceTime(1000);
+    loadControl.shouldContinueLoading(/* bufferedDurationUs= */ 0, SPEED);
+
+    loadControl.onPrepared();
+
+    assertThat(loadControl.getBurstCount()).isEqualTo(0);
+    assertThat(loadControl.getRadioActiveDutyCycle()).isEqualTo(0.0);
+  }
+}
@@ -0,0 +1,107 @@
+package com.google.android.exoplayer2.extractor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.util.ParsableByteBuffer;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link ByteBufferExtractorInput}. */
+@RunWith(RobolectricTestRunner.class)
+public final class ByteBufferExtractorInputTest {
+
+  private static final byte[] TEST_DATA = TestUtil.buildTestData(20);
+  private static final long START_POSITION = 100;
+
+  private List<ByteBuffer> buffers;
+  private ByteBufferExtractorInput input;
+
+  @Before
+  public void setUp() {
+    // Buffers of 8, 0 and 12 bytes, the first offset within a larger array.
+    byte[] first = new byte[12];
+    System.arraycopy(TEST_DATA, 0, first, 4, 8);
+    buffers = new ArrayList<>();
+    buffers.add(ByteBuffer.wrap(first, 4, 8));
+    buffers.add(ByteBuffer.allocate(0));
+    buffers.add(ByteBuffer.wrap(Arrays.copyOfRange(TEST_DATA, 8, 20)).asReadOnlyBuffer());
+    input = new ByteBufferExtractorInput(buffers, START_POSITION, C.LENGTH_UNSET);
+  }
+
+  @Test
+  public void testReadAcrossBuffers() throws IOException, InterruptedException {
+    byte[] target = new byte[20];
+    assertThat(input.read(target, 0, 5)).isEqualTo(5);
+    input.readFully(target, 5, 15);
+
+    assertThat(target).isEqualTo(TEST_DATA);
+    assertThat(input.getPosition()).isEqualTo(START_POSITION + 20);
+    assertThat(input.read(target, 0, 1)).isEqualTo(C.RESULT_END_OF_INPUT);
+    assertThat(input.readFully(target, 0, 1, /* allowEndOfInput= */ true)).isFalse();
+    // The buffers passed in are left as they were.
+    assertThat(buffers.get(0).position()).isEqualTo(4);
+    assertThat(buffers.get(2).position()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPeekThenReadAndSkip() throws IOException, InterruptedException {
+    byte[] target = new byte[6];
+    input.advancePeekPosition(6);
+    input.peekFully(target, 0, 6);
+    assertThat(target).isEqualTo(Arrays.copyOfRange(TEST_DATA, 6, 12));
+    assertThat(input.getPeekPosition()).isEqualTo(START_POSITION + 12);
+
+    input.resetPeekPosition();
+    input.skipFully(3);
+    assertThat(input.getPeekPosition()).isEqualTo(START_POSITION + 3);
+    input.readFully(target, 0, 6);
+    assertThat(target).isEqualTo(Arrays.copyOfRange(TEST_DATA, 3, 9));
+    assertThat(input.skip(100)).isEqualTo(11);
+    assertThat(input.skip(1)).isEqualTo(C.RESULT_END_OF_INPUT);
+  }
+
+  @Test
+  public void testReadViewsInPlaceAndCopiesAcrossBuffers()
+      throws IOException, InterruptedException {
+    ParsableByteBuffer view = new ParsableByteBuffer();
+    assertThat(input.readFully(view, 4, /* allowEndOfInput= */ false)).isTrue();
+    assertThat(view.readInt()).isEqualTo(readInt(0));
+
+    // The next eight bytes straddle the first and last buffers.
+    input.readFully(view, 8, /* allowEndOfInput= */ false);
+    assertThat(view.readInt()).isEqualTo(readInt(4));
+    assertThat(view.readInt()).isEqualTo(readInt(8));
+
+    input.readFully(view, 8, /* allowEndOfInput= */ false);
+    assertThat(view.readInt()).isEqualTo(readInt(12));
+    assertThat(view.readInt()).isEqualTo(readInt(16));
+    assertThat(input.readFully(view, 4, /* allowEndOfInput= */ true)).isFalse();
+  }
+
+  @Test
+  public void testPartialReadThrowsEofException() throws IOException, InterruptedException {
+    input.skipFully(18);
+    try {
+      input.readFully(new byte[4], 0, 4, /* allowEndOfInput= */ true);
+      fail();
+    } catch (EOFException e) {
+      // Expected.
+    }
+    assertThat(input.getPosition()).isEqualTo(START_POSITION + 18);
+  }
+
+  private static int readInt(int offset) {
+    return ByteBuffer.wrap(TEST_DATA, offset, 4).getInt();
+  }
+}
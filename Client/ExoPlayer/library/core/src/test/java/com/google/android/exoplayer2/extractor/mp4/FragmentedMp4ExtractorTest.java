@@ -15,15 +15,26 @@
  */
 package com.google.android.exoplayer2.extractor.mp4;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.ByteBufferExtractorInput;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.PositionHolder;
 import com.google.android.exoplayer2.testutil.ExtractorAsserts;
 import com.google.android.exoplayer2.testutil.ExtractorAsserts.ExtractorFactory;
+import com.google.android.exoplayer2.testutil.FakeExtractorOutput;
+import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2.util.MimeTypes;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 
 /** Unit test for {@link FragmentedMp4Extractor}. */
 @RunWith(RobolectricTestRunner.class)
@@ -51,6 +62,28 @@ public final class FragmentedMp4ExtractorTest {
     ExtractorAsserts.assertBehavior(extractorFactory, "mp4/sample_fragmented_sei.mp4");
   }
 
+  @Test
+  public void testSampleFromByteBuffers() throws Exception {
+    byte[] data =
+        TestUtil.getByteArray(RuntimeEnvironment.application, "mp4/sample_fragmented.mp4");
+    // Split the file so that some atom headers straddle two buffers.
+    List<ByteBuffer> buffers = new ArrayList<>();
+    for (int offset = 0; offset < data.length; offset += 1001) {
+      buffers.add(ByteBuffer.wrap(data, offset, Math.min(1001, data.length - offset)));
+    }
+    Extractor extractor = getExtractorFactory(Collections.emptyList()).create();
+    FakeExtractorOutput output = new FakeExtractorOutput();
+    extractor.init(output);
+    ExtractorInput input = new ByteBufferExtractorInput(buffers, 0, data.length);
+    PositionHolder positionHolder = new PositionHolder();
+    int result = Extractor.RESULT_CONTINUE;
+    while (result == Extractor.RESULT_CONTINUE) {
+      result = extractor.read(input, positionHolder);
+    }
+    assertThat(result).isEqualTo(Extractor.RESULT_END_OF_INPUT);
+    output.assertOutput(RuntimeEnvironment.application, "mp4/sample_fragmented.mp4.0.dump");
+  }
+
   private static ExtractorFactory getExtractorFactory(final List<Format> closedCaptionFormats) {
     return () -> new FragmentedMp4Extractor(0, null, null, null, closedCaptionFormats);
   }
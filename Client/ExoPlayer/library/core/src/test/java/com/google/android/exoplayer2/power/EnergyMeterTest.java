@@ -0,0 +1,157 @@
+package com.google.android.exoplayer2.power;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link EnergyMeter}. */
+@RunWith(RobolectricTestRunner.class)
+public final class EnergyMeterTest {
+
+  private static final DataSpec DATA_SPEC = new DataSpec(Uri.EMPTY);
+  private static final double BUDGET_MW = 450;
+
+  private final PowerModel model = PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH);
+  private final List<EnergyMeter.ChunkEnergy> chunks = new ArrayList<>();
+
+  private FakeClock fakeClock;
+  private EnergyMeter meter;
+
+  @Before
+  public void setUp() {
+    fakeClock = new FakeClock(0);
+    meter = new EnergyMeter(model, BUDGET_MW, EnergyMeter.DEFAULT_MAX_GAP_MS, fakeClock);
+    meter.addEventListener(new Handler(Looper.getMainLooper()), chunks::add);
+  }
+
+  @Test
+  public void testSplitsNetworkEnergyIntoActiveTailAndIdle() {
+    transfer(/* startMs= */ 0, /* bytes= */ 100_000, /* endMs= */ 500);
+    transfer(/* startMs= */ 2000, /* bytes= */ 200_000, /* endMs= */ 2500);
+
+    assertThat(chunks).hasSize(2);
+    EnergyMeter.ChunkEnergy chunk = chunks.get(1);
+    assertThat(chunk.durationS).isWithin(1e-9).of(2.0);
+    assertThat(chunk.bytes).isEqualTo(200_000);
+    assertThat(chunk.activeTimeS).isWithin(1e-9).of(0.5);
+    assertThat(chunk.tailTimeS).isWithin(1e-9).of(0.2);
+    assertThat(chunk.idleTimeS).isWithin(1e-9).of(1.3);
+    assertThat(chunk.networkActiveMj)
+        .isWithin(1e-9).of(model.getNetworkActivePowerMw(200_000, 0.5) * 0.5);
+    assertThat(chunk.networkTailMj).isWithin(1e-9).of(123.27 * 0.2);
+    assertThat(chunk.networkIdleMj).isWithin(1e-9).of(0);
+    assertThat(chunk.decodeMj).isEqualTo(0.0);
+  }
+
+  @Test
+  public void testAccountsDecodingWhilePlaying() {
+    DecoderCounters counters = new DecoderCounters();
+    meter.onDecoderEnabled(/* eventTime= */ null, C.TRACK_TYPE_VIDEO, counters);
+    meter.onDecoderInputFormatChanged(/* eventTime= */ null, C.TRACK_TYPE_VIDEO,
+        videoFormat(/* width= */ 1280));
+    transfer(/* startMs= */ 0, /* bytes= */ 100_000, /* endMs= */ 500);
+    fakeClock.advanceTime(500);
+    meter.onPlayerStateChanged(/* eventTime= */ null, /* playWhenReady= */ true,
+        Player.STATE_READY);
+    counters.renderedOutputBufferCount = 45;
+    counters.droppedBufferCount = 2;
+    transfer(/* startMs= */ 2000, /* bytes= */ 100_000, /* endMs= */ 2500);
+
+    EnergyMeter.ChunkEnergy chunk = chunks.get(1);
+    // Playing from 1000 ms to 2500 ms.
+    assertThat(chunk.decodeMj).isWithin(1e-9).of(194.10 * 1.5);
+    assertThat(chunk.renderedFrames).isEqualTo(45);
+    assertThat(chunk.droppedFrames).isEqualTo(2);
+    assertThat(chunk.videoFormat.width).isEqualTo(1280);
+  }
+
+  @Test
+  public void testSplitsOpenTransferAtGaps() {
+    fakeClock.advanceTime(100);
+    meter.onTransferStart(/* source= */ null, DATA_SPEC, /* isNetwork= */ true);
+    bytesAt(/* timeMs= */ 200, /* bytes= */ 1000);
+    bytesAt(/* timeMs= */ 220, /* bytes= */ 1000);
+    bytesAt(/* timeMs= */ 1200, /* bytes= */ 1000);
+
+    assertThat(chunks).hasSize(1);
+    assertThat(chunks.get(0).bytes).isEqualTo(2000);
+    assertThat(chunks.get(0).activeTimeS).isWithin(1e-9).of(0.12);
+    assertThat(chunks.get(0).endTimeMs).isEqualTo(220);
+
+    bytesAt(/* timeMs= */ 1230, /* bytes= */ 1000);
+    meter.onTransferEnd(/* source= */ null, DATA_SPEC, /* isNetwork= */ true);
+
+    assertThat(chunks).hasSize(2);
+    assertThat(chunks.get(1).bytes).isEqualTo(2000);
+    assertThat(chunks.get(1).tailTimeS).isWithin(1e-9).of(0.2);
+    assertThat(chunks.get(1).idleTimeS).isWithin(1e-9).of(0.78);
+  }
+
+  @Test
+  public void testIgnoresLocalTransfers() {
+    meter.onTransferStart(/* source= */ null, DATA_SPEC, /* isNetwork= */ false);
+    meter.onBytesTransferred(/* source= */ null, DATA_SPEC, /* isNetwork= */ false, 1000);
+    meter.onTransferEnd(/* source= */ null, DATA_SPEC, /* isNetwork= */ false);
+
+    assertThat(chunks).isEmpty();
+    assertThat(meter.getChunkCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEnergyDepositStartsAfterWarmUp() {
+    for (int i = 0; i < 5; i++) {
+      transfer(/* startMs= */ i * 2000, /* bytes= */ 10_000, /* endMs= */ i * 2000 + 100);
+    }
+    assertThat(meter.getEnergyDepositMj()).isEqualTo(0.0);
+
+    transfer(/* startMs= */ 10_000, /* bytes= */ 10_000, /* endMs= */ 10_100);
+
+    EnergyMeter.ChunkEnergy chunk = chunks.get(5);
+    assertThat(meter.getAveragePowerMw()).isWithin(1e-9).of(chunk.getTotalMj() / 2.0);
+    assertThat(meter.getEnergyDepositMj())
+        .isWithin(1e-9).of((BUDGET_MW - chunk.getTotalMj() / 2.0) * 2.0);
+    assertThat(chunk.energyDepositMj).isEqualTo(meter.getEnergyDepositMj());
+    assertThat(meter.getChunkCount()).isEqualTo(6);
+  }
+
+  private void transfer(long startMs, int bytes, long endMs) {
+    fakeClock.advanceTime(startMs - fakeClock.elapsedRealtime());
+    meter.onTransferStart(/* source= */ null, DATA_SPEC, /* isNetwork= */ true);
+    bytesAt(endMs, bytes);
+    meter.onTransferEnd(/* source= */ null, DATA_SPEC, /* isNetwork= */ true);
+  }
+
+  private void bytesAt(long timeMs, int bytes) {
+    fakeClock.advanceTime(timeMs - fakeClock.elapsedRealtime());
+    meter.onBytesTransferred(/* source= */ null, DATA_SPEC, /* isNetwork= */ true, bytes);
+  }
+
+  private static Format videoFormat(int width) {
+    return Format.createVideoSampleFormat(
+        /* id= */ null,
+        /* sampleMimeType= */ MimeTypes.VIDEO_H264,
+        /* codecs= */ null,
+        /* bitrate= */ Format.NO_VALUE,
+        /* maxInputSize= */ Format.NO_VALUE,
+        /* width= */ width,
+        /* height= */ width * 9 / 16,
+        /* frameRate= */ Format.NO_VALUE,
+        /* initializationData= */ null,
+        /* drmInitData= */ null);
+  }
+}
@@ -0,0 +1,121 @@
+package com.google.android.exoplayer2.power;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.ParserException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link PowerModel}. */
+@RunWith(RobolectricTestRunner.class)
+public final class PowerModelTest {
+
+  private static final String CALIBRATION =
+      "# Test phone, LTE.\n"
+          + "network-active 0 100\n"
+          + "network-active 1000 200  # kbps mW\n"
+          + "network-active 3000 300\n"
+          + "network-tail 120 0.5\n"
+          + "network-idle 10\n"
+          + "\n"
+          + "decode 640 500 150\n"
+          + "decode 640 1500 170\n"
+          + "decode 1280 2000 250\n"
+          + "decode 1280 4000 290\n"
+          + "display 300\n";
+
+  @Test
+  public void testDefaultMatchesServerModel() {
+    PowerModel touch = PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH);
+    PowerModel gyro = PowerModel.getDefault(PowerModel.STREAMING_MODE_GYRO);
+
+    assertThat(touch.getNetworkActivePowerMw(/* kbps= */ 1000)).isEqualTo(0.0018 * 1000 + 152.56);
+    assertThat(touch.getNetworkActivePowerMw(/* bytes= */ 1000, /* transferTimeS= */ 0))
+        .isEqualTo(152.56);
+    assertThat(touch.getNetworkTailPowerMw()).isEqualTo(123.27);
+    assertThat(touch.getNetworkTailTimeS()).isEqualTo(0.2);
+    assertThat(touch.getNetworkIdlePowerMw()).isEqualTo(0.0);
+    assertThat(touch.getVideoPowerMw(/* width= */ 256, Format.NO_VALUE)).isEqualTo(185.70);
+    assertThat(touch.getVideoPowerMw(/* width= */ 3840, /* bitrate= */ 20_000_000))
+        .isEqualTo(227.42);
+    assertThat(gyro.getVideoPowerMw(/* width= */ 854, Format.NO_VALUE)).isEqualTo(218.00);
+  }
+
+  @Test
+  public void testInterpolatesUnseenWidths() {
+    PowerModel touch = PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH);
+
+    assertThat(touch.getVideoPowerMw(/* width= */ 1067, Format.NO_VALUE))
+        .isWithin(1e-9).of(191.34 + (194.10 - 191.34) * (1067 - 854) / (1280 - 854));
+    assertThat(touch.getVideoPowerMw(/* width= */ 100, Format.NO_VALUE)).isEqualTo(185.70);
+    assertThat(touch.getVideoPowerMw(/* width= */ 7680, Format.NO_VALUE)).isEqualTo(227.42);
+  }
+
+  @Test
+  public void testParse() throws IOException {
+    PowerModel model = parse(CALIBRATION);
+
+    assertThat(model.getNetworkActivePowerMw(/* kbps= */ 500)).isWithin(1e-9).of(150);
+    assertThat(model.getNetworkActivePowerMw(/* kbps= */ 2000)).isWithin(1e-9).of(250);
+    assertThat(model.getNetworkActivePowerMw(/* kbps= */ 5000)).isWithin(1e-9).of(400);
+    assertThat(model.getNetworkActivePowerMw(/* kbps= */ -1000)).isWithin(1e-9).of(0);
+    assertThat(model.getNetworkTailPowerMw()).isEqualTo(120.0);
+    assertThat(model.getNetworkTailTimeS()).isEqualTo(0.5);
+    assertThat(model.getNetworkIdlePowerMw()).isEqualTo(10.0);
+    assertThat(model.getDisplayPowerMw()).isEqualTo(300.0);
+  }
+
+  @Test
+  public void testInterpolatesDecodePowerOverWidthAndBitrate() throws IOException {
+    PowerModel model = parse(CALIBRATION);
+
+    assertThat(model.getDecodePowerMw(/* width= */ 640, /* bitrate= */ 1_000_000))
+        .isWithin(1e-9).of(160);
+    assertThat(model.getDecodePowerMw(/* width= */ 640, /* bitrate= */ 100_000))
+        .isEqualTo(150.0);
+    assertThat(model.getDecodePowerMw(/* width= */ 1280, Format.NO_VALUE)).isEqualTo(290.0);
+    // Halfway between 640 at 1500 kbps (170 mW) and 1280 at 2000 kbps (250 mW).
+    assertThat(model.getDecodePowerMw(/* width= */ 960, /* bitrate= */ 1_500_000))
+        .isWithin(1e-9).of(210);
+    assertThat(model.getVideoPowerMw(/* width= */ 640, /* bitrate= */ 1_000_000))
+        .isWithin(1e-9).of(460);
+  }
+
+  @Test
+  public void testSingleNetworkPointIsConstant() throws IOException {
+    PowerModel model = parse("network-active 1000 200\n");
+
+    assertThat(model.getNetworkActivePowerMw(/* kbps= */ 0)).isEqualTo(200.0);
+    assertThat(model.getNetworkActivePowerMw(/* kbps= */ 50_000)).isEqualTo(200.0);
+    assertThat(model.getDecodePowerMw(/* width= */ 1280, Format.NO_VALUE)).isEqualTo(0.0);
+    assertThat(model.getNetworkTailTimeS()).isEqualTo(PowerModel.Builder.DEFAULT_TAIL_TIME_S);
+  }
+
+  @Test
+  public void testParseMalformedLineThrows() throws IOException {
+    assertParseFails("network-tail 120\n");
+    assertParseFails("display bright\n");
+    assertParseFails("screen 300\n");
+    assertParseFails("decode 640 500 150\ndecode 640 500 160\n");
+  }
+
+  private static void assertParseFails(String calibration) throws IOException {
+    try {
+      parse(calibration);
+      fail();
+    } catch (ParserException e) {
+      // Expected.
+    }
+  }
+
+  private static PowerModel parse(String calibration) throws IOException {
+    return PowerModel.parse(
+        new ByteArrayInputStream(calibration.getBytes(Charset.forName("UTF-8"))));
+  }
+}
@@ -581,6 +581,90 @@ public final class SampleQueueTest {
     assertReadEndOfStream(false);
   }
 
+  @Test
+  public void testReadBulkSamples() {
+    long[] timesUs = new long[] {0, 1000, 2000, 3000, 4000, 5000};
+    int[] flags = new int[] {C.BUFFER_FLAG_KEY_FRAME, 0, 0, C.BUFFER_FLAG_KEY_FRAME, 0, 0};
+    int[] sizes = new int[] {15, 17, 16, 32, 30, 50};
+    sampleQueue.format(FORMAT_1);
+    sampleQueue.sampleData(new ParsableByteArray(DATA), DATA.length);
+    // Commit the first three samples, whose data is followed by that of the others, and then the
+    // others.
+    sampleQueue.sampleMetadata(timesUs, flags, sizes, 0, 3, 112, null);
+    sampleQueue.sampleMetadata(timesUs, flags, sizes, 3, 3, 0, null);
+
+    assertReadFormat(false, FORMAT_1);
+    assertReadBulkSamples(timesUs, flags, sizes, 0, 0);
+    assertReadEndOfStream(false);
+  }
+
+  @Test
+  public void testReadBulkSamplesFromFirstKeyframe() {
+    long[] timesUs = new long[] {0, 1000, 2000, 3000};
+    int[] flags = new int[] {0, 0, C.BUFFER_FLAG_KEY_FRAME, 0};
+    int[] sizes = new int[] {40, 40, 40, 40};
+    sampleQueue.format(FORMAT_1);
+    sampleQueue.sampleData(new ParsableByteArray(DATA), DATA.length);
+    sampleQueue.sampleMetadata(timesUs, flags, sizes, 0, 4, 0, null);
+
+    assertReadFormat(false, FORMAT_1);
+    assertReadBulkSamples(timesUs, flags, sizes, 2, 80);
+    assertReadEndOfStream(false);
+  }
+
+  @Test
+  public void testSpliceBulkSamples() {
+    writeTestData();
+    sampleQueue.splice();
+    // The first sample fails to splice, and the second replaces the last 4 samples.
+    long[] timesUs = new long[] {SAMPLE_TIMESTAMPS[3], SAMPLE_TIMESTAMPS[4], 4500};
+    int[] flags = new int[] {0, C.BUFFER_FLAG_KEY_FRAME, 0};
+    int[] sizes = new int[] {20, 60, 80};
+    sampleQueue.format(FORMAT_SPLICED);
+    sampleQueue.sampleData(new ParsableByteArray(DATA), DATA.length);
+    sampleQueue.sampleMetadata(timesUs, flags, sizes, 0, 3, 0, null);
+
+    assertReadTestData(null, 0, 4);
+    assertReadFormat(false, FORMAT_SPLICED);
+    assertReadBulkSamples(timesUs, flags, sizes, 1, 20);
+    assertReadEndOfStream(false);
+  }
+
+  @Test
+  public void testReadBulkSamplesAcrossQueueGrowth() {
+    long sampleOffsetUs = 1000;
+    sampleQueue.setSampleOffsetUs(sampleOffsetUs);
+    byte[] data = TestUtil.buildTestData(3400);
+    long[] timesUs = new long[data.length];
+    int[] flags = new int[data.length];
+    int[] sizes = new int[data.length];
+    for (int i = 0; i < data.length; i++) {
+      timesUs[i] = i * 1000;
+      flags[i] = C.BUFFER_FLAG_KEY_FRAME;
+      sizes[i] = 1;
+    }
+    Format format = FORMAT_1.copyWithSubsampleOffsetUs(sampleOffsetUs);
+    sampleQueue.format(FORMAT_1);
+    sampleQueue.sampleData(new ParsableByteArray(data), data.length);
+    // Move the start of the queue close to the end of its arrays, so that the next samples wrap.
+    sampleQueue.sampleMetadata(timesUs, flags, sizes, 0, 900, data.length - 900, null);
+    assertReadFormat(false, format);
+    for (int i = 0; i < 900; i++) {
+      assertReadSample(timesUs[i] + sampleOffsetUs, true, data, i, 1);
+    }
+    sampleQueue.discardToRead();
+    // These samples wrap, and the next ones grow the queue.
+    sampleQueue.sampleMetadata(timesUs, flags, sizes, 900, 500, data.length - 1400, null);
+    sampleQueue.sampleMetadata(timesUs, flags, sizes, 1400, 2000, 0, null);
+
+    for (int i = 900; i < data.length; i++) {
+      assertReadSample(timesUs[i] + sampleOffsetUs, true, data, i, 1);
+    }
+    assertReadEndOfStream(false);
+    assertThat(sampleQueue.getLargestQueuedTimestampUs())
+        .isEqualTo(timesUs[data.length - 1] + sampleOffsetUs);
+  }
+
   // Internal methods.
 
   /**
@@ -616,6 +700,25 @@ public final class SampleQueueTest {
     sampleQueue.sampleMetadata(timestampUs, sampleFlags, data.length, 0, null);
   }
 
+  /**
+   * Asserts correct reading of samples written with bulk sample metadata, whose data is {@link
+   * #DATA}.
+   *
+   * @param timesUs The timestamps of the samples.
+   * @param flags The flags of the samples.
+   * @param sizes The sizes of the samples.
+   * @param firstSampleIndex The index of the first sample that's expected to be read.
+   * @param dataOffset The offset in {@link #DATA} of the data of the first sample.
+   */
+  private void assertReadBulkSamples(long[] timesUs, int[] flags, int[] sizes,
+      int firstSampleIndex, int dataOffset) {
+    for (int i = firstSampleIndex; i < timesUs.length; i++) {
+      assertReadSample(timesUs[i], (flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0,
+          DATA, dataOffset, sizes[i]);
+      dataOffset += sizes[i];
+    }
+  }
+
   /**
    * Asserts correct reading of standard test data from {@code sampleQueue}.
    */
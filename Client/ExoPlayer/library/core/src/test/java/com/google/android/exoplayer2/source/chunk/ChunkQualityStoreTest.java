@@ -0,0 +1,165 @@
+package com.google.android.exoplayer2.source.chunk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link ChunkQualityStore}. */
+@RunWith(RobolectricTestRunner.class)
+public final class ChunkQualityStoreTest {
+
+  private static final long CHUNK_DURATION_US = 2_000_000;
+  private static final Format FORMAT = createFormat("720p");
+
+  @Test
+  public void testLooksUpChunkThatSpansTime() {
+    ChunkQualityStore store = new ChunkQualityStore();
+    putChunk(store, /* index= */ 0, /* ssim= */ 0.9, /* bytes= */ 100);
+    putChunk(store, /* index= */ 1, /* ssim= */ 0.99, /* bytes= */ 200);
+
+    assertThat(store.getSsim("720p", 0)).isWithin(1e-6).of(0.9);
+    assertThat(store.getSsim("720p", CHUNK_DURATION_US - 1)).isWithin(1e-6).of(0.9);
+    assertThat(store.getChunkBytes("720p", CHUNK_DURATION_US)).isEqualTo(200);
+    assertThat(store.getSsim("720p", 2 * CHUNK_DURATION_US)).isNaN();
+    assertThat(store.getSsim("720p", -1)).isNaN();
+    assertThat(store.getChunkBytes("480p", 0)).isEqualTo(C.LENGTH_UNSET);
+    assertThat(store.getSsimDb(FORMAT, CHUNK_DURATION_US)).isWithin(1e-4).of(20);
+  }
+
+  @Test
+  public void testFallsBackForUnknownChunks() {
+    ChunkQualityStore store = new ChunkQualityStore(/* maxChunksPerFormat= */ 4,
+        (format, chunkStartTimeUs) -> 7);
+    putChunk(store, /* index= */ 0, /* ssim= */ Double.NaN, /* bytes= */ 100);
+
+    assertThat(store.getSsimDb(FORMAT, 0)).isEqualTo(7.0);
+    assertThat(store.getSsimDb(FORMAT, CHUNK_DURATION_US)).isEqualTo(7.0);
+    assertThat(store.getSsimDb(createFormat(/* id= */ null), 0)).isEqualTo(7.0);
+  }
+
+  @Test
+  public void testKeepsLatestChunksSortedWhenFull() {
+    ChunkQualityStore store = new ChunkQualityStore(/* maxChunksPerFormat= */ 3,
+        ChunkQualityProvider.BITRATE_ESTIMATE);
+    for (int index : new int[] {4, 1, 3, 0, 2, 5}) {
+      putChunk(store, index, /* ssim= */ 0.5, /* bytes= */ 100 + index);
+    }
+    // Replaces the chunk that starts at the same time.
+    putChunk(store, /* index= */ 5, /* ssim= */ 0.5, /* bytes= */ 42);
+
+    assertThat(store.getChunkCount("720p")).isEqualTo(3);
+    assertThat(store.getChunkBytes("720p", 2 * CHUNK_DURATION_US)).isEqualTo(C.LENGTH_UNSET);
+    assertThat(store.getChunkBytes("720p", 3 * CHUNK_DURATION_US)).isEqualTo(103);
+    assertThat(store.getChunkBytes("720p", 4 * CHUNK_DURATION_US)).isEqualTo(104);
+    assertThat(store.getChunkBytes("720p", 5 * CHUNK_DURATION_US)).isEqualTo(42);
+  }
+
+  @Test
+  public void testReadsChunksThroughIterator() {
+    ChunkQualityStore store = new ChunkQualityStore();
+    putChunk(store, /* index= */ 0, /* ssim= */ 0.99, /* bytes= */ 100);
+    putChunk(store, /* index= */ 1, /* ssim= */ 0.9, /* bytes= */ 200);
+    // The boundaries of the iterator are rounded differently from those of the store.
+    MediaChunkIterator iterator = new FakeIterator(/* startTimeUs= */ CHUNK_DURATION_US - 10,
+        /* endTimeUs= */ 2 * CHUNK_DURATION_US - 10, C.LENGTH_UNSET);
+
+    assertThat(store.getSsimDb(FORMAT, iterator)).isWithin(1e-4).of(10);
+    assertThat(store.getChunkBytes(FORMAT, iterator)).isEqualTo(200);
+    assertThat(store.getChunkBytes(FORMAT, new FakeIterator(0, CHUNK_DURATION_US, 555)))
+        .isEqualTo(555);
+  }
+
+  @Test
+  public void testReadsSidecar() throws IOException {
+    ChunkQualityStore store = new ChunkQualityStore();
+    String sidecar = "# format,start_us,end_us,ssim,bytes\n"
+        + "720p,0,2000000,0.99,100\n"
+        + "\n"
+        + "720p,2000000,4000000,,200\n"
+        + "480p,0,2000000,0.9,\n";
+
+    store.readSidecar(new ByteArrayInputStream(sidecar.getBytes(C.UTF8_NAME)));
+
+    assertThat(store.getSsim("720p", 0)).isWithin(1e-6).of(0.99);
+    assertThat(store.getSsim("720p", CHUNK_DURATION_US)).isNaN();
+    assertThat(store.getChunkBytes("720p", CHUNK_DURATION_US)).isEqualTo(200);
+    assertThat(store.getChunkBytes("480p", 0)).isEqualTo(C.LENGTH_UNSET);
+  }
+
+  @Test(expected = ParserException.class)
+  public void testRejectsMalformedSidecar() throws IOException {
+    new ChunkQualityStore().readSidecar(
+        new ByteArrayInputStream("720p,0,x,0.9,100\n".getBytes(C.UTF8_NAME)));
+  }
+
+  @Test
+  public void testParsesChunkQuality() throws ParserException {
+    ChunkQuality chunkQuality = ChunkQuality.parse(" 0.9:100, 0.99 :300 ");
+
+    assertThat(chunkQuality.ssims).isEqualTo(new float[] {0.9f, 0.99f, Float.NaN});
+    assertThat(chunkQuality.bytes).isEqualTo(new int[] {100, C.LENGTH_UNSET, 300});
+  }
+
+  private static void putChunk(ChunkQualityStore store, int index, double ssim, long bytes) {
+    store.put("720p", index * CHUNK_DURATION_US, (index + 1) * CHUNK_DURATION_US, ssim, bytes);
+  }
+
+  private static Format createFormat(String id) {
+    return Format.createVideoSampleFormat(
+        id,
+        /* sampleMimeType= */ MimeTypes.VIDEO_H264,
+        /* codecs= */ null,
+        /* bitrate= */ 2_000_000,
+        /* maxInputSize= */ Format.NO_VALUE,
+        /* width= */ 1280,
+        /* height= */ 720,
+        /* frameRate= */ Format.NO_VALUE,
+        /* initializationData= */ null,
+        /* drmInitData= */ null);
+  }
+
+  /** Points to a single chunk. */
+  private static final class FakeIterator extends BaseMediaChunkIterator {
+
+    private final long startTimeUs;
+    private final long endTimeUs;
+    private final long bytes;
+
+    private FakeIterator(long startTimeUs, long endTimeUs, long bytes) {
+      super(/* fromIndex= */ 0, /* toIndex= */ 0);
+      this.startTimeUs = startTimeUs;
+      this.endTimeUs = endTimeUs;
+      this.bytes = bytes;
+      next();
+    }
+
+    @Override
+    public DataSpec getDataSpec() {
+      checkInBounds();
+      return new DataSpec(Uri.EMPTY, /* absoluteStreamPosition= */ 0, bytes,
+          /* key= */ null);
+    }
+
+    @Override
+    public long getChunkStartTimeUs() {
+      checkInBounds();
+      return startTimeUs;
+    }
+
+    @Override
+    public long getChunkEndTimeUs() {
+      checkInBounds();
+      return endTimeUs;
+    }
+  }
+}
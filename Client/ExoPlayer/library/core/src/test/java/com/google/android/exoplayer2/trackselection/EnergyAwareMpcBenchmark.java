@@ -0,0 +1,174 @@
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.power.PowerModel;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the latency of {@link EnergyAwareMpc#selectFormat}, with chunk sizes, SSIMs, throughput
+ * and buffer drawn at random around the Puffer ladder of 8 formats and 100 buffer levels.
+ * <p>
+ * {@link #selectFormat()} runs the default horizon of 5 and 100 energy levels. {@link
+ * #compareWithStraightPort()} runs the same decisions through {@link EnergyAwareMpc} and {@link
+ * StraightPortMpc} for horizons from 3 to 10 and 50 to 400 energy levels. {@link
+ * EnergyAwareMpcTest#testMatchesStraightPort()} checks that both select the same formats.
+ * <p>
+ * Runs only when the system property {@code benchmarks} is true. The number of decisions is set
+ * with the system properties {@code mpc.benchmark.decisions} and {@code
+ * mpc.benchmark.sweepDecisions}. The time budget is lifted, so that every decision is solved at the
+ * full horizon.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class EnergyAwareMpcBenchmark {
+
+    private static final int WARM_UP_DECISIONS = 200;
+    private static final int SWEEP_WARM_UP_DECISIONS = 5;
+    private static final int[] SWEEP_HORIZONS = {3, 5, 8, 10};
+    private static final int[] SWEEP_ENERGY_BINS = {50, 100, 200, 400};
+
+    @Test
+    public void selectFormat() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        int decisions = Integer.getInteger("mpc.benchmark.decisions", 1000);
+        EnergyAwareMpc mpc = EnergyAwareMpcTest.newMpc(EnergyAwareMpc.DEFAULT_POWER_BUDGET_MW,
+                /* decisionBudgetNs= */ Long.MAX_VALUE / 2);
+        Random random = new Random(/* seed= */ 0);
+        int[] bufferedFormats = new int[EnergyAwareMpc.DEFAULT_MAX_HORIZON];
+        long[] latenciesNs = new long[decisions];
+        int lastFormat = 0;
+        for (int i = -WARM_UP_DECISIONS; i < decisions; i++) {
+            for (int chunk = 1; chunk <= EnergyAwareMpc.DEFAULT_MAX_HORIZON; chunk++) {
+                for (int format = 0; format < EnergyAwareMpcTest.WIDTHS.length; format++) {
+                    double noise = 0.7 + 0.6 * random.nextDouble();
+                    mpc.setChunk(chunk, format, EnergyAwareMpcTest.SSIM_DB[format] * noise,
+                            (long) (EnergyAwareMpcTest.CHUNK_BYTES[format] * noise));
+                }
+            }
+            int bufferedCount = random.nextInt(bufferedFormats.length + 1);
+            for (int j = 0; j < bufferedCount; j++) {
+                bufferedFormats[j] = random.nextInt(EnergyAwareMpcTest.WIDTHS.length);
+            }
+            mpc.setBufferedFormats(bufferedFormats, bufferedCount);
+            double secondsPerByte = 8.0 / (500_000 + random.nextInt(50_000_000));
+            double bufferS = random.nextDouble() * EnergyAwareMpc.DEFAULT_MAX_BUFFER_S;
+            int format = mpc.selectFormat(EnergyAwareMpc.DEFAULT_MAX_HORIZON, bufferS,
+                    /* chunkDurationS= */ 2.002, secondsPerByte,
+                    /* sinceLastDownloadS= */ random.nextDouble(),
+                    EnergyAwareMpcTest.SSIM_DB[lastFormat]);
+            assertThat(mpc.getLastSolvedHorizon()).isEqualTo(EnergyAwareMpc.DEFAULT_MAX_HORIZON);
+            if (i >= 0) {
+                latenciesNs[i] = mpc.getLastDecisionNs();
+            }
+            long bytes = EnergyAwareMpcTest.CHUNK_BYTES[format];
+            mpc.onChunkDownloaded(format, bytes, bytes * secondsPerByte, /* durationS= */ 2.002,
+                    bufferedCount > 0 ? bufferedFormats[0] : format);
+            lastFormat = format;
+        }
+
+        Arrays.sort(latenciesNs);
+        System.out.println("Benchmark: " + decisions + " decisions at horizon "
+                + EnergyAwareMpc.DEFAULT_MAX_HORIZON + ", " + EnergyAwareMpcTest.WIDTHS.length
+                + " formats, " + EnergyAwareMpc.DEFAULT_ENERGY_BINS + " energy levels: p50 "
+                + percentileUs(latenciesNs, 50) + " us, p99 " + percentileUs(latenciesNs, 99)
+                + " us, max " + percentileUs(latenciesNs, 100) + " us");
+    }
+
+    @Test
+    public void compareWithStraightPort() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        int decisions = Integer.getInteger("mpc.benchmark.sweepDecisions", 10);
+        int formats = EnergyAwareMpcTest.WIDTHS.length;
+        System.out.println("Benchmark: horizon, energy levels, memo KiB and mean us per decision"
+                + " of EnergyAwareMpc vs. StraightPortMpc");
+        for (int horizon : SWEEP_HORIZONS) {
+            for (int energyBins : SWEEP_ENERGY_BINS) {
+                EnergyAwareMpc mpc = new EnergyAwareMpc(horizon,
+                        EnergyAwareMpc.DEFAULT_BUFFER_BINS, energyBins,
+                        EnergyAwareMpc.DEFAULT_MAX_BUFFER_S, EnergyAwareMpc.DEFAULT_POWER_BUDGET_MW,
+                        EnergyAwareMpc.DEFAULT_REBUFFER_COEFF,
+                        EnergyAwareMpc.DEFAULT_SSIM_DIFF_COEFF,
+                        PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH),
+                        /* decisionBudgetNs= */ Long.MAX_VALUE);
+                mpc.setFormats(formats, EnergyAwareMpcTest.WIDTHS);
+                StraightPortMpc reference = new StraightPortMpc(horizon,
+                        EnergyAwareMpc.DEFAULT_BUFFER_BINS, energyBins,
+                        EnergyAwareMpc.DEFAULT_MAX_BUFFER_S, EnergyAwareMpc.DEFAULT_POWER_BUDGET_MW,
+                        EnergyAwareMpc.DEFAULT_REBUFFER_COEFF,
+                        EnergyAwareMpc.DEFAULT_SSIM_DIFF_COEFF,
+                        PowerModel.STREAMING_MODE_TOUCH);
+                reference.setFormats(formats, EnergyAwareMpcTest.WIDTHS);
+
+                Random random = new Random(/* seed= */ 0);
+                int[] bufferedFormats = new int[horizon];
+                long mpcNs = 0;
+                long referenceNs = 0;
+                int lastFormat = 0;
+                for (int i = -SWEEP_WARM_UP_DECISIONS; i < decisions; i++) {
+                    for (int chunk = 1; chunk <= horizon; chunk++) {
+                        for (int format = 0; format < formats; format++) {
+                            double noise = 0.7 + 0.6 * random.nextDouble();
+                            long bytes = (long) (EnergyAwareMpcTest.CHUNK_BYTES[format] * noise);
+                            double ssimDb = EnergyAwareMpcTest.SSIM_DB[format] * noise;
+                            mpc.setChunk(chunk, format, ssimDb, bytes);
+                            reference.setChunk(chunk, format, ssimDb, bytes);
+                        }
+                    }
+                    int bufferedCount = random.nextInt(horizon + 1);
+                    for (int j = 0; j < bufferedCount; j++) {
+                        bufferedFormats[j] = random.nextInt(formats);
+                    }
+                    mpc.setBufferedFormats(bufferedFormats, bufferedCount);
+                    reference.setBufferedFormats(bufferedFormats, bufferedCount);
+                    double secondsPerByte = 8.0 / (500_000 + random.nextInt(50_000_000));
+                    double bufferS = random.nextDouble() * EnergyAwareMpc.DEFAULT_MAX_BUFFER_S;
+                    double sinceLastDownloadS = random.nextDouble();
+                    double lastSsimDb = EnergyAwareMpcTest.SSIM_DB[lastFormat];
+
+                    long startNs = System.nanoTime();
+                    int format = mpc.selectFormat(horizon, bufferS, /* chunkDurationS= */ 2.002,
+                            secondsPerByte, sinceLastDownloadS, lastSsimDb);
+                    long middleNs = System.nanoTime();
+                    int expectedFormat = reference.selectFormat(horizon, bufferS,
+                            /* chunkDurationS= */ 2.002, secondsPerByte, sinceLastDownloadS,
+                            lastSsimDb);
+                    long endNs = System.nanoTime();
+                    assertThat(format).isEqualTo(expectedFormat);
+                    if (i >= 0) {
+                        mpcNs += middleNs - startNs;
+                        referenceNs += endNs - middleNs;
+                    }
+
+                    long bytes = EnergyAwareMpcTest.CHUNK_BYTES[format];
+                    int playingFormat = bufferedCount > 0 ? bufferedFormats[0] : format;
+                    mpc.onChunkDownloaded(format, bytes, bytes * secondsPerByte,
+                            /* durationS= */ 2.002, playingFormat);
+                    reference.onChunkDownloaded(format, bytes, bytes * secondsPerByte,
+                            /* durationS= */ 2.002, playingFormat);
+                    lastFormat = format;
+                }
+                long states = (long) (EnergyAwareMpc.DEFAULT_BUFFER_BINS + 1) * energyBins;
+                long mpcMemoBytes = (horizon - 1) * states * formats * 12;
+                long referenceMemoBytes = (horizon + 1) * states * EnergyAwareMpc.MAX_FORMATS * 16;
+                System.out.println(String.format(Locale.US,
+                        "Benchmark: %2d %3d  %7d KiB %9.1f us  vs. %7d KiB %9.1f us  (%.1fx)",
+                        horizon, energyBins, mpcMemoBytes / 1024, mpcNs / 1e3 / decisions,
+                        referenceMemoBytes / 1024, referenceNs / 1e3 / decisions,
+                        (double) referenceNs / Math.max(mpcNs, 1)));
+            }
+        }
+    }
+
+    private static long percentileUs(long[] sortedNs, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sortedNs.length);
+        return sortedNs[Math.max(rank, 1) - 1] / 1000;
+    }
+}
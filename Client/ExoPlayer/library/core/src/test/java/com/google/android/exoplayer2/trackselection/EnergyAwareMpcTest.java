@@ -0,0 +1,167 @@
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.power.PowerModel;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link EnergyAwareMpc}. */
+@RunWith(RobolectricTestRunner.class)
+public final class EnergyAwareMpcTest {
+
+    /* package */ static final int[] WIDTHS = {256, 426, 640, 854, 1280, 1920, 2560, 3840};
+    /* package */ static final long[] CHUNK_BYTES =
+            {30_000, 60_000, 120_000, 200_000, 400_000, 800_000, 1_500_000, 3_000_000};
+    /* package */ static final double[] SSIM_DB = {8, 10, 12, 13.5, 15, 16.5, 17.5, 18.5};
+    private static final double CHUNK_DURATION_S = 2.002;
+
+    @Test
+    public void testClimbsOneFormatPerDecisionOnAFastLink() {
+        EnergyAwareMpc mpc = newMpc(/* powerBudgetMw= */ 5000, EnergyAwareMpc.DEFAULT_DECISION_BUDGET_NS);
+
+        int[] formats = stream(mpc, /* bitrate= */ 100_000_000, /* chunks= */ 10);
+
+        assertThat(formats).asList().containsExactly(1, 2, 3, 4, 5, 6, 7, 7, 7, 7).inOrder();
+    }
+
+    @Test
+    public void testStaysLowOnASlowLink() {
+        EnergyAwareMpc mpc = newMpc(/* powerBudgetMw= */ 5000, EnergyAwareMpc.DEFAULT_DECISION_BUDGET_NS);
+
+        int[] formats = stream(mpc, /* bitrate= */ 200_000, /* chunks= */ 10);
+
+        for (int format : formats) {
+            assertThat(format).isAtMost(1);
+        }
+    }
+
+    @Test
+    public void testSelectsLowestFormatOnceTheBudgetIsExceeded() {
+        EnergyAwareMpc mpc = newMpc(/* powerBudgetMw= */ 100, EnergyAwareMpc.DEFAULT_DECISION_BUDGET_NS);
+
+        int[] formats = stream(mpc, /* bitrate= */ 100_000_000, /* chunks= */ 10);
+
+        assertThat(mpc.getEnergyDepositMj()).isLessThan(0.0);
+        assertThat(formats[formats.length - 1]).isEqualTo(0);
+    }
+
+    @Test
+    public void testFallsBackToAShorterHorizonWhenOutOfTime() {
+        EnergyAwareMpc mpc = newMpc(/* powerBudgetMw= */ 5000, /* decisionBudgetNs= */ 0);
+        describeChunks(mpc, EnergyAwareMpc.DEFAULT_MAX_HORIZON);
+
+        mpc.selectFormat(EnergyAwareMpc.DEFAULT_MAX_HORIZON, /* bufferS= */ 5, CHUNK_DURATION_S,
+                /* secondsPerByte= */ 8.0 / 10_000_000, /* sinceLastDownloadS= */ 0,
+                /* lastSsimDb= */ Double.NaN);
+
+        assertThat(mpc.getLastSolvedHorizon()).isAtLeast(1);
+        assertThat(mpc.getLastSolvedHorizon()).isLessThan(EnergyAwareMpc.DEFAULT_MAX_HORIZON);
+    }
+
+    @Test
+    public void testMatchesStraightPort() {
+        Random random = new Random(/* seed= */ 0);
+        int[] horizons = {1, 3, 5, 7};
+        int[] energyBins = {50, 100, 200};
+        double[] powerBudgetsMw = {150, 350, 450, 600, 5000};
+        for (int session = 0; session < 24; session++) {
+            int horizon = horizons[session % horizons.length];
+            int bins = energyBins[session % energyBins.length];
+            double powerBudgetMw = powerBudgetsMw[session % powerBudgetsMw.length];
+            EnergyAwareMpc mpc = new EnergyAwareMpc(horizon, EnergyAwareMpc.DEFAULT_BUFFER_BINS,
+                    bins, EnergyAwareMpc.DEFAULT_MAX_BUFFER_S, powerBudgetMw,
+                    EnergyAwareMpc.DEFAULT_REBUFFER_COEFF, EnergyAwareMpc.DEFAULT_SSIM_DIFF_COEFF,
+                    PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH),
+                    /* decisionBudgetNs= */ Long.MAX_VALUE);
+            StraightPortMpc reference = new StraightPortMpc(horizon,
+                    EnergyAwareMpc.DEFAULT_BUFFER_BINS, bins, EnergyAwareMpc.DEFAULT_MAX_BUFFER_S,
+                    powerBudgetMw, EnergyAwareMpc.DEFAULT_REBUFFER_COEFF,
+                    EnergyAwareMpc.DEFAULT_SSIM_DIFF_COEFF, PowerModel.STREAMING_MODE_TOUCH);
+            mpc.setFormats(WIDTHS.length, WIDTHS);
+            reference.setFormats(WIDTHS.length, WIDTHS);
+            int[] bufferedFormats = new int[horizon];
+            double lastSsimDb = Double.NaN;
+            for (int decision = 0; decision < 30; decision++) {
+                for (int chunk = 1; chunk <= horizon; chunk++) {
+                    for (int format = 0; format < WIDTHS.length; format++) {
+                        double noise = 0.7 + 0.6 * random.nextDouble();
+                        long bytes = (long) (CHUNK_BYTES[format] * noise);
+                        mpc.setChunk(chunk, format, SSIM_DB[format] * noise, bytes);
+                        reference.setChunk(chunk, format, SSIM_DB[format] * noise, bytes);
+                    }
+                }
+                int bufferedCount = random.nextInt(horizon + 1);
+                for (int i = 0; i < bufferedCount; i++) {
+                    bufferedFormats[i] = random.nextInt(WIDTHS.length);
+                }
+                mpc.setBufferedFormats(bufferedFormats, bufferedCount);
+                reference.setBufferedFormats(bufferedFormats, bufferedCount);
+                double secondsPerByte = 8.0 / (300_000 + random.nextInt(60_000_000));
+                double bufferS = random.nextDouble() * 8;
+                double sinceLastDownloadS = random.nextDouble() * 2;
+
+                int format = mpc.selectFormat(horizon, bufferS, CHUNK_DURATION_S, secondsPerByte,
+                        sinceLastDownloadS, lastSsimDb);
+                int expectedFormat = reference.selectFormat(horizon, bufferS, CHUNK_DURATION_S,
+                        secondsPerByte, sinceLastDownloadS, lastSsimDb);
+
+                assertThat(format).isEqualTo(expectedFormat);
+                double transferTimeS = CHUNK_BYTES[format] * secondsPerByte;
+                double durationS = Math.max(transferTimeS, random.nextDouble() * 3);
+                int playingFormat = bufferedCount > 0 ? bufferedFormats[0] : format;
+                mpc.onChunkDownloaded(format, CHUNK_BYTES[format], transferTimeS, durationS,
+                        playingFormat);
+                reference.onChunkDownloaded(format, CHUNK_BYTES[format], transferTimeS, durationS,
+                        playingFormat);
+                lastSsimDb = SSIM_DB[format];
+            }
+        }
+    }
+
+    /* package */ static EnergyAwareMpc newMpc(double powerBudgetMw, long decisionBudgetNs) {
+        EnergyAwareMpc mpc = new EnergyAwareMpc(EnergyAwareMpc.DEFAULT_MAX_HORIZON,
+                EnergyAwareMpc.DEFAULT_BUFFER_BINS, EnergyAwareMpc.DEFAULT_ENERGY_BINS,
+                EnergyAwareMpc.DEFAULT_MAX_BUFFER_S, powerBudgetMw,
+                EnergyAwareMpc.DEFAULT_REBUFFER_COEFF, EnergyAwareMpc.DEFAULT_SSIM_DIFF_COEFF,
+                PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH), decisionBudgetNs);
+        mpc.setFormats(WIDTHS.length, WIDTHS);
+        return mpc;
+    }
+
+    /* package */ static void describeChunks(EnergyAwareMpc mpc, int horizon) {
+        for (int chunk = 1; chunk <= horizon; chunk++) {
+            for (int format = 0; format < WIDTHS.length; format++) {
+                mpc.setChunk(chunk, format, SSIM_DB[format], CHUNK_BYTES[format]);
+            }
+        }
+    }
+
+    /**
+     * Downloads chunks over a link of constant bitrate, with the buffer kept at its maximum, and
+     * returns the selected formats.
+     */
+    private static int[] stream(EnergyAwareMpc mpc, long bitrate, int chunks) {
+        double secondsPerByte = 8.0 / bitrate;
+        int[] formats = new int[chunks];
+        double lastSsimDb = Double.NaN;
+        double bufferS = 0;
+        for (int i = 0; i < chunks; i++) {
+            describeChunks(mpc, EnergyAwareMpc.DEFAULT_MAX_HORIZON);
+            int format = mpc.selectFormat(EnergyAwareMpc.DEFAULT_MAX_HORIZON, bufferS,
+                    CHUNK_DURATION_S, secondsPerByte, /* sinceLastDownloadS= */ 0, lastSsimDb);
+            double transferTimeS = CHUNK_BYTES[format] * secondsPerByte;
+            bufferS = Math.min(EnergyAwareMpc.DEFAULT_MAX_BUFFER_S,
+                    Math.max(0, bufferS - transferTimeS) + CHUNK_DURATION_S);
+            mpc.onChunkDownloaded(format, CHUNK_BYTES[format], transferTimeS,
+                    Math.max(transferTimeS, CHUNK_DURATION_S), format);
+            formats[i] = format;
+            lastSsimDb = SSIM_DB[format];
+        }
+        return formats;
+    }
+}
@@ -0,0 +1,173 @@
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.power.PowerModel;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityProvider;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link MyTrackSelection}. */
+@RunWith(RobolectricTestRunner.class)
+public final class MyTrackSelectionTest {
+
+    private static final long CHUNK_DURATION_US = 2_002_000;
+
+    private final Format format1 = videoFormat(/* bitrate= */ 500_000, /* width= */ 426);
+    private final Format format2 = videoFormat(/* bitrate= */ 1_000_000, /* width= */ 854);
+    private final Format format3 = videoFormat(/* bitrate= */ 2_000_000, /* width= */ 1280);
+    private final TrackGroup trackGroup = new TrackGroup(format1, format2, format3);
+
+    private BandwidthMeter bandwidthMeter;
+    private FakeClock fakeClock;
+
+    @Before
+    public void setUp() {
+        bandwidthMeter = mock(BandwidthMeter.class);
+        fakeClock = new FakeClock(0);
+    }
+
+    @Test
+    public void testStartsWithLowestFormat() {
+        when(bandwidthMeter.getBitrateEstimate()).thenReturn(100_000_000L);
+        MyTrackSelection selection = createSelection(/* powerBudgetMw= */ 5000);
+
+        assertThat(selection.getSelectedFormat()).isEqualTo(format1);
+        assertThat(selection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_INITIAL);
+    }
+
+    @Test
+    public void testClimbsToHighestFormatOnAFastLink() {
+        when(bandwidthMeter.getBitrateEstimate()).thenReturn(100_000_000L);
+        MyTrackSelection selection = createSelection(/* powerBudgetMw= */ 5000);
+
+        List<Format> selected = play(selection, /* chunks= */ 4);
+
+        assertThat(selected).containsExactly(format2, format3, format3, format3).inOrder();
+        assertThat(selection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_ADAPTIVE);
+    }
+
+    @Test
+    public void testStaysOnLowestFormatOnASlowLink() {
+        when(bandwidthMeter.getBitrateEstimate()).thenReturn(300_000L);
+        MyTrackSelection selection = createSelection(/* powerBudgetMw= */ 5000);
+
+        List<Format> selected = play(selection, /* chunks= */ 4);
+
+        assertThat(selected).containsExactly(format1, format1, format1, format1);
+    }
+
+    @Test
+    public void testNeverDiscardsBufferedChunks() {
+        when(bandwidthMeter.getBitrateEstimate()).thenReturn(100_000_000L);
+        MyTrackSelection selection = createSelection(/* powerBudgetMw= */ 5000);
+        List<MediaChunk> queue = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            queue.add(new FakeMediaChunk(format1, i * CHUNK_DURATION_US,
+                    (i + 1) * CHUNK_DURATION_US));
+        }
+
+        assertThat(selection.evaluateQueueSize(/* playbackPositionUs= */ 0, queue)).isEqualTo(10);
+    }
+
+    private MyTrackSelection createSelection(double powerBudgetMw) {
+        return new MyTrackSelection.Factory(
+                ChunkQualityProvider.BITRATE_ESTIMATE,
+                EnergyAwareMpc.DEFAULT_MAX_HORIZON,
+                powerBudgetMw,
+                PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH),
+                MyTrackSelection.DEFAULT_DECISION_BUDGET_MS,
+                fakeClock)
+                .createTrackSelection(trackGroup, bandwidthMeter, /* tracks= */ 0, 1, 2);
+    }
+
+    /** Loads chunks back to back and returns the format selected for each. */
+    private List<Format> play(MyTrackSelection selection, int chunks) {
+        List<MediaChunk> queue = new ArrayList<>();
+        List<Format> selected = new ArrayList<>();
+        MediaChunkIterator[] iterators = new MediaChunkIterator[] {
+                MediaChunkIterator.EMPTY, MediaChunkIterator.EMPTY, MediaChunkIterator.EMPTY
+        };
+        for (int i = 0; i < chunks; i++) {
+            selection.updateSelectedTrack(
+                    /* playbackPositionUs= */ 0,
+                    /* bufferedDurationUs= */ i * CHUNK_DURATION_US,
+                    /* availableDurationUs= */ C.TIME_UNSET,
+                    queue,
+                    iterators);
+            Format format = selection.getSelectedFormat();
+            selected.add(format);
+            queue.add(new FakeMediaChunk(format, i * CHUNK_DURATION_US,
+                    (i + 1) * CHUNK_DURATION_US));
+            fakeClock.advanceTime(100);
+        }
+        return selected;
+    }
+
+    private static Format videoFormat(int bitrate, int width) {
+        return Format.createVideoSampleFormat(
+                /* id= */ null,
+                /* sampleMimeType= */ MimeTypes.VIDEO_H264,
+                /* codecs= */ null,
+                /* bitrate= */ bitrate,
+                /* maxInputSize= */ Format.NO_VALUE,
+                /* width= */ width,
+                /* height= */ width * 9 / 16,
+                /* frameRate= */ Format.NO_VALUE,
+                /* initializationData= */ null,
+                /* drmInitData= */ null);
+    }
+
+    private static final class FakeMediaChunk extends MediaChunk {
+
+        private static final DataSource DATA_SOURCE = new DefaultHttpDataSource("TEST_AGENT", null);
+
+        public FakeMediaChunk(Format trackFormat, long startTimeUs, long endTimeUs) {
+            super(
+                    DATA_SOURCE,
+                    new DataSpec(Uri.EMPTY),
+                    trackFormat,
+                    C.SELECTION_REASON_ADAPTIVE,
+                    null,
+                    startTimeUs,
+                    endTimeUs,
+                    0);
+        }
+
+        @Override
+        public void cancelLoad() {
+            // Do nothing.
+        }
+
+        @Override
+        public void load() {
+            // Do nothing.
+        }
+
+        @Override
+        public boolean isLoadCompleted() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.RendererCapabilities;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector.Parameters;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link MyTrackSelector}. */
+@RunWith(RobolectricTestRunner.class)
+public final class MyTrackSelectorTest {
+
+    private static final int SUPPORTED = RendererCapabilities.FORMAT_HANDLED
+            | RendererCapabilities.ADAPTIVE_SEAMLESS;
+    private static final int UNSUPPORTED = RendererCapabilities.FORMAT_UNSUPPORTED_SUBTYPE
+            | RendererCapabilities.ADAPTIVE_SEAMLESS;
+
+    private final List<int[]> selectedTracks = new ArrayList<>();
+    private final TrackSelection.Factory factory = (group, bandwidthMeter, tracks) -> {
+        selectedTracks.add(tracks);
+        return new FixedTrackSelection(group, tracks[0]);
+    };
+    private final MyTrackSelector trackSelector = new MyTrackSelector(factory);
+
+    private final TrackGroupArray groups = new TrackGroupArray(new TrackGroup(
+            createFormat("240p", MimeTypes.VIDEO_H264, 300_000),
+            createFormat("480p", MimeTypes.VIDEO_H264, 1_000_000),
+            createFormat("720p", MimeTypes.VIDEO_VP9, 2_000_000),
+            createFormat("1080p", MimeTypes.VIDEO_H264, 4_000_000)));
+
+    @Before
+    public void setUp() {
+        trackSelector.init(/* listener= */ () -> {}, new DefaultBandwidthMeter());
+    }
+
+    @Test
+    public void testSelectsTracksOfMostCommonMimeType() throws ExoPlaybackException {
+        select(new int[][] {{SUPPORTED, SUPPORTED, SUPPORTED, SUPPORTED}}, Parameters.DEFAULT);
+
+        assertThat(selectedTracks.get(0)).isEqualTo(new int[] {0, 1, 3});
+    }
+
+    @Test
+    public void testRepeatedSelectionReturnsSameTracks() throws ExoPlaybackException {
+        int[][] formatSupports = {{SUPPORTED, SUPPORTED, SUPPORTED, SUPPORTED}};
+        TrackSelection first = select(formatSupports, Parameters.DEFAULT);
+        // The renderers report their capabilities in new arrays for every selection.
+        TrackSelection second = select(new int[][] {formatSupports[0].clone()},
+                Parameters.DEFAULT);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(selectedTracks.get(1)).isEqualTo(selectedTracks.get(0));
+        assertThat(selectedTracks.get(1)).isNotSameAs(selectedTracks.get(0));
+    }
+
+    @Test
+    public void testChangedFormatSupportIsReselected() throws ExoPlaybackException {
+        int[][] formatSupports = {{SUPPORTED, SUPPORTED, SUPPORTED, SUPPORTED}};
+        select(formatSupports, Parameters.DEFAULT);
+        formatSupports[0][1] = UNSUPPORTED;
+        select(formatSupports, Parameters.DEFAULT);
+
+        assertThat(selectedTracks.get(1)).isEqualTo(new int[] {0, 3});
+    }
+
+    @Test
+    public void testChangedParametersAreReselected() throws ExoPlaybackException {
+        int[][] formatSupports = {{SUPPORTED, SUPPORTED, SUPPORTED, SUPPORTED}};
+        select(formatSupports, Parameters.DEFAULT);
+        trackSelector.setParameters(
+                trackSelector.buildUponParameters().setMaxVideoBitrate(1_000_000));
+        select(formatSupports, trackSelector.getParameters());
+
+        assertThat(selectedTracks.get(1)).isEqualTo(new int[] {0, 1});
+    }
+
+    @Test
+    public void testSelectsNothingWithoutTwoAdaptiveTracks() throws ExoPlaybackException {
+        int[][] formatSupports = {{SUPPORTED, UNSUPPORTED, SUPPORTED, UNSUPPORTED}};
+
+        assertThat(select(formatSupports, Parameters.DEFAULT)).isNull();
+        assertThat(select(formatSupports, Parameters.DEFAULT)).isNull();
+        assertThat(selectedTracks).isEmpty();
+    }
+
+    private TrackSelection select(int[][] formatSupports, Parameters params)
+            throws ExoPlaybackException {
+        return trackSelector.selectVideoTrack(groups, formatSupports,
+                /* mixedMimeTypeAdaptationSupports= */ 0, params, factory);
+    }
+
+    private static Format createFormat(String id, String mimeType, int bitrate) {
+        return Format.createVideoSampleFormat(
+                id,
+                mimeType,
+                /* codecs= */ null,
+                bitrate,
+                /* maxInputSize= */ Format.NO_VALUE,
+                /* width= */ Format.NO_VALUE,
+                /* height= */ Format.NO_VALUE,
+                /* frameRate= */ Format.NO_VALUE,
+                /* initializationData= */ null,
+                /* drmInitData= */ null);
+    }
+}
@@ -0,0 +1,273 @@
+package com.google.android.exoplayer2.trackselection;
+
+import com.google.android.exoplayer2.power.PowerModel;
+
+/**
+ * A line-by-line port of the server's {@code MPCProactiveSim}, with its recursion and its dense
+ * {@code flag_} and {@code v_} tables sized for {@link EnergyAwareMpc#MAX_FORMATS}. It has the
+ * interface of {@link EnergyAwareMpc}, no time budget, and solves each decision once at the full
+ * horizon. It is the reference that {@link EnergyAwareMpc} is checked and benchmarked against.
+ */
+/* package */ final class StraightPortMpc {
+
+    private static final double MIN_ENERGY_MJ = -1000;
+    private static final double MAX_ENERGY_MJ = 1000;
+    private static final double HIGH_SENDING_TIME_S = 10000;
+
+    private final int maxHorizon;
+    private final int bufferBins;
+    private final int energyBins;
+    private final double unitBufferS;
+    private final double unitEnergyMj;
+    private final double bufferThresholdS;
+    private final double powerBudgetMw;
+    private final double rebufferCoeff;
+    private final double ssimDiffCoeff;
+    private final int streamingMode;
+
+    private final long[][][][] flag;
+    private final double[][][][] value;
+    private final double[] realBufferS;
+    private final double[][] ssimDb;
+    private final long[][] chunkBytes;
+    private final double[][] sendingTimeS;
+    private final double[][] netPowerMw;
+    private final int[] lookaheadFormats;
+    private final int[] widths = new int[EnergyAwareMpc.MAX_FORMATS];
+    private int[] bufferedFormats = new int[0];
+    private int bufferedCount;
+
+    private int formatCount;
+    private int horizon;
+    private long round;
+    private double chunkDurationS;
+    private double sinceLastAckS;
+    private boolean isInit;
+
+    private int prevSelectedFormat;
+    private int selectedCount;
+    private double powerHistoryMw;
+    private double timeHistoryS;
+    private double energyDepositMj;
+
+    public StraightPortMpc(int maxHorizon, int bufferBins, int energyBins, double maxBufferS,
+                           double powerBudgetMw, double rebufferCoeff, double ssimDiffCoeff,
+                           int streamingMode) {
+        this.maxHorizon = maxHorizon;
+        this.bufferBins = bufferBins;
+        this.energyBins = energyBins;
+        this.unitBufferS = maxBufferS / bufferBins;
+        this.unitEnergyMj = (MAX_ENERGY_MJ - MIN_ENERGY_MJ) / energyBins;
+        this.bufferThresholdS = maxBufferS;
+        this.powerBudgetMw = powerBudgetMw;
+        this.rebufferCoeff = rebufferCoeff;
+        this.ssimDiffCoeff = ssimDiffCoeff;
+        this.streamingMode = streamingMode;
+        flag = new long[maxHorizon + 1][bufferBins + 1][EnergyAwareMpc.MAX_FORMATS][energyBins];
+        value = new double[maxHorizon + 1][bufferBins + 1][EnergyAwareMpc.MAX_FORMATS][energyBins];
+        realBufferS = new double[bufferBins + 1];
+        for (int i = 0; i <= bufferBins; i++) {
+            realBufferS[i] = i * unitBufferS;
+        }
+        ssimDb = new double[maxHorizon + 1][EnergyAwareMpc.MAX_FORMATS];
+        chunkBytes = new long[maxHorizon + 1][EnergyAwareMpc.MAX_FORMATS];
+        sendingTimeS = new double[maxHorizon + 1][EnergyAwareMpc.MAX_FORMATS];
+        netPowerMw = new double[maxHorizon + 1][EnergyAwareMpc.MAX_FORMATS];
+        lookaheadFormats = new int[maxHorizon + 1];
+    }
+
+    public void setFormats(int count, int[] widths) {
+        formatCount = count;
+        System.arraycopy(widths, 0, this.widths, 0, count);
+    }
+
+    public void setChunk(int chunk, int format, double chunkSsimDb, long bytes) {
+        ssimDb[chunk][format] = chunkSsimDb;
+        chunkBytes[chunk][format] = bytes;
+    }
+
+    public void setBufferedFormats(int[] formats, int count) {
+        bufferedFormats = formats;
+        bufferedCount = count;
+    }
+
+    public int selectFormat(int horizon, double bufferS, double chunkDurationS,
+                            double secondsPerByte, double sinceLastDownloadS, double lastSsimDb) {
+        this.chunkDurationS = chunkDurationS;
+        this.sinceLastAckS = selectedCount == 0 ? 0 : sinceLastDownloadS;
+        this.horizon = Math.max(1, Math.min(horizon, maxHorizon));
+        isInit = Double.isNaN(lastSsimDb);
+        ssimDb[0][0] = isInit ? 0 : lastSsimDb;
+        double unitSendingTimeS = secondsPerByte > 0 ? secondsPerByte : HIGH_SENDING_TIME_S;
+        for (int i = 1; i <= this.horizon; i++) {
+            for (int j = 0; j < formatCount; j++) {
+                sendingTimeS[i][j] = chunkBytes[i][j] * unitSendingTimeS;
+                netPowerMw[i][j] = computeNetPowerMw(chunkBytes[i][j], sendingTimeS[i][j]);
+            }
+        }
+        round++;
+        int buffer = Math.min(bufferBins, discretizeBuffer(Math.max(0, bufferS)));
+        int format = updateValue(0, buffer, 0, energyBins / 2);
+        if (format > prevSelectedFormat) {
+            format = prevSelectedFormat + 1;
+        }
+        prevSelectedFormat = format;
+        selectedCount++;
+        return format;
+    }
+
+    public void onChunkDownloaded(int format, long bytes, double transferTimeS, double durationS,
+                                  int playingFormat) {
+        if (durationS > 0) {
+            double idleTimeS = Math.max(0, durationS - transferTimeS);
+            double tailTimeS = Math.min(idleTimeS, 0.2);
+            idleTimeS -= tailTimeS;
+            double chunkEnergyMj = computeNetPowerMw(bytes, transferTimeS) * transferTimeS
+                    + 123.27 * tailTimeS + 0 * idleTimeS
+                    + videoPowerMw(playingFormat) * durationS;
+            double energyMj = powerHistoryMw * timeHistoryS + chunkEnergyMj;
+            timeHistoryS += durationS;
+            powerHistoryMw = energyMj / timeHistoryS;
+        }
+        if (selectedCount >= 6) {
+            energyDepositMj = (powerBudgetMw - powerHistoryMw) * timeHistoryS;
+        } else {
+            powerHistoryMw = 0;
+            timeHistoryS = 0;
+            energyDepositMj = 0;
+        }
+    }
+
+    private int updateValue(int i, int buffer, int format, int energy) {
+        flag[i][buffer][format][energy] = round;
+        lookaheadFormats[i] = format;
+        if (i == horizon) {
+            value[i][buffer][format][energy] = ssimDb[i][format];
+            return 0;
+        }
+        int bestNextFormat = formatCount;
+        double maxQvalue = 0;
+        for (int nextFormat = 0; nextFormat < formatCount; nextFormat++) {
+            lookaheadFormats[i + 1] = nextFormat;
+            double qvalue = getQvalue(i, buffer, format, nextFormat, energy);
+            if (bestNextFormat == formatCount || qvalue > maxQvalue) {
+                maxQvalue = qvalue;
+                bestNextFormat = nextFormat;
+            }
+        }
+        value[i][buffer][format][energy] = maxQvalue;
+        if (maxQvalue >= 0 || i != 0) {
+            return bestNextFormat;
+        }
+        return 0;
+    }
+
+    private double getQvalue(int i, int buffer, int format, int nextFormat, int energy) {
+        double rebufferS = sendingTimeS[i + 1][nextFormat] - realBufferS[buffer];
+        int nextBuffer = Math.min(bufferBins,
+                discretizeBuffer(Math.max(0, -rebufferS + chunkDurationS)));
+
+        double estEnergyMj = MIN_ENERGY_MJ + energy * unitEnergyMj + unitEnergyMj * 0.5;
+        double transTimeS = sendingTimeS[i + 1][nextFormat];
+        double tailTimeS = 0;
+        double idleTimeS = 0;
+        if (i == 0) {
+            idleTimeS = sinceLastAckS;
+        }
+        if (rebufferS > bufferThresholdS) {
+            idleTimeS += rebufferS - bufferThresholdS;
+        }
+        if (idleTimeS > 0.2) {
+            tailTimeS = 0.2;
+            idleTimeS = idleTimeS - 0.2;
+        } else if (idleTimeS <= 0.2 && idleTimeS > 0) {
+            tailTimeS = idleTimeS;
+            idleTimeS = 0;
+        }
+
+        double estTimeS = transTimeS + tailTimeS + idleTimeS;
+        double videoPowerMw = computeVideoPowerMw(i);
+        estEnergyMj += netPowerMw[i + 1][nextFormat] * transTimeS + 123.27 * tailTimeS
+                + 0 * idleTimeS;
+        estEnergyMj += videoPowerMw * estTimeS;
+        estEnergyMj -= powerBudgetMw * estTimeS;
+
+        if (i == horizon - 1 && estEnergyMj > energyDepositMj) {
+            return -99999;
+        }
+
+        int nextEnergy = discretizeEnergy(estEnergyMj);
+        double qvalue = ssimDb[i][format] - rebufferCoeff * Math.max(0, rebufferS)
+                + getValue(i + 1, nextBuffer, nextFormat, nextEnergy);
+        if (!isInit || i != 0) {
+            qvalue -= ssimDiffCoeff * Math.abs(ssimDb[i][format] - ssimDb[i + 1][nextFormat]);
+        }
+        return qvalue;
+    }
+
+    private double getValue(int i, int buffer, int format, int energy) {
+        if (flag[i][buffer][format][energy] != round) {
+            updateValue(i, buffer, format, energy);
+        }
+        return value[i][buffer][format][energy];
+    }
+
+    private double computeVideoPowerMw(int i) {
+        if (i < bufferedCount) {
+            return videoPowerMw(bufferedFormats[i]);
+        }
+        int lookahead = i - bufferedCount;
+        return videoPowerMw(lookahead >= maxHorizon ? 0 : lookaheadFormats[lookahead + 1]);
+    }
+
+    private double videoPowerMw(int format) {
+        int width = widths[format];
+        if (streamingMode == PowerModel.STREAMING_MODE_TOUCH) {
+            switch (width) {
+                case 3840: return 227.42;
+                case 2560: return 206.76;
+                case 1920: return 199.00;
+                case 1280: return 194.10;
+                case 854: return 191.34;
+                case 640: return 189.71;
+                case 426: return 185.21;
+                case 256: return 185.70;
+                default: return 115.39;
+            }
+        } else if (streamingMode == PowerModel.STREAMING_MODE_GYRO) {
+            switch (width) {
+                case 3840: return 259.00;
+                case 2560: return 235.00;
+                case 1920: return 234.00;
+                case 1280: return 226.00;
+                case 854: return 218.00;
+                case 640:
+                case 426:
+                case 256: return 213.00;
+                default: return 115.39;
+            }
+        }
+        return 0;
+    }
+
+    private int discretizeBuffer(double bufferS) {
+        return (int) ((bufferS + unitBufferS * 0.5) / unitBufferS);
+    }
+
+    private int discretizeEnergy(double energyMj) {
+        if (energyMj >= MAX_ENERGY_MJ) {
+            return energyBins - 1;
+        }
+        if (energyMj < MIN_ENERGY_MJ) {
+            return 0;
+        }
+        return Math.min(energyBins - 1, (int) ((energyMj - MIN_ENERGY_MJ) / unitEnergyMj));
+    }
+
+    private static double computeNetPowerMw(long bytes, double transferTimeS) {
+        if (transferTimeS <= 0) {
+            return 152.56;
+        }
+        return 0.0018 * (8.0 * bytes / (transferTimeS * 1024.0)) + 152.56;
+    }
+}
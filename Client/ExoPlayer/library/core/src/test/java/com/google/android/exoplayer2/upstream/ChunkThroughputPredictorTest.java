@@ -0,0 +1,128 @@
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.MediaLoadData;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link ChunkThroughputPredictor}. */
+@RunWith(RobolectricTestRunner.class)
+public final class ChunkThroughputPredictorTest {
+
+  private final ChunkThroughputPredictor predictor = new ChunkThroughputPredictor();
+
+  @Test
+  public void testInitialEstimate() {
+    assertThat(predictor.getSampleCount()).isEqualTo(0);
+    assertThat(predictor.getBitrateEstimate())
+        .isEqualTo(ChunkThroughputPredictor.DEFAULT_INITIAL_BITRATE_ESTIMATE);
+    assertThat(predictor.getRobustBitrateEstimate())
+        .isEqualTo(ChunkThroughputPredictor.DEFAULT_INITIAL_BITRATE_ESTIMATE);
+    assertThat(predictor.getMaxPredictionError()).isEqualTo(0.0);
+  }
+
+  @Test
+  public void testPredictionIsHarmonicMeanOfThroughputs() {
+    // 1 Mbit/s, then 4 Mbit/s.
+    predictor.addSample(/* bytes= */ 125_000, /* transmissionTimeMs= */ 1000);
+    predictor.addSample(/* bytes= */ 500_000, /* transmissionTimeMs= */ 1000);
+
+    assertThat(predictor.getBitrateEstimate()).isEqualTo(1_600_000);
+    // The second chunk took a quarter of the predicted time.
+    assertThat(predictor.getMaxPredictionError()).isWithin(1e-12).of(0.75);
+    assertThat(predictor.getRobustBitrateEstimate()).isEqualTo(Math.round(1_600_000 / 1.75));
+  }
+
+  @Test
+  public void testErrorExpiresWithItsSample() {
+    predictor.addSample(/* bytes= */ 125_000, /* transmissionTimeMs= */ 1000);
+    predictor.addSample(/* bytes= */ 250_000, /* transmissionTimeMs= */ 1000);
+    for (int i = 0; i < ChunkThroughputPredictor.DEFAULT_MAX_SAMPLES - 1; i++) {
+      predictor.addSample(/* bytes= */ 250_000, /* transmissionTimeMs= */ 1000);
+    }
+    // The first sample has been evicted, but the error of the second one remains.
+    assertThat(predictor.getBitrateEstimate()).isEqualTo(2_000_000);
+    assertThat(predictor.getMaxPredictionError()).isWithin(1e-12).of(0.5);
+
+    predictor.addSample(/* bytes= */ 250_000, /* transmissionTimeMs= */ 1000);
+
+    // The third sample took two thirds of the predicted time.
+    assertThat(predictor.getMaxPredictionError()).isWithin(1e-12).of(1.0 / 3);
+    assertThat(predictor.getRobustBitrateEstimate()).isEqualTo(1_500_000);
+  }
+
+  @Test
+  public void testMatchesServerPredictor() {
+    Random random = new Random(0);
+    ArrayDeque<double[]> pastChunks = new ArrayDeque<>();
+    for (int i = 0; i < 1000; i++) {
+      long bytes = 10_000 + random.nextInt(2_000_000);
+      long transmissionTimeMs = 1 + random.nextInt(5000);
+      // As in video_chunk_acked and reinit_sending_time of the server's MPC.
+      double expectedError = 0;
+      if (!pastChunks.isEmpty()) {
+        double lastPrediction = 1 / getMeanUnitSendingTime(pastChunks);
+        expectedError = Math.abs(1 - lastPrediction * transmissionTimeMs / bytes / 1000);
+      }
+      pastChunks.addLast(new double[] {(double) transmissionTimeMs / bytes / 1000,
+          expectedError});
+      if (pastChunks.size() > ChunkThroughputPredictor.DEFAULT_MAX_SAMPLES) {
+        pastChunks.removeFirst();
+      }
+      double maxError = 0;
+      for (double[] chunk : pastChunks) {
+        maxError = Math.max(maxError, chunk[1]);
+      }
+
+      predictor.addSample(bytes, transmissionTimeMs);
+
+      double meanUnitSendingTime = getMeanUnitSendingTime(pastChunks);
+      assertThat(predictor.getPredictedSecondsPerByte())
+          .isWithin(1e-9 * meanUnitSendingTime).of(meanUnitSendingTime);
+      assertThat(predictor.getMaxPredictionError()).isWithin(1e-9).of(maxError);
+      assertThat(predictor.getRobustSecondsPerByte())
+          .isWithin(1e-9 * meanUnitSendingTime)
+          .of(meanUnitSendingTime * (1 + maxError));
+    }
+  }
+
+  @Test
+  public void testSamplesMediaLoadsOtherThanAudio() {
+    LoadEventInfo load = new LoadEventInfo(new DataSpec(Uri.EMPTY), Uri.EMPTY,
+        Collections.emptyMap(), /* elapsedRealtimeMs= */ 0, /* loadDurationMs= */ 1000,
+        /* bytesLoaded= */ 250_000);
+
+    predictor.onLoadCompleted(/* eventTime= */ null, load,
+        createMediaLoadData(C.DATA_TYPE_MEDIA_INITIALIZATION, C.TRACK_TYPE_VIDEO));
+    predictor.onLoadCompleted(/* eventTime= */ null, load,
+        createMediaLoadData(C.DATA_TYPE_MEDIA, C.TRACK_TYPE_AUDIO));
+    assertThat(predictor.getSampleCount()).isEqualTo(0);
+
+    predictor.onLoadCompleted(/* eventTime= */ null, load,
+        createMediaLoadData(C.DATA_TYPE_MEDIA, C.TRACK_TYPE_VIDEO));
+    assertThat(predictor.getSampleCount()).isEqualTo(1);
+    assertThat(predictor.getBitrateEstimate()).isEqualTo(2_000_000);
+  }
+
+  private static double getMeanUnitSendingTime(ArrayDeque<double[]> pastChunks) {
+    double sum = 0;
+    for (double[] chunk : pastChunks) {
+      sum += chunk[0];
+    }
+    return sum / pastChunks.size();
+  }
+
+  private static MediaLoadData createMediaLoadData(int dataType, int trackType) {
+    return new MediaLoadData(dataType, trackType, /* trackFormat= */ null,
+        C.SELECTION_REASON_UNKNOWN, /* trackSelectionData= */ null,
+        /* mediaStartTimeMs= */ 0, /* mediaEndTimeMs= */ 0);
+  }
+}
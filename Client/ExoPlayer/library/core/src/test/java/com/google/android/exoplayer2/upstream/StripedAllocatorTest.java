@@ -0,0 +1,129 @@
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link StripedAllocator}. */
+@RunWith(RobolectricTestRunner.class)
+public final class StripedAllocatorTest {
+
+  private static final int ALLOCATION_SIZE = 16;
+
+  @Test
+  public void testReusesReleasedAllocations() {
+    StripedAllocator allocator = new StripedAllocator(/* trimOnReset= */ true, ALLOCATION_SIZE);
+
+    Allocation allocation = allocator.allocate();
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(ALLOCATION_SIZE);
+    allocator.release(allocation);
+
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+    assertThat(allocator.allocate()).isSameAs(allocation);
+    assertThat(allocator.getCreatedAllocationCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testCarvesAllocationsFromSlabs() {
+    StripedAllocator allocator = new StripedAllocator(/* trimOnReset= */ true, ALLOCATION_SIZE,
+        /* allocationsPerSlab= */ 4, StripedAllocator.DEFAULT_STRIPE_COUNT);
+
+    List<Integer> offsets = new ArrayList<>();
+    Allocation first = allocator.allocate();
+    offsets.add(first.offset);
+    for (int i = 1; i < 4; i++) {
+      Allocation allocation = allocator.allocate();
+      assertThat(allocation.data).isSameAs(first.data);
+      offsets.add(allocation.offset);
+    }
+
+    assertThat(first.data).hasLength(4 * ALLOCATION_SIZE);
+    assertThat(offsets).containsExactly(0, 16, 32, 48);
+    assertThat(allocator.allocate().data).isNotSameAs(first.data);
+    assertThat(allocator.getCreatedAllocationCount()).isEqualTo(8L);
+    assertThat(allocator.getAvailableAllocationCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testTrimsReleasedAllocationsBeyondTarget() {
+    StripedAllocator allocator = new StripedAllocator(/* trimOnReset= */ true, ALLOCATION_SIZE);
+    allocator.setTargetBufferSize(40 * ALLOCATION_SIZE);
+    Allocation[] allocations = new Allocation[40];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    // More than a stripe holds, so that some overflow into the global pool.
+    allocator.release(allocations);
+    assertThat(allocator.getAvailableAllocationCount()).isEqualTo(40);
+
+    allocator.setTargetBufferSize(3 * ALLOCATION_SIZE - 1);
+    assertThat(allocator.getAvailableAllocationCount()).isEqualTo(3);
+    assertThat(allocator.getTrimmedAllocationCount()).isEqualTo(37L);
+
+    allocator.reset();
+    assertThat(allocator.getAvailableAllocationCount()).isEqualTo(0);
+    assertThat(allocator.getTrimmedAllocationCount()).isEqualTo(40L);
+  }
+
+  @Test
+  public void testConcurrentAllocationsAreExclusive() throws InterruptedException {
+    StripedAllocator allocator = new StripedAllocator(/* trimOnReset= */ true, ALLOCATION_SIZE,
+        /* allocationsPerSlab= */ 8, /* stripeCount= */ 2);
+    int threadCount = 8;
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicReference<String> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      byte mark = (byte) (i + 1);
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        Allocation[] held = new Allocation[4];
+        for (int iteration = 0; iteration < 5000; iteration++) {
+          for (int j = 0; j < held.length; j++) {
+            held[j] = allocator.allocate();
+            held[j].data[held[j].offset] = mark;
+            held[j].data[held[j].offset + ALLOCATION_SIZE - 1] = mark;
+          }
+          for (Allocation allocation : held) {
+            if (allocation.data[allocation.offset] != mark
+                || allocation.data[allocation.offset + ALLOCATION_SIZE - 1]
+                != mark) {
+              failure.set("Allocation shared by two threads");
+            }
+          }
+          if (iteration % 2 == 0) {
+            allocator.release(held);
+          } else {
+            for (Allocation allocation : held) {
+              allocator.release(allocation);
+            }
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(failure.get()).isNull();
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+    assertThat((long) allocator.getAvailableAllocationCount())
+        .isEqualTo(allocator.getCreatedAllocationCount());
+    // Threads hold 32 allocations at once. A thread may create more than its share when it
+    // finds the stripes locked, but released allocations are mostly reused.
+    assertThat(allocator.getCreatedAllocationCount()).isLessThan(1000L);
+  }
+}
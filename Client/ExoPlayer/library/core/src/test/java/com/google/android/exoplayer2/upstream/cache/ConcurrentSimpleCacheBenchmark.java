@@ -0,0 +1,94 @@
+package com.google.android.exoplayer2.upstream.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.util.Util;
+import java.io.File;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Compares the throughput of {@link ConcurrentSimpleCache} with {@link SimpleCache} as 1 to 16
+ * loaders pre-cache renditions in parallel. Each loader has its own key, and for each operation
+ * looks up whether a random segment is cached, then writes it if not or reads it otherwise, with
+ * a {@link LeastRecentlyUsedCacheEvictor} that holds about half of the segments.
+ * <p>
+ * Runs only when the system property {@code benchmarks} is true. The number of operations for each
+ * loader is set with the system property {@code cache.benchmark.operations}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class ConcurrentSimpleCacheBenchmark {
+
+  private static final int[] LOADER_COUNTS = {1, 2, 4, 8, 16};
+  private static final int SEGMENT_COUNT = 64;
+  private static final int SEGMENT_LENGTH = 1024;
+
+  @Test
+  public void compareWithSimpleCache() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+    int operations = Integer.getInteger("cache.benchmark.operations", 1_000);
+    System.out.println("Benchmark: loaders and operations per second of"
+        + " ConcurrentSimpleCache vs. SimpleCache");
+    // Warm up, so that neither is measured before compilation.
+    measure(/* concurrent= */ true, LOADER_COUNTS[LOADER_COUNTS.length - 1], operations);
+    measure(/* concurrent= */ false, LOADER_COUNTS[LOADER_COUNTS.length - 1], operations);
+    for (int loaderCount : LOADER_COUNTS) {
+      double concurrentRate = measure(/* concurrent= */ true, loaderCount, operations);
+      double simpleRate = measure(/* concurrent= */ false, loaderCount, operations);
+      System.out.println(String.format(Locale.US,
+          "Benchmark: %2d  %9.0f /s  vs. %9.0f /s  (%.1fx)", loaderCount,
+          concurrentRate, simpleRate, concurrentRate / simpleRate));
+    }
+  }
+
+  private static double measure(boolean concurrent, int loaderCount, int operations)
+      throws Exception {
+    File cacheDir = Util.createTempDirectory(RuntimeEnvironment.application, "ExoPlayerTest");
+    long maxBytes = (long) loaderCount * SEGMENT_COUNT * SEGMENT_LENGTH / 2;
+    CacheEvictor evictor = new LeastRecentlyUsedCacheEvictor(maxBytes);
+    Cache cache = concurrent ? new ConcurrentSimpleCache(cacheDir, evictor)
+        : new SimpleCache(cacheDir, evictor);
+    Thread[] loaders = new Thread[loaderCount];
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int i = 0; i < loaderCount; i++) {
+      String key = "rendition" + i;
+      Random random = new Random(i);
+      loaders[i] = new Thread(() -> {
+        try {
+          start.await();
+          for (int j = 0; j < operations; j++) {
+            int position = SEGMENT_LENGTH * random.nextInt(SEGMENT_COUNT);
+            cache.isCached(key, position, SEGMENT_LENGTH);
+            CacheSpan span = cache.startReadWrite(key, position);
+            if (!span.isCached) {
+              ConcurrentSimpleCacheTest.addCache(cache, key, position,
+                  SEGMENT_LENGTH);
+              cache.releaseHoleSpan(span);
+            }
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      loaders[i].start();
+    }
+    long startNs = System.nanoTime();
+    start.countDown();
+    for (Thread loader : loaders) {
+      loader.join();
+    }
+    long elapsedNs = System.nanoTime() - startNs;
+    cache.release();
+    Util.recursiveDelete(cacheDir);
+    assertThat(failure.get()).isNull();
+    return (double) loaderCount * operations * 1e9 / elapsedNs;
+  }
+}
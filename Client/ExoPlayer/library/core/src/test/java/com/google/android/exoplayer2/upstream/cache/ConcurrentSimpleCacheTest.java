@@ -0,0 +1,206 @@
+package com.google.android.exoplayer2.upstream.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.util.Util;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Unit test for {@link ConcurrentSimpleCache}. */
+@RunWith(RobolectricTestRunner.class)
+public final class ConcurrentSimpleCacheTest {
+
+  private static final String KEY_1 = "key1";
+  private static final String KEY_2 = "key2";
+
+  private File cacheDir;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = Util.createTempDirectory(RuntimeEnvironment.application, "ExoPlayerTest");
+  }
+
+  @After
+  public void tearDown() {
+    Util.recursiveDelete(cacheDir);
+  }
+
+  @Test
+  public void testCommittingOneFile() throws Exception {
+    ConcurrentSimpleCache cache = new ConcurrentSimpleCache(cacheDir, new NoOpCacheEvictor());
+
+    CacheSpan holeSpan = cache.startReadWrite(KEY_1, 0);
+    assertThat(holeSpan.isCached).isFalse();
+    assertThat(cache.startReadWriteNonBlocking(KEY_1, 0)).isNull();
+    addCache(cache, KEY_1, 0, 15);
+    cache.releaseHoleSpan(holeSpan);
+
+    assertThat(cache.getKeys()).containsExactly(KEY_1);
+    assertThat(cache.getCachedSpans(KEY_1)).hasSize(1);
+    assertThat(cache.getCacheSpace()).isEqualTo(15);
+    assertThat(cache.isCached(KEY_1, 0, 15)).isTrue();
+    CacheSpan readSpan = cache.startReadWrite(KEY_1, 0);
+    assertThat(readSpan.isCached).isTrue();
+    assertThat(readSpan.length).isEqualTo(15);
+    // The touched span replaces the read one.
+    assertThat(cache.getCachedSpans(KEY_1).first().file).isEqualTo(readSpan.file);
+  }
+
+  @Test
+  public void testLockedKeyDoesNotBlockOtherKeys() throws Exception {
+    ConcurrentSimpleCache cache = new ConcurrentSimpleCache(cacheDir, new NoOpCacheEvictor());
+    CacheSpan holeSpan = cache.startReadWrite(KEY_1, 0);
+    CountDownLatch waiting = new CountDownLatch(1);
+    AtomicReference<CacheSpan> waitedSpan = new AtomicReference<>();
+    Thread waiter = new Thread(() -> {
+      try {
+        waiting.countDown();
+        waitedSpan.set(cache.startReadWrite(KEY_1, 0));
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    waiter.start();
+    waiting.await();
+
+    // A loader of another key makes progress while the first one waits.
+    CacheSpan otherSpan = cache.startReadWrite(KEY_2, 0);
+    addCache(cache, KEY_2, 0, 10);
+    cache.releaseHoleSpan(otherSpan);
+    assertThat(cache.isCached(KEY_2, 0, 10)).isTrue();
+    assertThat(waitedSpan.get()).isNull();
+
+    addCache(cache, KEY_1, 0, 15);
+    waiter.join(TimeUnit.SECONDS.toMillis(10));
+    assertThat(waitedSpan.get().isCached).isTrue();
+    cache.releaseHoleSpan(holeSpan);
+  }
+
+  @Test
+  public void testCachedLengthMatchesCachedContent() throws Exception {
+    ConcurrentSimpleCache cache = new ConcurrentSimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertThat(cache.getCachedLength(KEY_1, 5, 10)).isEqualTo(-10);
+    CacheSpan holeSpan = cache.startReadWrite(KEY_1, 0);
+    Random random = new Random(/* seed= */ 0);
+    int position = 0;
+    for (int i = 0; i < 20; i++) {
+      position += random.nextInt(3) * 10;
+      int length = 1 + random.nextInt(20);
+      addCache(cache, KEY_1, position, length);
+      position += length;
+    }
+    cache.releaseHoleSpan(holeSpan);
+    CachedContent cachedContent = new CachedContent(/* id= */ 0, KEY_1);
+    for (CacheSpan span : cache.getCachedSpans(KEY_1)) {
+      cachedContent.addSpan((SimpleCacheSpan) span);
+    }
+
+    for (long queryPosition = 0; queryPosition < position + 10; queryPosition++) {
+      for (long queryLength = 1; queryLength < 60; queryLength += 7) {
+        assertThat(cache.getCachedLength(KEY_1, queryPosition, queryLength))
+            .isEqualTo(cachedContent.getCachedBytesLength(queryPosition, queryLength));
+      }
+    }
+  }
+
+  @Test
+  public void testReloadsSimpleCacheDirectory() throws Exception {
+    SimpleCache simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    simpleCache.setContentLength(KEY_1, 15);
+    simpleCache.release();
+
+    ConcurrentSimpleCache cache = new ConcurrentSimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertThat(cache.getCacheSpace()).isEqualTo(15);
+    assertThat(cache.getContentLength(KEY_1)).isEqualTo(15);
+    assertThat(cache.getCachedLength(KEY_1, 5, 100)).isEqualTo(10);
+    cache.release();
+    assertThat(SimpleCache.isCacheFolderLocked(cacheDir)).isFalse();
+  }
+
+  @Test
+  public void testEvictionStaysConsistentUnderConcurrentLoaders() throws Exception {
+    long maxBytes = 400;
+    ConcurrentSimpleCache cache = new ConcurrentSimpleCache(cacheDir,
+        new LeastRecentlyUsedCacheEvictor(maxBytes), /* secretKey= */ null,
+        /* encrypt= */ false);
+    int threadCount = 8;
+    List<Thread> threads = new ArrayList<>();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int t = 0; t < threadCount; t++) {
+      // Pairs of threads share a key, so that they also wait for each other.
+      String key = "key" + (t / 2);
+      Random random = new Random(t);
+      Thread thread = new Thread(() -> {
+        try {
+          for (int i = 0; i < 100; i++) {
+            int position = 10 * random.nextInt(20);
+            CacheSpan span = cache.startReadWrite(key, position);
+            if (!span.isCached) {
+              addCache(cache, key, position, 10);
+              cache.releaseHoleSpan(span);
+            }
+            cache.getCachedLength(key, 0, 200);
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(failure.get()).isNull();
+
+    long cachedBytes = 0;
+    Set<File> spanFiles = new HashSet<>();
+    for (String key : cache.getKeys()) {
+      NavigableSet<CacheSpan> spans = cache.getCachedSpans(key);
+      for (CacheSpan span : spans) {
+        cachedBytes += span.length;
+        spanFiles.add(span.file);
+      }
+    }
+    assertThat(cache.getCacheSpace()).isEqualTo(cachedBytes);
+    assertThat(cachedBytes).isAtMost(maxBytes);
+    Set<File> files = new HashSet<>();
+    for (File file : cacheDir.listFiles()) {
+      if (!file.getName().equals(CachedContentIndex.FILE_NAME)) {
+        files.add(file);
+      }
+    }
+    assertThat(files).isEqualTo(spanFiles);
+  }
+
+  /* package */ static void addCache(Cache cache, String key, int position, int length)
+      throws IOException {
+    File file = cache.startFile(key, position, length);
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(new byte[length]);
+    } finally {
+      outputStream.close();
+    }
+    cache.commitFile(file);
+  }
+}
@@ -0,0 +1,99 @@
+package com.google.android.exoplayer2.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link ParsableByteBuffer}. */
+@RunWith(RobolectricTestRunner.class)
+public final class ParsableByteBufferTest {
+
+  private static final byte[] TEST_DATA =
+      new byte[] {0x0F, (byte) 0xFF, (byte) 0x80, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06};
+
+  @Test
+  public void testReadsBigEndianValuesOfRegion() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(TEST_DATA.length + 2);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.position(2);
+    buffer.put(TEST_DATA);
+    ParsableByteBuffer parsable = new ParsableByteBuffer();
+    parsable.reset(buffer.asReadOnlyBuffer(), /* offset= */ 2, TEST_DATA.length);
+
+    assertThat(parsable.peekUnsignedByte()).isEqualTo(0x0F);
+    assertThat(parsable.readUnsignedShort()).isEqualTo(0x0FFF);
+    assertThat(parsable.readUnsignedByte()).isEqualTo(0x80);
+    parsable.setPosition(1);
+    assertThat(parsable.readUnsignedInt()).isEqualTo(0xFF800102L);
+    parsable.setPosition(0);
+    assertThat(parsable.readLong()).isEqualTo(0x0FFF800102030405L);
+    assertThat(parsable.bytesLeft()).isEqualTo(1);
+  }
+
+  @Test
+  public void testReadUnsignedIntToIntThrowsIfTopBitSet() {
+    ParsableByteBuffer parsable = new ParsableByteBuffer(ByteBuffer.wrap(TEST_DATA, 1, 4));
+    try {
+      parsable.readUnsignedIntToInt();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testReadPastLimitOfRegionThrows() {
+    ParsableByteBuffer parsable = new ParsableByteBuffer();
+    parsable.reset(ByteBuffer.wrap(TEST_DATA), /* offset= */ 1, /* length= */ 3);
+    parsable.skipBytes(1);
+    try {
+      parsable.readInt();
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+    assertThat(parsable.getPosition()).isEqualTo(1);
+    assertThat(parsable.readUnsignedShort()).isEqualTo(0x8001);
+    try {
+      parsable.readUnsignedByte();
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+    try {
+      parsable.readBytes(new byte[1], /* offset= */ 0, /* length= */ 1);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testReadBytesAndSkip() {
+    ParsableByteBuffer parsable = new ParsableByteBuffer(ByteBuffer.wrap(TEST_DATA));
+    parsable.skipBytes(3);
+    byte[] target = new byte[4];
+    parsable.readBytes(target, 1, 3);
+
+    assertThat(target).isEqualTo(new byte[] {0, 0x01, 0x02, 0x03});
+    assertThat(parsable.getPosition()).isEqualTo(6);
+    assertThat(parsable.readUnsignedInt24()).isEqualTo(0x040506);
+  }
+
+  @Test
+  public void testReadUnsignedLeb128() {
+    byte[] data = new byte[] {0x05, (byte) 0xE5, (byte) 0x8E, 0x26, (byte) 0x80, 0x00};
+    ParsableByteBuffer parsable = new ParsableByteBuffer(ByteBuffer.wrap(data));
+
+    assertThat(parsable.readUnsignedLeb128ToLong()).isEqualTo(5L);
+    assertThat(parsable.readUnsignedLeb128ToLong()).isEqualTo(624485L);
+    // A redundant continuation byte is allowed.
+    assertThat(parsable.readUnsignedLeb128ToLong()).isEqualTo(0L);
+    assertThat(parsable.bytesLeft()).isEqualTo(0);
+  }
+}
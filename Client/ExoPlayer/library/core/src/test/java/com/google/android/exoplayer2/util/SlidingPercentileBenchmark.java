@@ -0,0 +1,65 @@
+package com.google.android.exoplayer2.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Compares {@link SlidingPercentile} with {@link SortingSlidingPercentile} as {@code
+ * DefaultBandwidthMeter} drives them, adding a sample and querying the median for each transfer.
+ * Transfers are the sizes of WebSocket frames, from 1 KB to 64 KB, weighted by the square root of
+ * their size, so a window of 200,000 holds about 1,500 samples.
+ * <p>
+ * Runs only when the system property {@code benchmarks} is true. The number of transfers for each
+ * window weight is set with the system property {@code percentile.benchmark.transfers}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class SlidingPercentileBenchmark {
+
+    private static final int[] WINDOW_WEIGHTS = {2_000, 20_000, 200_000};
+    private static final float PERCENTILE = 0.5f;
+
+    @Test
+    public void compareWithSortingImplementation() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        int transfers = Integer.getInteger("percentile.benchmark.transfers", 20_000);
+        System.out.println("Benchmark: window weight and mean ns per transfer of"
+                + " SlidingPercentile vs. SortingSlidingPercentile");
+        for (int maxWeight : WINDOW_WEIGHTS) {
+            SlidingPercentile slidingPercentile = new SlidingPercentile(maxWeight);
+            SortingSlidingPercentile reference = new SortingSlidingPercentile(maxWeight);
+            Random random = new Random(/* seed= */ 0);
+            long slidingPercentileNs = 0;
+            long referenceNs = 0;
+            // Warm up with a full window, so that both measure the steady state.
+            for (int i = -transfers / 10; i < transfers; i++) {
+                int bytes = 1024 + random.nextInt(63 * 1024);
+                int weight = (int) Math.sqrt(bytes);
+                float bitsPerSecond = 8e6f * (0.5f + random.nextFloat());
+
+                long startNs = System.nanoTime();
+                slidingPercentile.addSample(weight, bitsPerSecond);
+                float estimate = slidingPercentile.getPercentile(PERCENTILE);
+                long middleNs = System.nanoTime();
+                reference.addSample(weight, bitsPerSecond);
+                float expectedEstimate = reference.getPercentile(PERCENTILE);
+                long endNs = System.nanoTime();
+                assertThat(estimate).isEqualTo(expectedEstimate);
+                if (i >= 0) {
+                    slidingPercentileNs += middleNs - startNs;
+                    referenceNs += endNs - middleNs;
+                }
+            }
+            System.out.println(String.format(Locale.US,
+                    "Benchmark: %7d  %8.0f ns  vs. %9.0f ns  (%.1fx)", maxWeight,
+                    (double) slidingPercentileNs / transfers, (double) referenceNs / transfers,
+                    (double) referenceNs / Math.max(slidingPercentileNs, 1)));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.google.android.exoplayer2.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link SlidingPercentile}. */
+@RunWith(RobolectricTestRunner.class)
+public final class SlidingPercentileTest {
+
+    private static final float[] PERCENTILES = {0.01f, 0.25f, 0.5f, 0.75f, 0.99f, 1f};
+
+    @Test
+    public void testEmptyReturnsNaN() {
+        assertThat(new SlidingPercentile(10).getPercentile(0.5f)).isNaN();
+    }
+
+    @Test
+    public void testWeightedPercentiles() {
+        SlidingPercentile slidingPercentile = new SlidingPercentile(100);
+        slidingPercentile.addSample(/* weight= */ 50, /* value= */ 3f);
+        slidingPercentile.addSample(/* weight= */ 30, /* value= */ 1f);
+        slidingPercentile.addSample(/* weight= */ 20, /* value= */ 2f);
+
+        assertThat(slidingPercentile.getPercentile(0.29f)).isEqualTo(1f);
+        assertThat(slidingPercentile.getPercentile(0.31f)).isEqualTo(2f);
+        assertThat(slidingPercentile.getPercentile(0.49f)).isEqualTo(2f);
+        assertThat(slidingPercentile.getPercentile(0.51f)).isEqualTo(3f);
+        assertThat(slidingPercentile.getPercentile(1f)).isEqualTo(3f);
+    }
+
+    @Test
+    public void testOldestSamplesAreReducedThenRemoved() {
+        SlidingPercentile slidingPercentile = new SlidingPercentile(10);
+        slidingPercentile.addSample(/* weight= */ 6, /* value= */ 1f);
+        slidingPercentile.addSample(/* weight= */ 6, /* value= */ 5f);
+        // The first sample is reduced to a weight of 4.
+        assertThat(slidingPercentile.getPercentile(0.39f)).isEqualTo(1f);
+        assertThat(slidingPercentile.getPercentile(0.41f)).isEqualTo(5f);
+
+        slidingPercentile.addSample(/* weight= */ 4, /* value= */ 9f);
+        // The first sample is removed.
+        assertThat(slidingPercentile.getPercentile(0.01f)).isEqualTo(5f);
+        assertThat(slidingPercentile.getPercentile(0.61f)).isEqualTo(9f);
+    }
+
+    @Test
+    public void testMatchesSortingImplementation() {
+        Random random = new Random(/* seed= */ 0);
+        for (int maxWeight : new int[] {1, 50, 2000, 20000}) {
+            SlidingPercentile slidingPercentile = new SlidingPercentile(maxWeight);
+            SortingSlidingPercentile reference = new SortingSlidingPercentile(maxWeight);
+            for (int i = 0; i < 5000; i++) {
+                // Few distinct values, so that equal values are common.
+                int weight = random.nextInt(200);
+                float value = random.nextInt(50) * 1000f;
+                slidingPercentile.addSample(weight, value);
+                reference.addSample(weight, value);
+                float percentile = PERCENTILES[random.nextInt(PERCENTILES.length)];
+                assertThat(slidingPercentile.getPercentile(percentile))
+                        .isEqualTo(reference.getPercentile(percentile));
+            }
+        }
+    }
+}
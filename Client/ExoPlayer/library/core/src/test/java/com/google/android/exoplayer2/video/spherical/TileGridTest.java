@@ -0,0 +1,61 @@
+package com.google.android.exoplayer2.video.spherical;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link TileGrid}. */
+@RunWith(RobolectricTestRunner.class)
+public final class TileGridTest {
+
+  private final TileGrid tileGrid = new TileGrid(/* columns= */ 12, /* rows= */ 6);
+  private final boolean[] visibleTiles = new boolean[tileGrid.getTileCount()];
+
+  @Test
+  public void testIndexesTilesFromTopLeft() {
+    assertThat(tileGrid.getTileIndex(/* yawDegrees= */ -180, /* pitchDegrees= */ 90))
+        .isEqualTo(0);
+    assertThat(tileGrid.getTileIndex(/* yawDegrees= */ 179, /* pitchDegrees= */ -90))
+        .isEqualTo(71);
+    assertThat(tileGrid.getTileIndex(/* yawDegrees= */ 0, /* pitchDegrees= */ 1))
+        .isEqualTo(2 * 12 + 6);
+    assertThat(tileGrid.getTileIndex(/* yawDegrees= */ 365, /* pitchDegrees= */ -1))
+        .isEqualTo(3 * 12 + 6);
+  }
+
+  @Test
+  public void testMarksTilesAroundHorizon() {
+    int count = tileGrid.markVisibleTiles(/* yawDegrees= */ 0, /* pitchDegrees= */ 0,
+        /* horizontalFovDegrees= */ 58, /* verticalFovDegrees= */ 58, visibleTiles);
+
+    // The viewport spans two 30° tiles each way from the center.
+    assertThat(count).isEqualTo(4);
+    assertThat(visibleTiles[2 * 12 + 5]).isTrue();
+    assertThat(visibleTiles[2 * 12 + 6]).isTrue();
+    assertThat(visibleTiles[3 * 12 + 5]).isTrue();
+    assertThat(visibleTiles[3 * 12 + 6]).isTrue();
+  }
+
+  @Test
+  public void testMarksTilesAcrossEdgeOfFrame() {
+    tileGrid.markVisibleTiles(/* yawDegrees= */ 180, /* pitchDegrees= */ 0,
+        /* horizontalFovDegrees= */ 50, /* verticalFovDegrees= */ 20, visibleTiles);
+
+    assertThat(visibleTiles[2 * 12]).isTrue();
+    assertThat(visibleTiles[2 * 12 + 11]).isTrue();
+    assertThat(visibleTiles[2 * 12 + 6]).isFalse();
+  }
+
+  @Test
+  public void testMarksWholeRowOfVisiblePole() {
+    int count = tileGrid.markVisibleTiles(/* yawDegrees= */ 0, /* pitchDegrees= */ 80,
+        /* horizontalFovDegrees= */ 60, /* verticalFovDegrees= */ 60, visibleTiles);
+
+    for (int column = 0; column < 12; column++) {
+      assertThat(visibleTiles[column]).isTrue();
+    }
+    assertThat(count).isLessThan(tileGrid.getTileCount() / 2);
+  }
+}
@@ -0,0 +1,82 @@
+package com.google.android.exoplayer2.video.spherical;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.analytics.AnalyticsListener.EventTime;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.MediaLoadData;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link TiledStreamingPlanner}. */
+@RunWith(RobolectricTestRunner.class)
+public final class TiledStreamingPlannerTest {
+
+  private final ViewportPredictor predictor = new ViewportPredictor();
+  private final TiledStreamingPlanner planner = new TiledStreamingPlanner(predictor,
+      new TileGrid(/* columns= */ 12, /* rows= */ 6), /* horizontalFovDegrees= */ 58,
+      /* verticalFovDegrees= */ 58, /* marginDegrees= */ 0,
+      /* lowQualityByteRatio= */ 0.1, /* lowQualityPixelRatio= */ 0.25);
+
+  @Test
+  public void testPlansPredictedViewportAtHighQuality() {
+    boolean[] highQualityTiles = new boolean[72];
+
+    int count = planner.planChunk(/* nowMs= */ 0, /* startDelayMs= */ 4000,
+        /* durationMs= */ 2000, highQualityTiles);
+
+    assertThat(count).isEqualTo(4);
+    assertThat(planner.getByteFraction(count)).isWithin(1e-9).of((4 + 68 * 0.1) / 72);
+    assertThat(planner.getProjectedByteRatio()).isWithin(1e-9).of((4 + 68 * 0.1) / 72);
+    assertThat(planner.getProjectedPixelRatio()).isWithin(1e-9).of((4 + 68 * 0.25) / 72);
+  }
+
+  @Test
+  public void testCoversViewportWhileChunkPlays() {
+    // 15°/s to the right, so the viewport moves by a tile while a 2 s chunk plays.
+    for (long timeMs = 0; timeMs <= 1000; timeMs += 20) {
+      predictor.addOrientation(timeMs, timeMs * 0.015, 0);
+    }
+    boolean[] highQualityTiles = new boolean[72];
+
+    int count = planner.planChunk(/* nowMs= */ 1000, /* startDelayMs= */ 1000,
+        /* durationMs= */ 2000, highQualityTiles);
+
+    // The viewport is centered at 30° when the chunk starts and at 60° when it ends.
+    assertThat(count).isEqualTo(6);
+    assertThat(highQualityTiles[2 * 12 + 6]).isTrue();
+    assertThat(highQualityTiles[2 * 12 + 8]).isTrue();
+    assertThat(highQualityTiles[2 * 12 + 5]).isFalse();
+  }
+
+  @Test
+  public void testPlansVideoLoads() {
+    LoadEventInfo load = new LoadEventInfo(new DataSpec(Uri.EMPTY), Uri.EMPTY,
+        Collections.emptyMap(), /* elapsedRealtimeMs= */ 0, /* loadDurationMs= */ 0,
+        /* bytesLoaded= */ 0);
+    EventTime eventTime = new EventTime(/* realtimeMs= */ 0, Timeline.EMPTY,
+        /* windowIndex= */ 0, /* mediaPeriodId= */ null, /* eventPlaybackPositionMs= */ 0,
+        /* currentPlaybackPositionMs= */ 0, /* totalBufferedDurationMs= */ 4000);
+
+    planner.onLoadStarted(eventTime, load, createMediaLoadData(C.TRACK_TYPE_AUDIO));
+    assertThat(planner.getPlannedChunkCount()).isEqualTo(0);
+    planner.onLoadStarted(eventTime, load, createMediaLoadData(C.TRACK_TYPE_VIDEO));
+    assertThat(planner.getPlannedChunkCount()).isEqualTo(1);
+
+    boolean[] highQualityTiles = new boolean[72];
+    planner.getHighQualityTiles(highQualityTiles);
+    assertThat(highQualityTiles[2 * 12 + 6]).isTrue();
+  }
+
+  private static MediaLoadData createMediaLoadData(int trackType) {
+    return new MediaLoadData(C.DATA_TYPE_MEDIA, trackType, /* trackFormat= */ null,
+        C.SELECTION_REASON_UNKNOWN, /* trackSelectionData= */ null,
+        /* mediaStartTimeMs= */ C.TIME_UNSET, /* mediaEndTimeMs= */ C.TIME_UNSET);
+  }
+}
@@ -0,0 +1,73 @@
+package com.google.android.exoplayer2.video.spherical;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link ViewportPredictor}. */
+@RunWith(RobolectricTestRunner.class)
+public final class ViewportPredictorTest {
+
+  private final ViewportPredictor predictor = new ViewportPredictor();
+  private final double[] orientation = new double[2];
+
+  @Test
+  public void testPredictsCenterWithoutHistory() {
+    predictor.predict(/* timeMs= */ 1000, orientation);
+
+    assertThat(orientation).usingTolerance(1e-9).containsExactly(0, 0).inOrder();
+  }
+
+  @Test
+  public void testExtrapolatesSteadyTurn() {
+    // 30°/s to the right and 10°/s upwards.
+    for (long timeMs = 0; timeMs <= 1000; timeMs += 16) {
+      predictor.addOrientation(timeMs, timeMs * 0.03, timeMs * 0.01);
+    }
+
+    predictor.predict(/* timeMs= */ 3000, orientation);
+
+    assertThat(orientation[0]).isWithin(1e-6).of(90);
+    assertThat(orientation[1]).isWithin(1e-6).of(30);
+  }
+
+  @Test
+  public void testUnwrapsTurnAcrossEdgeOfFrame() {
+    for (long timeMs = 0; timeMs <= 1000; timeMs += 100) {
+      predictor.addOrientation(timeMs, ViewportPredictor.wrapYaw(150 + timeMs * 0.02), 0);
+    }
+
+    predictor.predict(/* timeMs= */ 2000, orientation);
+
+    assertThat(orientation[0]).isWithin(1e-6).of(-170);
+  }
+
+  @Test
+  public void testClampsPitchAndForgetsOldHistory() {
+    predictor.addOrientation(/* timeMs= */ 0, /* yawDegrees= */ -90, /* pitchDegrees= */ -80);
+    for (long timeMs = 2000; timeMs <= 2500; timeMs += 100) {
+      predictor.addOrientation(timeMs, 10, 60 + (timeMs - 2000) * 0.1);
+    }
+
+    predictor.predict(/* timeMs= */ 3000, orientation);
+
+    assertThat(predictor.getSampleCount()).isEqualTo(6);
+    assertThat(orientation[0]).isWithin(1e-6).of(10);
+    assertThat(orientation[1]).isEqualTo(90.0);
+  }
+
+  @Test
+  public void testKeepsOneOrientationPerInterval() {
+    for (long timeMs = 0; timeMs < 1000; timeMs++) {
+      predictor.addOrientation(timeMs, 0, 0);
+    }
+
+    assertThat(predictor.getSampleCount())
+        .isAtMost((int) (ViewportPredictor.DEFAULT_HISTORY_MS
+            / ViewportPredictor.DEFAULT_MIN_SAMPLE_INTERVAL_MS) + 2);
+    predictor.reset();
+    assertThat(predictor.getSampleCount()).isEqualTo(0);
+  }
+}
@@ -25,7 +25,10 @@ import com.google.android.exoplayer2.extractor.Extractor;
 import com.google.android.exoplayer2.extractor.mkv.MatroskaExtractor;
 import com.google.android.exoplayer2.extractor.mp4.FragmentedMp4Extractor;
 import com.google.android.exoplayer2.source.chunk.ChunkExtractorWrapper;
+import com.google.android.exoplayer2.source.chunk.ChunkQuality;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityStore;
 import com.google.android.exoplayer2.source.chunk.InitializationChunk;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
 import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
 import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
 import com.google.android.exoplayer2.source.dash.manifest.Period;
@@ -84,6 +87,46 @@ public final class DashUtil {
         : sampleFormat.copyWithManifestFormatInfo(manifestFormat).drmInitData;
   }
 
+  /**
+   * Puts the chunks that the representations of a manifest declare in a {@link ChunkQuality} into
+   * a store, keyed by the {@link Format#id} of the representation and by the time of the chunk in
+   * its period. Representations whose segments are only known once their index has been loaded are
+   * skipped.
+   *
+   * @param manifest The manifest.
+   * @param store The store.
+   */
+  public static void putChunkQualities(DashManifest manifest, ChunkQualityStore store) {
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      long periodDurationUs = manifest.getPeriodDurationUs(i);
+      for (AdaptationSet adaptationSet : manifest.getPeriod(i).adaptationSets) {
+        for (Representation representation : adaptationSet.representations) {
+          ChunkQuality chunkQuality = ChunkQuality.fromFormat(representation.format);
+          DashSegmentIndex index = representation.getIndex();
+          if (chunkQuality == null || index == null || representation.format.id == null) {
+            continue;
+          }
+          int chunkCount = chunkQuality.getChunkCount();
+          int segmentCount = index.getSegmentCount(periodDurationUs);
+          if (segmentCount != DashSegmentIndex.INDEX_UNBOUNDED) {
+            chunkCount = Math.min(chunkCount, segmentCount);
+          }
+          long firstSegmentNum = index.getFirstSegmentNum();
+          for (int j = 0; j < chunkCount; j++) {
+            long segmentNum = firstSegmentNum + j;
+            long startTimeUs = index.getTimeUs(segmentNum);
+            store.put(
+                representation.format.id,
+                startTimeUs,
+                startTimeUs + index.getDurationUs(segmentNum, periodDurationUs),
+                chunkQuality.ssims[j],
+                chunkQuality.bytes[j]);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Loads initialization data for the {@code representation} and returns the sample {@link Format}.
    *
@@ -16,6 +16,7 @@
 package com.google.android.exoplayer2.source.dash.manifest;
 
 import android.net.Uri;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Pair;
@@ -26,7 +27,9 @@ import com.google.android.exoplayer2.ParserException;
 import com.google.android.exoplayer2.drm.DrmInitData;
 import com.google.android.exoplayer2.drm.DrmInitData.SchemeData;
 import com.google.android.exoplayer2.extractor.mp4.PsshAtomUtil;
+import com.google.android.exoplayer2.metadata.Metadata;
 import com.google.android.exoplayer2.metadata.emsg.EventMessage;
+import com.google.android.exoplayer2.source.chunk.ChunkQuality;
 import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentList;
 import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTemplate;
 import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
@@ -587,6 +590,10 @@ public class DashManifestParser extends DefaultHandler
             adaptationSetAccessibilityDescriptors,
             codecs,
             supplementalProperties);
+    ChunkQuality chunkQuality = parseChunkQualitySupplementalProperties(supplementalProperties);
+    if (chunkQuality != null) {
+      format = format.copyWithMetadata(new Metadata(chunkQuality));
+    }
     segmentBase = segmentBase != null ? segmentBase : new SingleSegmentBase();
 
     return new RepresentationInfo(format, baseUrl, segmentBase, drmSchemeType, drmSchemeDatas,
@@ -1269,6 +1276,23 @@ public class DashManifestParser extends DefaultHandler
     return MimeTypes.AUDIO_E_AC3;
   }
 
+  /**
+   * Returns the {@link ChunkQuality} declared by a {@code SupplementalProperty} of scheme {@link
+   * ChunkQuality#SCHEME_ID_URI}, or null if there is none.
+   *
+   * @throws ParserException If the value of the property is malformed.
+   */
+  protected static @Nullable ChunkQuality parseChunkQualitySupplementalProperties(
+      List<Descriptor> supplementalProperties) throws ParserException {
+    for (int i = 0; i < supplementalProperties.size(); i++) {
+      Descriptor descriptor = supplementalProperties.get(i);
+      if (ChunkQuality.SCHEME_ID_URI.equals(descriptor.schemeIdUri) && descriptor.value != null) {
+        return ChunkQuality.parse(descriptor.value);
+      }
+    }
+    return null;
+  }
+
   protected static float parseFrameRate(XmlPullParser xpp, float defaultValue) {
     float frameRate = defaultValue;
     String frameRateAttribute = xpp.getAttributeValue(null, "frameRate");
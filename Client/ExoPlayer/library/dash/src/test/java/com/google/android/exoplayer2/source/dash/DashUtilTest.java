@@ -17,16 +17,22 @@ package com.google.android.exoplayer2.source.dash;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import android.net.Uri;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.drm.DrmInitData;
 import com.google.android.exoplayer2.drm.DrmInitData.SchemeData;
+import com.google.android.exoplayer2.source.chunk.ChunkQuality;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityStore;
 import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
 import com.google.android.exoplayer2.source.dash.manifest.Period;
 import com.google.android.exoplayer2.source.dash.manifest.Representation;
 import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SingleSegmentBase;
 import com.google.android.exoplayer2.upstream.DummyDataSource;
 import com.google.android.exoplayer2.util.MimeTypes;
+import java.io.ByteArrayInputStream;
 import java.util.Arrays;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -64,6 +70,43 @@ public final class DashUtilTest {
     assertThat(drmInitData).isNull();
   }
 
+  @Test
+  public void testPutChunkQualitiesFromManifest() throws Exception {
+    String mpd =
+        "<MPD xmlns=\"urn:mpeg:DASH:schema:MPD:2011\" type=\"static\""
+            + " mediaPresentationDuration=\"PT8S\">"
+            + "<Period><AdaptationSet mimeType=\"video/mp4\" codecs=\"avc1.64001f\">"
+            + "<SegmentTemplate timescale=\"1000\" duration=\"2000\" startNumber=\"1\""
+            + " media=\"$RepresentationID$/$Number$.m4s\"/>"
+            + "<Representation id=\"720p\" bandwidth=\"2000000\" width=\"1280\" height=\"720\">"
+            + "<SupplementalProperty schemeIdUri=\"urn:puffer:chunk-quality:2019\""
+            + " value=\"0.99:500000 0.9,:250000\"/>"
+            + "</Representation>"
+            + "<Representation id=\"360p\" bandwidth=\"500000\" width=\"640\" height=\"360\"/>"
+            + "</AdaptationSet></Period></MPD>";
+    DashManifest manifest =
+        new DashManifestParser()
+            .parse(
+                Uri.parse("https://example.com/test.mpd"),
+                new ByteArrayInputStream(mpd.getBytes(C.UTF8_NAME)));
+    Representation representation =
+        manifest.getPeriod(0).adaptationSets.get(0).representations.get(0);
+    ChunkQualityStore store = new ChunkQualityStore();
+
+    DashUtil.putChunkQualities(manifest, store);
+
+    assertThat(ChunkQuality.fromFormat(representation.format).getChunkCount()).isEqualTo(3);
+    assertThat(store.getChunkCount("720p")).isEqualTo(3);
+    assertThat(store.getChunkCount("360p")).isEqualTo(0);
+    assertThat(store.getSsim("720p", /* timeUs= */ 1_000_000)).isWithin(1e-6).of(0.99);
+    assertThat(store.getChunkBytes("720p", /* timeUs= */ 1_000_000)).isEqualTo(500_000);
+    assertThat(store.getSsim("720p", /* timeUs= */ 2_000_000)).isWithin(1e-6).of(0.9);
+    assertThat(store.getChunkBytes("720p", /* timeUs= */ 2_000_000)).isEqualTo(C.LENGTH_UNSET);
+    assertThat(store.getSsim("720p", /* timeUs= */ 4_000_000)).isNaN();
+    assertThat(store.getChunkBytes("720p", /* timeUs= */ 4_000_000)).isEqualTo(250_000);
+    assertThat(store.getSsim("720p", /* timeUs= */ 6_000_000)).isNaN();
+  }
+
   private static Period newPeriod(AdaptationSet... adaptationSets) {
     return new Period("", 0, Arrays.asList(adaptationSets));
   }
@@ -20,6 +20,7 @@ import static com.google.android.exoplayer2.ui.spherical.GlUtil.checkGlError;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
@@ -31,6 +32,7 @@ import com.google.android.exoplayer2.video.spherical.CameraMotionListener;
 import com.google.android.exoplayer2.video.spherical.FrameRotationQueue;
 import com.google.android.exoplayer2.video.spherical.Projection;
 import com.google.android.exoplayer2.video.spherical.ProjectionDecoder;
+import com.google.android.exoplayer2.video.spherical.ViewportPredictor;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -46,6 +48,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   private final TimedValueQueue<Projection> projectionQueue;
   private final float[] rotationMatrix;
   private final float[] tempMatrix;
+  private final float[] viewportMatrix;
 
   // Used by GL thread only
   private int textureId;
@@ -53,6 +56,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   // Used by other threads only
   private volatile @C.StreamType int defaultStereoMode;
+  private volatile @Nullable ViewportPredictor viewportPredictor;
   private @C.StreamType int lastStereoMode;
   private @Nullable byte[] lastProjectionData;
 
@@ -67,6 +71,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     projectionQueue = new TimedValueQueue<>();
     rotationMatrix = new float[16];
     tempMatrix = new float[16];
+    viewportMatrix = new float[16];
     defaultStereoMode = C.STEREO_MODE_MONO;
     lastStereoMode = Format.NO_VALUE;
   }
@@ -81,6 +86,14 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     defaultStereoMode = stereoMode;
   }
 
+  /**
+   * Sets the {@link ViewportPredictor} that receives the orientation of the viewport in the video
+   * frame, or null to stop sending it.
+   */
+  public void setViewportPredictor(@Nullable ViewportPredictor viewportPredictor) {
+    this.viewportPredictor = viewportPredictor;
+  }
+
   // Methods called on GL thread.
 
   /** Initializes the renderer. */
@@ -130,6 +143,29 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     projectionRenderer.draw(textureId, tempMatrix, eyeType);
   }
 
+  /**
+   * Sends the orientation of the viewport in the video frame to the {@link ViewportPredictor}, if
+   * any. Call after {@link #drawFrame(float[], int)}, which updates the camera motion.
+   *
+   * @param viewMatrix 16 element GL matrix of the camera orientation.
+   */
+  public void updateViewport(float[] viewMatrix) {
+    ViewportPredictor viewportPredictor = this.viewportPredictor;
+    if (viewportPredictor == null) {
+      return;
+    }
+    Matrix.multiplyMM(viewportMatrix, 0, viewMatrix, 0, rotationMatrix, 0);
+    // The camera looks along -z, so in the frame of the mesh it looks along the negated third row.
+    float x = -viewportMatrix[2];
+    float y = -viewportMatrix[6];
+    float z = -viewportMatrix[10];
+    // The center of the equirectangular frame is along -z, and its right along +x.
+    viewportPredictor.addOrientation(
+        SystemClock.elapsedRealtime(),
+        Math.toDegrees(Math.atan2(x, -z)),
+        Math.toDegrees(Math.atan2(y, Math.hypot(x, z))));
+  }
+
   // Methods called on playback thread.
 
   // VideoFrameMetadataListener implementation.
@@ -41,6 +41,7 @@ import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.ui.spherical.ProjectionRenderer.EyeType;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.video.spherical.ViewportPredictor;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -140,6 +141,16 @@ public final class SphericalSurfaceView extends GLSurfaceView {
     scene.setDefaultStereoMode(stereoMode);
   }
 
+  /**
+   * Sets the {@link ViewportPredictor} that receives the orientation of the viewport in the video
+   * frame, as moved by the phone, touch and the camera motion of the video.
+   *
+   * @param viewportPredictor The predictor, or null to stop sending the orientation.
+   */
+  public void setViewportPredictor(@Nullable ViewportPredictor viewportPredictor) {
+    scene.setViewportPredictor(viewportPredictor);
+  }
+
   /** Sets the {@link Player.VideoComponent} to use. */
   public void setVideoComponent(@Nullable Player.VideoComponent newVideoComponent) {
     if (newVideoComponent == videoComponent) {
@@ -365,6 +376,7 @@ public final class SphericalSurfaceView extends GLSurfaceView {
 
       Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
       scene.drawFrame(viewProjectionMatrix, EyeType.MONOCULAR);
+      scene.updateViewport(viewMatrix);
     }
 
     /** Adjusts the GL camera's rotation based on device rotation. Runs on the sensor thread. */
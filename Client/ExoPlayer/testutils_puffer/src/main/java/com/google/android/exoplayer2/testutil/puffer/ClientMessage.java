@@ -0,0 +1,168 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * A message sent by a Puffer client: a flat JSON object of strings and numbers, such as a {@code
+ * client-init}, {@code client-info} or {@code client-vidack}. Values are kept as their JSON text.
+ * Nested objects and arrays are not supported, because the client never sends them.
+ */
+/* package */ final class ClientMessage {
+
+    private final HashMap<String, String> fields;
+
+    private ClientMessage(HashMap<String, String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Parses a message.
+     *
+     * @throws IOException If the message is not a flat JSON object.
+     */
+    public static ClientMessage parse(String json) throws IOException {
+        HashMap<String, String> fields = new HashMap<>();
+        Cursor cursor = new Cursor(json);
+        cursor.expect('{');
+        if (cursor.peek() == '}') {
+            return new ClientMessage(fields);
+        }
+        while (true) {
+            String key = cursor.readString();
+            cursor.expect(':');
+            String value = cursor.peek() == '"' ? cursor.readString() : cursor.readLiteral();
+            // The client sends "event" twice in client-info; the first one names the event.
+            if (!fields.containsKey(key)) {
+                fields.put(key, value);
+            }
+            char next = cursor.next();
+            if (next == '}') {
+                return new ClientMessage(fields);
+            } else if (next != ',') {
+                throw new IOException("Expected , or } in " + json);
+            }
+        }
+    }
+
+    /** Returns the {@code type} of the message, or null if it has none. */
+    public String getType() {
+        return fields.get("type");
+    }
+
+    /** Returns a string field, or null if it is absent. */
+    public String getString(String key) {
+        return fields.get(key);
+    }
+
+    /**
+     * Returns an integer field.
+     *
+     * @throws IOException If the field is absent or not an integer.
+     */
+    public long getLong(String key) throws IOException {
+        String value = getRequired(key);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Not an integer: " + key + "=" + value, e);
+        }
+    }
+
+    /**
+     * Returns a number field.
+     *
+     * @throws IOException If the field is absent or not a number.
+     */
+    public double getDouble(String key) throws IOException {
+        String value = getRequired(key);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a number: " + key + "=" + value, e);
+        }
+    }
+
+    private String getRequired(String key) throws IOException {
+        String value = fields.get(key);
+        if (value == null) {
+            throw new IOException("Missing field " + key);
+        }
+        return value;
+    }
+
+    private static final class Cursor {
+
+        private final String json;
+        private int position;
+
+        public Cursor(String json) {
+            this.json = json;
+        }
+
+        public char peek() throws IOException {
+            skipWhitespace();
+            if (position == json.length()) {
+                throw new IOException("Unexpected end of " + json);
+            }
+            return json.charAt(position);
+        }
+
+        public char next() throws IOException {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        public void expect(char c) throws IOException {
+            if (next() != c) {
+                throw new IOException("Expected " + c + " at " + (position - 1) + " in " + json);
+            }
+        }
+
+        public String readString() throws IOException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (position == json.length()) {
+                    throw new IOException("Unterminated string in " + json);
+                }
+                char c = json.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && position < json.length()) {
+                    c = json.charAt(position++);
+                    if (c == 'n') {
+                        c = '\n';
+                    } else if (c == 't') {
+                        c = '\t';
+                    } else if (c == 'u' && position + 4 <= json.length()) {
+                        c = (char) Integer.parseInt(json.substring(position, position + 4), 16);
+                        position += 4;
+                    }
+                }
+                value.append(c);
+            }
+        }
+
+        public String readLiteral() throws IOException {
+            skipWhitespace();
+            int start = position;
+            while (position < json.length() && ",}".indexOf(json.charAt(position)) < 0
+                    && !Character.isWhitespace(json.charAt(position))) {
+                position++;
+            }
+            if (start == position) {
+                throw new IOException("Expected a value at " + start + " in " + json);
+            }
+            return json.substring(start, position);
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
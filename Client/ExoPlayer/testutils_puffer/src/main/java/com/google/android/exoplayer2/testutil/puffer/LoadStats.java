@@ -0,0 +1,170 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The results of a {@link PufferLoadGenerator} run, summed over its simulated players.
+ * <p>
+ * The time to the next chunk is measured by each player from the first message that tells the
+ * server it may send the next video chunk, i.e. that reports a video buffer of at most {@link
+ * PufferTestServer#MAX_BUFFER_MS} while no chunk is being received, to the arrival of the first
+ * fragment of that chunk. It is the delay added by the server and its ABR algorithm under load,
+ * plus one round trip.
+ * <p>
+ * Confined to the thread running the generator.
+ */
+public final class LoadStats {
+
+    private final Samples connectUs = new Samples();
+    private final Samples serverInitUs = new Samples();
+    private final Samples nextChunkUs = new Samples();
+    private final Samples acksPerSecond = new Samples();
+
+    private int sessions;
+    private int failedSessions;
+    private long acksSent;
+    private long clientInfosSent;
+    private long chunksReceived;
+    private long bytesReceived;
+    private long rebuffers;
+    private long rebufferMs;
+    private long playedMs;
+
+    /* package */ void onSessionStarted() {
+        sessions++;
+    }
+
+    /* package */ void onSessionFailed() {
+        failedSessions++;
+    }
+
+    /* package */ void onConnected(long elapsedNanos) {
+        connectUs.add(elapsedNanos / 1000);
+    }
+
+    /* package */ void onServerInit(long elapsedNanos) {
+        serverInitUs.add(elapsedNanos / 1000);
+    }
+
+    /* package */ void onNextChunk(long elapsedNanos) {
+        nextChunkUs.add(elapsedNanos / 1000);
+    }
+
+    /* package */ void onSessionEnded(long acks, long clientInfos, long chunks, long bytes,
+                                     long sessionRebuffers, long sessionRebufferMs,
+                                     long sessionPlayedMs, long streamingNanos) {
+        acksSent += acks;
+        clientInfosSent += clientInfos;
+        chunksReceived += chunks;
+        bytesReceived += bytes;
+        rebuffers += sessionRebuffers;
+        rebufferMs += sessionRebufferMs;
+        playedMs += sessionPlayedMs;
+        if (streamingNanos > 0) {
+            // Kept in thousandths, so that the percentiles of low rates stay readable.
+            acksPerSecond.add(acks * 1_000_000_000_000L / streamingNanos);
+        }
+    }
+
+    /** Returns the number of sessions that were started. */
+    public int getSessions() {
+        return sessions;
+    }
+
+    /** Returns the number of sessions that failed before the end of the run. */
+    public int getFailedSessions() {
+        return failedSessions;
+    }
+
+    /** Returns the number of acks sent by all sessions. */
+    public long getAcksSent() {
+        return acksSent;
+    }
+
+    /** Returns the number of complete video chunks received by all sessions. */
+    public long getChunksReceived() {
+        return chunksReceived;
+    }
+
+    /** Returns the number of measured times to the next chunk. */
+    public int getNextChunkCount() {
+        return nextChunkUs.count;
+    }
+
+    /**
+     * Returns a percentile of the time to the next chunk in microseconds, or 0 if none has been
+     * measured.
+     *
+     * @param percentile The percentile, in {@code (0, 100]}.
+     */
+    public long getNextChunkPercentileUs(double percentile) {
+        return nextChunkUs.percentile(percentile);
+    }
+
+    /**
+     * Returns a percentile of the acks sent per second by a session, or 0 if no session streamed.
+     *
+     * @param percentile The percentile, in {@code (0, 100]}.
+     */
+    public double getAcksPerSecondPercentile(double percentile) {
+        return acksPerSecond.percentile(percentile) / 1000.0;
+    }
+
+    /** Returns the fraction of the simulated watch time spent rebuffering. */
+    public double getRebufferRatio() {
+        long watchedMs = playedMs + rebufferMs;
+        return watchedMs == 0 ? 0 : (double) rebufferMs / watchedMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "sessions=%d failed=%d%n", sessions, failedSessions)
+                + String.format(Locale.US, "acks=%d client-info=%d chunks=%d bytes=%d%n",
+                acksSent, clientInfosSent, chunksReceived, bytesReceived)
+                + String.format(Locale.US, "acks/s per session: p1 %.2f p50 %.2f p99 %.2f%n",
+                getAcksPerSecondPercentile(1), getAcksPerSecondPercentile(50),
+                getAcksPerSecondPercentile(99))
+                + "connect " + connectUs.summarize() + "\n"
+                + "server-init " + serverInitUs.summarize() + "\n"
+                + "next chunk " + nextChunkUs.summarize() + "\n"
+                + String.format(Locale.US, "rebuffers=%d rebuffer ratio=%.4f", rebuffers,
+                getRebufferRatio());
+    }
+
+    /** A growable list of samples. */
+    private static final class Samples {
+
+        private long[] values = new long[1024];
+        private int count;
+        private boolean sorted = true;
+
+        public void add(long value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+            sorted = false;
+        }
+
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(values, 0, count);
+                sorted = true;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * count);
+            return values[Math.max(rank, 1) - 1];
+        }
+
+        /** Returns the count and tail latencies, for samples in microseconds. */
+        public String summarize() {
+            return String.format(Locale.US,
+                    "n=%d p50 %.1f ms p90 %.1f ms p99 %.1f ms p99.9 %.1f ms max %.1f ms", count,
+                    percentile(50) / 1000.0, percentile(90) / 1000.0, percentile(99) / 1000.0,
+                    percentile(99.9) / 1000.0, percentile(100) / 1000.0);
+        }
+    }
+}
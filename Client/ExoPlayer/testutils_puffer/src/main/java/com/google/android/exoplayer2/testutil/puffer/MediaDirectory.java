@@ -0,0 +1,263 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * The video chunks of one channel, read from a directory laid out like the {@code media_dir} of a
+ * Puffer media server:
+ * <pre>
+ *   media_dir/channel/ready/1280x720-24/init.mp4
+ *   media_dir/channel/ready/1280x720-24/180180.m4s
+ *   media_dir/channel/ready/1280x720-24-ssim/180180.ssim
+ * </pre>
+ * The {@code ready} level is optional. Every format directory must contain {@code init.mp4} and
+ * the same chunk timestamps; a missing {@code .ssim} file counts as an SSIM of 0. All files are read
+ * into memory, so that serving a chunk never touches the disk.
+ * <p>
+ * The chunks are served as a live stream that loops: the timestamps keep increasing by the chunk
+ * duration, and {@link #getChunkIndex(long)} maps them back onto the chunks on disk.
+ */
+public final class MediaDirectory {
+
+    /** The timescale of the timestamps, as used by the Puffer media server. */
+    public static final long DEFAULT_TIMESCALE = 90000;
+    /** The video chunk duration, in timescale units, assumed when there is only one chunk. */
+    public static final long DEFAULT_VIDEO_DURATION = 180180;
+    /** The audio chunk duration, in timescale units, announced in {@code server-init}. */
+    public static final long DEFAULT_AUDIO_DURATION = 432000;
+
+    private static final String INIT_SEGMENT = "init.mp4";
+    private static final String CHUNK_SUFFIX = ".m4s";
+    private static final String SSIM_SUFFIX = ".ssim";
+    private static final String SSIM_DIRECTORY_SUFFIX = "-ssim";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String channel;
+    private final String[] formats;
+    private final byte[][] initSegments;
+    // Indexed by format, then by chunk.
+    private final byte[][][] chunks;
+    private final double[][] ssims;
+    private final long firstTimestamp;
+    private final long videoDuration;
+
+    private MediaDirectory(String channel, String[] formats, byte[][] initSegments,
+                           byte[][][] chunks, double[][] ssims, long firstTimestamp,
+                           long videoDuration) {
+        this.channel = channel;
+        this.formats = formats;
+        this.initSegments = initSegments;
+        this.chunks = chunks;
+        this.ssims = ssims;
+        this.firstTimestamp = firstTimestamp;
+        this.videoDuration = videoDuration;
+    }
+
+    /**
+     * Reads the chunks of a channel.
+     *
+     * @param mediaDir The media directory.
+     * @param channel  The name of the channel.
+     * @throws IOException If the directory cannot be read or is not laid out as expected.
+     */
+    public static MediaDirectory load(File mediaDir, String channel) throws IOException {
+        File channelDir = new File(mediaDir, channel);
+        File readyDir = new File(channelDir, "ready");
+        if (readyDir.isDirectory()) {
+            channelDir = readyDir;
+        }
+        File[] children = channelDir.listFiles();
+        if (children == null) {
+            throw new IOException("Not a directory: " + channelDir);
+        }
+        Arrays.sort(children);
+        ArrayList<File> formatDirs = new ArrayList<>();
+        for (File child : children) {
+            if (child.isDirectory() && !child.getName().endsWith(SSIM_DIRECTORY_SUFFIX)
+                    && new File(child, INIT_SEGMENT).isFile()) {
+                formatDirs.add(child);
+            }
+        }
+        if (formatDirs.isEmpty()) {
+            throw new IOException("No video formats in " + channelDir);
+        }
+
+        long[] timestamps = listTimestamps(formatDirs.get(0));
+        if (timestamps.length == 0) {
+            throw new IOException("No chunks in " + formatDirs.get(0));
+        }
+        long videoDuration = timestamps.length > 1 ? timestamps[1] - timestamps[0]
+                : DEFAULT_VIDEO_DURATION;
+
+        int formatCount = formatDirs.size();
+        String[] formats = new String[formatCount];
+        byte[][] initSegments = new byte[formatCount][];
+        byte[][][] chunks = new byte[formatCount][timestamps.length][];
+        double[][] ssims = new double[formatCount][timestamps.length];
+        for (int i = 0; i < formatCount; i++) {
+            File formatDir = formatDirs.get(i);
+            formats[i] = formatDir.getName();
+            initSegments[i] = Files.readAllBytes(new File(formatDir, INIT_SEGMENT).toPath());
+            File ssimDir = new File(channelDir, formats[i] + SSIM_DIRECTORY_SUFFIX);
+            for (int j = 0; j < timestamps.length; j++) {
+                File chunk = new File(formatDir, timestamps[j] + CHUNK_SUFFIX);
+                if (!chunk.isFile()) {
+                    throw new IOException("Missing chunk " + chunk);
+                }
+                chunks[i][j] = Files.readAllBytes(chunk.toPath());
+                ssims[i][j] = readSsim(new File(ssimDir, timestamps[j] + SSIM_SUFFIX));
+            }
+        }
+        return new MediaDirectory(channel, formats, initSegments, chunks, ssims, timestamps[0],
+                videoDuration);
+    }
+
+    /**
+     * Writes a channel of random bytes in the layout read by {@link #load}. The chunks are not
+     * playable, but a client that only transports them cannot tell.
+     *
+     * @param mediaDir   The media directory. Created if needed.
+     * @param channel    The name of the channel.
+     * @param formats    The names of the formats, e.g. {@code "1280x720-24"}.
+     * @param chunkBytes The size of the chunks of each format.
+     * @param chunkCount The number of chunks per format.
+     * @param seed       The seed of the random bytes.
+     * @throws IOException If the files cannot be written.
+     */
+    public static void writeSynthetic(File mediaDir, String channel, String[] formats,
+                                      int[] chunkBytes, int chunkCount, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        File channelDir = new File(new File(mediaDir, channel), "ready");
+        for (int i = 0; i < formats.length; i++) {
+            File formatDir = new File(channelDir, formats[i]);
+            File ssimDir = new File(channelDir, formats[i] + SSIM_DIRECTORY_SUFFIX);
+            if (!(formatDir.isDirectory() || formatDir.mkdirs())
+                    || !(ssimDir.isDirectory() || ssimDir.mkdirs())) {
+                throw new IOException("Cannot create " + formatDir);
+            }
+            writeRandom(new File(formatDir, INIT_SEGMENT), 1024, random);
+            for (int j = 0; j < chunkCount; j++) {
+                long timestamp = (j + 1) * DEFAULT_VIDEO_DURATION;
+                writeRandom(new File(formatDir, timestamp + CHUNK_SUFFIX), chunkBytes[i], random);
+                // A larger chunk of the same content has a higher quality.
+                double ssim = 1 - 1.0 / (1 + chunkBytes[i] / 10000.0);
+                Files.write(new File(ssimDir, timestamp + SSIM_SUFFIX).toPath(),
+                        Double.toString(ssim).getBytes(UTF_8));
+            }
+        }
+    }
+
+    /** Returns the name of the channel. */
+    public String getChannel() {
+        return channel;
+    }
+
+    /** Returns the number of video formats. */
+    public int getFormatCount() {
+        return formats.length;
+    }
+
+    /** Returns the name of a video format, e.g. {@code "1280x720-24"}. */
+    public String getFormat(int format) {
+        return formats[format];
+    }
+
+    /** Returns the init segment of a video format. */
+    public byte[] getInitSegment(int format) {
+        return initSegments[format];
+    }
+
+    /** Returns the number of chunks of each format on disk. */
+    public int getChunkCount() {
+        return chunks[0].length;
+    }
+
+    /** Returns a chunk of a video format. */
+    public byte[] getChunk(int format, int chunkIndex) {
+        return chunks[format][chunkIndex];
+    }
+
+    /** Returns the SSIM of a chunk of a video format. */
+    public double getSsim(int format, int chunkIndex) {
+        return ssims[format][chunkIndex];
+    }
+
+    /** Returns the timestamp a client starts at. */
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /** Returns the video chunk duration, in timescale units. */
+    public long getVideoDuration() {
+        return videoDuration;
+    }
+
+    /** Returns the timescale of the timestamps. */
+    public long getTimescale() {
+        return DEFAULT_TIMESCALE;
+    }
+
+    /** Returns the audio chunk duration, in timescale units. */
+    public long getAudioDuration() {
+        return DEFAULT_AUDIO_DURATION;
+    }
+
+    /** Returns the index of the chunk served at {@code timestamp}. */
+    public int getChunkIndex(long timestamp) {
+        return (int) ((timestamp - firstTimestamp) / videoDuration % chunks[0].length);
+    }
+
+    private static long[] listTimestamps(File formatDir) throws IOException {
+        String[] names = formatDir.list();
+        if (names == null) {
+            throw new IOException("Not a directory: " + formatDir);
+        }
+        TreeSet<Long> timestamps = new TreeSet<>();
+        for (String name : names) {
+            if (name.endsWith(CHUNK_SUFFIX)) {
+                try {
+                    timestamps.add(Long.parseLong(
+                            name.substring(0, name.length() - CHUNK_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a chunk.
+                }
+            }
+        }
+        long[] result = new long[timestamps.size()];
+        int i = 0;
+        for (long timestamp : timestamps) {
+            result[i++] = timestamp;
+        }
+        return result;
+    }
+
+    private static double readSsim(File file) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        String text = new String(Files.readAllBytes(file.toPath()), UTF_8).trim();
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed SSIM in " + file, e);
+        }
+    }
+
+    private static void writeRandom(File file, int length, Random random) throws IOException {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(data);
+        }
+    }
+}
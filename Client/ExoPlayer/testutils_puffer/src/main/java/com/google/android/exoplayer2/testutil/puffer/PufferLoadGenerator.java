@@ -0,0 +1,210 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import com.google.android.exoplayer2.ext.puffer.PufferClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * Runs many simulated players against a Puffer media server, to measure how many concurrent
+ * sessions one server and ABR instance sustain.
+ * <p>
+ * Each player is a {@link PufferClient} on a non-blocking WebSocket connection with a simulated
+ * playback clock, so no device or decoder is involved. All players share a single selector thread,
+ * which ticks their playback every {@link #TICK_MS}. Sessions are started evenly over a ramp-up
+ * period. The results are a {@link LoadStats}.
+ * <p>
+ * Without a server URI, the command line starts a {@link PufferTestServer} in the same process.
+ * Each connection then costs two file descriptors and two server threads, so thousands of sessions
+ * need a raised {@code ulimit -n}.
+ */
+public final class PufferLoadGenerator {
+
+    /** The interval at which the playback of every player is advanced. */
+    public static final long TICK_MS = 20;
+
+    private static final String[] SYNTHETIC_FORMATS = {"426x240-26", "854x480-24", "1280x720-22"};
+    private static final int[] SYNTHETIC_CHUNK_BYTES = {60_000, 180_000, 400_000};
+    private static final int SYNTHETIC_CHUNK_COUNT = 30;
+
+    private final InetSocketAddress address;
+    private final String path;
+    private final String channel;
+    private final int sessionCount;
+    private final float speed;
+
+    /**
+     * @param uri The {@code ws://} URI of the server.
+     * @param channel The channel every player requests.
+     * @param sessionCount The number of players.
+     * @param speed The speed of the players' playback clock relative to the wall clock.
+     */
+    public PufferLoadGenerator(String uri, String channel, int sessionCount, float speed) {
+        URI parsed = URI.create(uri);
+        this.address = new InetSocketAddress(parsed.getHost(),
+                parsed.getPort() == -1 ? 80 : parsed.getPort());
+        this.path = parsed.getRawPath() == null || parsed.getRawPath().isEmpty()
+                ? "/" : parsed.getRawPath();
+        this.channel = channel;
+        this.sessionCount = sessionCount;
+        this.speed = speed;
+    }
+
+    /**
+     * Runs the players on the calling thread and closes them.
+     *
+     * @param durationMs How long to run, including the ramp-up.
+     * @param rampUpMs The time over which the sessions are started.
+     * @return The measurements.
+     * @throws IOException If the selector fails.
+     */
+    public LoadStats run(long durationMs, long rampUpMs) throws IOException {
+        LoadStats stats = new LoadStats();
+        SimulatedPlayer[] players = new SimulatedPlayer[sessionCount];
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(256 * 1024);
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + durationMs * 1_000_000;
+        long tickNanos = TICK_MS * 1_000_000;
+        long nextTickNanos = startNanos + tickNanos;
+        int started = 0;
+        try (Selector selector = Selector.open()) {
+            try {
+                long nowNanos = startNanos;
+                while (nowNanos < endNanos) {
+                    while (started < sessionCount && nowNanos >= startNanos
+                            + rampUpMs * 1_000_000 * started / sessionCount) {
+                        SimulatedPlayer player = new SimulatedPlayer(address, path,
+                                new PufferClient(PufferClient.DEFAULT_INIT_ID + started, channel),
+                                stats, speed, /* seed= */ started);
+                        players[started++] = player;
+                        try {
+                            player.connect(selector, nowNanos);
+                        } catch (IOException e) {
+                            System.err.println("PufferLoadGenerator: connect failed: " + e);
+                            player.close(nowNanos);
+                        }
+                    }
+                    long nextStartNanos = started < sessionCount
+                            ? startNanos + rampUpMs * 1_000_000 * started / sessionCount : endNanos;
+                    long waitNanos = Math.min(Math.min(nextTickNanos, nextStartNanos), endNanos)
+                            - nowNanos;
+                    selector.select(Math.max(waitNanos / 1_000_000, 1));
+                    nowNanos = System.nanoTime();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((SimulatedPlayer) key.attachment()).onReady(readBuffer, nowNanos);
+                    }
+                    if (nowNanos >= nextTickNanos) {
+                        for (int i = 0; i < started; i++) {
+                            players[i].tick(nowNanos);
+                        }
+                        nextTickNanos = nowNanos + tickNanos;
+                    }
+                }
+            } finally {
+                // Closed while the selector is still open, so that the close frames can be sent.
+                long nowNanos = System.nanoTime();
+                for (int i = 0; i < started; i++) {
+                    players[i].close(nowNanos);
+                }
+            }
+        }
+        return stats;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String uri = null;
+        String mediaDir = null;
+        String channel = PufferClient.DEFAULT_CHANNEL;
+        int sessions = 100;
+        double seconds = 30;
+        double rampSeconds = 5;
+        float speed = 1;
+        ThroughputTrace trace = null;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--uri":
+                    uri = args[i + 1];
+                    break;
+                case "--media-dir":
+                    mediaDir = args[i + 1];
+                    break;
+                case "--channel":
+                    channel = args[i + 1];
+                    break;
+                case "--sessions":
+                    sessions = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seconds":
+                    seconds = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--ramp-seconds":
+                    rampSeconds = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--speed":
+                    speed = Float.parseFloat(args[i + 1]);
+                    break;
+                case "--trace":
+                    trace = ThroughputTrace.load(new File(args[i + 1]));
+                    break;
+                case "--rate-kbps":
+                    trace = ThroughputTrace.constant(Long.parseLong(args[i + 1]) * 1000);
+                    break;
+                default:
+                    usage();
+            }
+        }
+
+        PufferTestServer server = null;
+        if (uri == null) {
+            MediaDirectory media;
+            if (mediaDir != null) {
+                media = MediaDirectory.load(new File(mediaDir), channel);
+            } else {
+                File directory = Files.createTempDirectory("puffer-load").toFile();
+                MediaDirectory.writeSynthetic(directory, channel, SYNTHETIC_FORMATS,
+                        SYNTHETIC_CHUNK_BYTES, SYNTHETIC_CHUNK_COUNT, /* seed= */ 0);
+                media = MediaDirectory.load(directory, channel);
+            }
+            server = new PufferTestServer(media, trace);
+            server.start(/* port= */ 0);
+            uri = server.getLoopbackUri();
+            System.err.println("Started a local server for " + channel + " ("
+                    + media.getFormatCount() + " formats) at " + uri
+                    + (trace == null ? "" : " over " + trace));
+        }
+        System.err.println("Running " + sessions + " sessions against " + uri + " for " + seconds
+                + " s at " + speed + "x");
+        try {
+            LoadStats stats = new PufferLoadGenerator(uri, channel, sessions, speed)
+                    .run((long) (seconds * 1000), (long) (rampSeconds * 1000));
+            System.out.println(stats);
+            if (server != null) {
+                System.out.println("server " + server.getStats());
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: PufferLoadGenerator [--uri ws://host:port/ | --media-dir <dir>]"
+                + " [--channel cbs] [--sessions 100] [--seconds 30] [--ramp-seconds 5]"
+                + " [--speed 1] [--trace <mahimahi trace> | --rate-kbps <n>]");
+        System.exit(1);
+    }
+}
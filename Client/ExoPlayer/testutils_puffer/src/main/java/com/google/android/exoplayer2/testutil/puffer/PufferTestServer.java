@@ -0,0 +1,499 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * A stand-in for the Puffer {@code ws_media_server} that runs on the JVM without a database, so
+ * that the client can be exercised and measured on a single machine.
+ * <p>
+ * It speaks the same protocol: a client sends {@code client-init}, gets {@code server-init}, and is
+ * then sent one video chunk at a time in {@code server-video} frames of at most {@link
+ * #MAX_FRAME_BYTES}, with an init segment whenever the format changes. The next chunk is only sent
+ * once the last frame of the previous one has been acked with {@code client-vidack} and the
+ * reported video buffer is at most {@link #MAX_BUFFER_MS}. Formats are chosen by the linear BBA
+ * rule the server uses for audio. Audio is not served, as in the real server's current
+ * configuration.
+ * <p>
+ * The chunks come from a {@link MediaDirectory}, and what is sent to each client can be shaped by
+ * a {@link ThroughputTrace}.
+ */
+public final class PufferTestServer {
+
+    /** The largest frame sent, including its metadata, as in {@code ws_media_server}. */
+    public static final int MAX_FRAME_BYTES = 100 * 1024;
+    /** The video buffer above which no more chunks are sent. */
+    public static final long MAX_BUFFER_MS = 7000;
+
+    // Large enough for a load generator that opens many connections at once.
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final double UPPER_RESERVOIR = 0.9;
+    private static final double LOWER_RESERVOIR = 0.1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MediaDirectory media;
+    private final ThroughputTrace trace;
+    private final ServerStats stats;
+    private final ArrayList<Connection> connections;
+
+    private ServerSocket serverSocket;
+    private volatile boolean closed;
+
+    /**
+     * @param media The chunks to serve.
+     * @param trace The link that shapes what is sent to each client, or null to send as fast as the
+     *              socket allows.
+     */
+    public PufferTestServer(MediaDirectory media, ThroughputTrace trace) {
+        this.media = media;
+        this.trace = trace;
+        this.stats = new ServerStats();
+        this.connections = new ArrayList<>();
+    }
+
+    /**
+     * Starts accepting connections.
+     *
+     * @param port The port to listen on, or 0 to pick a free one.
+     * @return The port listened on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public synchronized int start(int port) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Already started");
+        }
+        serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
+        Thread acceptThread = new Thread("PufferTestServer:accept") {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return serverSocket.getLocalPort();
+    }
+
+    /** Returns the {@code ws://} URI of the server on the loopback interface. */
+    public synchronized String getLoopbackUri() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("Not started");
+        }
+        return "ws://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + serverSocket.getLocalPort() + "/";
+    }
+
+    /** Returns the counters of the server. */
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    /** Stops accepting connections and closes the open ones. */
+    public void close() {
+        closed = true;
+        ArrayList<Connection> open;
+        synchronized (this) {
+            if (serverSocket != null) {
+                try {
+                    serverSocket.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+            open = new ArrayList<>(connections);
+            connections.clear();
+        }
+        for (Connection connection : open) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Runs a server until the process is killed. Usage: {@code PufferTestServer <media_dir>
+     * [--channel cbs] [--port 50001] [--trace <mahimahi trace>] [--rate-kbps <n>]}.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: PufferTestServer <media_dir> [--channel cbs] [--port 50001]"
+                    + " [--trace <mahimahi trace>] [--rate-kbps <n>]");
+            System.exit(1);
+        }
+        String channel = "cbs";
+        int port = 50001;
+        ThroughputTrace trace = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--channel":
+                    channel = args[i + 1];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--trace":
+                    trace = ThroughputTrace.load(new File(args[i + 1]));
+                    break;
+                case "--rate-kbps":
+                    trace = ThroughputTrace.constant(Long.parseLong(args[i + 1]) * 1000);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        MediaDirectory media = MediaDirectory.load(new File(args[0]), channel);
+        PufferTestServer server = new PufferTestServer(media, trace);
+        port = server.start(port);
+        System.err.println("Serving " + channel + " (" + media.getFormatCount() + " formats, "
+                + media.getChunkCount() + " chunks) on port " + port
+                + (trace == null ? "" : " over " + trace));
+        while (true) {
+            Thread.sleep(10000);
+            System.err.println(server.getStats());
+        }
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("PufferTestServer: accept failed: " + e);
+                }
+                return;
+            }
+            Connection connection = new Connection(socket);
+            synchronized (this) {
+                if (closed) {
+                    connection.close();
+                    return;
+                }
+                connections.add(connection);
+            }
+            connection.start();
+        }
+    }
+
+    private synchronized void onConnectionClosed(Connection connection) {
+        connections.remove(connection);
+    }
+
+    /** Selects a format by the linear BBA rule of {@code WebSocketClient::select_audio_format}. */
+    private int selectFormat(int chunkIndex, long videoBufferMs) {
+        double buffer = Math.min(Math.max(videoBufferMs, 0), MAX_BUFFER_MS);
+        int maxFormat = 0;
+        int minFormat = 0;
+        for (int i = 1; i < media.getFormatCount(); i++) {
+            int size = media.getChunk(i, chunkIndex).length;
+            if (size > media.getChunk(maxFormat, chunkIndex).length) {
+                maxFormat = i;
+            }
+            if (size < media.getChunk(minFormat, chunkIndex).length) {
+                minFormat = i;
+            }
+        }
+        if (buffer >= UPPER_RESERVOIR * MAX_BUFFER_MS) {
+            return maxFormat;
+        } else if (buffer <= LOWER_RESERVOIR * MAX_BUFFER_MS) {
+            return minFormat;
+        }
+        long minSize = media.getChunk(minFormat, chunkIndex).length;
+        long maxSize = media.getChunk(maxFormat, chunkIndex).length;
+        double slope = (maxSize - minSize) / ((UPPER_RESERVOIR - LOWER_RESERVOIR) * MAX_BUFFER_MS);
+        double maxServeSize = minSize + slope * (buffer - LOWER_RESERVOIR * MAX_BUFFER_MS);
+        int selected = minFormat;
+        for (int i = 0; i < media.getFormatCount(); i++) {
+            int size = media.getChunk(i, chunkIndex).length;
+            if (size <= maxServeSize && size > media.getChunk(selected, chunkIndex).length) {
+                selected = i;
+            }
+        }
+        return selected;
+    }
+
+    /** A frame queued for sending. */
+    private static final class OutgoingFrame {
+
+        public final byte[] bytes;
+        public final long initId;
+        public final long byteOffset;
+        public final boolean isMedia;
+        public final boolean isLastFragment;
+
+        // Set by the writer once the frame has been written.
+        private long sentNanos;
+
+        public OutgoingFrame(byte[] bytes, long initId, long byteOffset, boolean isMedia,
+                             boolean isLastFragment) {
+            this.bytes = bytes;
+            this.initId = initId;
+            this.byteOffset = byteOffset;
+            this.isMedia = isMedia;
+            this.isLastFragment = isLastFragment;
+        }
+
+        public synchronized void onSent() {
+            sentNanos = System.nanoTime();
+            notifyAll();
+        }
+
+        /** Returns when the frame was written, waiting for the writer to record it if needed. */
+        public synchronized long awaitSentNanos() throws InterruptedException {
+            while (sentNanos == 0) {
+                wait();
+            }
+            return sentNanos;
+        }
+    }
+
+    /** A client connection, with a reader thread for its messages and a writer thread. */
+    private final class Connection {
+
+        private final Socket socket;
+        private final LinkedBlockingDeque<OutgoingFrame> outgoing;
+
+        private volatile WebSocketConnection webSocket;
+
+        // Guarded by this.
+        private long initId = -1;
+        private long nextVts;
+        private long clientNextVts;
+        private int currentFormat = -1;
+        private long videoBufferMs;
+        private long inFlightTimestamp = -1;
+        // The frames of the chunk in flight, by byte offset.
+        private final HashMap<Long, OutgoingFrame> inFlightFrames = new HashMap<>();
+
+        public Connection(Socket socket) {
+            this.socket = socket;
+            this.outgoing = new LinkedBlockingDeque<>();
+        }
+
+        public void start() {
+            Thread reader = new Thread("PufferTestServer:read:" + socket.getPort()) {
+                @Override
+                public void run() {
+                    read();
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        public void close() {
+            WebSocketConnection webSocket = this.webSocket;
+            if (webSocket != null) {
+                webSocket.close();
+            } else {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+
+        private void read() {
+            Thread writer = null;
+            try {
+                webSocket = WebSocketConnection.accept(socket, trace);
+                stats.onConnection();
+                writer = new Thread("PufferTestServer:write:" + socket.getPort()) {
+                    @Override
+                    public void run() {
+                        write();
+                    }
+                };
+                writer.setDaemon(true);
+                writer.start();
+                byte[] message;
+                while ((message = webSocket.readMessage()) != null) {
+                    long receivedNanos = System.nanoTime();
+                    handleMessage(ClientMessage.parse(new String(message, UTF_8)), receivedNanos);
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("PufferTestServer: connection " + socket.getPort()
+                            + " failed: " + e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (writer != null) {
+                    writer.interrupt();
+                }
+                close();
+                onConnectionClosed(this);
+            }
+        }
+
+        private void write() {
+            try {
+                while (true) {
+                    OutgoingFrame frame = outgoing.take();
+                    webSocket.writeBinary(frame.bytes);
+                    frame.onSent();
+                    if (frame.isMedia) {
+                        stats.onFrameSent(frame.bytes.length, frame.isLastFragment);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            } catch (InterruptedException e) {
+                // Closed.
+            }
+        }
+
+        private void handleMessage(ClientMessage message, long receivedNanos)
+                throws IOException, InterruptedException {
+            String type = message.getType();
+            if ("client-init".equals(type)) {
+                onClientInit(message);
+            } else if ("client-info".equals(type)) {
+                synchronized (this) {
+                    if (message.getLong("initId") != initId) {
+                        return;
+                    }
+                    videoBufferMs = toMillis(message.getDouble("videoBuffer"));
+                }
+                stats.onClientInfo();
+            } else if ("client-vidack".equals(type)) {
+                onVideoAck(message, receivedNanos);
+            } else if (!"client-audack".equals(type)) {
+                throw new IOException("Unknown message type " + type);
+            }
+            maybeServe();
+        }
+
+        private synchronized void onClientInit(ClientMessage message) throws IOException {
+            initId = message.getLong("initId");
+            outgoing.clear();
+            inFlightFrames.clear();
+            inFlightTimestamp = -1;
+            if (!media.getChannel().equals(message.getString("channel"))) {
+                initId = -1;
+                outgoing.add(new OutgoingFrame(metadataFrame("{\"type\":\"server-error\",\"initId\":"
+                        + message.getLong("initId") + ",\"errorType\":\"unavailable\"}"),
+                        0, 0, false, false));
+                return;
+            }
+            boolean canResume = false;
+            long initVts = media.getFirstTimestamp();
+            String requestedVts = message.getString("nextVts");
+            if (requestedVts != null) {
+                long vts = message.getLong("nextVts");
+                if (vts >= initVts && (vts - initVts) % media.getVideoDuration() == 0) {
+                    initVts = vts;
+                    canResume = true;
+                }
+            }
+            nextVts = initVts;
+            clientNextVts = initVts;
+            currentFormat = -1;
+            videoBufferMs = 0;
+            String serverInit = "{\"type\":\"server-init\",\"initId\":" + initId
+                    + ",\"channel\":\"" + media.getChannel() + "\""
+                    + ",\"videoCodec\":\"video/mp4; codecs=\\\"avc1.42E020\\\"\""
+                    + ",\"audioCodec\":\"audio/webm; codecs=\\\"opus\\\"\""
+                    + ",\"timescale\":" + media.getTimescale()
+                    + ",\"videoDuration\":" + media.getVideoDuration()
+                    + ",\"audioDuration\":" + media.getAudioDuration()
+                    + ",\"initVideoTimestamp\":" + initVts
+                    + ",\"initAudioTimestamp\":" + initVts
+                    + ",\"canResume\":" + canResume + "}";
+            outgoing.add(new OutgoingFrame(metadataFrame(serverInit), initId, 0, false, false));
+        }
+
+        private void onVideoAck(ClientMessage message, long receivedNanos)
+                throws IOException, InterruptedException {
+            OutgoingFrame frame;
+            boolean lastFragment;
+            synchronized (this) {
+                if (message.getLong("initId") != initId) {
+                    return;
+                }
+                videoBufferMs = toMillis(message.getDouble("videoBuffer"));
+                long timestamp = message.getLong("timestamp");
+                long byteOffset = message.getLong("byteOffset");
+                lastFragment = byteOffset + message.getLong("byteLength")
+                        == message.getLong("totalByteLength");
+                if (lastFragment) {
+                    // Allow sending another chunk.
+                    clientNextVts = timestamp + media.getVideoDuration();
+                }
+                frame = timestamp == inFlightTimestamp ? inFlightFrames.remove(byteOffset) : null;
+            }
+            if (frame != null) {
+                long rttNanos = receivedNanos - frame.awaitSentNanos();
+                stats.onAck(Math.max(rttNanos, 0) / 1000, lastFragment);
+            }
+        }
+
+        private synchronized void maybeServe() {
+            if (initId < 0 || videoBufferMs > MAX_BUFFER_MS || nextVts != clientNextVts) {
+                return;
+            }
+            int chunkIndex = media.getChunkIndex(nextVts);
+            int format = selectFormat(chunkIndex, videoBufferMs);
+            byte[] init = format != currentFormat ? media.getInitSegment(format) : new byte[0];
+            byte[] data = media.getChunk(format, chunkIndex);
+            int totalLength = init.length + data.length;
+            inFlightFrames.clear();
+            inFlightTimestamp = nextVts;
+            int offset = 0;
+            while (offset < totalLength) {
+                String metadata = "{\"type\":\"server-video\",\"initId\":" + initId
+                        + ",\"channel\":\"" + media.getChannel() + "\""
+                        + ",\"format\":\"" + media.getFormat(format) + "\""
+                        + ",\"timestamp\":" + nextVts
+                        + ",\"byteOffset\":" + offset
+                        + ",\"totalByteLength\":" + totalLength
+                        + ",\"ssim\":" + media.getSsim(format, chunkIndex) + "}";
+                byte[] metadataBytes = metadata.getBytes(UTF_8);
+                int length = Math.min(MAX_FRAME_BYTES - 2 - metadataBytes.length,
+                        totalLength - offset);
+                byte[] frameBytes = new byte[2 + metadataBytes.length + length];
+                frameBytes[0] = (byte) (metadataBytes.length >> 8);
+                frameBytes[1] = (byte) metadataBytes.length;
+                System.arraycopy(metadataBytes, 0, frameBytes, 2, metadataBytes.length);
+                int position = 2 + metadataBytes.length;
+                // The payload is a slice of the init segment followed by the chunk.
+                if (offset < init.length) {
+                    int fromInit = Math.min(length, init.length - offset);
+                    System.arraycopy(init, offset, frameBytes, position, fromInit);
+                    System.arraycopy(data, 0, frameBytes, position + fromInit, length - fromInit);
+                } else {
+                    System.arraycopy(data, offset - init.length, frameBytes, position, length);
+                }
+                OutgoingFrame frame = new OutgoingFrame(frameBytes, initId, offset, true,
+                        offset + length == totalLength);
+                inFlightFrames.put((long) offset, frame);
+                outgoing.add(frame);
+                offset += length;
+            }
+            nextVts += media.getVideoDuration();
+            currentFormat = format;
+        }
+    }
+
+    private static long toMillis(double seconds) {
+        return Math.round(seconds * 1000);
+    }
+
+    /** Returns a frame that only holds metadata. */
+    private static byte[] metadataFrame(String metadata) {
+        byte[] metadataBytes = metadata.getBytes(UTF_8);
+        byte[] frame = new byte[2 + metadataBytes.length];
+        frame[0] = (byte) (metadataBytes.length >> 8);
+        frame[1] = (byte) metadataBytes.length;
+        System.arraycopy(metadataBytes, 0, frame, 2, metadataBytes.length);
+        return frame;
+    }
+}
@@ -0,0 +1,117 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import java.util.Arrays;
+
+/**
+ * Counters of a {@link PufferTestServer}, summed over all connections. The ack round-trip time of a
+ * frame is the time from the server finishing to write it to the client's {@code client-vidack} for
+ * it arriving, so it includes the client's processing but not the emulated link. Thread-safe.
+ */
+public final class ServerStats {
+
+    private long connections;
+    private long bytesSent;
+    private long framesSent;
+    private long chunksSent;
+    private long chunksAcked;
+    private long clientInfos;
+    private long[] ackRttsUs = new long[1024];
+    private int ackRttCount;
+
+    /* package */ synchronized void onConnection() {
+        connections++;
+    }
+
+    /* package */ synchronized void onFrameSent(int bytes, boolean lastFragment) {
+        bytesSent += bytes;
+        framesSent++;
+        if (lastFragment) {
+            chunksSent++;
+        }
+    }
+
+    /* package */ synchronized void onAck(long rttUs, boolean lastFragment) {
+        if (ackRttCount == ackRttsUs.length) {
+            ackRttsUs = Arrays.copyOf(ackRttsUs, ackRttCount * 2);
+        }
+        ackRttsUs[ackRttCount++] = rttUs;
+        if (lastFragment) {
+            chunksAcked++;
+        }
+    }
+
+    /* package */ synchronized void onClientInfo() {
+        clientInfos++;
+    }
+
+    /** Returns the number of accepted WebSocket connections. */
+    public synchronized long getConnections() {
+        return connections;
+    }
+
+    /** Returns the number of bytes sent in media frames, including their metadata. */
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /** Returns the number of media frames sent. */
+    public synchronized long getFramesSent() {
+        return framesSent;
+    }
+
+    /** Returns the number of video chunks sent completely. */
+    public synchronized long getChunksSent() {
+        return chunksSent;
+    }
+
+    /** Returns the number of video chunks whose last frame has been acked. */
+    public synchronized long getChunksAcked() {
+        return chunksAcked;
+    }
+
+    /** Returns the number of {@code client-info} messages received. */
+    public synchronized long getClientInfos() {
+        return clientInfos;
+    }
+
+    /** Returns the number of acks matched to a sent frame. */
+    public synchronized int getAckCount() {
+        return ackRttCount;
+    }
+
+    /** Returns the mean ack round-trip time in microseconds, or 0 if there has been no ack. */
+    public synchronized long getMeanAckRttUs() {
+        if (ackRttCount == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < ackRttCount; i++) {
+            sum += ackRttsUs[i];
+        }
+        return sum / ackRttCount;
+    }
+
+    /**
+     * Returns a percentile of the ack round-trip time in microseconds, or 0 if there has been no
+     * ack.
+     *
+     * @param percentile The percentile, in {@code (0, 100]}.
+     */
+    public synchronized long getAckRttPercentileUs(double percentile) {
+        if (ackRttCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(ackRttsUs, ackRttCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * ackRttCount);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "connections=" + connections + " bytes=" + bytesSent + " frames=" + framesSent
+                + " chunks=" + chunksSent + "/" + chunksAcked + " acked, client-info="
+                + clientInfos + ", ack rtt mean=" + getMeanAckRttUs() + "us p50="
+                + getAckRttPercentileUs(50) + "us p99=" + getAckRttPercentileUs(99) + "us";
+    }
+}
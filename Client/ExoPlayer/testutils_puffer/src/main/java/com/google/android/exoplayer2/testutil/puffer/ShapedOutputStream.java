@@ -0,0 +1,66 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that releases bytes at the delivery opportunities of a {@link
+ * ThroughputTrace}. Bytes are written to the underlying stream in packets of {@link
+ * ThroughputTrace#PACKET_BYTES}, each once its opportunity has passed, and all packets that are due
+ * are written together. Writes block until the last packet has been written.
+ */
+/* package */ final class ShapedOutputStream extends FilterOutputStream {
+
+    private final ThroughputTrace trace;
+    private final long startNanos;
+
+    private long nextOpportunity;
+
+    public ShapedOutputStream(OutputStream out, ThroughputTrace trace) {
+        super(out);
+        this.trace = trace;
+        this.startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // Opportunities that passed while the link was idle are lost.
+        nextOpportunity = Math.max(nextOpportunity, trace.getFirstOpportunityAtOrAfter(elapsedUs()));
+        int end = off + len;
+        while (off < end) {
+            sleepUntil(trace.getOpportunityTimeUs(nextOpportunity));
+            long nowUs = elapsedUs();
+            int length = 0;
+            while (off + length < end && trace.getOpportunityTimeUs(nextOpportunity) <= nowUs) {
+                length += Math.min(ThroughputTrace.PACKET_BYTES, end - off - length);
+                nextOpportunity++;
+            }
+            out.write(b, off, length);
+            out.flush();
+            off += length;
+        }
+    }
+
+    private long elapsedUs() {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    private void sleepUntil(long timeUs) throws IOException {
+        long waitUs;
+        while ((waitUs = timeUs - elapsedUs()) > 0) {
+            try {
+                Thread.sleep(waitUs / 1000, (int) (waitUs % 1000) * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,582 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import com.google.android.exoplayer2.ext.puffer.PufferClient;
+import com.google.android.exoplayer2.ext.puffer.PufferFrameHeader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Random;
+
+import okio.ByteString;
+
+/**
+ * One player of a {@link PufferLoadGenerator}: a non-blocking WebSocket connection driven by a
+ * {@link PufferClient}, and a model of playback that consumes the received chunks.
+ * <p>
+ * Media payloads are skipped as they are read and never held in memory. Only the metadata of each
+ * frame is buffered, which is what lets one process run thousands of players.
+ * <p>
+ * Playback starts, and resumes after a stall, once one chunk is buffered. The player sends {@code
+ * rebuffer} and {@code play} when it stalls and resumes, and {@code timer} when its video buffer
+ * drops below the threshold and then every {@link PufferClient#DEFAULT_RETRY_INTERVAL_MS} while no
+ * video arrives, like the telemetry scheduler of the Android client. The playback clock runs {@code
+ * speed} times faster than the wall clock. Rebuffering is counted in wall-clock time.
+ * <p>
+ * All methods must be called on the generator's selector thread.
+ */
+/* package */ final class SimulatedPlayer {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_HANDSHAKE = 1;
+    private static final int STATE_OPEN = 2;
+    private static final int STATE_CLOSED = 3;
+
+    /** Reading the 2 to 10 byte header of a WebSocket frame. */
+    private static final int READ_FRAME_HEADER = 0;
+    /** Reading the payload of a control frame. */
+    private static final int READ_CONTROL = 1;
+    /** Reading the 2 byte metadata length of a Puffer frame. */
+    private static final int READ_METADATA_LENGTH = 2;
+    /** Reading the metadata of a Puffer frame. */
+    private static final int READ_METADATA = 3;
+    /** Skipping the media payload of a Puffer frame. */
+    private static final int SKIP_PAYLOAD = 4;
+
+    private static final int MAX_HANDSHAKE_BYTES = 4096;
+    private static final int MAX_CONTROL_BYTES = 125;
+
+    private final InetSocketAddress address;
+    private final PufferClient client;
+    private final LoadStats stats;
+    private final float speed;
+    private final Random random;
+    private final String expectedAccept;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer output;
+    private int state;
+    private IOException error;
+
+    private final byte[] handshake = new byte[MAX_HANDSHAKE_BYTES];
+    private int handshakeLength;
+
+    private final byte[] frameHeader = new byte[10];
+    private final byte[] control = new byte[MAX_CONTROL_BYTES];
+    private byte[] metadata = new byte[1024];
+    private int readState;
+    private int headerFilled;
+    private int opcode;
+    private long frameLength;
+    private int filled;
+    private int needed;
+    private long skipRemaining;
+    private int result;
+
+    // Playback, in microseconds of the playback clock unless noted.
+    private long lastTickNanos;
+    private long positionUs;
+    private long bufferedUs;
+    private boolean started;
+    private boolean playing;
+    private long rebufferStartNanos;
+    private long cumRebufferNanos;
+    private long lastVideoFrameNanos;
+    private long lastTimerNanos;
+    private boolean belowThreshold;
+    private boolean receivingChunk;
+    private long eligibleSinceNanos = -1;
+
+    private long connectStartNanos;
+    private long openNanos;
+    private long serverInitNanos;
+    private long acks;
+    private long clientInfos;
+    private long chunks;
+    private long bytes;
+    private long rebuffers;
+
+    /**
+     * @param address The address of the server.
+     * @param path The path of the WebSocket endpoint.
+     * @param client The protocol state of the session.
+     * @param stats Receives the measurements.
+     * @param speed The speed of the playback clock relative to the wall clock.
+     * @param seed The seed of the WebSocket handshake key and the frame masks.
+     */
+    public SimulatedPlayer(InetSocketAddress address, String path, PufferClient client,
+                           LoadStats stats, float speed, long seed) {
+        this.address = address;
+        this.client = client;
+        this.stats = stats;
+        this.speed = speed;
+        this.random = new Random(seed);
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        String key = Base64.getEncoder().encodeToString(nonce);
+        this.expectedAccept = acceptKey(key);
+        this.output = ByteBuffer.allocate(1024);
+        String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + address.getHostString() + ":" + address.getPort() + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + "Origin: http://" + address.getHostString() + ":" + address.getPort() + "\r\n"
+                + "\r\n";
+        output.put(request.getBytes(US_ASCII));
+    }
+
+    /** Starts connecting. */
+    public void connect(Selector selector, long nowNanos) throws IOException {
+        stats.onSessionStarted();
+        connectStartNanos = nowNanos;
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+        if (channel.connect(address)) {
+            onConnected();
+        }
+    }
+
+    /** Handles the readiness of the channel. */
+    public void onReady(ByteBuffer readBuffer, long nowNanos) {
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isConnectable() && channel.finishConnect()) {
+                onConnected();
+            }
+            if (key.isValid() && key.isReadable()) {
+                onReadable(readBuffer, nowNanos);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Advances playback to {@code nowNanos} and sends the {@code client-info} it calls for. */
+    public void tick(long nowNanos) {
+        if (state != STATE_OPEN || !client.isStreaming()) {
+            lastTickNanos = nowNanos;
+            return;
+        }
+        long elapsedNanos = nowNanos - lastTickNanos;
+        lastTickNanos = nowNanos;
+        long chunkUs = client.getVideoChunkDurationMs() * 1000;
+        try {
+            if (playing) {
+                positionUs += (long) (elapsedNanos / 1000 * speed);
+                if (positionUs >= bufferedUs) {
+                    positionUs = bufferedUs;
+                    playing = false;
+                    rebufferStartNanos = nowNanos;
+                    rebuffers++;
+                    sendClientInfo(PufferClient.EVENT_REBUFFER, nowNanos);
+                }
+            } else if (bufferedUs - positionUs >= chunkUs) {
+                if (started) {
+                    cumRebufferNanos += nowNanos - rebufferStartNanos;
+                    playing = true;
+                    sendClientInfo(PufferClient.EVENT_PLAY, nowNanos);
+                } else {
+                    started = true;
+                    playing = true;
+                }
+            }
+            boolean below = getVideoBufferMs() < PufferClient.DEFAULT_BUFFER_THRESHOLD_MS;
+            long retryNanos = PufferClient.DEFAULT_RETRY_INTERVAL_MS * 1_000_000;
+            if (below && (!belowThreshold || (nowNanos - lastVideoFrameNanos >= retryNanos
+                    && nowNanos - lastTimerNanos >= retryNanos))) {
+                lastTimerNanos = nowNanos;
+                sendClientInfo(PufferClient.EVENT_TIMER, nowNanos);
+            }
+            belowThreshold = below;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Closes the connection and reports the session to the {@link LoadStats}. */
+    public void close(long nowNanos) {
+        if (state == STATE_CLOSED) {
+            return;
+        }
+        if (state == STATE_OPEN && error == null) {
+            try {
+                // Normal closure. Whatever the socket does not take at once is dropped.
+                sendFrame(OPCODE_CLOSE, new byte[] {0x03, (byte) 0xE8}, 0, 2);
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+        state = STATE_CLOSED;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // Ignore.
+        }
+        if (error != null) {
+            stats.onSessionFailed();
+        }
+        if (started && !playing) {
+            cumRebufferNanos += nowNanos - rebufferStartNanos;
+        }
+        long streamingNanos = serverInitNanos == 0 ? 0 : nowNanos - serverInitNanos;
+        stats.onSessionEnded(acks, clientInfos, chunks, bytes, rebuffers,
+                cumRebufferNanos / 1_000_000, positionUs / 1000, streamingNanos);
+    }
+
+    /** Returns the error that ended the session, or null. */
+    public IOException getError() {
+        return error;
+    }
+
+    private void onConnected() {
+        state = STATE_HANDSHAKE;
+        stats.onConnected(System.nanoTime() - connectStartNanos);
+        key.interestOps(SelectionKey.OP_READ);
+        try {
+            flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onReadable(ByteBuffer readBuffer, long nowNanos) throws IOException {
+        while (state != STATE_CLOSED) {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                throw new EOFException("Server closed the connection");
+            } else if (read == 0) {
+                return;
+            }
+            readBuffer.flip();
+            bytes += read;
+            if (state == STATE_HANDSHAKE) {
+                readHandshake(readBuffer, nowNanos);
+            }
+            while (state == STATE_OPEN && readBuffer.hasRemaining()) {
+                readFrames(readBuffer, nowNanos);
+            }
+        }
+    }
+
+    private void readHandshake(ByteBuffer input, long nowNanos) throws IOException {
+        while (input.hasRemaining()) {
+            if (handshakeLength == handshake.length) {
+                throw new IOException("Handshake response too long");
+            }
+            handshake[handshakeLength++] = input.get();
+            if (handshakeLength >= 4 && handshake[handshakeLength - 4] == '\r'
+                    && handshake[handshakeLength - 3] == '\n'
+                    && handshake[handshakeLength - 2] == '\r'
+                    && handshake[handshakeLength - 1] == '\n') {
+                String response = new String(handshake, 0, handshakeLength, US_ASCII);
+                if (!response.startsWith("HTTP/1.1 101")
+                        || !response.contains(": " + expectedAccept + "\r\n")) {
+                    throw new IOException("Upgrade refused: " + response.split("\r\n")[0]);
+                }
+                state = STATE_OPEN;
+                openNanos = nowNanos;
+                lastTickNanos = nowNanos;
+                sendText(client.encodeClientInit());
+                return;
+            }
+        }
+    }
+
+    private void readFrames(ByteBuffer input, long nowNanos) throws IOException {
+        switch (readState) {
+            case READ_FRAME_HEADER:
+                if (!readFrameHeader(input)) {
+                    return;
+                }
+                if (opcode >= OPCODE_CLOSE) {
+                    if (frameLength > MAX_CONTROL_BYTES) {
+                        throw new IOException("Control frame too long: " + frameLength);
+                    }
+                    readState = READ_CONTROL;
+                    needed = (int) frameLength;
+                } else if (opcode == OPCODE_BINARY) {
+                    readState = READ_METADATA_LENGTH;
+                    needed = 2;
+                } else {
+                    // The server sends every frame in a single, binary, WebSocket frame.
+                    throw new IOException("Unexpected opcode " + opcode);
+                }
+                filled = 0;
+                break;
+            case READ_CONTROL:
+                filled += fill(input, control, filled, needed - filled);
+                if (filled == needed) {
+                    onControlFrame();
+                    readState = READ_FRAME_HEADER;
+                }
+                break;
+            case READ_METADATA_LENGTH:
+            case READ_METADATA:
+                if (needed > frameLength) {
+                    throw new IOException("Frame too short: " + frameLength);
+                }
+                if (metadata.length < needed) {
+                    byte[] larger = new byte[needed];
+                    System.arraycopy(metadata, 0, larger, 0, filled);
+                    metadata = larger;
+                }
+                filled += fill(input, metadata, filled, needed - filled);
+                if (filled < needed) {
+                    return;
+                }
+                if (readState == READ_METADATA_LENGTH) {
+                    needed += ((metadata[0] & 0xFF) << 8) | (metadata[1] & 0xFF);
+                    readState = READ_METADATA;
+                    return;
+                }
+                onMetadata(nowNanos);
+                skipRemaining = frameLength - needed;
+                readState = SKIP_PAYLOAD;
+                // Skip at once, so that an empty payload is handled without more input.
+                skipPayload(input, nowNanos);
+                break;
+            case SKIP_PAYLOAD:
+                skipPayload(input, nowNanos);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /** Skips the buffered part of the payload, completing the frame once it is all skipped. */
+    private void skipPayload(ByteBuffer input, long nowNanos) throws IOException {
+        int skipped = (int) Math.min(input.remaining(), skipRemaining);
+        input.position(input.position() + skipped);
+        skipRemaining -= skipped;
+        if (skipRemaining == 0) {
+            onFrameReceived(nowNanos);
+            readState = READ_FRAME_HEADER;
+        }
+    }
+
+    /** Reads the header of a WebSocket frame, returning whether it is complete. */
+    private boolean readFrameHeader(ByteBuffer input) throws IOException {
+        int needed = 2;
+        while (true) {
+            if (headerFilled >= 2) {
+                int length = frameHeader[1] & 0x7F;
+                needed = length == 126 ? 4 : length == 127 ? 10 : 2;
+            }
+            if (headerFilled == needed) {
+                break;
+            }
+            if (!input.hasRemaining()) {
+                return false;
+            }
+            frameHeader[headerFilled++] = input.get();
+        }
+        headerFilled = 0;
+        if ((frameHeader[0] & 0x80) == 0) {
+            throw new IOException("Fragmented WebSocket messages are not supported");
+        }
+        if ((frameHeader[1] & 0x80) != 0) {
+            throw new IOException("Server frames must not be masked");
+        }
+        opcode = frameHeader[0] & 0x0F;
+        frameLength = frameHeader[1] & 0x7F;
+        if (frameLength == 126) {
+            frameLength = ((frameHeader[2] & 0xFF) << 8) | (frameHeader[3] & 0xFF);
+        } else if (frameLength == 127) {
+            frameLength = 0;
+            for (int i = 2; i < 10; i++) {
+                frameLength = (frameLength << 8) | (frameHeader[i] & 0xFF);
+            }
+        }
+        return true;
+    }
+
+    private void onControlFrame() throws IOException {
+        if (opcode == OPCODE_PING) {
+            sendFrame(OPCODE_PONG, control, 0, needed);
+        } else if (opcode == OPCODE_CLOSE) {
+            throw new EOFException("Server closed the WebSocket");
+        } else if (opcode != OPCODE_PONG) {
+            throw new IOException("Unknown opcode " + opcode);
+        }
+    }
+
+    private void onMetadata(long nowNanos) throws IOException {
+        result = client.onMessage(metadata, 0, (int) frameLength);
+        PufferFrameHeader header = client.getHeader();
+        if (result == PufferClient.RESULT_SERVER_INIT) {
+            serverInitNanos = nowNanos;
+            stats.onServerInit(nowNanos - openNanos);
+            lastVideoFrameNanos = nowNanos;
+            // The startup message already reports the empty buffer.
+            belowThreshold = true;
+        } else if (result == PufferClient.RESULT_FRAME
+                && header.type == PufferFrameHeader.TYPE_SERVER_VIDEO) {
+            lastVideoFrameNanos = nowNanos;
+            if (header.byteOffset == 0) {
+                receivingChunk = true;
+                if (eligibleSinceNanos >= 0) {
+                    stats.onNextChunk(nowNanos - eligibleSinceNanos);
+                    eligibleSinceNanos = -1;
+                }
+            }
+        } else if (header.type == PufferFrameHeader.TYPE_SERVER_ERROR) {
+            throw new IOException("server-error");
+        }
+    }
+
+    private void onFrameReceived(long nowNanos) throws IOException {
+        if (result == PufferClient.RESULT_SERVER_INIT) {
+            sendClientInfo(PufferClient.EVENT_STARTUP, nowNanos);
+            return;
+        } else if (result != PufferClient.RESULT_FRAME) {
+            return;
+        }
+        PufferFrameHeader header = client.getHeader();
+        if (header.type == PufferFrameHeader.TYPE_SERVER_VIDEO && header.isLastFragment()) {
+            bufferedUs += client.getVideoChunkDurationMs() * 1000;
+            receivingChunk = false;
+            chunks++;
+        }
+        long videoBufferMs = getVideoBufferMs();
+        // Without audio, the server is told the audio buffer matches the video buffer.
+        ByteString ack = client.encodeAck(videoBufferMs, videoBufferMs,
+                cumRebufferNanos / 1_000_000, positionUs / 1000);
+        if (ack != null) {
+            acks++;
+            send(OPCODE_BINARY, ack, videoBufferMs, nowNanos);
+        }
+    }
+
+    private void sendClientInfo(String event, long nowNanos) throws IOException {
+        long videoBufferMs = getVideoBufferMs();
+        long cumRebufferNanos = this.cumRebufferNanos;
+        if (started && !playing) {
+            cumRebufferNanos += nowNanos - rebufferStartNanos;
+        }
+        clientInfos++;
+        send(OPCODE_BINARY, client.encodeClientInfo(event, videoBufferMs, videoBufferMs,
+                cumRebufferNanos / 1_000_000, positionUs / 1000), videoBufferMs, nowNanos);
+    }
+
+    private long getVideoBufferMs() {
+        return (bufferedUs - positionUs) / 1000;
+    }
+
+    private void send(int opcode, ByteString message, long videoBufferMs, long nowNanos)
+            throws IOException {
+        if (eligibleSinceNanos < 0 && !receivingChunk
+                && videoBufferMs <= PufferTestServer.MAX_BUFFER_MS) {
+            eligibleSinceNanos = nowNanos;
+        }
+        byte[] bytes = message.toByteArray();
+        sendFrame(opcode, bytes, 0, bytes.length);
+    }
+
+    private void sendText(String message) throws IOException {
+        byte[] bytes = message.getBytes(UTF_8);
+        sendFrame(OPCODE_TEXT, bytes, 0, bytes.length);
+    }
+
+    /** Appends a masked frame to the output and writes as much of it as the socket takes. */
+    private void sendFrame(int opcode, byte[] payload, int offset, int length)
+            throws IOException {
+        int required = 14 + length;
+        if (output.remaining() < required) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2,
+                    output.position() + required));
+            output.flip();
+            larger.put(output);
+            output = larger;
+        }
+        output.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            output.put((byte) (0x80 | length));
+        } else if (length <= 0xFFFF) {
+            output.put((byte) (0x80 | 126));
+            output.putShort((short) length);
+        } else {
+            output.put((byte) (0x80 | 127));
+            output.putLong(length);
+        }
+        int mask = random.nextInt();
+        output.putInt(mask);
+        for (int i = 0; i < length; i++) {
+            output.put((byte) (payload[offset + i] ^ (mask >>> (24 - 8 * (i & 3)))));
+        }
+        flush();
+    }
+
+    private void flush() throws IOException {
+        if (state == STATE_CONNECTING || state == STATE_CLOSED) {
+            return;
+        }
+        output.flip();
+        channel.write(output);
+        boolean pending = output.hasRemaining();
+        output.compact();
+        if (!key.isValid()) {
+            return;
+        }
+        key.interestOps(pending
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void fail(IOException e) {
+        if (state == STATE_CLOSED) {
+            return;
+        }
+        error = e;
+        close(System.nanoTime());
+    }
+
+    private static int fill(ByteBuffer input, byte[] target, int offset, int length) {
+        int count = Math.min(length, input.remaining());
+        input.get(target, offset, count);
+        return count;
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(
+                    sha1.digest((key + ACCEPT_GUID).getBytes(US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The delivery opportunities of an emulated link. Each opportunity carries one packet of
+ * {@link #PACKET_BYTES}. Opportunities that pass while nothing is waiting to be sent are lost, as in
+ * Mahimahi.
+ * <p>
+ * A trace file has the Mahimahi format: one line per opportunity holding the time in milliseconds
+ * at which it occurs, in non-decreasing order. The trace repeats with the period of its last line.
+ */
+public final class ThroughputTrace {
+
+    /** The size of the packet carried by one opportunity. */
+    public static final int PACKET_BYTES = 1500;
+
+    // Either a trace of opportunity times, or a constant interval between opportunities.
+    private final long[] timesUs;
+    private final long periodUs;
+    private final double intervalUs;
+
+    private ThroughputTrace(long[] timesUs, long periodUs, double intervalUs) {
+        this.timesUs = timesUs;
+        this.periodUs = periodUs;
+        this.intervalUs = intervalUs;
+    }
+
+    /**
+     * Reads a Mahimahi trace file.
+     *
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public static ThroughputTrace load(File file) throws IOException {
+        long[] timesMs = new long[1024];
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                long timeMs;
+                try {
+                    timeMs = Long.parseLong(line);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed line in " + file + ": " + line, e);
+                }
+                if (timeMs < 0 || (count > 0 && timeMs < timesMs[count - 1])) {
+                    throw new IOException("Times must be non-decreasing in " + file + ": " + line);
+                }
+                if (count == timesMs.length) {
+                    timesMs = Arrays.copyOf(timesMs, count * 2);
+                }
+                timesMs[count++] = timeMs;
+            }
+        }
+        if (count == 0 || timesMs[count - 1] == 0) {
+            throw new IOException("Trace must end at a positive time: " + file);
+        }
+        long[] timesUs = new long[count];
+        for (int i = 0; i < count; i++) {
+            timesUs[i] = timesMs[i] * 1000;
+        }
+        return new ThroughputTrace(timesUs, timesUs[count - 1], 0);
+    }
+
+    /** Returns a link with a constant rate. */
+    public static ThroughputTrace constant(long bitsPerSecond) {
+        if (bitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + bitsPerSecond);
+        }
+        return new ThroughputTrace(null, 0, PACKET_BYTES * 8 * 1e6 / bitsPerSecond);
+    }
+
+    /**
+     * Returns the time of an opportunity, in microseconds from the start of the link. Opportunities
+     * are numbered from 0 and their times do not decrease.
+     */
+    public long getOpportunityTimeUs(long index) {
+        if (timesUs == null) {
+            return (long) Math.ceil(index * intervalUs);
+        }
+        return timesUs[(int) (index % timesUs.length)] + index / timesUs.length * periodUs;
+    }
+
+    /** Returns the index of the first opportunity at or after {@code timeUs}. */
+    public long getFirstOpportunityAtOrAfter(long timeUs) {
+        if (timeUs <= 0) {
+            return 0;
+        }
+        if (timesUs == null) {
+            return (long) Math.ceil(timeUs / intervalUs);
+        }
+        long periods = timeUs / periodUs;
+        long offsetUs = timeUs - periods * periodUs;
+        // The first time in the trace that is >= offsetUs.
+        int low = 0;
+        int high = timesUs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timesUs[mid] < offsetUs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return periods * timesUs.length + low;
+    }
+
+    /** Returns the mean rate of the link, in bits per second. */
+    public long getMeanBitsPerSecond() {
+        if (timesUs == null) {
+            return (long) (PACKET_BYTES * 8 * 1e6 / intervalUs);
+        }
+        return (long) ((double) timesUs.length * PACKET_BYTES * 8 * 1e6 / periodUs);
+    }
+
+    @Override
+    public String toString() {
+        return (timesUs == null ? "constant " : "trace ") + getMeanBitsPerSecond() / 1000 + " kbit/s";
+    }
+}
@@ -0,0 +1,230 @@
+package com.google.android.exoplayer2.testutil.puffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * The server side of a WebSocket (RFC 6455), as much of it as a Puffer client uses: the opening
+ * handshake, text and binary messages, fragmented messages, ping and close. Extensions are not
+ * negotiated.
+ * <p>
+ * {@link #readMessage()} must be called from a single thread. The write methods may be called from
+ * any thread.
+ */
+/* package */ final class WebSocketConnection {
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private static final int MAX_MESSAGE_BYTES = 1024 * 1024;
+
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+    private final byte[] header = new byte[14];
+
+    private WebSocketConnection(Socket socket, InputStream input, OutputStream output) {
+        this.socket = socket;
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Performs the opening handshake on an accepted socket.
+     *
+     * @param socket The socket.
+     * @param trace  The link that shapes what the server sends, or null to send at full speed.
+     * @throws IOException If the request is not a WebSocket upgrade or the socket fails.
+     */
+    public static WebSocketConnection accept(Socket socket, ThroughputTrace trace)
+            throws IOException {
+        socket.setTcpNoDelay(true);
+        InputStream input = new BufferedInputStream(socket.getInputStream());
+        String key = null;
+        String line = readLine(input);
+        if (!line.startsWith("GET ")) {
+            throw new IOException("Not a GET request: " + line);
+        }
+        while (!(line = readLine(input)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().toLowerCase(Locale.US)
+                    .equals("sec-websocket-key")) {
+                key = line.substring(colon + 1).trim();
+            }
+        }
+        if (key == null) {
+            throw new IOException("Missing Sec-WebSocket-Key");
+        }
+        String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+        OutputStream output = socket.getOutputStream();
+        output.write(response.getBytes(US_ASCII));
+        output.flush();
+        if (trace != null) {
+            output = new ShapedOutputStream(output, trace);
+        }
+        return new WebSocketConnection(socket, input,
+                new BufferedOutputStream(output, ThroughputTrace.PACKET_BYTES * 64));
+    }
+
+    /**
+     * Reads the next text or binary message, answering pings on the way.
+     *
+     * @return The payload of the message, or null if the client has closed the connection.
+     * @throws IOException If the socket fails or the client violates the protocol.
+     */
+    public byte[] readMessage() throws IOException {
+        ByteArrayOutputStream message = null;
+        while (true) {
+            readFully(header, 0, 2);
+            boolean fin = (header[0] & 0x80) != 0;
+            int opcode = header[0] & 0x0F;
+            boolean masked = (header[1] & 0x80) != 0;
+            long length = header[1] & 0x7F;
+            if (length == 126) {
+                readFully(header, 2, 2);
+                length = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            } else if (length == 127) {
+                readFully(header, 2, 8);
+                length = 0;
+                for (int i = 2; i < 10; i++) {
+                    length = (length << 8) | (header[i] & 0xFF);
+                }
+            }
+            if (!masked) {
+                throw new IOException("Client frames must be masked");
+            }
+            if (length > MAX_MESSAGE_BYTES) {
+                throw new IOException("Frame too large: " + length);
+            }
+            readFully(header, 10, 4);
+            byte[] payload = new byte[(int) length];
+            readFully(payload, 0, payload.length);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= header[10 + (i & 3)];
+            }
+
+            switch (opcode) {
+                case OPCODE_PING:
+                    writeFrame(OPCODE_PONG, payload);
+                    break;
+                case OPCODE_PONG:
+                    break;
+                case OPCODE_CLOSE:
+                    writeFrame(OPCODE_CLOSE, payload.length >= 2
+                            ? new byte[] {payload[0], payload[1]} : new byte[0]);
+                    return null;
+                case OPCODE_TEXT:
+                case OPCODE_BINARY:
+                case OPCODE_CONTINUATION:
+                    if ((opcode == OPCODE_CONTINUATION) != (message != null)) {
+                        throw new IOException("Unexpected opcode " + opcode);
+                    }
+                    if (fin && message == null) {
+                        return payload;
+                    }
+                    if (message == null) {
+                        message = new ByteArrayOutputStream();
+                    }
+                    message.write(payload, 0, payload.length);
+                    if (message.size() > MAX_MESSAGE_BYTES) {
+                        throw new IOException("Message too large");
+                    }
+                    if (fin) {
+                        return message.toByteArray();
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown opcode " + opcode);
+            }
+        }
+    }
+
+    /** Sends a binary message. */
+    public void writeBinary(byte[] payload) throws IOException {
+        writeFrame(OPCODE_BINARY, payload);
+    }
+
+    /** Closes the socket. May be called from any thread. */
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+    }
+
+    private synchronized void writeFrame(int opcode, byte[] payload) throws IOException {
+        output.write(0x80 | opcode);
+        int length = payload.length;
+        if (length < 126) {
+            output.write(length);
+        } else if (length <= 0xFFFF) {
+            output.write(126);
+            output.write(length >> 8);
+            output.write(length);
+        } else {
+            output.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                output.write((int) ((long) length >> shift));
+            }
+        }
+        output.write(payload);
+        output.flush();
+    }
+
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = input.read(buffer, offset, length);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(
+                    sha1.digest((key + ACCEPT_GUID).getBytes(US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
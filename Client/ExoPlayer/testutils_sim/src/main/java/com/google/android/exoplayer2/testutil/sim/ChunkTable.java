@@ -0,0 +1,151 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityProvider;
+import com.google.android.exoplayer2.source.chunk.ChunkQualityStore;
+import com.google.android.exoplayer2.testutil.puffer.MediaDirectory;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+/**
+ * The size and SSIM of every chunk of every video format of a channel. A session longer than the
+ * channel loops over its chunks, as the Puffer media server does.
+ * <p>
+ * It provides the SSIMs to the track selection as a {@link ChunkQualityProvider}, so that the ABR
+ * sees the same SSIMs as the Puffer server publishes.
+ */
+public final class ChunkTable implements ChunkQualityProvider {
+
+    /** The SSIM in dB of a chunk that is identical to its source, as on the Puffer server. */
+    public static final double MAX_SSIM_DB = ChunkQualityStore.MAX_SSIM_DB;
+
+    private final Format[] formats;
+    private final TrackGroup trackGroup;
+    // Indexed by format, then by chunk.
+    private final long[][] chunkBytes;
+    private final double[][] ssimDb;
+    private final long chunkDurationUs;
+
+    /**
+     * @param formats The video formats. Every format must have a width.
+     * @param chunkBytes The size of the chunks of each format.
+     * @param ssims The SSIM of the chunks of each format, between 0 and 1.
+     * @param chunkDurationUs The duration of a chunk.
+     */
+    public ChunkTable(Format[] formats, long[][] chunkBytes, double[][] ssims,
+                      long chunkDurationUs) {
+        if (formats.length == 0 || chunkBytes.length != formats.length
+                || ssims.length != formats.length || chunkDurationUs <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int chunkCount = chunkBytes[0].length;
+        this.ssimDb = new double[formats.length][chunkCount];
+        for (int i = 0; i < formats.length; i++) {
+            if (chunkBytes[i].length != chunkCount || ssims[i].length != chunkCount
+                    || chunkCount == 0) {
+                throw new IllegalArgumentException("Formats must have the same chunks");
+            }
+            for (int j = 0; j < chunkCount; j++) {
+                ssimDb[i][j] = toSsimDb(ssims[i][j]);
+            }
+        }
+        this.formats = formats.clone();
+        this.trackGroup = new TrackGroup(this.formats);
+        this.chunkBytes = chunkBytes;
+        this.chunkDurationUs = chunkDurationUs;
+    }
+
+    /**
+     * Reads the chunk sizes and SSIMs of a channel in the Puffer media layout. The formats are
+     * named like {@code 1280x720-24}, and their bitrate is the mean bitrate of their chunks.
+     *
+     * @throws IllegalArgumentException If a format name does not start with its dimensions.
+     */
+    public static ChunkTable fromMediaDirectory(MediaDirectory media) {
+        int formatCount = media.getFormatCount();
+        int chunkCount = media.getChunkCount();
+        long chunkDurationUs = media.getVideoDuration() * C.MICROS_PER_SECOND
+                / media.getTimescale();
+        Format[] formats = new Format[formatCount];
+        long[][] chunkBytes = new long[formatCount][chunkCount];
+        double[][] ssims = new double[formatCount][chunkCount];
+        for (int i = 0; i < formatCount; i++) {
+            long totalBytes = 0;
+            for (int j = 0; j < chunkCount; j++) {
+                chunkBytes[i][j] = media.getChunk(i, j).length;
+                ssims[i][j] = media.getSsim(i, j);
+                totalBytes += chunkBytes[i][j];
+            }
+            int bitrate = (int) (totalBytes * 8 * C.MICROS_PER_SECOND
+                    / (chunkCount * chunkDurationUs));
+            formats[i] = createFormat(media.getFormat(i), bitrate);
+        }
+        return new ChunkTable(formats, chunkBytes, ssims, chunkDurationUs);
+    }
+
+    /** Returns the video formats, as a {@link TrackGroup}. */
+    public TrackGroup getTrackGroup() {
+        return trackGroup;
+    }
+
+    /** Returns the number of chunks of each format before the channel loops. */
+    public int getChunkCount() {
+        return chunkBytes[0].length;
+    }
+
+    /** Returns the duration of a chunk. */
+    public long getChunkDurationUs() {
+        return chunkDurationUs;
+    }
+
+    /** Returns the size of a chunk of the session. */
+    public long getChunkBytes(int format, int chunkIndex) {
+        return chunkBytes[format][chunkIndex % chunkBytes[format].length];
+    }
+
+    /** Returns the SSIM of a chunk of the session, in dB. */
+    public double getSsimDb(int format, int chunkIndex) {
+        return ssimDb[format][chunkIndex % ssimDb[format].length];
+    }
+
+    /** Returns the index of the chunk of the session that starts at a time. */
+    public int getChunkIndex(long chunkStartTimeUs) {
+        return (int) (chunkStartTimeUs / chunkDurationUs);
+    }
+
+    @Override
+    public double getSsimDb(Format format, long chunkStartTimeUs) {
+        int index = trackGroup.indexOf(format);
+        return index == C.INDEX_UNSET ? 0 : getSsimDb(index, getChunkIndex(chunkStartTimeUs));
+    }
+
+    /** Converts an SSIM to dB, as the Puffer server does. */
+    public static double toSsimDb(double ssim) {
+        return ChunkQualityStore.toSsimDb(ssim);
+    }
+
+    private static Format createFormat(String name, int bitrate) {
+        int separator = name.indexOf('x');
+        int end = name.indexOf('-');
+        int width;
+        int height;
+        try {
+            width = Integer.parseInt(name.substring(0, separator));
+            height = Integer.parseInt(name.substring(separator + 1, end < 0 ? name.length() : end));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed format name: " + name, e);
+        }
+        return Format.createVideoSampleFormat(
+                name,
+                MimeTypes.VIDEO_H264,
+                /* codecs= */ null,
+                bitrate,
+                /* maxInputSize= */ Format.NO_VALUE,
+                width,
+                height,
+                /* frameRate= */ Format.NO_VALUE,
+                /* initializationData= */ null,
+                /* drmInitData= */ null);
+    }
+}
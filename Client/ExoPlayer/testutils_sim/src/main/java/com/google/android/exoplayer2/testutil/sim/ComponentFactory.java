@@ -0,0 +1,25 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+
+/**
+ * Creates the player components under test for one simulated session. Every session gets new
+ * components that read the simulated clock, so that sessions can run in parallel.
+ */
+public interface ComponentFactory {
+
+    /** Creates the factory of the video track selection. */
+    TrackSelection.Factory createTrackSelectionFactory(ChunkTable chunkTable, Clock clock);
+
+    /** Creates the load control. */
+    LoadControl createLoadControl(Clock clock);
+
+    /**
+     * Creates the bandwidth meter. Its {@link BandwidthMeter#getTransferListener() transfer
+     * listener}, if any, is told about every chunk download.
+     */
+    BandwidthMeter createBandwidthMeter(Clock clock);
+}
@@ -0,0 +1,60 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.power.PowerModel;
+import com.google.android.exoplayer2.trackselection.EnergyAwareMpc;
+import com.google.android.exoplayer2.trackselection.MyTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+
+/**
+ * The components of the Android client: {@link MyTrackSelection} with the given MPC parameters,
+ * a {@link DefaultLoadControl} and a {@link DefaultBandwidthMeter}.
+ */
+public final class MpcComponentFactory implements ComponentFactory {
+
+    /**
+     * The time budget of a decision. It is large enough for every decision to be solved at the
+     * full horizon, so that results do not depend on the speed of the machine or on the number of
+     * sessions running in parallel.
+     */
+    public static final long DECISION_BUDGET_MS = 60_000;
+
+    private final SweepRunner.Parameters parameters;
+    private final PowerModel powerModel;
+
+    /**
+     * @param parameters The MPC parameters.
+     * @param powerModel The power model the MPC plans with.
+     */
+    public MpcComponentFactory(SweepRunner.Parameters parameters, PowerModel powerModel) {
+        this.parameters = parameters;
+        this.powerModel = powerModel;
+    }
+
+    @Override
+    public TrackSelection.Factory createTrackSelectionFactory(ChunkTable chunkTable, Clock clock) {
+        return new MyTrackSelection.Factory(
+                chunkTable,
+                EnergyAwareMpc.DEFAULT_MAX_HORIZON,
+                parameters.powerBudgetMw,
+                parameters.rebufferCoeff,
+                parameters.ssimDiffCoeff,
+                powerModel,
+                DECISION_BUDGET_MS,
+                clock);
+    }
+
+    @Override
+    public LoadControl createLoadControl(Clock clock) {
+        return new DefaultLoadControl();
+    }
+
+    @Override
+    public BandwidthMeter createBandwidthMeter(Clock clock) {
+        return new DefaultBandwidthMeter.Builder(/* context= */ null).setClock(clock).build();
+    }
+}
@@ -0,0 +1,209 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A table of results with a fixed number of rows, stored by column.
+ * <p>
+ * Columns hold either doubles or strings. Distinct rows may be set from different threads, as long
+ * as the table is read only after they are done.
+ * <p>
+ * The file written by {@link #write(File)} is laid out by column too, in the big-endian encoding
+ * of {@link DataOutputStream}:
+ * <pre>
+ *   int magic ('SIMR'), int version (1), int rowCount, int columnCount
+ *   per column: UTF name, byte type ('D' or 'S'), then
+ *     'D': rowCount doubles
+ *     'S': int dictionarySize, dictionarySize UTF strings, rowCount int indices into them
+ * </pre>
+ * so that a column can be read as one array, e.g. by {@code numpy.frombuffer} with dtype {@code
+ * '>f8'}.
+ */
+public final class ResultTable {
+
+    private static final int MAGIC = 0x53494D52;
+    private static final int VERSION = 1;
+    private static final byte TYPE_DOUBLE = 'D';
+    private static final byte TYPE_STRING = 'S';
+
+    private final int rowCount;
+    private final ArrayList<String> names;
+    // Either double[] or String[].
+    private final ArrayList<Object> columns;
+
+    /** Creates a table without columns. */
+    public ResultTable(int rowCount) {
+        this.rowCount = rowCount;
+        names = new ArrayList<>();
+        columns = new ArrayList<>();
+    }
+
+    /**
+     * Reads a table written by {@link #write(File)}.
+     *
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public static ResultTable read(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a result table: " + file);
+            }
+            ResultTable table = new ResultTable(input.readInt());
+            int columnCount = input.readInt();
+            for (int i = 0; i < columnCount; i++) {
+                String name = input.readUTF();
+                byte type = input.readByte();
+                if (type == TYPE_DOUBLE) {
+                    int column = table.addDoubleColumn(name);
+                    for (int row = 0; row < table.rowCount; row++) {
+                        table.setDouble(column, row, input.readDouble());
+                    }
+                } else if (type == TYPE_STRING) {
+                    int column = table.addStringColumn(name);
+                    String[] dictionary = new String[input.readInt()];
+                    for (int j = 0; j < dictionary.length; j++) {
+                        dictionary[j] = input.readUTF();
+                    }
+                    for (int row = 0; row < table.rowCount; row++) {
+                        int index = input.readInt();
+                        table.setString(column, row, index < 0 ? null : dictionary[index]);
+                    }
+                } else {
+                    throw new IOException("Unknown type of column " + name + " in " + file);
+                }
+            }
+            return table;
+        }
+    }
+
+    /** Adds a column of doubles and returns its index. */
+    public int addDoubleColumn(String name) {
+        return addColumn(name, new double[rowCount]);
+    }
+
+    /** Adds a column of strings and returns its index. */
+    public int addStringColumn(String name) {
+        return addColumn(name, new String[rowCount]);
+    }
+
+    /** Returns the number of rows. */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /** Returns the number of columns. */
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    /** Returns the name of a column. */
+    public String getColumnName(int column) {
+        return names.get(column);
+    }
+
+    /** Returns the index of the column with a name, or -1 if there is none. */
+    public int getColumnIndex(String name) {
+        return names.indexOf(name);
+    }
+
+    /** Returns whether a column holds strings. */
+    public boolean isStringColumn(int column) {
+        return columns.get(column) instanceof String[];
+    }
+
+    /** Sets a value of a column of doubles. */
+    public void setDouble(int column, int row, double value) {
+        ((double[]) columns.get(column))[row] = value;
+    }
+
+    /** Returns a value of a column of doubles. */
+    public double getDouble(int column, int row) {
+        return ((double[]) columns.get(column))[row];
+    }
+
+    /** Sets a value of a column of strings. */
+    public void setString(int column, int row, String value) {
+        ((String[]) columns.get(column))[row] = value;
+    }
+
+    /** Returns a value of a column of strings. */
+    public String getString(int column, int row) {
+        return ((String[]) columns.get(column))[row];
+    }
+
+    /**
+     * Writes the table.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(rowCount);
+            output.writeInt(columns.size());
+            for (int i = 0; i < columns.size(); i++) {
+                output.writeUTF(names.get(i));
+                Object column = columns.get(i);
+                if (column instanceof double[]) {
+                    output.writeByte(TYPE_DOUBLE);
+                    for (double value : (double[]) column) {
+                        output.writeDouble(value);
+                    }
+                } else {
+                    output.writeByte(TYPE_STRING);
+                    writeStrings(output, (String[]) column);
+                }
+            }
+        }
+    }
+
+    private int addColumn(String name, Object values) {
+        if (names.contains(name)) {
+            throw new IllegalArgumentException("Duplicate column: " + name);
+        }
+        names.add(name);
+        columns.add(values);
+        return columns.size() - 1;
+    }
+
+    private static void writeStrings(DataOutputStream output, String[] values)
+            throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        ArrayList<String> entries = new ArrayList<>();
+        int[] indices = new int[values.length];
+        for (int row = 0; row < values.length; row++) {
+            String value = values[row];
+            if (value == null) {
+                indices[row] = -1;
+                continue;
+            }
+            Integer index = dictionary.get(value);
+            if (index == null) {
+                index = entries.size();
+                dictionary.put(value, index);
+                entries.add(value);
+            }
+            indices[row] = index;
+        }
+        output.writeInt(entries.size());
+        for (String entry : entries) {
+            output.writeUTF(entry);
+        }
+        for (int index : indices) {
+            output.writeInt(index);
+        }
+    }
+}
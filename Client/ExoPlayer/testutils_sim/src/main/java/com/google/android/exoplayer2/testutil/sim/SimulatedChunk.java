@@ -0,0 +1,95 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.IOException;
+
+/**
+ * A chunk of the simulated session. Loading it only counts its bytes, so that {@link
+ * #bytesLoaded()} reports its size to the track selection as for a real chunk.
+ */
+/* package */ final class SimulatedChunk extends MediaChunk {
+
+    private boolean loadCompleted;
+
+    public SimulatedChunk(DataSpec dataSpec, Format trackFormat, int trackSelectionReason,
+                          @Nullable Object trackSelectionData, long startTimeUs, long endTimeUs,
+                          long chunkIndex) {
+        super(new SizedDataSource(), dataSpec, trackFormat, trackSelectionReason,
+                trackSelectionData, startTimeUs, endTimeUs, chunkIndex);
+    }
+
+    /** Returns the {@link DataSpec} of a chunk of a given size. */
+    public static DataSpec createDataSpec(long bytes) {
+        return new DataSpec(Uri.EMPTY, /* absoluteStreamPosition= */ 0, bytes, /* key= */ null);
+    }
+
+    @Override
+    public boolean isLoadCompleted() {
+        return loadCompleted;
+    }
+
+    @Override
+    public void cancelLoad() {
+        // Do nothing.
+    }
+
+    @Override
+    public void load() throws IOException {
+        byte[] scratch = new byte[4096];
+        try {
+            dataSource.open(dataSpec);
+            while (dataSource.read(scratch, 0, scratch.length) != C.RESULT_END_OF_INPUT) {
+                // Count the bytes.
+            }
+        } finally {
+            dataSource.close();
+        }
+        loadCompleted = true;
+    }
+
+    /** Reads as many bytes as its {@link DataSpec} asks for, without filling them in. */
+    private static final class SizedDataSource implements DataSource {
+
+        private long bytesRemaining;
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            // Do nothing.
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) {
+            bytesRemaining = dataSpec.length;
+            return bytesRemaining;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            if (bytesRemaining == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesRead = (int) Math.min(bytesRemaining, readLength);
+            bytesRemaining -= bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public @Nullable Uri getUri() {
+            return Uri.EMPTY;
+        }
+
+        @Override
+        public void close() {
+            // Do nothing.
+        }
+    }
+}
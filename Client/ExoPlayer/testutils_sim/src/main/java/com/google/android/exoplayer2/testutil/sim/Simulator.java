@@ -0,0 +1,399 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.power.EnergyMeter;
+import com.google.android.exoplayer2.power.PowerModel;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.source.chunk.BaseMediaChunkIterator;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.testutil.FakeRenderer;
+import com.google.android.exoplayer2.testutil.puffer.ThroughputTrace;
+import com.google.android.exoplayer2.trackselection.EnergyAwareMpc;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Replays a session of a {@link ChunkTable} over a {@link ThroughputTrace} through the track
+ * selection, load control and bandwidth meter of a {@link ComponentFactory}, under a simulated
+ * clock.
+ * <p>
+ * The session is driven as by the player: while the load control wants more media, the track
+ * selection picks the format of the next chunk, which is then downloaded over the trace. Playback
+ * starts, and resumes after a stall, when the load control says so. While the load control wants
+ * no more media, the simulation advances in steps of {@link #DEFAULT_IDLE_STEP_MS}, as the player
+ * polls it. An {@link EnergyMeter} estimates the energy of every chunk with the {@link PowerModel}
+ * of the device.
+ * <p>
+ * A simulator holds no state between sessions, so sessions can run on several threads at once.
+ */
+public final class Simulator {
+
+    /** The results of a session. */
+    public static final class Result {
+
+        /** The number of chunks played. */
+        public final int chunkCount;
+        /** The mean SSIM of the chunks, in dB. */
+        public final double meanSsimDb;
+        /** The mean absolute SSIM change between consecutive chunks, in dB. */
+        public final double meanSsimDiffDb;
+        /** The number of format changes between consecutive chunks. */
+        public final int formatSwitches;
+        /** The time from the start of the session to the start of playback. */
+        public final double startupDelayS;
+        /** The time playback stalled after it started. */
+        public final double rebufferS;
+        /** The number of stalls after playback started. */
+        public final int rebufferCount;
+        /** The number of bytes downloaded. */
+        public final long bytes;
+        /** The energy of the chunks, as estimated by the {@link EnergyMeter}. */
+        public final double energyMj;
+        /** The energy divided by the time from the start of the session to the last download. */
+        public final double averagePowerMw;
+
+        /* package */ Result(int chunkCount, double meanSsimDb, double meanSsimDiffDb,
+                             int formatSwitches, double startupDelayS, double rebufferS,
+                             int rebufferCount, long bytes, double energyMj,
+                             double averagePowerMw) {
+            this.chunkCount = chunkCount;
+            this.meanSsimDb = meanSsimDb;
+            this.meanSsimDiffDb = meanSsimDiffDb;
+            this.formatSwitches = formatSwitches;
+            this.startupDelayS = startupDelayS;
+            this.rebufferS = rebufferS;
+            this.rebufferCount = rebufferCount;
+            this.bytes = bytes;
+            this.energyMj = energyMj;
+            this.averagePowerMw = averagePowerMw;
+        }
+
+        /**
+         * Returns the mean QoE of a chunk, in the terms of the MPC objective: its SSIM, less the
+         * weighted SSIM change from the previous chunk and the weighted rebuffering. The startup
+         * delay is not counted.
+         *
+         * @param rebufferCoeff The weight of a second of rebuffering, in SSIM dB.
+         * @param ssimDiffCoeff The weight of the SSIM change between consecutive chunks.
+         */
+        public double getQoe(double rebufferCoeff, double ssimDiffCoeff) {
+            return meanSsimDb - ssimDiffCoeff * meanSsimDiffDb
+                    - rebufferCoeff * rebufferS / chunkCount;
+        }
+
+        /** Returns the QoE with the default weights of the MPC. */
+        public double getQoe() {
+            return getQoe(EnergyAwareMpc.DEFAULT_REBUFFER_COEFF,
+                    EnergyAwareMpc.DEFAULT_SSIM_DIFF_COEFF);
+        }
+    }
+
+    /** The interval at which the load control is polled while it wants no more media. */
+    public static final long DEFAULT_IDLE_STEP_MS = 10;
+
+    private final ChunkTable chunkTable;
+    private final PowerModel powerModel;
+    private final int sessionChunks;
+    private final long requestLatencyUs;
+
+    /**
+     * @param chunkTable The chunks of the channel.
+     * @param powerModel The power model of the device, with which energy is estimated.
+     * @param sessionChunks The number of chunks of a session.
+     * @param requestLatencyMs The time from the request of a chunk to its first byte. 0 for the
+     *     Puffer server, which pushes chunks.
+     */
+    public Simulator(ChunkTable chunkTable, PowerModel powerModel, int sessionChunks,
+                     long requestLatencyMs) {
+        if (sessionChunks <= 0) {
+            throw new IllegalArgumentException("Sessions must have chunks: " + sessionChunks);
+        }
+        this.chunkTable = chunkTable;
+        this.powerModel = powerModel;
+        this.sessionChunks = sessionChunks;
+        this.requestLatencyUs = requestLatencyMs * 1000;
+    }
+
+    /** Returns the number of chunks of a session. */
+    public int getSessionChunks() {
+        return sessionChunks;
+    }
+
+    /**
+     * Runs a session.
+     *
+     * @param trace The link the chunks are downloaded over.
+     * @param componentFactory Creates the components under test.
+     * @throws IllegalStateException If the load control will not load into an empty buffer.
+     */
+    public Result run(ThroughputTrace trace, ComponentFactory componentFactory) {
+        return new Session(trace, componentFactory).run();
+    }
+
+    private final class Session {
+
+        private final ThroughputTrace trace;
+        private final FakeClock clock;
+        private final TrackGroup trackGroup;
+        private final TrackSelection trackSelection;
+        private final LoadControl loadControl;
+        private final TransferListener transferListener;
+        private final EnergyMeter energyMeter;
+        private final DecoderCounters decoderCounters;
+        private final ArrayList<SimulatedChunk> queue;
+        private final int[] chunkFormats;
+        private final long chunkDurationUs;
+        private final long sessionEndUs;
+
+        private long nowUs;
+        private long positionUs;
+        private long bufferedEndUs;
+        private int nextChunk;
+        private boolean isPlaying;
+        private boolean hasStarted;
+        private int decodedFormat;
+        private long startupDelayUs;
+        private long rebufferUs;
+        private int rebufferCount;
+        private long bytes;
+        private long lastDownloadEndUs;
+
+        private Session(ThroughputTrace trace, ComponentFactory componentFactory) {
+            this.trace = trace;
+            clock = new FakeClock(/* initialTimeMs= */ 0);
+            trackGroup = chunkTable.getTrackGroup();
+            BandwidthMeter bandwidthMeter = componentFactory.createBandwidthMeter(clock);
+            int[] tracks = new int[trackGroup.length];
+            for (int i = 0; i < tracks.length; i++) {
+                tracks[i] = i;
+            }
+            trackSelection = componentFactory.createTrackSelectionFactory(chunkTable, clock)
+                    .createTrackSelection(trackGroup, bandwidthMeter, tracks);
+            loadControl = componentFactory.createLoadControl(clock);
+            transferListener = bandwidthMeter.getTransferListener();
+            energyMeter = new EnergyMeter(powerModel, EnergyAwareMpc.DEFAULT_POWER_BUDGET_MW,
+                    EnergyMeter.DEFAULT_MAX_GAP_MS, clock);
+            decoderCounters = new DecoderCounters();
+            queue = new ArrayList<>();
+            chunkFormats = new int[sessionChunks];
+            chunkDurationUs = chunkTable.getChunkDurationUs();
+            sessionEndUs = sessionChunks * chunkDurationUs;
+            decodedFormat = C.INDEX_UNSET;
+        }
+
+        private Result run() {
+            trackSelection.enable();
+            loadControl.onPrepared();
+            loadControl.onTracksSelected(
+                    new Renderer[] {new FakeRenderer(trackGroup.getFormat(0))},
+                    new TrackGroupArray(trackGroup),
+                    new TrackSelectionArray(trackSelection));
+            energyMeter.onDecoderEnabled(/* eventTime= */ null, C.TRACK_TYPE_VIDEO,
+                    decoderCounters);
+            energyMeter.onPlayerStateChanged(/* eventTime= */ null, /* playWhenReady= */ true,
+                    Player.STATE_BUFFERING);
+
+            while (positionUs < sessionEndUs) {
+                long bufferedUs = bufferedEndUs - positionUs;
+                if (nextChunk < sessionChunks
+                        && loadControl.shouldContinueLoading(bufferedUs, /* playbackSpeed= */ 1f)) {
+                    downloadNextChunk();
+                } else if (!isPlaying && bufferedUs == 0) {
+                    throw new IllegalStateException("The load control does not load");
+                } else if (!isPlaying) {
+                    // Nothing is loading, so nothing else can start playback.
+                    startPlayback();
+                } else if (nextChunk == sessionChunks) {
+                    advanceTo(sessionEndUs - positionUs + nowUs);
+                } else {
+                    // Playback stalls if the buffer runs out before the load control wants more.
+                    advanceTo(nowUs + (bufferedUs > 0
+                            ? Math.min(DEFAULT_IDLE_STEP_MS * 1000, bufferedUs)
+                            : DEFAULT_IDLE_STEP_MS * 1000));
+                }
+                maybeStartPlayback();
+            }
+
+            loadControl.onStopped();
+            trackSelection.disable();
+            return createResult();
+        }
+
+        private void downloadNextChunk() {
+            while (queue.size() > 1 && queue.get(0).endTimeUs <= positionUs) {
+                queue.remove(0);
+            }
+            MediaChunkIterator[] iterators = new MediaChunkIterator[trackSelection.length()];
+            for (int i = 0; i < iterators.length; i++) {
+                iterators[i] = new ChunkIterator(trackSelection.getIndexInTrackGroup(i));
+            }
+            trackSelection.updateSelectedTrack(positionUs, bufferedEndUs - positionUs,
+                    /* availableDurationUs= */ C.TIME_UNSET, queue, iterators);
+            Format format = trackSelection.getSelectedFormat();
+            int formatIndex = trackGroup.indexOf(format);
+            long chunkBytes = chunkTable.getChunkBytes(formatIndex, nextChunk);
+            DataSpec dataSpec = SimulatedChunk.createDataSpec(chunkBytes);
+
+            if (transferListener != null) {
+                transferListener.onTransferStart(/* source= */ null, dataSpec,
+                        /* isNetwork= */ true);
+            }
+            energyMeter.onTransferStart(/* source= */ null, dataSpec, /* isNetwork= */ true);
+            long firstByteUs = nowUs + requestLatencyUs;
+            long packets = (chunkBytes + ThroughputTrace.PACKET_BYTES - 1)
+                    / ThroughputTrace.PACKET_BYTES;
+            long endUs = packets == 0 ? firstByteUs : trace.getOpportunityTimeUs(
+                    trace.getFirstOpportunityAtOrAfter(firstByteUs) + packets - 1);
+            advanceTo(Math.max(endUs, firstByteUs));
+            if (transferListener != null) {
+                transferListener.onBytesTransferred(/* source= */ null, dataSpec,
+                        /* isNetwork= */ true, (int) chunkBytes);
+                transferListener.onTransferEnd(/* source= */ null, dataSpec, /* isNetwork= */ true);
+            }
+            energyMeter.onBytesTransferred(/* source= */ null, dataSpec, /* isNetwork= */ true,
+                    (int) chunkBytes);
+            energyMeter.onTransferEnd(/* source= */ null, dataSpec, /* isNetwork= */ true);
+
+            SimulatedChunk chunk = new SimulatedChunk(dataSpec, format,
+                    trackSelection.getSelectionReason(), trackSelection.getSelectionData(),
+                    nextChunk * chunkDurationUs, (nextChunk + 1) * chunkDurationUs, nextChunk);
+            try {
+                chunk.load();
+            } catch (IOException e) {
+                // Never happens: the chunk is not read from anywhere.
+                throw new IllegalStateException(e);
+            }
+            queue.add(chunk);
+            chunkFormats[nextChunk] = formatIndex;
+            bufferedEndUs += chunkDurationUs;
+            nextChunk++;
+            bytes += chunkBytes;
+            lastDownloadEndUs = nowUs;
+        }
+
+        /** Plays, or waits, until a time. */
+        private void advanceTo(long timeUs) {
+            while (nowUs < timeUs) {
+                if (!isPlaying) {
+                    if (hasStarted) {
+                        rebufferUs += timeUs - nowUs;
+                    } else {
+                        startupDelayUs += timeUs - nowUs;
+                    }
+                    setTime(timeUs);
+                } else if (positionUs >= sessionEndUs) {
+                    setTime(timeUs);
+                } else if (positionUs >= bufferedEndUs) {
+                    isPlaying = false;
+                    rebufferCount++;
+                    energyMeter.onPlayerStateChanged(/* eventTime= */ null,
+                            /* playWhenReady= */ true, Player.STATE_BUFFERING);
+                } else {
+                    int chunkIndex = (int) (positionUs / chunkDurationUs);
+                    if (chunkFormats[chunkIndex] != decodedFormat) {
+                        decodedFormat = chunkFormats[chunkIndex];
+                        energyMeter.onDecoderInputFormatChanged(/* eventTime= */ null,
+                                C.TRACK_TYPE_VIDEO, trackGroup.getFormat(decodedFormat));
+                    }
+                    long stepUs = Math.min(timeUs - nowUs,
+                            (chunkIndex + 1) * chunkDurationUs - positionUs);
+                    positionUs += stepUs;
+                    setTime(nowUs + stepUs);
+                }
+            }
+        }
+
+        private void maybeStartPlayback() {
+            long bufferedUs = bufferedEndUs - positionUs;
+            if (!isPlaying && bufferedUs > 0 && (nextChunk == sessionChunks
+                    || loadControl.shouldStartPlayback(bufferedUs, /* playbackSpeed= */ 1f,
+                    /* rebuffering= */ hasStarted))) {
+                startPlayback();
+            }
+        }
+
+        private void startPlayback() {
+            isPlaying = true;
+            hasStarted = true;
+            energyMeter.onPlayerStateChanged(/* eventTime= */ null, /* playWhenReady= */ true,
+                    Player.STATE_READY);
+        }
+
+        private void setTime(long timeUs) {
+            nowUs = timeUs;
+            clock.advanceTime(timeUs / 1000 - clock.elapsedRealtime());
+        }
+
+        private Result createResult() {
+            double totalSsimDb = 0;
+            double totalSsimDiffDb = 0;
+            int formatSwitches = 0;
+            for (int i = 0; i < sessionChunks; i++) {
+                double ssimDb = chunkTable.getSsimDb(chunkFormats[i], i);
+                totalSsimDb += ssimDb;
+                if (i > 0) {
+                    totalSsimDiffDb += Math.abs(
+                            ssimDb - chunkTable.getSsimDb(chunkFormats[i - 1], i - 1));
+                    if (chunkFormats[i] != chunkFormats[i - 1]) {
+                        formatSwitches++;
+                    }
+                }
+            }
+            double energyMj = energyMeter.getTotalEnergyMj();
+            return new Result(
+                    sessionChunks,
+                    totalSsimDb / sessionChunks,
+                    sessionChunks > 1 ? totalSsimDiffDb / (sessionChunks - 1) : 0,
+                    formatSwitches,
+                    startupDelayUs / 1e6,
+                    rebufferUs / 1e6,
+                    rebufferCount,
+                    bytes,
+                    energyMj,
+                    lastDownloadEndUs > 0 ? energyMj / (lastDownloadEndUs / 1e6) : 0);
+        }
+
+        /** Iterates over the chunks of a format that are not downloaded yet. */
+        private final class ChunkIterator extends BaseMediaChunkIterator {
+
+            private final int format;
+
+            private ChunkIterator(int format) {
+                super(nextChunk, sessionChunks - 1);
+                this.format = format;
+            }
+
+            @Override
+            public DataSpec getDataSpec() {
+                checkInBounds();
+                return SimulatedChunk.createDataSpec(
+                        chunkTable.getChunkBytes(format, (int) getCurrentIndex()));
+            }
+
+            @Override
+            public long getChunkStartTimeUs() {
+                checkInBounds();
+                return getCurrentIndex() * chunkDurationUs;
+            }
+
+            @Override
+            public long getChunkEndTimeUs() {
+                checkInBounds();
+                return (getCurrentIndex() + 1) * chunkDurationUs;
+            }
+        }
+    }
+}
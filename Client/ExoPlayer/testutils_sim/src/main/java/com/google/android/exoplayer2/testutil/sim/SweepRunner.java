@@ -0,0 +1,182 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.testutil.puffer.ThroughputTrace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a {@link Simulator} session for every combination of a trace and a set of {@link
+ * Parameters}, on a {@link ForkJoinPool}, and collects one row of results per session in a {@link
+ * ResultTable}.
+ */
+public final class SweepRunner {
+
+    /** The MPC parameters of a session. */
+    public static final class Parameters {
+
+        /** The average power the session should not exceed. */
+        public final double powerBudgetMw;
+        /** The weight of a second of rebuffering, in SSIM dB. */
+        public final double rebufferCoeff;
+        /** The weight of the SSIM change between consecutive chunks. */
+        public final double ssimDiffCoeff;
+
+        public Parameters(double powerBudgetMw, double rebufferCoeff, double ssimDiffCoeff) {
+            this.powerBudgetMw = powerBudgetMw;
+            this.rebufferCoeff = rebufferCoeff;
+            this.ssimDiffCoeff = ssimDiffCoeff;
+        }
+
+        /** Returns every combination of the given values. */
+        public static List<Parameters> grid(double[] powerBudgetsMw, double[] rebufferCoeffs,
+                                            double[] ssimDiffCoeffs) {
+            List<Parameters> grid = new ArrayList<>();
+            for (double powerBudgetMw : powerBudgetsMw) {
+                for (double rebufferCoeff : rebufferCoeffs) {
+                    for (double ssimDiffCoeff : ssimDiffCoeffs) {
+                        grid.add(new Parameters(powerBudgetMw, rebufferCoeff, ssimDiffCoeff));
+                    }
+                }
+            }
+            return grid;
+        }
+
+        @Override
+        public String toString() {
+            return "budget " + powerBudgetMw + " mW, rebuffer " + rebufferCoeff + ", ssim diff "
+                    + ssimDiffCoeff;
+        }
+    }
+
+    /** Creates the components under test for a set of parameters. */
+    public interface ComponentFactoryProvider {
+
+        ComponentFactory getComponentFactory(Parameters parameters);
+    }
+
+    /** Receives the progress of a sweep, on the threads that run the sessions. */
+    public interface ProgressListener {
+
+        void onSessionFinished(int finishedCount, int sessionCount);
+    }
+
+    /** The columns of the results: the trace and the parameters, then the results. */
+    public static final String COLUMN_TRACE = "trace";
+    public static final String COLUMN_POWER_BUDGET_MW = "power_budget_mw";
+    public static final String COLUMN_REBUFFER_COEFF = "rebuffer_coeff";
+    public static final String COLUMN_SSIM_DIFF_COEFF = "ssim_diff_coeff";
+    public static final String COLUMN_CHUNKS = "chunks";
+    public static final String COLUMN_MEAN_SSIM_DB = "mean_ssim_db";
+    public static final String COLUMN_MEAN_SSIM_DIFF_DB = "mean_ssim_diff_db";
+    public static final String COLUMN_FORMAT_SWITCHES = "format_switches";
+    public static final String COLUMN_STARTUP_DELAY_S = "startup_delay_s";
+    public static final String COLUMN_REBUFFER_S = "rebuffer_s";
+    public static final String COLUMN_REBUFFER_COUNT = "rebuffer_count";
+    public static final String COLUMN_BYTES = "bytes";
+    public static final String COLUMN_ENERGY_MJ = "energy_mj";
+    public static final String COLUMN_AVERAGE_POWER_MW = "average_power_mw";
+    /** The QoE with the default weights of the MPC, whatever the parameters of the session. */
+    public static final String COLUMN_QOE = "qoe";
+
+    private final Simulator simulator;
+    private final int parallelism;
+
+    /**
+     * @param simulator The simulator of the sessions.
+     * @param parallelism The number of sessions to run at once.
+     */
+    public SweepRunner(Simulator simulator, int parallelism) {
+        this.simulator = simulator;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs the sweep, trace by trace.
+     *
+     * @param traceNames The names of the traces, as written to the results.
+     * @param traces The traces.
+     * @param parameters The sets of parameters.
+     * @param componentFactoryProvider Creates the components under test for a set of parameters.
+     * @param progressListener A listener of the progress, or null.
+     * @return The results, one row per session, ordered by trace and then by parameters.
+     */
+    public ResultTable run(String[] traceNames, ThroughputTrace[] traces,
+                           List<Parameters> parameters,
+                           ComponentFactoryProvider componentFactoryProvider,
+                           @Nullable ProgressListener progressListener) {
+        if (traceNames.length != traces.length) {
+            throw new IllegalArgumentException();
+        }
+        int sessionCount = traces.length * parameters.size();
+        ResultTable results = new ResultTable(sessionCount);
+        int traceColumn = results.addStringColumn(COLUMN_TRACE);
+        int firstColumn = results.addDoubleColumn(COLUMN_POWER_BUDGET_MW);
+        String[] doubleColumns = {COLUMN_REBUFFER_COEFF, COLUMN_SSIM_DIFF_COEFF, COLUMN_CHUNKS,
+                COLUMN_MEAN_SSIM_DB, COLUMN_MEAN_SSIM_DIFF_DB, COLUMN_FORMAT_SWITCHES,
+                COLUMN_STARTUP_DELAY_S, COLUMN_REBUFFER_S, COLUMN_REBUFFER_COUNT, COLUMN_BYTES,
+                COLUMN_ENERGY_MJ, COLUMN_AVERAGE_POWER_MW, COLUMN_QOE};
+        for (String column : doubleColumns) {
+            results.addDoubleColumn(column);
+        }
+
+        AtomicInteger finishedCount = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new SessionRange(session -> {
+                int trace = session / parameters.size();
+                Parameters sessionParameters = parameters.get(session % parameters.size());
+                Simulator.Result result = simulator.run(traces[trace],
+                        componentFactoryProvider.getComponentFactory(sessionParameters));
+                results.setString(traceColumn, session, traceNames[trace]);
+                double[] values = {sessionParameters.powerBudgetMw,
+                        sessionParameters.rebufferCoeff, sessionParameters.ssimDiffCoeff,
+                        result.chunkCount, result.meanSsimDb, result.meanSsimDiffDb,
+                        result.formatSwitches, result.startupDelayS, result.rebufferS,
+                        result.rebufferCount, result.bytes, result.energyMj,
+                        result.averagePowerMw, result.getQoe()};
+                for (int i = 0; i < values.length; i++) {
+                    results.setDouble(firstColumn + i, session, values[i]);
+                }
+                if (progressListener != null) {
+                    progressListener.onSessionFinished(finishedCount.incrementAndGet(),
+                            sessionCount);
+                }
+            }, 0, sessionCount));
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    /** Runs a range of sessions, splitting it in halves down to single sessions. */
+    private static final class SessionRange extends RecursiveAction {
+
+        private final IntConsumer session;
+        private final int from;
+        private final int to;
+
+        private SessionRange(IntConsumer session, int from, int to) {
+            this.session = session;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                session.accept(from);
+            } else if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SessionRange(session, from, middle),
+                        new SessionRange(session, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.power.PowerModel;
+import com.google.android.exoplayer2.testutil.puffer.MediaDirectory;
+import com.google.android.exoplayer2.testutil.puffer.ThroughputTrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLog;
+
+/**
+ * Sweeps the MPC parameters over a set of traces, writes the results with {@link
+ * ResultTable#write(File)} and prints the mean results of every set of parameters, best QoE
+ * first.
+ * <p>
+ * It is configured with system properties:
+ * <ul>
+ *   <li>{@code sim.traceDir}: a directory of Mahimahi traces. By default, constant links from
+ *       0.5 to 10 Mbit/s.
+ *   <li>{@code sim.mediaDir} and {@code sim.channel}: a channel in the Puffer media layout. By
+ *       default, a synthetic channel of five formats.
+ *   <li>{@code sim.powerBudgets}, {@code sim.rebufferCoeffs}, {@code sim.ssimDiffCoeffs}: the
+ *       values of the parameters, separated by commas.
+ *   <li>{@code sim.chunks}: the number of chunks of a session.
+ *   <li>{@code sim.latencyMs}: the request latency of a chunk.
+ *   <li>{@code sim.parallelism}: the number of sessions to run at once. By default, one per core.
+ *   <li>{@code sim.out}: the results file. By default, a temporary file.
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class SimulationSweep {
+
+    private static final String[] SYNTHETIC_FORMATS =
+            {"426x240-26", "640x360-24", "854x480-24", "1280x720-22", "1920x1080-22"};
+    private static final int[] SYNTHETIC_CHUNK_BYTES = {60_000, 130_000, 250_000, 550_000,
+            1_100_000};
+    private static final long[] CONSTANT_TRACE_BPS = {500_000, 1_000_000, 2_000_000, 5_000_000,
+            10_000_000};
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void sweep() throws IOException {
+        ChunkTable table = ChunkTable.fromMediaDirectory(loadMedia());
+        List<String> traceNames = new ArrayList<>();
+        List<ThroughputTrace> traces = new ArrayList<>();
+        loadTraces(traceNames, traces);
+        List<SweepRunner.Parameters> parameters = SweepRunner.Parameters.grid(
+                getDoubles("sim.powerBudgets", "300,450"),
+                getDoubles("sim.rebufferCoeffs", "10,20"),
+                getDoubles("sim.ssimDiffCoeffs", "0.5,1"));
+        int chunks = Integer.getInteger("sim.chunks", 60);
+        int parallelism = Integer.getInteger("sim.parallelism",
+                Runtime.getRuntime().availableProcessors());
+        PowerModel powerModel = PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH);
+        Simulator simulator = new Simulator(table, powerModel, chunks,
+                Long.getLong("sim.latencyMs", 0));
+        int sessionCount = traces.size() * parameters.size();
+        int progressStep = Math.max(1, sessionCount / 20);
+
+        long startNs = System.nanoTime();
+        ResultTable results = new SweepRunner(simulator, parallelism).run(
+                traceNames.toArray(new String[0]), traces.toArray(new ThroughputTrace[0]),
+                parameters, sessionParameters -> new MpcComponentFactory(sessionParameters,
+                        powerModel),
+                (finishedCount, count) -> {
+                    // The track selection logs every decision, which Robolectric keeps.
+                    ShadowLog.reset();
+                    if (finishedCount % progressStep == 0) {
+                        System.out.println("Sweep: " + finishedCount + "/" + count + " sessions");
+                    }
+                });
+        double elapsedS = (System.nanoTime() - startNs) / 1e9;
+
+        String out = System.getProperty("sim.out");
+        File outFile = out != null ? new File(out) : temporaryFolder.newFile("results.simr");
+        results.write(outFile);
+        assertThat(results.getRowCount()).isEqualTo(sessionCount);
+
+        System.out.println(String.format(Locale.US,
+                "Sweep: %d sessions of %d chunks on %d threads in %.1f s (%.1f sessions/s),"
+                        + " results in %s", sessionCount, chunks, parallelism, elapsedS,
+                sessionCount / elapsedS, outFile));
+        printSummary(results, parameters, traces.size());
+    }
+
+    private static MediaDirectory loadMedia() throws IOException {
+        String mediaDir = System.getProperty("sim.mediaDir");
+        if (mediaDir != null) {
+            return MediaDirectory.load(new File(mediaDir), System.getProperty("sim.channel"));
+        }
+        File syntheticDir = new File(System.getProperty("java.io.tmpdir"), "sim-media");
+        MediaDirectory.writeSynthetic(syntheticDir, "synthetic", SYNTHETIC_FORMATS,
+                SYNTHETIC_CHUNK_BYTES, /* chunkCount= */ 10, /* seed= */ 0);
+        return MediaDirectory.load(syntheticDir, "synthetic");
+    }
+
+    private static void loadTraces(List<String> names, List<ThroughputTrace> traces)
+            throws IOException {
+        String traceDir = System.getProperty("sim.traceDir");
+        if (traceDir == null) {
+            for (long bitsPerSecond : CONSTANT_TRACE_BPS) {
+                names.add("constant-" + bitsPerSecond / 1000 + "kbps");
+                traces.add(ThroughputTrace.constant(bitsPerSecond));
+            }
+            return;
+        }
+        File[] files = new File(traceDir).listFiles(File::isFile);
+        if (files == null || files.length == 0) {
+            throw new IOException("No traces in " + traceDir);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            names.add(file.getName());
+            traces.add(ThroughputTrace.load(file));
+        }
+    }
+
+    private static double[] getDoubles(String property, String defaultValue) {
+        String[] values = System.getProperty(property, defaultValue).split(",");
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Double.parseDouble(values[i].trim());
+        }
+        return result;
+    }
+
+    /** Prints the mean results over the traces of every set of parameters, best QoE first. */
+    private static void printSummary(ResultTable results, List<SweepRunner.Parameters> parameters,
+                                     int traceCount) {
+        int qoe = results.getColumnIndex(SweepRunner.COLUMN_QOE);
+        int ssim = results.getColumnIndex(SweepRunner.COLUMN_MEAN_SSIM_DB);
+        int rebuffer = results.getColumnIndex(SweepRunner.COLUMN_REBUFFER_S);
+        int power = results.getColumnIndex(SweepRunner.COLUMN_AVERAGE_POWER_MW);
+        double[][] means = new double[parameters.size()][4];
+        for (int row = 0; row < results.getRowCount(); row++) {
+            double[] mean = means[row % parameters.size()];
+            mean[0] += results.getDouble(qoe, row) / traceCount;
+            mean[1] += results.getDouble(ssim, row) / traceCount;
+            mean[2] += results.getDouble(rebuffer, row) / traceCount;
+            mean[3] += results.getDouble(power, row) / traceCount;
+        }
+        Integer[] order = new Integer[parameters.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(means[b][0], means[a][0]));
+        for (int i : order) {
+            System.out.println(String.format(Locale.US,
+                    "Sweep: %s: QoE %.2f, SSIM %.2f dB, rebuffer %.2f s, power %.0f mW",
+                    parameters.get(i), means[i][0], means[i][1], means[i][2], means[i][3]));
+        }
+    }
+}
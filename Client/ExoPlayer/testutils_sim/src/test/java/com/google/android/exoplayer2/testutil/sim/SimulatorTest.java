@@ -0,0 +1,154 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.power.PowerModel;
+import com.google.android.exoplayer2.testutil.puffer.MediaDirectory;
+import com.google.android.exoplayer2.testutil.puffer.ThroughputTrace;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link Simulator}. */
+@RunWith(RobolectricTestRunner.class)
+public final class SimulatorTest {
+
+    /* package */ static final long CHUNK_DURATION_US = 2_000_000;
+    /* package */ static final long CHUNK_BYTES = 250_000;
+    private static final double SSIM = 0.99;
+    private static final int SESSION_CHUNKS = 5;
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final PowerModel powerModel = PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH);
+
+    @Test
+    public void testFastLinkPlaysWithoutStalls() {
+        Simulator simulator = new Simulator(createTable(), powerModel, SESSION_CHUNKS,
+                /* requestLatencyMs= */ 0);
+
+        // A chunk takes 167 packets of 6 ms.
+        Simulator.Result result = simulator.run(ThroughputTrace.constant(2_000_000),
+                new FixedComponentFactory(/* track= */ 0));
+
+        assertThat(result.chunkCount).isEqualTo(SESSION_CHUNKS);
+        assertThat(result.bytes).isEqualTo(SESSION_CHUNKS * CHUNK_BYTES);
+        assertThat(result.startupDelayS).isWithin(1e-9).of(0.996);
+        assertThat(result.rebufferS).isEqualTo(0.0);
+        assertThat(result.rebufferCount).isEqualTo(0);
+        assertThat(result.meanSsimDb).isWithin(1e-9).of(20);
+        assertThat(result.meanSsimDiffDb).isEqualTo(0.0);
+        assertThat(result.formatSwitches).isEqualTo(0);
+        assertThat(result.energyMj).isGreaterThan(0.0);
+        assertThat(result.averagePowerMw).isGreaterThan(0.0);
+    }
+
+    @Test
+    public void testSlowLinkStallsBeforeEveryChunkButTheFirst() {
+        Simulator simulator = new Simulator(createTable(), powerModel, SESSION_CHUNKS,
+                /* requestLatencyMs= */ 0);
+
+        // A chunk takes 167 packets of 24 ms. The next one is requested 10 ms after the buffer
+        // drops below 2 s, and its first packet waits for the next opportunity, 14 ms later.
+        Simulator.Result result = simulator.run(ThroughputTrace.constant(500_000),
+                new FixedComponentFactory(/* track= */ 0));
+
+        assertThat(result.startupDelayS).isWithin(1e-9).of(3.984);
+        assertThat(result.rebufferCount).isEqualTo(SESSION_CHUNKS - 1);
+        assertThat(result.rebufferS)
+                .isWithin(1e-9).of((SESSION_CHUNKS - 1) * (0.010 + 0.014 + 3.984 - 2.0));
+        assertThat(result.getQoe(/* rebufferCoeff= */ 1, /* ssimDiffCoeff= */ 0))
+                .isWithin(1e-9).of(20 - result.rebufferS / SESSION_CHUNKS);
+    }
+
+    @Test
+    public void testRequestLatencyDelaysStartup() {
+        Simulator simulator = new Simulator(createTable(), powerModel, SESSION_CHUNKS,
+                /* requestLatencyMs= */ 100);
+
+        Simulator.Result result = simulator.run(ThroughputTrace.constant(2_000_000),
+                new FixedComponentFactory(/* track= */ 0));
+
+        // The first packet waits 2 ms for the next opportunity after the latency.
+        assertThat(result.startupDelayS).isWithin(1e-9).of(0.100 + 0.002 + 0.996);
+    }
+
+    @Test
+    public void testMpcPicksLowerQualityOnSlowerLink() throws IOException {
+        File mediaDir = temporaryFolder.newFolder();
+        MediaDirectory.writeSynthetic(mediaDir, "channel",
+                new String[] {"426x240-26", "854x480-24", "1280x720-22"},
+                new int[] {50_000, 200_000, 600_000}, /* chunkCount= */ 10, /* seed= */ 0);
+        ChunkTable table = ChunkTable.fromMediaDirectory(MediaDirectory.load(mediaDir, "channel"));
+        Simulator simulator = new Simulator(table, powerModel, /* sessionChunks= */ 30,
+                /* requestLatencyMs= */ 0);
+        MpcComponentFactory components = new MpcComponentFactory(
+                new SweepRunner.Parameters(/* powerBudgetMw= */ 10_000, /* rebufferCoeff= */ 20,
+                        /* ssimDiffCoeff= */ 1), powerModel);
+
+        Simulator.Result fast = simulator.run(ThroughputTrace.constant(20_000_000), components);
+        Simulator.Result slow = simulator.run(ThroughputTrace.constant(500_000), components);
+
+        assertThat(fast.chunkCount).isEqualTo(30);
+        assertThat(slow.chunkCount).isEqualTo(30);
+        assertThat(fast.meanSsimDb).isGreaterThan(slow.meanSsimDb);
+        assertThat(fast.bytes).isGreaterThan(slow.bytes);
+    }
+
+    /* package */ static ChunkTable createTable() {
+        Format format = Format.createVideoSampleFormat(
+                /* id= */ null,
+                /* sampleMimeType= */ MimeTypes.VIDEO_H264,
+                /* codecs= */ null,
+                /* bitrate= */ 1_000_000,
+                /* maxInputSize= */ Format.NO_VALUE,
+                /* width= */ 1280,
+                /* height= */ 720,
+                /* frameRate= */ Format.NO_VALUE,
+                /* initializationData= */ null,
+                /* drmInitData= */ null);
+        return new ChunkTable(new Format[] {format}, new long[][] {{CHUNK_BYTES}},
+                new double[][] {{SSIM}}, CHUNK_DURATION_US);
+    }
+
+    /** Selects a fixed track, with the default load control and bandwidth meter. */
+    /* package */ static final class FixedComponentFactory implements ComponentFactory {
+
+        private final int track;
+
+        /* package */ FixedComponentFactory(int track) {
+            this.track = track;
+        }
+
+        @Override
+        public TrackSelection.Factory createTrackSelectionFactory(ChunkTable chunkTable,
+                                                                  Clock clock) {
+            return (group, bandwidthMeter, tracks) -> new FixedTrackSelection(group, track);
+        }
+
+        @Override
+        public LoadControl createLoadControl(Clock clock) {
+            return new DefaultLoadControl();
+        }
+
+        @Override
+        public BandwidthMeter createBandwidthMeter(Clock clock) {
+            return new DefaultBandwidthMeter.Builder(/* context= */ null).setClock(clock).build();
+        }
+    }
+}
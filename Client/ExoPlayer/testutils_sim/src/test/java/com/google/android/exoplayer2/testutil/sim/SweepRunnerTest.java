@@ -0,0 +1,86 @@
+package com.google.android.exoplayer2.testutil.sim;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.power.PowerModel;
+import com.google.android.exoplayer2.testutil.puffer.ThroughputTrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link SweepRunner} and {@link ResultTable}. */
+@RunWith(RobolectricTestRunner.class)
+public final class SweepRunnerTest {
+
+    private static final String[] TRACE_NAMES = {"fast", "slow"};
+    private static final ThroughputTrace[] TRACES = {
+            ThroughputTrace.constant(2_000_000), ThroughputTrace.constant(500_000)};
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Simulator simulator = new Simulator(SimulatorTest.createTable(),
+            PowerModel.getDefault(PowerModel.STREAMING_MODE_TOUCH), /* sessionChunks= */ 5,
+            /* requestLatencyMs= */ 0);
+
+    @Test
+    public void testRunsEverySessionInOrder() {
+        List<SweepRunner.Parameters> parameters = SweepRunner.Parameters.grid(
+                new double[] {300, 450}, new double[] {20}, new double[] {0, 1});
+        AtomicInteger progress = new AtomicInteger();
+
+        ResultTable results = new SweepRunner(simulator, /* parallelism= */ 3).run(TRACE_NAMES,
+                TRACES, parameters, p -> new SimulatorTest.FixedComponentFactory(0),
+                (finishedCount, sessionCount) -> progress.incrementAndGet());
+
+        assertThat(results.getRowCount()).isEqualTo(8);
+        assertThat(progress.get()).isEqualTo(8);
+        int trace = results.getColumnIndex(SweepRunner.COLUMN_TRACE);
+        int budget = results.getColumnIndex(SweepRunner.COLUMN_POWER_BUDGET_MW);
+        int ssimDiff = results.getColumnIndex(SweepRunner.COLUMN_SSIM_DIFF_COEFF);
+        int rebuffer = results.getColumnIndex(SweepRunner.COLUMN_REBUFFER_S);
+        for (int row = 0; row < 8; row++) {
+            SweepRunner.Parameters rowParameters = parameters.get(row % 4);
+            assertThat(results.getString(trace, row)).isEqualTo(TRACE_NAMES[row / 4]);
+            assertThat(results.getDouble(budget, row)).isEqualTo(rowParameters.powerBudgetMw);
+            assertThat(results.getDouble(ssimDiff, row)).isEqualTo(rowParameters.ssimDiffCoeff);
+            Simulator.Result expected = simulator.run(TRACES[row / 4],
+                    new SimulatorTest.FixedComponentFactory(0));
+            assertThat(results.getDouble(rebuffer, row)).isEqualTo(expected.rebufferS);
+        }
+    }
+
+    @Test
+    public void testResultTableRoundTrip() throws IOException {
+        ResultTable table = new ResultTable(/* rowCount= */ 3);
+        int names = table.addStringColumn("name");
+        int values = table.addDoubleColumn("value");
+        table.setString(names, 0, "a");
+        table.setString(names, 1, "b");
+        table.setString(names, 2, "a");
+        table.setDouble(values, 0, 1.5);
+        table.setDouble(values, 1, -2);
+        table.setDouble(values, 2, Double.NaN);
+        File file = temporaryFolder.newFile();
+
+        table.write(file);
+        ResultTable read = ResultTable.read(file);
+
+        assertThat(read.getRowCount()).isEqualTo(3);
+        assertThat(read.getColumnCount()).isEqualTo(2);
+        assertThat(read.isStringColumn(read.getColumnIndex("name"))).isTrue();
+        assertThat(read.getString(read.getColumnIndex("name"), 2)).isEqualTo("a");
+        assertThat(read.getDouble(read.getColumnIndex("value"), 1)).isEqualTo(-2.0);
+        assertThat(read.getDouble(read.getColumnIndex("value"), 2)).isNaN();
+        // The header, then the dictionary of the strings, then the doubles.
+        assertThat(file.length()).isEqualTo(16 + (2 + 4 + 1) + 4 + 2 * 3 + 3 * 4
+                + (2 + 5 + 1) + 3 * 8);
+    }
+}
@@ -20,6 +20,8 @@ import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
 import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
 import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.google.android.exoplayer2.ext.okhttp.PufferMediaSource;
+import com.google.android.exoplayer2.ext.okhttp.PufferSessionManager;
 import com.google.android.exoplayer2.ext.okhttp.WebSocketDataSourceFactory;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroupArray;
@@ -38,13 +40,17 @@ import com.google.android.exoplayer2.ui.spherical.SphericalSurfaceView;
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.StripedAllocator;
 import com.google.android.exoplayer2.util.Log;
 import com.google.android.exoplayer2.util.Util;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.video.spherical.CameraMotionListener;
+import com.google.android.exoplayer2.video.spherical.TiledStreamingPlanner;
+import com.google.android.exoplayer2.video.spherical.ViewportPredictor;
 
 import org.json.JSONObject;
 
+import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
@@ -59,6 +65,9 @@ public class MainActivity extends AppCompatActivity {
 
     private PlayerView playerView;
     private SimpleExoPlayer player;
+    private PufferSessionManager sessionManager;
+    private ViewportPredictor viewportPredictor;
+    private TiledStreamingPlanner tiledStreamingPlanner;
 
     private WebSocketClient webSocketClient;
 
@@ -80,8 +89,16 @@ public class MainActivity extends AppCompatActivity {
 
         // For 360 VR
         ((SphericalSurfaceView) playerView.getVideoSurfaceView()).setDefaultStereoMode(C.STEREO_MODE_MONO);
+        // Track the viewport to plan the tiles a tiled stream would fetch at high quality.
+        viewportPredictor = new ViewportPredictor();
+        ((SphericalSurfaceView) playerView.getVideoSurfaceView()).setViewportPredictor(viewportPredictor);
 
         isStoragePermissionGranted();
+
+        // Connect to the server while the player is being set up.
+        sessionManager = new PufferSessionManager(new OkHttpClient(),
+                Uri.parse("ws://192.168.1.8:50001/"), new File("/sdcard/"));
+        sessionManager.preconnect();
     }
 
     @Override
@@ -91,21 +108,22 @@ public class MainActivity extends AppCompatActivity {
 
         DefaultRenderersFactory renderersFactory = new DefaultRenderersFactory(this);
 
+        // Audio and video loaders allocate at once, so use an allocator without a global lock.
+        DefaultLoadControl loadControl = new DefaultLoadControl.Builder()
+                .setAllocator(new StripedAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE))
+                .createDefaultLoadControl();
+
         player = ExoPlayerFactory.newSimpleInstance(this,
-                renderersFactory, new DefaultTrackSelector());
+                renderersFactory, new DefaultTrackSelector(), loadControl);
 
         playerView.setPlayer(player);
+        tiledStreamingPlanner = new TiledStreamingPlanner(viewportPredictor);
+        player.addAnalyticsListener(tiledStreamingPlanner);
         player.setPlayWhenReady(true);
         player.setRepeatMode(Player.REPEAT_MODE_ONE);
 
         // HTTP Streaming
-        OkHttpClient okHttpClient = new OkHttpClient();
-
-        WebSocketDataSourceFactory okHttpDataSourceFactory = new WebSocketDataSourceFactory(okHttpClient,
-                Util.getUserAgent(this, "exo-demo"), player);
-
-        ExtractorMediaSource mediaSource = new ExtractorMediaSource.Factory(okHttpDataSourceFactory)
-                .createMediaSource(Uri.parse("ws://192.168.1.8:50001/"));
+        PufferMediaSource mediaSource = new PufferMediaSource(sessionManager, loadControl);
 
 
         player.prepare(mediaSource);
@@ -123,6 +141,12 @@ public class MainActivity extends AppCompatActivity {
         player = null;
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        sessionManager.release();
+    }
+
     public boolean isStoragePermissionGranted() {
         if (checkSelfPermission(android.Manifest.permission.WRITE_EXTERNAL_STORAGE)
                 == PackageManager.PERMISSION_GRANTED) {